@@ -1,14 +1,32 @@
 package net.rubenmartinez.cbcc;
 
+import net.rubenmartinez.cbcc.domain.ConnectionFilter;
 import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
 import net.rubenmartinez.cbcc.domain.ConnectionLogStats;
+import net.rubenmartinez.cbcc.domain.LogFileRange;
+import net.rubenmartinez.cbcc.domain.QueryPlan;
+import net.rubenmartinez.cbcc.exception.LogParserException;
 import net.rubenmartinez.cbcc.exception.UserInputException;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ResultWriter;
 import net.rubenmartinez.cbcc.params.Options;
 import net.rubenmartinez.cbcc.service.CommandLineUtilsService;
+import net.rubenmartinez.cbcc.service.CompactSegmentService;
+import net.rubenmartinez.cbcc.service.ConnectionGraphService;
+import net.rubenmartinez.cbcc.service.ConnectionLogAggregationService;
 import net.rubenmartinez.cbcc.service.ConnectionLogParserService;
 import net.rubenmartinez.cbcc.service.ConnectionLogStatsFormatterService;
 import net.rubenmartinez.cbcc.service.ConnectionLogWatcherService;
+import net.rubenmartinez.cbcc.service.LogFileSetService;
+import net.rubenmartinez.cbcc.service.LogIndexService;
+import net.rubenmartinez.cbcc.service.MetricsService;
+import net.rubenmartinez.cbcc.service.ParallelConnectionLogParserService;
+import net.rubenmartinez.cbcc.service.QueryPlannerService;
+import net.rubenmartinez.cbcc.service.QueryServerService;
+import net.rubenmartinez.cbcc.service.RecurringWindowService;
 import net.rubenmartinez.cbcc.service.TimestampPositionFinderService;
+import net.rubenmartinez.cbcc.service.impl.HttpQueryServerService;
+import net.rubenmartinez.cbcc.util.HyperLogLog;
+import net.rubenmartinez.cbcc.util.SpillingHostSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.Banner;
@@ -19,9 +37,16 @@ import reactor.core.publisher.Flux;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Optional;
 
 /**
  * Using just @ComponentScan instead of @SpringBoot as AutoConfiguration is not really worth for this CommandLineRunner.
@@ -47,10 +72,31 @@ public class Main implements CommandLineRunner {
     @Inject private ConnectionLogParserService connectionLogFileParser;
 
     @Named("parallel")
-    @Inject private ConnectionLogParserService connectionLogParallelFileParser;
+    @Inject private ParallelConnectionLogParserService connectionLogParallelFileParser;
+
+    @Named("segments")
+    @Inject private ConnectionLogParserService connectionLogSegmentsParser;
+
+    @Inject private ConnectionLogAggregationService connectionLogAggregationService;
+
+    @Inject private ConnectionGraphService connectionGraphService;
 
     @Inject private TimestampPositionFinderService positionFinderService;
 
+    @Inject private LogIndexService logIndexService;
+
+    @Inject private CompactSegmentService compactSegmentService;
+
+    @Inject private QueryServerService queryServerService;
+
+    @Inject private LogFileSetService logFileSetService;
+
+    @Inject private QueryPlannerService queryPlannerService;
+
+    @Inject private RecurringWindowService recurringWindowService;
+
+    @Inject private MetricsService metricsService;
+
     @Inject private Options options;
 
     public static void main(String[] args) {
@@ -69,13 +115,23 @@ public class Main implements CommandLineRunner {
         switch (parameters.getMode()) {
             case FOLLOW: runFollowLog(parameters.getLogFile(), options); break;
             case PARSE: runParseLog(parameters.getLogFile(), options); break;
+            case INDEX: runIndexLog(parameters.getLogFile()); break;
+            case COMPACT: runCompactLog(parameters.getLogFile()); break;
+            case AGGREGATE: runAggregateLog(parameters.getLogFile(), options); break;
+            case SERVE: runServeLog(parameters.getLogFile(), options); break;
+            case QUERY: runQueryLog(parameters.getLogFile(), options); break;
+            case GRAPH: runGraphLog(parameters.getLogFile(), options); break;
         }
     }
 
     public void runFollowLog(Path logFile, Options options) {
-        Flux<ConnectionLogStats> statisticsFlux = connectionLogWatcherParser.collectStats(logFile, options.getSourceHost(), options.getTargetHost(), options.getStatsWindowDuration());
+        startMetricsEndpoint(options);
+        var windowDurations = options.getStatsWindowDurations();
+        var slideDuration = options.getStatsSlideDuration();
+        Flux<ConnectionLogStats> statisticsFlux = connectionLogWatcherParser.collectStats(logFile, options.getSourceHost(), options.getTargetHost(), windowDurations, slideDuration);
 
-        output(String.format("\nOutput stats each %s seconds, watching file [%s] (from now on)\n", options.getStatsWindowDuration().toSeconds(), logFile));
+        output(String.format("\nOutput stats each %s seconds%s for windows %s, watching file [%s] (%s)\n", slideDuration.toSeconds(),
+                options.isEventTime() ? " of log timestamps" : "", windowDurations, logFile, getFollowStart(options)));
         // This blocks forever but note that the watched file is closed automatically by the files-reactive library on a termination
         // signal using a Shutdown Hook created directly inside the library
         statisticsFlux
@@ -84,48 +140,248 @@ public class Main implements CommandLineRunner {
                 .blockLast();
     }
 
+    private static String getFollowStart(Options options) {
+        if (options.getSince().isPresent()) {
+            return "since " + options.getSince().get() + ", then from now on";
+        }
+        return options.getSnapshot().isPresent() ? "from the last snapshot, if any" : "from now on";
+    }
+
     public void runParseLog(Path logFile, Options options) {
         checkParseLogParameters(logFile, options);
 
+        if (logFileSetService.isFileSet(logFile)) {
+            // Rotated log files: each file in the time range is parsed (in parallel) as a single log file would be
+            outputConnections(logFileSetService.getConnectionsToHost(logFile, options.getTargetHost().get(), options.getInitTimestamp(), options.getEndTimestamp()), options);
+            return;
+        }
+
+        var recurringWindow = options.getRecurringWindow();
+        if (recurringWindow.isPresent()) {
+            // Skip-scan: only the parts of the file with each occurrence of the window are read
+            outputConnections(recurringWindowService.getConnectionsToHost(logFile, options.getTargetHost().get(), recurringWindow.get(), options.getInitTimestamp(), options.getEndTimestamp()), options);
+            return;
+        }
+
+        var plan = queryPlannerService.plan(logFile, options.getTargetHost().get(), options.getInitTimestamp(), options.getEndTimestamp());
+        if (options.isExplain()) {
+            output(String.format("Plan: %s, estimated bytes to scan: %s", plan.getStrategy(), plan.getEstimatedBytes()));
+            plan.getDetails().forEach(detail -> output("    " + detail));
+            return;
+        }
+
         Flux<ConnectionLogLine> connectionsFlux;
 
-        long fromPosition = 0;
-        if (options.isPresearchTimestamp()) {
-            fromPosition = positionFinderService.findNearTimestamp(getAdjustedStartTimestamp(options.getInitTimestamp()), logFile);
-            output("Starting at position: " + fromPosition);
+        long fromPosition = plan.getPositionRange().getFromPosition();
+        long toPosition = plan.getPositionRange().getToPosition();
+
+        if (options.isApproximateUnique() && plan.getStrategy() == QueryPlan.Strategy.PARALLEL) {
+            // Every split is counted in its own sketch, and the sketches are merged at the end
+            var filter = new ConnectionFilter(options.getInitTimestamp(), options.getEndTimestamp(), Optional.empty(), options.getTargetHost());
+            outputApproximateUniqueHosts(connectionLogAggregationService.reduceConnections(logFile, fromPosition, toPosition, plan.getSplits(), filter,
+                    this::newHostsSketch, (sketch, connection) -> sketch.add(connection.getSourceHost()), HyperLogLog::merge).block());
+            return;
+        }
+
+        switch (plan.getStrategy()) {
+            case SEGMENTS:
+                connectionsFlux = connectionLogSegmentsParser.getConnectionsToHost(logFile, fromPosition, toPosition, options.getTargetHost().get(), options.getInitTimestamp(), options.getEndTimestamp());
+                break;
+            case PARALLEL:
+                connectionsFlux = connectionLogParallelFileParser.getConnectionsToHost(logFile, fromPosition, toPosition, options.getTargetHost().get(), options.getInitTimestamp(), options.getEndTimestamp(),
+                        plan.getSplits(), plan.isOrdered());
+                break;
+            default:
+                // The sequential parser skips the blocks excluded by the sidecar index whenever there is one
+                connectionsFlux = connectionLogFileParser.getConnectionsToHost(logFile, fromPosition, toPosition, options.getTargetHost().get(), options.getInitTimestamp(), options.getEndTimestamp());
         }
 
-        if (options.getSplits() == 0) {
-            connectionsFlux = connectionLogFileParser.getConnectionsToHost(logFile, fromPosition, options.getTargetHost().get(), options.getInitTimestamp(), options.getEndTimestamp());
+        outputConnections(connectionsFlux, options);
+    }
+
+    private void outputConnections(Flux<ConnectionLogLine> connectionsFlux, Options options) {
+        if (options.isApproximateUnique()) {
+            outputApproximateUniqueHosts(connectionsFlux.collect(this::newHostsSketch, (sketch, connection) -> sketch.add(connection.getSourceHost())).block());
+        }
+        else if (options.isUniqueHosts()) {
+            // Exact and memory bounded: hosts exceeding --uniqueHostsMemoryMb are spilled to sorted temporary files, merged at the end
+            // The set is created before the connections are read, so its runs are deleted even if reading them fails
+            try (var uniqueHosts = newUniqueHostsSet()) {
+                connectionsFlux
+                    .doOnNext(connection -> uniqueHosts.add(connection.getSourceHost()))
+                    .blockLast();
+                try (var resultWriter = newResultWriter(options)) {
+                    uniqueHosts.forEachSorted(resultWriter::writeHost);
+                }
+            }
         }
         else {
-            output("Warn: --splits it is a experimental feature, it could misbehave in some situations");
-            connectionsFlux = connectionLogParallelFileParser.getConnectionsToHost(logFile, fromPosition, options.getTargetHost().get(), options.getInitTimestamp(), options.getEndTimestamp());
+            // Closing the writer waits until every connection has been written
+            try (var resultWriter = newResultWriter(options)) {
+                connectionsFlux
+                    .doOnNext(resultWriter::write)
+                    .blockLast();
+            }
         }
+    }
+
+    /**
+     * Results are written in big chunks from a dedicated thread, to the standard output or to the {@code --output} file
+     */
+    private static ResultWriter newResultWriter(Options options) {
+        return options.getOutput().isPresent() ?
+                ResultWriter.toFile(Path.of(options.getOutput().get()), options.getResultFormat()) :
+                ResultWriter.toStandardOutput(options.getResultFormat());
+    }
 
-        if (options.isUniqueHosts()) {
-            Set<String> uniqueHosts = connectionsFlux.collect(() -> new HashSet<String>(), (set, connection) -> set.add(connection.getSourceHost())).block();
+    private SpillingHostSet newUniqueHostsSet() {
+        return new SpillingHostSet(options.getUniqueHostsMemoryMb() * 1024L * 1024L);
+    }
+
+    private HyperLogLog newHostsSketch() {
+        return new HyperLogLog(options.getApproximateUniquePrecision());
+    }
+
+    private static void outputApproximateUniqueHosts(HyperLogLog sketch) {
+        double standardError = sketch.getStandardError() * 100;
+        output(String.format("Approximately %s unique hosts (standard error %.2f%%, the exact number is within +/-%.2f%% in 95%% of the cases)",
+                sketch.estimate(), standardError, 2 * standardError));
+    }
 
-            uniqueHosts.forEach(Main::output);
+    public void runAggregateLog(Path logFile, Options options) {
+        checkAggregateLogParameters(logFile, options);
+
+        var positionRange = getPositionRange(logFile, options);
+        var filter = new ConnectionFilter(options.getInitTimestamp(), options.getEndTimestamp(), options.getSourceHost(), options.getTargetHost());
+
+        var rows = connectionLogAggregationService.aggregate(logFile, positionRange.getFromPosition(), positionRange.getToPosition(), filter,
+                options.getAggregationGroupBy(), options.getAggregationFunction(), options.getBucketDuration(), options.getTop()).block();
+
+        rows.forEach(row -> output(row.getKey() + " " + row.getValue()));
+    }
+
+    public void runGraphLog(Path logFile, Options options) {
+        checkGraphLogParameters(logFile, options);
+
+        var positionRange = getPositionRange(logFile, options);
+        var graph = connectionGraphService.buildGraph(logFile, positionRange.getFromPosition(), positionRange.getToPosition(), options.getInitTimestamp(), options.getEndTimestamp()).block();
+        output(String.format("Graph of %s hosts and %s connections", graph.getHostCount(), graph.getConnectionCount()));
+
+        graph.findHostsReaching(options.getTargetHost().get(), options.getHops(), options.isTimeOrdered())
+                .forEach(reachableHost -> output(reachableHost.getHost() + " " + reachableHost.getHops()));
+    }
+
+    /**
+     * Whole file, unless {@code --presearchTimestamp} is enabled
+     */
+    private LogFileRange getPositionRange(Path logFile, Options options) {
+        if (!options.isPresearchTimestamp()) {
+            return new LogFileRange(0, Long.MAX_VALUE);
         }
-        else {
-            connectionsFlux
-                .subscribe(connection -> output(connection.getSourceHost() + " at " + connection.getTimestamp())
-            );
+
+        var positionRange = positionFinderService.findPositionRange(options.getInitTimestamp(), options.getEndTimestamp(), logFile);
+        output("Starting at position: " + positionRange.getFromPosition() + (positionRange.getToPosition() != Long.MAX_VALUE ? ", ending at position: " + positionRange.getToPosition() : ""));
+
+        return positionRange;
+    }
+
+    public void runIndexLog(Path logFile) {
+        var logIndex = logIndexService.updateIndex(logFile);
+        output(String.format("Index of file [%s] up to date: %s blocks, %s bytes indexed", logFile, logIndex.getEntries().size(), logIndex.getIndexedLength()));
+    }
+
+    public void runCompactLog(Path logFile) {
+        var summary = compactSegmentService.compact(logFile);
+        output(String.format("Compacted %s lines (%s bytes) of file [%s] into %s segments, %s hosts, %s bytes (%.1f%%)",
+                summary.getLines(), summary.getSourceBytes(), logFile, summary.getSegments(), summary.getHosts(), summary.getCompactBytes(),
+                summary.getSourceBytes() > 0 ? 100.0 * summary.getCompactBytes() / summary.getSourceBytes() : 0));
+    }
+
+    public void runServeLog(Path logFile, Options options) {
+        startMetricsEndpoint(options);
+        output(String.format("Answering queries on file [%s] at http://localhost:%s%s", logFile, options.getPort(), HttpQueryServerService.PARSE_PATH));
+        queryServerService.serve(logFile, options.getPort());
+    }
+
+    /**
+     * Only in the modes that keep running, the metrics of the rest of modes are available through JMX while they run
+     */
+    private void startMetricsEndpoint(Options options) {
+        if (options.getMetricsPort() > 0) {
+            metricsService.startHttpEndpoint(options.getMetricsPort());
+        }
+    }
+
+    /**
+     * Sends a parse query to a server started with mode serve, and writes its response as it is received
+     */
+    public void runQueryLog(Path logFile, Options options) {
+        checkParseLogParameters(logFile, options);
+
+        var query = new StringBuilder(HttpQueryServerService.PARSE_PATH)
+                .append("?logFile=").append(urlEncode(logFile.toAbsolutePath().toString()))
+                .append("&initTimestamp=").append(options.getInitTimestamp())
+                .append("&endTimestamp=").append(options.getEndTimestamp())
+                .append("&targetHost=").append(urlEncode(options.getTargetHost().get()))
+                .append("&uniqueHosts=").append(options.isUniqueHosts())
+                .append("&outputFormat=").append(options.getResultFormat().name().toLowerCase());
+
+        try {
+            var connection = (HttpURLConnection) new URL("http", "localhost", options.getPort(), query.toString()).openConnection();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                try (var errorStream = connection.getErrorStream()) {
+                    String message = errorStream != null ? new String(errorStream.readAllBytes(), StandardCharsets.UTF_8) : "HTTP " + connection.getResponseCode();
+                    throw connection.getResponseCode() == HttpURLConnection.HTTP_BAD_REQUEST ? new UserInputException(message) : new LogParserException(message);
+                }
+            }
+
+            System.out.flush();
+            try (var in = connection.getInputStream();
+                 var out = options.getOutput().isPresent() ? Files.newOutputStream(Path.of(options.getOutput().get())) : new FileOutputStream(FileDescriptor.out)) {
+                in.transferTo(out);
+            }
+        } catch (IOException e) {
+            throw new LogParserException("Error while querying the server at port " + options.getPort() + " (is it started with mode serve?)", e);
         }
     }
 
+    private static String urlEncode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
     private void checkParseLogParameters(Path logFile, Options options) {
         if (options.getInitTimestamp() == null || options.getEndTimestamp() == null || options.getTargetHost().isEmpty()) {
             throw new UserInputException("initTimestamp, endTimestamp and targetHost are all required in this mode");
         }
+        if (options.isApproximateUnique() &&
+                (options.getApproximateUniquePrecision() < HyperLogLog.MINIMUM_PRECISION || options.getApproximateUniquePrecision() > HyperLogLog.MAXIMUM_PRECISION)) {
+            throw new UserInputException(String.format("approximateUniquePrecision must be between %s and %s", HyperLogLog.MINIMUM_PRECISION, HyperLogLog.MAXIMUM_PRECISION));
+        }
+        options.getResultFormat(); // Fails early with an invalid --outputFormat
+        if (options.getRecurringWindow().isPresent() && logFileSetService.isFileSet(logFile)) {
+            throw new UserInputException("window can't be used with a directory or a glob pattern of log files");
+        }
+        if (options.isUniqueHosts() && options.getUniqueHostsMemoryMb() < 1) {
+            throw new UserInputException("uniqueHostsMemoryMb must be at least 1");
+        }
     }
 
+    private void checkGraphLogParameters(Path logFile, Options options) {
+        if (options.getInitTimestamp() == null || options.getEndTimestamp() == null || options.getTargetHost().isEmpty()) {
+            throw new UserInputException("initTimestamp, endTimestamp and targetHost are all required in this mode");
+        }
+        if (options.getHops() < 1) {
+            throw new UserInputException("hops must be at least 1");
+        }
+    }
 
-    private long getAdjustedStartTimestamp(long startTimestamp) {
-        return startTimestamp + options.getTimestampOrderToleranceMillis();
+    private void checkAggregateLogParameters(Path logFile, Options options) {
+        if (options.getInitTimestamp() == null || options.getEndTimestamp() == null) {
+            throw new UserInputException("initTimestamp and endTimestamp are both required in this mode");
+        }
     }
 
+
     private static final void output(String s) {
         System.out.println(s);
     }
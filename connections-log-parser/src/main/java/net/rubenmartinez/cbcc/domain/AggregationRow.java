@@ -0,0 +1,9 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+@Value
+public class AggregationRow {
+    private final String key;
+    private final long value;
+}
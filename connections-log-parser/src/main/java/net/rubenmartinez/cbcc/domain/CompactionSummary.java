@@ -0,0 +1,13 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+@Value
+public class CompactionSummary {
+
+    private final long lines;
+    private final int segments;
+    private final int hosts;
+    private final long sourceBytes;
+    private final long compactBytes;
+}
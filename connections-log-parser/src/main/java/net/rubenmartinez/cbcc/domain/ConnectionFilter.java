@@ -0,0 +1,23 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+import java.util.Optional;
+
+/**
+ * Connections in a time range, optionally from a given source host and/or to a given target host
+ */
+@Value
+public class ConnectionFilter {
+    private final long initTimestamp;
+    private final long endTimestamp;
+    private final Optional<String> sourceHost;
+    private final Optional<String> targetHost;
+
+    public boolean matches(ConnectionLogLine connection) {
+        return connection.getTimestamp() >= initTimestamp &&
+                connection.getTimestamp() <= endTimestamp &&
+                (sourceHost.isEmpty() || sourceHost.get().equals(connection.getSourceHost())) &&
+                (targetHost.isEmpty() || targetHost.get().equals(connection.getTargetHost()));
+    }
+}
@@ -7,6 +7,8 @@ import lombok.Setter;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -29,6 +31,15 @@ public class ConnectionLogStats {
 
     private SourceHostsWithMostConnections sourceHostsWithMostConnectionsInWindow;
 
+    // Only with --heavyHitters, the approximate top source hosts instead of the exact ones
+    private List<HeavyHitter> topSourceHostsInWindow;
+
+    // Only with --eventTime, connections that arrived after their window had been closed
+    private Long lateConnectionsInWindow;
+
+    // Only with --subscriptions, the connections of every subscribed host
+    private Map<String, SubscribedHostConnections> subscribedHostsInWindow;
+
     @Getter @Setter
     public class SourceHostsWithMostConnections {
         private Set<String> list;
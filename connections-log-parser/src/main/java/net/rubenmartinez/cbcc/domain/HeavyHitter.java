@@ -0,0 +1,14 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+/**
+ * A host with many connections, found with a sketch: its real number of connections is between {@code connections - maxError}
+ * and {@code connections}
+ */
+@Value
+public class HeavyHitter {
+    private final String host;
+    private final long connections;
+    private final long maxError;
+}
@@ -0,0 +1,21 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+import java.nio.file.Path;
+
+/**
+ * Timestamps range of one file of a set of rotated log files. Any line of the file has a timestamp between
+ * {@code minTimestamp} and {@code maxTimestamp} (both inclusive).
+ */
+@Value
+public class LogFileBounds {
+
+    private final Path file;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+
+    public boolean overlaps(long initTimestamp, long endTimestamp) {
+        return maxTimestamp >= initTimestamp && minTimestamp <= endTimestamp;
+    }
+}
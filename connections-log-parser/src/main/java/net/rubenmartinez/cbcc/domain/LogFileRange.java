@@ -0,0 +1,13 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+/**
+ * A range of byte positions {@code [fromPosition, toPosition)} in a log file
+ */
+@Value
+public class LogFileRange {
+
+    private final long fromPosition;
+    private final long toPosition;
+}
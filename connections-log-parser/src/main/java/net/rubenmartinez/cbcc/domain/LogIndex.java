@@ -0,0 +1,95 @@
+package net.rubenmartinez.cbcc.domain;
+
+import net.rubenmartinez.cbcc.util.HostBloomFilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+
+/**
+ * In-memory view of the sidecar index of a log file.
+ *
+ * The index only covers the log file up to {@link #getIndexedLength()}, the rest of the file (if any) is the tail
+ * that has not filled a complete block yet, so clients must always scan it.
+ */
+public class LogIndex {
+
+    private final List<LogIndexEntry> entries;
+
+    public LogIndex(List<LogIndexEntry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    public List<LogIndexEntry> getEntries() {
+        return entries;
+    }
+
+    public long getIndexedLength() {
+        return entries.isEmpty() ? 0 : entries.get(entries.size()-1).getToPosition();
+    }
+
+    /**
+     * @return The starting position of the first block that could contain a line with a timestamp equals or greater than the given one,
+     *         or empty if all the indexed lines are older than {@code timestamp}
+     */
+    public OptionalLong findFromPosition(long timestamp) {
+        for (LogIndexEntry entry: entries) { // Blocks are few (one per 64KB) so a linear scan is fine, and maxTimestamps are not strictly ordered anyway
+            if (entry.getMaxTimestamp() >= timestamp) {
+                return OptionalLong.of(entry.getFromPosition());
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    /**
+     * @return The starting position of the first block whose lines all have a timestamp equals or greater than the given one,
+     *         or empty if there is no such block in the index
+     */
+    public OptionalLong findPositionAfter(long timestamp) {
+        for (LogIndexEntry entry: entries) {
+            if (entry.getMinTimestamp() >= timestamp && entry.getMinTimestamp() <= entry.getMaxTimestamp()) { // Second check skips blocks without valid lines
+                return OptionalLong.of(entry.getFromPosition());
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    /**
+     * Ranges of the indexed part of the file, between {@code fromPosition} and {@code toPosition}, that could contain connections to {@code targetHost}
+     * between {@code initTimestamp} and {@code endTimestamp}. Contiguous blocks are merged in a single range.
+     */
+    public List<LogFileRange> findCandidateRanges(long fromPosition, long toPosition, String targetHost, long initTimestamp, long endTimestamp) {
+        var ranges = new ArrayList<LogFileRange>();
+
+        long rangeFrom = -1;
+        long rangeTo = -1;
+        for (LogIndexEntry entry: entries) {
+            if (entry.getToPosition() <= fromPosition ||
+                    entry.getFromPosition() >= toPosition ||
+                    entry.getMaxTimestamp() < initTimestamp ||
+                    entry.getMinTimestamp() > endTimestamp ||
+                    !HostBloomFilter.mightContain(entry.getTargetHostsFilter(), targetHost)) {
+                continue;
+            }
+
+            long entryFrom = Math.max(entry.getFromPosition(), fromPosition);
+            long entryTo = Math.min(entry.getToPosition(), toPosition);
+            if (entryFrom == rangeTo) {
+                rangeTo = entryTo;
+            }
+            else {
+                if (rangeFrom >= 0) {
+                    ranges.add(new LogFileRange(rangeFrom, rangeTo));
+                }
+                rangeFrom = entryFrom;
+                rangeTo = entryTo;
+            }
+        }
+        if (rangeFrom >= 0) {
+            ranges.add(new LogFileRange(rangeFrom, rangeTo));
+        }
+
+        return ranges;
+    }
+}
@@ -0,0 +1,20 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+/**
+ * One block of the sidecar index of a log file.
+ *
+ * A block always starts and ends at line boundaries. {@code minTimestamp} and {@code maxTimestamp} are the exact
+ * minimum and maximum timestamps found in the lines of the block, and {@code targetHostsFilter} is a
+ * {@link net.rubenmartinez.cbcc.util.HostBloomFilter} of all the target hosts in the block.
+ */
+@Value
+public class LogIndexEntry {
+
+    private final long fromPosition;
+    private final long toPosition;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final long[] targetHostsFilter;
+}
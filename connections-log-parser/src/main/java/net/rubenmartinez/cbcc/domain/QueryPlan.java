@@ -0,0 +1,33 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * How a parse query is executed, as chosen by the query planner
+ */
+@Value
+public class QueryPlan {
+
+    public enum Strategy {
+        /** Compact segments (see mode compact) and the text written after the compaction */
+        SEGMENTS,
+        /** Sequential read of only the blocks of the sidecar index that could contain the target host */
+        INDEX,
+        /** Sequential read of the whole position range */
+        SEQUENTIAL,
+        /** The position range is read in {@code splits} parts in parallel */
+        PARALLEL
+    }
+
+    private final Strategy strategy;
+    private final LogFileRange positionRange;
+    private final int splits;
+    /** Whether a PARALLEL plan keeps the file order: as given with --ordered, otherwise only when the planner chose the splits */
+    private final boolean ordered;
+    private final long estimatedBytes;
+
+    /** Costs of all the strategies considered, to be shown with --explain */
+    private final List<String> details;
+}
@@ -0,0 +1,12 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+/**
+ * A host that reached the queried host, and the minimum number of connections (hops) needed to do it
+ */
+@Value
+public class ReachableHost {
+    private final String host;
+    private final int hops;
+}
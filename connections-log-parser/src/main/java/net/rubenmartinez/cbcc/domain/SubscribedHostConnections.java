@@ -0,0 +1,17 @@
+package net.rubenmartinez.cbcc.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.Value;
+
+import java.util.Set;
+
+/**
+ * Connections of a subscribed host in a window: the hosts that connected to it, and the hosts it connected to
+ */
+@Value
+@JsonInclude(Include.NON_EMPTY)
+public class SubscribedHostConnections {
+    private final Set<String> connectedToHost;
+    private final Set<String> connectedFromHost;
+}
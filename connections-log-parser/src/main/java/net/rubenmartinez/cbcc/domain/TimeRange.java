@@ -0,0 +1,13 @@
+package net.rubenmartinez.cbcc.domain;
+
+import lombok.Value;
+
+/**
+ * Timestamps between {@code initTimestamp} and {@code endTimestamp}, both inclusive
+ */
+@Value
+public class TimeRange {
+
+    private final long initTimestamp;
+    private final long endTimestamp;
+}
@@ -2,10 +2,14 @@ package net.rubenmartinez.cbcc.logparsing.components.impl;
 
 import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
 import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.service.MetricsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import javax.inject.Inject;
+import java.util.concurrent.atomic.LongAdder;
+
 @Component
 public class BasicLogLineParser implements LogLineParser {
 
@@ -13,14 +17,30 @@ public class BasicLogLineParser implements LogLineParser {
 
     private static final String HOSTS_CONNECTION_LINE_SEPARATOR = " ";
 
+    // The lines parsed in place by the ConnectionLogScanner are not given to this parser, they are added to parser.lines from their own counter
+    private final LongAdder parsedLines = new LongAdder();
+    private final LongAdder invalidLines = new LongAdder();
+
+    /**
+     * Not needed to parse lines (eg. in tests creating the parser directly), the counters are just not exposed
+     */
+    @Inject
+    public void setMetricsService(MetricsService metricsService) {
+        var linesParsedInPlace = metricsService.counter(ConnectionLogScanner.LINES_PARSED_IN_PLACE_METRIC);
+        metricsService.gauge("parser.lines", () -> parsedLines.sum() + linesParsedInPlace.sum());
+        metricsService.gauge("parser.invalidLines", invalidLines::sum);
+    }
+
     @Override
     public ConnectionLogLine parseLine(String line) {
 
         //LOGGER.trace("Processing line in Thread [{}]: {}", Thread.currentThread(), line);
 
+        parsedLines.increment();
         String[] items = line.split(HOSTS_CONNECTION_LINE_SEPARATOR);
 
         if (items.length != 3) {
+            invalidLines.increment();
             throw new IllegalArgumentException(String.format("Error while parsing host connections file, format must be strictly: <unix_timestamp>'%s'<sourceHost>'%s'<targetHost>, but the following line couldn't be parsed: %s", HOSTS_CONNECTION_LINE_SEPARATOR, HOSTS_CONNECTION_LINE_SEPARATOR, line));
         }
 
@@ -28,6 +48,7 @@ public class BasicLogLineParser implements LogLineParser {
         try {
             timestamp = Long.valueOf(items[0]);
         } catch (NumberFormatException e) {
+            invalidLines.increment();
             throw new IllegalArgumentException("Error while parsing host connections file line, first item must be a unix timestamp. Line: " + line, e);
         }
 
@@ -0,0 +1,248 @@
+package net.rubenmartinez.cbcc.logparsing.components.impl;
+
+import lombok.Value;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Read access to the compact binary version of a log file ({@code <log file>.seg}), memory-mapping one segment at a time.
+ *
+ * The file contains the lines of the text log (up to {@link #getSourceLength()}) in segments of up to {@link #SEGMENT_LINES} lines.
+ * Each segment stores three columns: timestamps (the first one absolute, then zig-zag varint deltas, as lines are only roughly sorted),
+ * source host ids and target host ids (varints). Host ids point to a dictionary of host names shared by all segments.
+ *
+ * File format (big endian):
+ * <pre>
+ *   header:    magic (int) | version (int) | segmentCount (int) | hostCount (int) | sourceLength (long) | dictionaryPosition (long) | directoryPosition (long) | sourceFingerprint (long)
+ *   segments:  lineCount (int) | sourcesOffset (int) | targetsOffset (int) | timestamps column | sources column | targets column
+ *   dictionary: for each host: length (varint) | US-ASCII bytes
+ *   directory: for each segment: position (long) | length (int) | lineCount (int) | minTimestamp (long) | maxTimestamp (long) | sourceToPosition (long)
+ * </pre>
+ *
+ * Each segment in the directory carries its minimum and maximum timestamps, so segments out of the requested time range are never read.
+ *
+ * The file is reference counted: it is opened with one reference, every {@link #retain()} adds another one, and every {@link #close()}
+ * releases one. It is only really closed when the last reference is released.
+ */
+public class CompactSegmentFile implements Closeable {
+
+    public static final String FILE_SUFFIX = ".seg";
+    public static final int SEGMENT_LINES = 64 * 1024;
+
+    static final int MAGIC = 0x43534547; // "CSEG"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 48;
+    static final int SEGMENT_HEADER_SIZE = 12;
+    static final int DIRECTORY_ENTRY_SIZE = 40;
+
+    @Value
+    public static class Segment {
+        private final long position;
+        private final int length;
+        private final int lineCount;
+        private final long minTimestamp;
+        private final long maxTimestamp;
+        private final long sourceToPosition;
+    }
+
+    private final FileChannel channel;
+    private final long sourceLength;
+    private final long sourceFingerprint;
+    private final String[] hosts;
+    private final Map<String, Integer> hostIds;
+    private final List<Segment> segments;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public static Path getSegmentFile(Path logFile) {
+        return logFile.resolveSibling(logFile.getFileName() + FILE_SUFFIX);
+    }
+
+    public static CompactSegmentFile open(Path segmentFile) {
+        try {
+            return new CompactSegmentFile(FileChannel.open(segmentFile, StandardOpenOption.READ));
+        } catch (IOException e) {
+            throw new LogFileIOException("Error while opening compact segments file: " + segmentFile, e);
+        }
+    }
+
+    private CompactSegmentFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            channel.close();
+            throw new IOException("Not a compact segments file or unsupported version");
+        }
+        int segmentCount = header.getInt();
+        int hostCount = header.getInt();
+        this.sourceLength = header.getLong();
+        long dictionaryPosition = header.getLong();
+        long directoryPosition = header.getLong();
+        this.sourceFingerprint = header.getLong();
+
+        this.hosts = new String[hostCount];
+        this.hostIds = new HashMap<>(hostCount * 2);
+        var dictionary = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryPosition, directoryPosition - dictionaryPosition);
+        byte[] hostBytes = new byte[256];
+        for (int i=0; i<hostCount; i++) {
+            int length = (int) readVarLong(dictionary);
+            if (length > hostBytes.length) {
+                hostBytes = new byte[length];
+            }
+            dictionary.get(hostBytes, 0, length);
+            hosts[i] = new String(hostBytes, 0, length, StandardCharsets.US_ASCII);
+            hostIds.put(hosts[i], i);
+        }
+
+        var segmentList = new ArrayList<Segment>(segmentCount);
+        var directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryPosition, (long) segmentCount * DIRECTORY_ENTRY_SIZE);
+        for (int i=0; i<segmentCount; i++) {
+            segmentList.add(new Segment(directory.getLong(), directory.getInt(), directory.getInt(), directory.getLong(), directory.getLong(), directory.getLong()));
+        }
+        this.segments = Collections.unmodifiableList(segmentList);
+    }
+
+    /**
+     * Number of bytes of the text log file that were compacted. Lines written to the log file after this position are not in the segments.
+     */
+    public long getSourceLength() {
+        return sourceLength;
+    }
+
+    /**
+     * {@link net.rubenmartinez.cbcc.util.FileFingerprint} of the compacted part of the text log file
+     */
+    public long getSourceFingerprint() {
+        return sourceFingerprint;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public int getHostCount() {
+        return hosts.length;
+    }
+
+    /**
+     * @return the id of the given host in the dictionary, or -1 if the host doesn't appear in the compacted lines
+     */
+    public int getHostId(String host) {
+        return hostIds.getOrDefault(host, -1);
+    }
+
+    /**
+     * Decodes the connections of a segment to the given target host id between {@code initTimestamp} and {@code endTimestamp} (both inclusive).
+     *
+     * The targets column is decoded first, so the rest of columns are not even decoded if no line of the segment matches the target host.
+     */
+    public void forEachConnectionToHost(Segment segment, int targetHostId, long initTimestamp, long endTimestamp, Consumer<ConnectionLogLine> consumer) {
+        ByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, segment.getPosition(), segment.getLength());
+        } catch (IOException e) {
+            throw new LogFileIOException("Error while mapping segment at position " + segment.getPosition(), e);
+        }
+
+        int lineCount = buffer.getInt();
+        int sourcesOffset = buffer.getInt();
+        int targetsOffset = buffer.getInt();
+
+        buffer.position(targetsOffset);
+        boolean[] matches = new boolean[lineCount];
+        boolean anyMatch = false;
+        for (int i=0; i<lineCount; i++) {
+            if (readVarLong(buffer) == targetHostId) {
+                matches[i] = true;
+                anyMatch = true;
+            }
+        }
+        if (!anyMatch) {
+            return;
+        }
+
+        var timestampsBuffer = buffer.duplicate().position(SEGMENT_HEADER_SIZE);
+        var sourcesBuffer = buffer.duplicate().position(sourcesOffset);
+        String targetHost = hosts[targetHostId];
+
+        long timestamp = timestampsBuffer.getLong();
+        for (int i=0; i<lineCount; i++) {
+            if (i > 0) {
+                timestamp += zigZagDecode(readVarLong(timestampsBuffer));
+            }
+            int sourceHostId = (int) readVarLong(sourcesBuffer);
+
+            if (matches[i] && timestamp >= initTimestamp && timestamp <= endTimestamp) {
+                consumer.accept(new ConnectionLogLine(timestamp, hosts[sourceHostId], targetHost));
+            }
+        }
+    }
+
+    /**
+     * Adds a reference to this file, to be released with {@link #close()}
+     */
+    public CompactSegmentFile retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Releases a reference to this file, closing it if it was the last one
+     */
+    @Override
+    public void close() {
+        if (references.decrementAndGet() > 0) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new LogFileIOException("Error while closing compact segments file", e);
+        }
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,172 @@
+package net.rubenmartinez.cbcc.logparsing.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile.DIRECTORY_ENTRY_SIZE;
+import static net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile.HEADER_SIZE;
+import static net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile.MAGIC;
+import static net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile.SEGMENT_HEADER_SIZE;
+import static net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile.SEGMENT_LINES;
+import static net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile.VERSION;
+import static net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile.writeVarLong;
+import static net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile.zigZagEncode;
+
+/**
+ * Writes a {@link CompactSegmentFile}. Lines must be added in file order with {@link #add(ConnectionLogLine, long)},
+ * and the file is only valid after {@link #finish(long, long)}, which writes the dictionary, the directory and finally the header.
+ */
+public class CompactSegmentWriter implements Closeable {
+
+    private final FileChannel channel;
+
+    private final Map<String, Integer> hostIds = new HashMap<>();
+    private final List<String> hosts = new ArrayList<>();
+    private final List<CompactSegmentFile.Segment> segments = new ArrayList<>();
+
+    private final long[] timestamps = new long[SEGMENT_LINES];
+    private final int[] sourceHostIds = new int[SEGMENT_LINES];
+    private final int[] targetHostIds = new int[SEGMENT_LINES];
+    private int linesInSegment;
+    private long sourceToPosition;
+
+    private long position;
+    private long linesWritten;
+
+    public CompactSegmentWriter(Path segmentFile) throws IOException {
+        this.channel = FileChannel.open(segmentFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.position = HEADER_SIZE; // The header is written at the end
+    }
+
+    /**
+     * @param sourceToPosition the position in the text log file just after the given line
+     */
+    public void add(ConnectionLogLine line, long sourceToPosition) throws IOException {
+        timestamps[linesInSegment] = line.getTimestamp();
+        sourceHostIds[linesInSegment] = getHostId(line.getSourceHost());
+        targetHostIds[linesInSegment] = getHostId(line.getTargetHost());
+        linesInSegment++;
+        this.sourceToPosition = sourceToPosition;
+
+        if (linesInSegment == SEGMENT_LINES) {
+            writeSegment();
+        }
+    }
+
+    public long getLinesWritten() {
+        return linesWritten + linesInSegment;
+    }
+
+    public int getSegmentsWritten() {
+        return segments.size();
+    }
+
+    public int getHostCount() {
+        return hosts.size();
+    }
+
+    /**
+     * Writes the pending lines and the file metadata
+     *
+     * @param sourceLength the number of bytes of the text log file that have been compacted
+     * @param sourceFingerprint the {@link net.rubenmartinez.cbcc.util.FileFingerprint} of those bytes
+     */
+    public void finish(long sourceLength, long sourceFingerprint) throws IOException {
+        if (linesInSegment > 0) {
+            writeSegment();
+        }
+
+        long dictionaryPosition = position;
+        var dictionary = new ByteArrayOutputStream();
+        for (String host: hosts) {
+            byte[] hostBytes = host.getBytes(StandardCharsets.US_ASCII);
+            writeVarLong(dictionary, hostBytes.length);
+            dictionary.write(hostBytes, 0, hostBytes.length);
+        }
+        write(ByteBuffer.wrap(dictionary.toByteArray()));
+
+        long directoryPosition = position;
+        var directory = ByteBuffer.allocate(segments.size() * DIRECTORY_ENTRY_SIZE);
+        for (CompactSegmentFile.Segment segment: segments) {
+            directory.putLong(segment.getPosition()).putInt(segment.getLength()).putInt(segment.getLineCount())
+                     .putLong(segment.getMinTimestamp()).putLong(segment.getMaxTimestamp()).putLong(segment.getSourceToPosition());
+        }
+        directory.flip();
+        write(directory);
+
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(segments.size()).putInt(hosts.size())
+              .putLong(sourceLength).putLong(dictionaryPosition).putLong(directoryPosition).putLong(sourceFingerprint);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int getHostId(String host) {
+        Integer hostId = hostIds.get(host);
+        if (hostId == null) {
+            hostId = hosts.size();
+            hosts.add(host);
+            hostIds.put(host, hostId);
+        }
+        return hostId;
+    }
+
+    private void writeSegment() throws IOException {
+        var timestampsColumn = new ByteArrayOutputStream(linesInSegment * 2);
+        var sourcesColumn = new ByteArrayOutputStream(linesInSegment * 2);
+        var targetsColumn = new ByteArrayOutputStream(linesInSegment * 2);
+
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int i=0; i<linesInSegment; i++) {
+            if (i > 0) {
+                writeVarLong(timestampsColumn, zigZagEncode(timestamps[i] - timestamps[i-1]));
+            }
+            writeVarLong(sourcesColumn, sourceHostIds[i]);
+            writeVarLong(targetsColumn, targetHostIds[i]);
+            minTimestamp = Math.min(minTimestamp, timestamps[i]);
+            maxTimestamp = Math.max(maxTimestamp, timestamps[i]);
+        }
+
+        int sourcesOffset = SEGMENT_HEADER_SIZE + Long.BYTES + timestampsColumn.size();
+        int targetsOffset = sourcesOffset + sourcesColumn.size();
+        int length = targetsOffset + targetsColumn.size();
+
+        var segment = ByteBuffer.allocate(length);
+        segment.putInt(linesInSegment).putInt(sourcesOffset).putInt(targetsOffset).putLong(timestamps[0])
+               .put(timestampsColumn.toByteArray()).put(sourcesColumn.toByteArray()).put(targetsColumn.toByteArray());
+        segment.flip();
+
+        segments.add(new CompactSegmentFile.Segment(position, length, linesInSegment, minTimestamp, maxTimestamp, sourceToPosition));
+        write(segment);
+
+        linesWritten += linesInSegment;
+        linesInSegment = 0;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package net.rubenmartinez.cbcc.logparsing.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.ReachableHost;
+import net.rubenmartinez.cbcc.util.PrimitiveSort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Directed graph of connections between hosts, to find all the hosts that reached a given one directly or through intermediaries.
+ *
+ * Hosts are numbered with {@code int} ids and the incoming connections of every host are stored in compressed sparse row (CSR) form:
+ * the sources of the connections to host {@code i} are {@code sources[offsets[i]]..sources[offsets[i+1]-1]}, sorted by timestamp.
+ * So the whole graph is just four arrays, with no object per connection.
+ *
+ * The graph is immutable, it is built with a {@link Builder}.
+ */
+public class ConnectionGraph {
+
+    private final String[] hosts;
+    private final Map<String, Integer> hostIds;
+    private final int[] offsets;
+    private final int[] sources;
+    private final long[] timestamps;
+
+    private ConnectionGraph(String[] hosts, Map<String, Integer> hostIds, int[] offsets, int[] sources, long[] timestamps) {
+        this.hosts = hosts;
+        this.hostIds = hostIds;
+        this.offsets = offsets;
+        this.sources = sources;
+        this.timestamps = timestamps;
+    }
+
+    public int getHostCount() {
+        return hosts.length;
+    }
+
+    public int getConnectionCount() {
+        return sources.length;
+    }
+
+    /**
+     * Breadth-first search backwards from {@code host}, following the incoming connections.
+     *
+     * @param maxHops maximum number of connections in a path, 1 means only the hosts directly connected to {@code host}
+     * @param timeOrdered when true, a path only counts if its connections happened in time order, ie. every connection of the path happened
+     *                    not later than the next one, so the intermediaries could have forwarded what they received
+     * @return the hosts that reached {@code host} in at most {@code maxHops}, sorted by hops and then by name. {@code host} itself is not included.
+     */
+    public List<ReachableHost> findHostsReaching(String host, int maxHops, boolean timeOrdered) {
+        if (maxHops < 1) {
+            throw new IllegalArgumentException("maxHops must be at least 1");
+        }
+
+        Integer target = hostIds.get(host);
+        if (target == null) {
+            return List.of();
+        }
+
+        int[] hops = new int[hosts.length];
+        Arrays.fill(hops, -1);
+        hops[target] = 0;
+
+        if (timeOrdered) {
+            searchTimeOrdered(target, maxHops, hops);
+        }
+        else {
+            search(target, maxHops, hops);
+        }
+
+        var reachableHosts = new ArrayList<ReachableHost>();
+        for (int i=0; i<hops.length; i++) {
+            if (hops[i] > 0) {
+                reachableHosts.add(new ReachableHost(hosts[i], hops[i]));
+            }
+        }
+        reachableHosts.sort(Comparator.comparingInt(ReachableHost::getHops).thenComparing(ReachableHost::getHost));
+        return reachableHosts;
+    }
+
+    private void search(int target, int maxHops, int[] hops) {
+        int[] queue = new int[hosts.length];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = target;
+
+        while (head < tail) {
+            int host = queue[head++];
+            if (hops[host] == maxHops) {
+                continue;
+            }
+            for (int i=offsets[host]; i<offsets[host + 1]; i++) {
+                int source = sources[i];
+                if (hops[source] < 0) {
+                    hops[source] = hops[host] + 1;
+                    queue[tail++] = source;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@code latest[h]} is the latest time at which {@code h} can still connect to the next host of a time-ordered path to the target.
+     * Every round extends the paths by one hop, using only the values of the previous round (so a round never builds paths longer than
+     * its number), and a host is searched again in the next round whenever its latest time improves.
+     */
+    private void searchTimeOrdered(int target, int maxHops, int[] hops) {
+        long[] latest = new long[hosts.length];
+        Arrays.fill(latest, Long.MIN_VALUE);
+        latest[target] = Long.MAX_VALUE;
+
+        int[] frontier = { target };
+        int[] inNextFrontier = new int[hosts.length]; // Round in which the host was last added to the next frontier
+
+        for (int round=1; round<=maxHops && frontier.length > 0; round++) {
+            long[] frontierLatest = new long[frontier.length];
+            for (int i=0; i<frontier.length; i++) {
+                frontierLatest[i] = latest[frontier[i]];
+            }
+
+            int[] nextFrontier = new int[Math.min(hosts.length, 16)];
+            int nextSize = 0;
+            for (int f=0; f<frontier.length; f++) {
+                int host = frontier[f];
+                long limit = frontierLatest[f];
+                // Sorted by timestamp, so only the connections up to the limit are looked at
+                for (int i=offsets[host]; i<offsets[host + 1] && timestamps[i] <= limit; i++) {
+                    int source = sources[i];
+                    if (timestamps[i] > latest[source]) {
+                        latest[source] = timestamps[i];
+                        if (hops[source] < 0) {
+                            hops[source] = round;
+                        }
+                        if (inNextFrontier[source] != round) {
+                            inNextFrontier[source] = round;
+                            if (nextSize == nextFrontier.length) {
+                                nextFrontier = Arrays.copyOf(nextFrontier, Math.min(hosts.length, 2 * nextSize));
+                            }
+                            nextFrontier[nextSize++] = source;
+                        }
+                    }
+                }
+            }
+            frontier = Arrays.copyOf(nextFrontier, nextSize);
+        }
+    }
+
+    /**
+     * Collects the connections of one split of the log file. Builders of different splits are combined with {@link #merge(Builder)}
+     * and then converted into the CSR form with {@link #build()}.
+     */
+    public static class Builder implements Consumer<ConnectionLogLine> {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final Map<String, Integer> hostIds = new HashMap<>();
+        private final List<String> hosts = new ArrayList<>();
+
+        private int[] edgeSources = new int[INITIAL_CAPACITY];
+        private int[] edgeTargets = new int[INITIAL_CAPACITY];
+        private long[] edgeTimestamps = new long[INITIAL_CAPACITY];
+        private int edges;
+
+        @Override
+        public void accept(ConnectionLogLine connection) {
+            addEdge(getHostId(connection.getSourceHost()), getHostId(connection.getTargetHost()), connection.getTimestamp());
+        }
+
+        /**
+         * @return this builder, after adding to it the connections of the other one
+         */
+        public Builder merge(Builder other) {
+            int[] remappedIds = new int[other.hosts.size()];
+            for (int i=0; i<remappedIds.length; i++) {
+                remappedIds[i] = getHostId(other.hosts.get(i));
+            }
+
+            for (int i=0; i<other.edges; i++) {
+                addEdge(remappedIds[other.edgeSources[i]], remappedIds[other.edgeTargets[i]], other.edgeTimestamps[i]);
+            }
+            return this;
+        }
+
+        public ConnectionGraph build() {
+            int hostCount = hosts.size();
+
+            // Counting sort of the connections by target host
+            int[] offsets = new int[hostCount + 1];
+            for (int i=0; i<edges; i++) {
+                offsets[edgeTargets[i] + 1]++;
+            }
+            for (int i=0; i<hostCount; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+
+            int[] sources = new int[edges];
+            long[] timestamps = new long[edges];
+            int[] next = Arrays.copyOf(offsets, hostCount);
+            for (int i=0; i<edges; i++) {
+                int position = next[edgeTargets[i]]++;
+                sources[position] = edgeSources[i];
+                timestamps[position] = edgeTimestamps[i];
+            }
+
+            // Then every row by timestamp
+            for (int i=0; i<hostCount; i++) {
+                PrimitiveSort.sort(offsets[i], offsets[i + 1] - 1, (a, b) -> Long.compare(timestamps[a], timestamps[b]), (a, b) -> swap(sources, timestamps, a, b));
+            }
+
+            return new ConnectionGraph(hosts.toArray(new String[0]), new HashMap<>(hostIds), offsets, sources, timestamps);
+        }
+
+        private int getHostId(String host) {
+            Integer id = hostIds.get(host);
+            if (id == null) {
+                id = hosts.size();
+                hostIds.put(host, id);
+                hosts.add(host);
+            }
+            return id;
+        }
+
+        private void addEdge(int source, int target, long timestamp) {
+            if (edges == edgeSources.length) {
+                int capacity = 2 * edges;
+                edgeSources = Arrays.copyOf(edgeSources, capacity);
+                edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+                edgeTimestamps = Arrays.copyOf(edgeTimestamps, capacity);
+            }
+            edgeSources[edges] = source;
+            edgeTargets[edges] = target;
+            edgeTimestamps[edges] = timestamp;
+            edges++;
+        }
+    }
+
+    private static void swap(int[] sources, long[] timestamps, int i, int j) {
+        int source = sources[i];
+        sources[i] = sources[j];
+        sources[j] = source;
+
+        long timestamp = timestamps[i];
+        timestamps[i] = timestamps[j];
+        timestamps[j] = timestamp;
+    }
+}
@@ -0,0 +1,359 @@
+package net.rubenmartinez.cbcc.logparsing.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
+import net.rubenmartinez.cbcc.reactive.file.FileFlux;
+import net.rubenmartinez.cbcc.reactive.file.FileFluxMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SynchronousSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads the connections to a host in a time range directly from the bytes of the log file: reading, parsing, the time range check,
+ * the early termination (when a timestamp is past the end plus the order tolerance) and the host match are done in a single loop
+ * over the read buffer, and only the matching connections are emitted.
+ *
+ * It is equivalent to {@code FileFlux.lines(...).map(parseLine).onErrorContinue(...).takeWhile(...).filter(...)}, but without creating
+ * a {@code String} per line, nor going through four operators per line. Only the well-formed ASCII lines are parsed in place, any other line
+ * is decoded and given to the {@link LogLineParser}, so the accepted lines (and the warnings about the ignored ones) are the same.
+ *
+ * A scanner is created per query (or per split of the file in parallel queries). Once a range of the file reaches the end of the time range,
+ * the ranges of the same scanner subscribed after it are empty, as all the lines after them would be too.
+ *
+ * As the file is not read through {@link FileFlux}, the lines and bytes read are added here to its {@link FileFluxMetrics}, and the lines
+ * parsed in place to the given counter (the rest are counted by the line parser). Both are added once per read buffer, not per line.
+ */
+public class ConnectionLogScanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionLogScanner.class);
+
+    private static final Charset CHARSET = StandardCharsets.US_ASCII; // Same as FileFlux
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAXIMUM_TIMESTAMP_DIGITS = 18; // Longer ones are given to the parser, that detects overflows
+
+    public static final String LINES_PARSED_IN_PLACE_METRIC = "parser.linesParsedInPlace";
+
+    private final LogLineParser lineParser;
+    private final LongAdder linesParsedInPlace;
+    private final String host;
+    private final byte[] hostBytes; // null if the host is not ASCII, so it can't match any line parsed in place
+    private final long initTimestamp;
+    private final long endTimestamp;
+    private final long adjustedEndTimestamp;
+
+    private volatile boolean endReached;
+
+    /**
+     * @param linesParsedInPlace counter of the lines parsed without the {@code lineParser}
+     */
+    public ConnectionLogScanner(LogLineParser lineParser, LongAdder linesParsedInPlace, String host, long initTimestamp, long endTimestamp, long adjustedEndTimestamp) {
+        this.lineParser = lineParser;
+        this.linesParsedInPlace = linesParsedInPlace;
+        this.host = host;
+        this.hostBytes = CHARSET.newEncoder().canEncode(host) ? host.getBytes(CHARSET) : null;
+        this.initTimestamp = initTimestamp;
+        this.endTimestamp = endTimestamp;
+        this.adjustedEndTimestamp = adjustedEndTimestamp;
+    }
+
+    /**
+     * Matching connections of the lines between {@code fromPosition} and {@code toPosition}, read on demand as {@link net.rubenmartinez.cbcc.reactive.file.FileFlux} does
+     *
+     * @param fromPosition position of the first line to read, at a line boundary
+     * @param toPosition position (exclusive) where reading stops, {@link Long#MAX_VALUE} to read until the end of the file
+     */
+    public Flux<ConnectionLogLine> connections(Path logFile, long fromPosition, long toPosition) {
+        return Flux.defer(() -> endReached ?
+                Flux.empty() :
+                Flux.generate(() -> new ScanState(logFile, fromPosition, toPosition, linesParsedInPlace), this::emitNextMatch, ScanState::close));
+    }
+
+    private ScanState emitNextMatch(ScanState state, SynchronousSink<ConnectionLogLine> sink) {
+        try {
+            while (true) {
+                int lineEnd = state.findLineEnd();
+                if (lineEnd < 0) {
+                    if (state.fill()) {
+                        continue;
+                    }
+                    if (!state.hasPendingBytes()) {
+                        sink.complete();
+                        return state;
+                    }
+                    lineEnd = state.limit; // Last line, without line terminator
+                }
+
+                int lineStart = state.consumeLine(lineEnd);
+                ConnectionLogLine connection = state.parseInPlace(lineStart, lineEnd) ?
+                        matchInPlace(state, lineStart) :
+                        matchParsed(parseOrNull(state.buffer, lineStart, lineEnd));
+
+                if (endReached) {
+                    sink.complete();
+                    return state;
+                }
+                if (connection != null) {
+                    sink.next(connection);
+                    return state;
+                }
+            }
+        } catch (IOException e) {
+            sink.error(new LogFileIOException("Error while reading log file: " + state.logFile, e));
+            return state;
+        }
+    }
+
+    private ConnectionLogLine matchInPlace(ScanState state, int lineStart) {
+        long timestamp = state.timestamp;
+        if (timestamp > adjustedEndTimestamp) {
+            endReached = true;
+            return null;
+        }
+
+        if (timestamp < initTimestamp || timestamp > endTimestamp || !state.targetEquals(lineStart, hostBytes)) {
+            return null;
+        }
+
+        return new ConnectionLogLine(timestamp, new String(state.buffer, lineStart + state.sourceOffset, state.sourceLength, CHARSET), host);
+    }
+
+    private ConnectionLogLine matchParsed(ConnectionLogLine connection) {
+        if (connection == null) {
+            return null;
+        }
+
+        if (connection.getTimestamp() > adjustedEndTimestamp) {
+            endReached = true;
+            return null;
+        }
+
+        return connection.getTimestamp() >= initTimestamp && connection.getTimestamp() <= endTimestamp && connection.getTargetHost().equals(host) ?
+                connection : null;
+    }
+
+    private ConnectionLogLine parseOrNull(byte[] buffer, int lineStart, int lineEnd) {
+        String line = new String(buffer, lineStart, lineEnd - lineStart, CHARSET);
+        try {
+            return lineParser.parseLine(line);
+        } catch (Exception e) {
+            LOGGER.warn("Ignoring line: {} (error: {})", line, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read buffer and position of the scan. Lines end with {@code \n}, {@code \r} or {@code \r\n}, as in {@link java.io.BufferedReader}.
+     */
+    private static class ScanState {
+        private final Path logFile;
+        private final FileChannel channel;
+        private long remainingBytes;
+
+        private final LongAdder linesParsedInPlace;
+        // Not added to the metrics yet
+        private long linesRead;
+        private long bytesRead;
+        private long linesParsedInPlaceCount;
+
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int limit;     // Bytes read in the buffer
+        private int position;  // Start of the next line
+        private int scanned;   // Bytes from position already known not to be line terminators
+        private boolean skipLF;
+
+        // Result of the last parseInPlace, relative to the start of the line
+        private long timestamp;
+        private int sourceOffset;
+        private int sourceLength;
+        private int targetOffset;
+        private int targetLength;
+
+        ScanState(Path logFile, long fromPosition, long toPosition, LongAdder linesParsedInPlace) {
+            this.logFile = logFile;
+            this.linesParsedInPlace = linesParsedInPlace;
+            try {
+                this.channel = FileChannel.open(logFile, StandardOpenOption.READ).position(fromPosition);
+            } catch (IOException e) {
+                throw new LogFileIOException(String.format("Error opening log file [%s] [from:%s; to:%s]", logFile, fromPosition, toPosition), e);
+            }
+            this.remainingBytes = toPosition == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, toPosition - fromPosition);
+        }
+
+        /**
+         * @return the position of the terminator of the next line, or -1 if it is not in the buffer yet
+         */
+        int findLineEnd() {
+            if (skipLF) {
+                if (position == limit) {
+                    return -1;
+                }
+                if (buffer[position] == '\n') {
+                    position++;
+                }
+                skipLF = false;
+            }
+
+            for (int i=position+scanned; i<limit; i++) {
+                if (buffer[i] == '\n' || buffer[i] == '\r') {
+                    scanned = 0;
+                    return i;
+                }
+            }
+            scanned = limit - position;
+            return -1;
+        }
+
+        /**
+         * @return the start of the line, after moving past it and its terminator
+         */
+        int consumeLine(int lineEnd) {
+            int lineStart = position;
+            if (lineEnd < limit) {
+                skipLF = buffer[lineEnd] == '\r';
+                position = lineEnd + 1;
+            }
+            else {
+                position = limit;
+            }
+            scanned = 0;
+            linesRead++;
+            return lineStart;
+        }
+
+        boolean hasPendingBytes() {
+            return position < limit;
+        }
+
+        /**
+         * Moves the pending bytes to the start of the buffer (growing it if a line doesn't fit) and reads more
+         *
+         * @return false if there is nothing more to read
+         */
+        boolean fill() throws IOException {
+            addMetrics();
+            if (remainingBytes == 0) {
+                return false;
+            }
+
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+
+            int bytesToRead = (int) Math.min(buffer.length - limit, remainingBytes);
+            int bytesRead = channel.read(ByteBuffer.wrap(buffer, limit, bytesToRead));
+            if (bytesRead <= 0) {
+                remainingBytes = 0;
+                return false;
+            }
+
+            limit += bytesRead;
+            this.bytesRead += bytesRead;
+            if (remainingBytes != Long.MAX_VALUE) {
+                remainingBytes -= bytesRead;
+            }
+            return true;
+        }
+
+        /**
+         * Parses lines with the usual format ({@code <digits> <sourceHost> <targetHost>}, single spaces, ASCII) in place
+         *
+         * @return false if the line must be given to the line parser instead
+         */
+        boolean parseInPlace(int lineStart, int lineEnd) {
+            int i = lineStart;
+            long value = 0;
+            while (i < lineEnd && buffer[i] >= '0' && buffer[i] <= '9') {
+                value = value * 10 + (buffer[i] - '0');
+                i++;
+            }
+            if (i == lineStart || i - lineStart > MAXIMUM_TIMESTAMP_DIGITS || i == lineEnd || buffer[i] != ' ') {
+                return false;
+            }
+
+            int sourceStart = ++i;
+            while (i < lineEnd && buffer[i] != ' ') {
+                if (buffer[i] < 0) { // Not ASCII
+                    return false;
+                }
+                i++;
+            }
+            if (i == sourceStart || i == lineEnd) {
+                return false;
+            }
+
+            int sourceEnd = i;
+            int targetStart = ++i;
+            while (i < lineEnd && buffer[i] != ' ') {
+                if (buffer[i] < 0) {
+                    return false;
+                }
+                i++;
+            }
+            if (i == targetStart) {
+                return false;
+            }
+
+            int targetEnd = i;
+            while (i < lineEnd && buffer[i] == ' ') { // Trailing spaces are ignored, as String.split does
+                i++;
+            }
+            if (i != lineEnd) {
+                return false;
+            }
+
+            timestamp = value;
+            sourceOffset = sourceStart - lineStart;
+            sourceLength = sourceEnd - sourceStart;
+            targetOffset = targetStart - lineStart;
+            targetLength = targetEnd - targetStart;
+            linesParsedInPlaceCount++;
+            return true;
+        }
+
+        /**
+         * Must be called right after {@link #parseInPlace(int, int)} for the same line, before the buffer is filled again
+         */
+        boolean targetEquals(int lineStart, byte[] hostBytes) {
+            if (hostBytes == null || hostBytes.length != targetLength) {
+                return false;
+            }
+            int targetStart = lineStart + targetOffset;
+            return Arrays.equals(buffer, targetStart, targetStart + targetLength, hostBytes, 0, targetLength);
+        }
+
+        private void addMetrics() {
+            FileFlux.getMetrics().linesRead(linesRead, bytesRead);
+            linesParsedInPlace.add(linesParsedInPlaceCount);
+            linesRead = 0;
+            bytesRead = 0;
+            linesParsedInPlaceCount = 0;
+        }
+
+        void close() {
+            addMetrics();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Ignored exception while closing " + logFile, e);
+            }
+        }
+    }
+}
@@ -2,6 +2,10 @@ package net.rubenmartinez.cbcc.logparsing.components.impl;
 
 import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
 import net.rubenmartinez.cbcc.domain.ConnectionLogStats;
+import net.rubenmartinez.cbcc.domain.HeavyHitter;
+import net.rubenmartinez.cbcc.domain.SubscribedHostConnections;
+import net.rubenmartinez.cbcc.util.HostCounterMap;
+import net.rubenmartinez.cbcc.util.SpaceSaving;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
@@ -9,7 +13,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * package-level class to collect stats about log lines during a period of time
@@ -25,15 +32,50 @@ public class ConnectionLogStatsContainer implements Consumer<ConnectionLogLine>
     private Optional<String> sourceHost;
     private Optional<String> targetHost;
 
-    private Map<String, Integer> numberOfConnectionsPerHost;
+    private HostCounterMap numberOfConnectionsPerHost;
+
+    // Heavy hitters mode: the source hosts are counted in this sketch instead of in numberOfConnectionsPerHost
+    private SpaceSaving topSourceHosts;
+    private int topSources;
+
+    // Only with event time windows, see EventTimePaneAssigner
+    private Long lateConnections;
+
+    // Hosts of the subscriptions file, and the hosts connected to/from the ones with connections in this window
+    private Set<String> subscribedHosts;
+    private Map<String, Set<String>> connectedToSubscribedHost;
+    private Map<String, Set<String>> connectedFromSubscribedHost;
 
     public ConnectionLogStatsContainer(LocalDateTime startTime, Duration duration, Optional<String> sourceHost, Optional<String> targetHost) {
+        this(startTime, duration, sourceHost, targetHost, 0, 0, new HostCounterMap(), Set.of());
+    }
+
+    /**
+     * @param heavyHittersCapacity if greater than 0, the source hosts with most connections are found with a {@link SpaceSaving} sketch
+     *                             of this capacity, so the memory used doesn't depend on the number of different source hosts
+     * @param topSources number of source hosts with most connections to report in heavy hitters mode
+     * @param numberOfConnectionsPerHost map to count the connections of every source host, cleared here so the map of a previous
+     *                                   window can be reused (see {@link PaneWindowAggregator#takeCounterMap()})
+     * @param subscribedHosts hosts whose connections (from them and to them) are collected, besides the ones of sourceHost and targetHost.
+     *                        Checking if a host is subscribed is a single lookup in this set, no matter its size.
+     */
+    public ConnectionLogStatsContainer(LocalDateTime startTime, Duration duration, Optional<String> sourceHost, Optional<String> targetHost,
+                                       int heavyHittersCapacity, int topSources, HostCounterMap numberOfConnectionsPerHost, Set<String> subscribedHosts) {
         this.startTime = startTime;
         this.duration = duration;
         this.sourceHost = sourceHost;
         this.targetHost = targetHost;
 
-        this.numberOfConnectionsPerHost = new HashMap<>();
+        this.numberOfConnectionsPerHost = numberOfConnectionsPerHost;
+        numberOfConnectionsPerHost.clear();
+        if (heavyHittersCapacity > 0) {
+            this.topSourceHosts = new SpaceSaving(heavyHittersCapacity);
+            this.topSources = topSources;
+        }
+
+        this.subscribedHosts = subscribedHosts;
+        this.connectedToSubscribedHost = new HashMap<>();
+        this.connectedFromSubscribedHost = new HashMap<>();
 
         initializeConnectionLogStats(startTime, duration, sourceHost, targetHost);
 
@@ -65,20 +107,34 @@ public class ConnectionLogStatsContainer implements Consumer<ConnectionLogLine>
 
     @Override
     public void accept(ConnectionLogLine logLine) {
-        incrementNumberOfConnectionsPerHost(logLine.getSourceHost());
+        if (topSourceHosts != null) {
+            topSourceHosts.add(logLine.getSourceHost());
+        }
+        else {
+            incrementNumberOfConnectionsPerHost(logLine.getSourceHost());
+        }
         addConnectionIfSourceHostMatches(logLine.getSourceHost(), logLine.getTargetHost());
         addConnectionIfTargetHostMatches(logLine.getSourceHost(), logLine.getTargetHost());
+        if (!subscribedHosts.isEmpty()) {
+            addConnectionIfSubscribed(logLine.getSourceHost(), logLine.getTargetHost());
+        }
     }
 
-    private void incrementNumberOfConnectionsPerHost(String logLineSourceHost) {
-        Integer currentNumberOfConnections = numberOfConnectionsPerHost.getOrDefault(logLineSourceHost, 0);
-        Integer newNumberOfConnections = currentNumberOfConnections + 1;
-        numberOfConnectionsPerHost.put(logLineSourceHost, newNumberOfConnections);
+    private void addConnectionIfSubscribed(String logLineSourceHost, String logLineTargetHost) {
+        if (subscribedHosts.contains(logLineSourceHost)) {
+            connectedFromSubscribedHost.computeIfAbsent(logLineSourceHost, host -> new HashSet<>()).add(logLineTargetHost);
+        }
+        if (subscribedHosts.contains(logLineTargetHost)) {
+            connectedToSubscribedHost.computeIfAbsent(logLineTargetHost, host -> new HashSet<>()).add(logLineSourceHost);
+        }
+    }
 
+    private void incrementNumberOfConnectionsPerHost(String logLineSourceHost) {
+        int newNumberOfConnections = numberOfConnectionsPerHost.increment(logLineSourceHost);
         updateTopConnectionsSource(logLineSourceHost, newNumberOfConnections);
     }
 
-    private void updateTopConnectionsSource(String logLineSourceHost, Integer newNumberOfConnections) {
+    private void updateTopConnectionsSource(String logLineSourceHost, int newNumberOfConnections) {
         var sourceHostsWithMostConnections = connectionLogStats.getSourceHostsWithMostConnectionsInWindow();
 
         if (newNumberOfConnections == sourceHostsWithMostConnections.getNumberOfConnections()) {
@@ -103,7 +159,173 @@ public class ConnectionLogStatsContainer implements Consumer<ConnectionLogLine>
         }
     }
 
+    /**
+     * Adds to this container the connections collected by another one with the same source and target hosts, eg. in another split of the file
+     *
+     * @return this container
+     */
+    public ConnectionLogStatsContainer merge(ConnectionLogStatsContainer other) {
+        return merge(other, false);
+    }
+
+    /**
+     * Like {@link #merge(ConnectionLogStatsContainer)}, for a container of another shard, which has none of the source hosts of this one:
+     * the heavy hitters are then the same as if all the connections had been collected by a single container (as long as the sketches
+     * don't overflow, as a sketch that overflows depends on the order of the connections)
+     *
+     * @return this container
+     */
+    public ConnectionLogStatsContainer mergeShard(ConnectionLogStatsContainer other) {
+        return merge(other, true);
+    }
+
+    private ConnectionLogStatsContainer merge(ConnectionLogStatsContainer other, boolean disjointSourceHosts) {
+        if (topSourceHosts != null) {
+            topSourceHosts = disjointSourceHosts ? topSourceHosts.mergeDisjoint(other.topSourceHosts) : topSourceHosts.merge(other.topSourceHosts);
+        }
+        else {
+            other.numberOfConnectionsPerHost.forEach((host, connections) -> numberOfConnectionsPerHost.add(host, connections));
+            updateSourceHostsWithMostConnections();
+        }
+
+        var otherStats = other.connectionLogStats;
+        connectionLogStats.getConnectedFromSourceHostInWindow().ifPresent(hosts -> hosts.addAll(otherStats.getConnectedFromSourceHostInWindow().get()));
+        connectionLogStats.getConnectedToTargetHostInWindow().ifPresent(hosts -> hosts.addAll(otherStats.getConnectedToTargetHostInWindow().get()));
+        if (lateConnections != null && other.lateConnections != null) {
+            lateConnections += other.lateConnections;
+        }
+        other.connectedToSubscribedHost.forEach((host, hosts) -> connectedToSubscribedHost.computeIfAbsent(host, h -> new HashSet<>()).addAll(hosts));
+        other.connectedFromSubscribedHost.forEach((host, hosts) -> connectedFromSubscribedHost.computeIfAbsent(host, h -> new HashSet<>()).addAll(hosts));
+        return this;
+    }
+
+    /**
+     * Finds again the source hosts with most connections, after the counts have been changed other than by {@link #accept}
+     */
+    void updateSourceHostsWithMostConnections() {
+        var sourceHostsWithMostConnections = connectionLogStats.getSourceHostsWithMostConnectionsInWindow();
+        int mostConnections = numberOfConnectionsPerHost.getMaximumCount();
+        sourceHostsWithMostConnections.getList().clear();
+        sourceHostsWithMostConnections.setNumberOfConnections(mostConnections);
+        numberOfConnectionsPerHost.forEach((host, connections) -> {
+            if (connections == mostConnections) {
+                sourceHostsWithMostConnections.getList().add(host);
+            }
+        });
+    }
+
     public ConnectionLogStats getConnectionLogStats() {
+        if (topSourceHosts != null) {
+            setTopSourceHosts(connectionLogStats, topSourceHosts, topSources);
+        }
+        connectionLogStats.setLateConnectionsInWindow(lateConnections);
+        if (!subscribedHosts.isEmpty()) {
+            connectionLogStats.setSubscribedHostsInWindow(toSubscribedHostsStats(subscribedHosts, connectedToSubscribedHost::get, connectedFromSubscribedHost::get));
+        }
         return connectionLogStats;
     }
+
+    /**
+     * @return the connections of every subscribed host, sorted by host
+     */
+    static Map<String, SubscribedHostConnections> toSubscribedHostsStats(Set<String> subscribedHosts, Function<String, Set<String>> connectedToHost,
+                                                                         Function<String, Set<String>> connectedFromHost) {
+        var subscribedHostsStats = new TreeMap<String, SubscribedHostConnections>();
+        for (String host: subscribedHosts) {
+            Set<String> connectedTo = connectedToHost.apply(host);
+            Set<String> connectedFrom = connectedFromHost.apply(host);
+            subscribedHostsStats.put(host, new SubscribedHostConnections(connectedTo != null ? connectedTo : Set.of(), connectedFrom != null ? connectedFrom : Set.of()));
+        }
+        return subscribedHostsStats;
+    }
+
+    /**
+     * Sets the top source hosts of the stats from the sketch: the {@code topSources} hosts with most connections and, as the
+     * hosts with most connections, the ones with the highest estimated count
+     */
+    static void setTopSourceHosts(ConnectionLogStats stats, SpaceSaving topSourceHosts, int topSources) {
+        var top = topSourceHosts.top(topSources);
+        stats.setTopSourceHostsInWindow(top);
+
+        var sourceHostsWithMostConnections = stats.getSourceHostsWithMostConnectionsInWindow();
+        sourceHostsWithMostConnections.setList(new HashSet<>());
+        sourceHostsWithMostConnections.setNumberOfConnections(top.isEmpty() ? 0 : top.get(0).getConnections());
+        for (HeavyHitter heavyHitter: top) {
+            if (heavyHitter.getConnections() == sourceHostsWithMostConnections.getNumberOfConnections()) {
+                sourceHostsWithMostConnections.getList().add(heavyHitter.getHost());
+            }
+        }
+    }
+
+    /**
+     * @return number of hosts held by this container: the ones counted, and the ones connected from/to the configured and subscribed
+     *         hosts. It is the size of the pane in memory, for metrics.
+     */
+    public int getTrackedHosts() {
+        int trackedHosts = numberOfConnectionsPerHost.size();
+        trackedHosts += connectionLogStats.getConnectedFromSourceHostInWindow().map(Set::size).orElse(0);
+        trackedHosts += connectionLogStats.getConnectedToTargetHostInWindow().map(Set::size).orElse(0);
+        for (Set<String> hosts: connectedToSubscribedHost.values()) {
+            trackedHosts += hosts.size();
+        }
+        for (Set<String> hosts: connectedFromSubscribedHost.values()) {
+            trackedHosts += hosts.size();
+        }
+        return trackedHosts;
+    }
+
+    LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Connections of every source host in this container, read by {@link PaneWindowAggregator} to combine panes
+     */
+    HostCounterMap getNumberOfConnectionsPerHost() {
+        return numberOfConnectionsPerHost;
+    }
+
+    /**
+     * @return the sketch of the source hosts in heavy hitters mode, null otherwise
+     */
+    SpaceSaving getTopSourceHosts() {
+        return topSourceHosts;
+    }
+
+    void setTopSourceHosts(SpaceSaving topSourceHosts) {
+        this.topSourceHosts = topSourceHosts;
+    }
+
+    int getTopSources() {
+        return topSources;
+    }
+
+    /**
+     * @return the late connections counted in this pane, null if it is not an event time pane
+     */
+    Long getLateConnections() {
+        return lateConnections;
+    }
+
+    void setLateConnections(long lateConnections) {
+        this.lateConnections = lateConnections;
+    }
+
+    Set<String> getSubscribedHosts() {
+        return subscribedHosts;
+    }
+
+    /**
+     * @return the hosts that connected to every subscribed host with connections in this window
+     */
+    Map<String, Set<String>> getConnectedToSubscribedHost() {
+        return connectedToSubscribedHost;
+    }
+
+    /**
+     * @return the hosts every subscribed host with connections in this window connected to
+     */
+    Map<String, Set<String>> getConnectedFromSubscribedHost() {
+        return connectedFromSubscribedHost;
+    }
 }
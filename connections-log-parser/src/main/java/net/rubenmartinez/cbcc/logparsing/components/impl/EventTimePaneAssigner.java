@@ -0,0 +1,158 @@
+package net.rubenmartinez.cbcc.logparsing.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.LongFunction;
+
+/**
+ * Collects connections in panes by their timestamp (event time) instead of by the time they are read, so the stats are the same when
+ * the lines are read live, with some lag, or from a backlog read at full speed.
+ *
+ * The log is only roughly ordered, so several panes can be open at the same time. The watermark trails the maximum timestamp seen by
+ * the order tolerance: no more connections are expected before it, so a pane is closed (and returned) once the watermark passes its end.
+ * Panes are always returned in order and without gaps (a pane without connections is returned empty), as {@link PaneWindowAggregator} expects.
+ *
+ * Connections arriving after their pane has been closed are not added to any pane, they are counted as late connections in the next
+ * pane closed.
+ *
+ * A connection more than a maximum jump ahead of the watermark is most likely a wrong timestamp: moving the watermark there would close
+ * (and create) every pane up to it, and make late every connection after it. So it is not added to any pane either, and it is counted
+ * as a late connection too, unless {@value #OUTLIERS_TO_JUMP} connections in a row are that far ahead, when the log has really jumped.
+ *
+ * Note a pane is only closed when a connection moves the watermark, so the last pane waits for the next lines. Not thread safe.
+ */
+public class EventTimePaneAssigner {
+
+    private static final long NO_PANE_CLOSED = Long.MIN_VALUE;
+
+    public static final long DEFAULT_MAX_JUMP_PANES = 10_000;
+    public static final int OUTLIERS_TO_JUMP = 10;
+
+    private final long paneMillis;
+    private final long toleranceMillis;
+    private final long maxJumpMillis;
+    private final LongFunction<ConnectionLogStatsContainer> paneFactory;
+
+    private final TreeMap<Long, ConnectionLogStatsContainer> openPanes = new TreeMap<>();
+    private long watermark = Long.MIN_VALUE;
+    private long nextPane = NO_PANE_CLOSED; // Index of the first pane not closed yet
+    private long lateConnections;
+    private int outliersInARow;
+
+    /**
+     * @param paneFactory creates the pane starting at the given timestamp
+     */
+    public EventTimePaneAssigner(long paneMillis, long toleranceMillis, LongFunction<ConnectionLogStatsContainer> paneFactory) {
+        this(paneMillis, toleranceMillis, DEFAULT_MAX_JUMP_PANES, paneFactory);
+    }
+
+    /**
+     * @param maxJumpPanes how many panes a single connection can move the watermark forward
+     * @param paneFactory creates the pane starting at the given timestamp
+     */
+    public EventTimePaneAssigner(long paneMillis, long toleranceMillis, long maxJumpPanes, LongFunction<ConnectionLogStatsContainer> paneFactory) {
+        if (paneMillis < 1) {
+            throw new IllegalArgumentException("Panes must be at least 1 millisecond long");
+        }
+        if (maxJumpPanes < 1) {
+            throw new IllegalArgumentException("The maximum jump must be at least 1 pane");
+        }
+
+        this.paneMillis = paneMillis;
+        this.toleranceMillis = toleranceMillis;
+        this.maxJumpMillis = maxJumpPanes > Long.MAX_VALUE / paneMillis ? Long.MAX_VALUE : maxJumpPanes * paneMillis;
+        this.paneFactory = paneFactory;
+    }
+
+    /**
+     * @return the panes closed by this connection, usually none
+     */
+    public List<ConnectionLogStatsContainer> accept(ConnectionLogLine connection) {
+        long timestamp = connection.getTimestamp();
+        long pane = Math.floorDiv(timestamp, paneMillis);
+
+        if (isOutlier(timestamp) && ++outliersInARow < OUTLIERS_TO_JUMP) {
+            lateConnections++;
+            return List.of();
+        }
+        outliersInARow = 0;
+
+        if (nextPane != NO_PANE_CLOSED && pane < nextPane) {
+            lateConnections++;
+        }
+        else {
+            openPanes.computeIfAbsent(pane, index -> paneFactory.apply(index * paneMillis)).accept(connection);
+        }
+
+        if (timestamp - toleranceMillis > watermark) {
+            watermark = timestamp - toleranceMillis;
+            return closePanesBefore(Math.floorDiv(watermark, paneMillis));
+        }
+        return List.of();
+    }
+
+    /**
+     * Adds panes collected somewhere else (eg. from a backlog of the log read in parallel) as if their connections had been accepted one
+     * by one. It must be called before any connection is accepted.
+     *
+     * @param panes by their start timestamp, with the duration of the panes of this assigner
+     * @param maxTimestamp the maximum timestamp of the connections in the panes, that moves the watermark
+     * @return the panes closed
+     */
+    public List<ConnectionLogStatsContainer> acceptPanes(SortedMap<Long, ConnectionLogStatsContainer> panes, long maxTimestamp) {
+        if (watermark != Long.MIN_VALUE || !openPanes.isEmpty()) {
+            throw new IllegalStateException("Panes can only be added before any connection is accepted");
+        }
+        if (panes.isEmpty()) {
+            return List.of();
+        }
+
+        panes.forEach((paneStart, pane) -> openPanes.put(Math.floorDiv(paneStart, paneMillis), pane));
+        watermark = maxTimestamp - toleranceMillis;
+        return closePanesBefore(Math.floorDiv(watermark, paneMillis));
+    }
+
+    /**
+     * Closes every open pane, when no more connections are coming
+     */
+    public List<ConnectionLogStatsContainer> flush() {
+        return openPanes.isEmpty() ? List.of() : closePanesBefore(openPanes.lastKey() + 1);
+    }
+
+    public long getWatermark() {
+        return watermark;
+    }
+
+    private boolean isOutlier(long timestamp) {
+        return watermark != Long.MIN_VALUE && timestamp - toleranceMillis - watermark > maxJumpMillis;
+    }
+
+    private List<ConnectionLogStatsContainer> closePanesBefore(long endPane) {
+        List<ConnectionLogStatsContainer> closedPanes = List.of();
+
+        while (nextPane != NO_PANE_CLOSED || !openPanes.isEmpty()) {
+            long pane = nextPane != NO_PANE_CLOSED ? nextPane : openPanes.firstKey();
+            if (pane >= endPane) {
+                break;
+            }
+
+            var container = openPanes.remove(pane);
+            if (container == null) {
+                container = paneFactory.apply(pane * paneMillis);
+            }
+            container.setLateConnections(lateConnections);
+            lateConnections = 0;
+
+            if (closedPanes.isEmpty()) {
+                closedPanes = new ArrayList<>();
+            }
+            closedPanes.add(container);
+            nextPane = pane + 1;
+        }
+        return closedPanes;
+    }
+}
@@ -0,0 +1,98 @@
+package net.rubenmartinez.cbcc.logparsing.components.impl;
+
+import net.rubenmartinez.cbcc.domain.AggregationRow;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.params.AggregationFunction;
+import net.rubenmartinez.cbcc.params.AggregationGroupBy;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Partial aggregate of connections grouped by source host, target host or time bucket.
+ *
+ * Each split of the log file is aggregated in its own instance (so no synchronization is needed) and then all of them
+ * are merged with {@link #merge(GroupAggregator)}.
+ */
+public class GroupAggregator implements Consumer<ConnectionLogLine> {
+
+    private final AggregationGroupBy groupBy;
+    private final AggregationFunction function;
+    private final long bucketMillis;
+
+    private final Map<String, Long> connectionsPerGroup;
+    private final Map<String, Set<String>> distinctHostsPerGroup;
+
+    public GroupAggregator(AggregationGroupBy groupBy, AggregationFunction function, long bucketMillis) {
+        if (groupBy == AggregationGroupBy.TIME && bucketMillis <= 0) {
+            throw new IllegalArgumentException("bucketMillis must be greater than zero");
+        }
+
+        this.groupBy = groupBy;
+        this.function = function;
+        this.bucketMillis = bucketMillis;
+
+        this.connectionsPerGroup = new HashMap<>();
+        this.distinctHostsPerGroup = new HashMap<>();
+    }
+
+    @Override
+    public void accept(ConnectionLogLine connection) {
+        String key = getGroupKey(connection);
+
+        if (function == AggregationFunction.COUNT) {
+            connectionsPerGroup.merge(key, 1L, Long::sum);
+        }
+        else {
+            String otherHost = groupBy == AggregationGroupBy.SOURCE ? connection.getTargetHost() : connection.getSourceHost();
+            distinctHostsPerGroup.computeIfAbsent(key, k -> new HashSet<>()).add(otherHost);
+        }
+    }
+
+    private String getGroupKey(ConnectionLogLine connection) {
+        switch (groupBy) {
+            case SOURCE: return connection.getSourceHost();
+            case TARGET: return connection.getTargetHost();
+            default: return Long.toString(Math.floorDiv(connection.getTimestamp(), bucketMillis) * bucketMillis);
+        }
+    }
+
+    /**
+     * @return this aggregator, after adding to it the groups of the other one
+     */
+    public GroupAggregator merge(GroupAggregator other) {
+        other.connectionsPerGroup.forEach((key, connections) -> connectionsPerGroup.merge(key, connections, Long::sum));
+        other.distinctHostsPerGroup.forEach((key, hosts) -> distinctHostsPerGroup.computeIfAbsent(key, k -> new HashSet<>()).addAll(hosts));
+        return this;
+    }
+
+    /**
+     * @param top when greater than 0 only the {@code top} groups with the greatest values are returned, sorted by value.
+     *            Otherwise all the groups are returned sorted by key (chronologically for time buckets)
+     */
+    public List<AggregationRow> getRows(int top) {
+        var rows = function == AggregationFunction.COUNT ?
+                connectionsPerGroup.entrySet().stream().map(entry -> new AggregationRow(entry.getKey(), entry.getValue())) :
+                distinctHostsPerGroup.entrySet().stream().map(entry -> new AggregationRow(entry.getKey(), entry.getValue().size()));
+
+        if (top > 0) {
+            return rows.sorted(Comparator.comparingLong(AggregationRow::getValue).reversed().thenComparing(getKeyComparator()))
+                       .limit(top)
+                       .collect(Collectors.toList());
+        }
+
+        return rows.sorted(getKeyComparator()).collect(Collectors.toList());
+    }
+
+    private Comparator<AggregationRow> getKeyComparator() {
+        return groupBy == AggregationGroupBy.TIME ?
+                Comparator.comparingLong(row -> Long.parseLong(row.getKey())) :
+                Comparator.comparing(AggregationRow::getKey);
+    }
+}
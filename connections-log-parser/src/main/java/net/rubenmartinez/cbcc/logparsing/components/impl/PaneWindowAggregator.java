@@ -0,0 +1,237 @@
+package net.rubenmartinez.cbcc.logparsing.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogStats;
+import net.rubenmartinez.cbcc.util.HostCounterMap;
+import net.rubenmartinez.cbcc.util.SpaceSaving;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * Sliding and multi-resolution stats built from panes: the lines are collected in one {@link ConnectionLogStatsContainer} per pane
+ * (eg. per minute), and every window (eg. the last hour) is the combination of its last panes.
+ *
+ * Windows are combined incrementally: each one keeps running totals, the newest pane is added to them and the pane that has just left
+ * the window is subtracted, so updating the totals costs the size of two panes per window, not the size of a whole window. The stats
+ * of every window are still built from its totals on every pane, which goes once through the hosts of the window (to find the ones with
+ * most connections, and to copy the hosts connected from/to the configured hosts). Only the panes of the longest window are kept, and
+ * they hold counts per host, not lines.
+ *
+ * In heavy hitters mode the {@link SpaceSaving} sketches of the panes can't be subtracted, so the ones of every window are merged each
+ * time instead, which costs the capacity of the sketch per pane in the window.
+ *
+ * Until enough panes have been added a window only covers the panes seen so far.
+ *
+ * Panes must be added in order, one at a time, but {@link #withPanes} can be called from any thread.
+ */
+public class PaneWindowAggregator {
+
+    private static final int MAXIMUM_FREE_COUNTER_MAPS = 64; // Just a limit, there are never more than the ones taken for the open panes
+
+    private final Duration paneDuration;
+    private final Optional<String> sourceHost;
+    private final Optional<String> targetHost;
+    private final List<WindowTotals> windows = new ArrayList<>();
+
+    private final ConnectionLogStatsContainer[] panes; // Ring with the last panes
+    private long paneCount;
+
+    // Counter maps of the panes that have left the ring, to be reused by the next ones. Panes are created in the thread of the
+    // window that opens them, which can run at the same time as add.
+    private final Queue<HostCounterMap> freeCounterMaps = new ConcurrentLinkedQueue<>();
+
+    public PaneWindowAggregator(Duration paneDuration, List<Duration> windowDurations, Optional<String> sourceHost, Optional<String> targetHost) {
+        this.paneDuration = paneDuration;
+        this.sourceHost = sourceHost;
+        this.targetHost = targetHost;
+
+        int maxPanes = 1;
+        for (Duration windowDuration: windowDurations) {
+            if (windowDuration.isZero() || windowDuration.toNanos() % paneDuration.toNanos() != 0) {
+                throw new IllegalArgumentException(String.format("Window %s is not a multiple of the pane %s", windowDuration, paneDuration));
+            }
+            var window = new WindowTotals(windowDuration, (int) (windowDuration.toNanos() / paneDuration.toNanos()));
+            windows.add(window);
+            maxPanes = Math.max(maxPanes, window.paneCount);
+        }
+        this.panes = new ConnectionLogStatsContainer[maxPanes];
+    }
+
+    public Duration getPaneDuration() {
+        return paneDuration;
+    }
+
+    /**
+     * @return a counter map for a new pane, the one of a pane no longer in any window if possible
+     */
+    public HostCounterMap takeCounterMap() {
+        var counterMap = freeCounterMaps.poll();
+        return counterMap != null ? counterMap : new HostCounterMap();
+    }
+
+    /**
+     * Makes the counter map of a pane that won't be used anymore (eg. the pane of a shard, once merged) available to the next panes
+     */
+    public void recycle(ConnectionLogStatsContainer pane) {
+        if (freeCounterMaps.size() < MAXIMUM_FREE_COUNTER_MAPS) {
+            freeCounterMaps.offer(pane.getNumberOfConnectionsPerHost());
+        }
+    }
+
+    /**
+     * Adds the next pane, which must have been collected with the same source and target hosts as this aggregator
+     *
+     * @return the stats of every window ending with this pane, in the order of the window durations given in the constructor
+     */
+    public synchronized List<ConnectionLogStats> add(ConnectionLogStatsContainer pane) {
+        var windowStats = new ArrayList<ConnectionLogStats>(windows.size());
+
+        for (WindowTotals window: windows) {
+            if (window.paneCount == 1) {
+                // Tumbling window, the pane already has the stats
+                var stats = pane.getConnectionLogStats();
+                stats.setDuration(window.duration);
+                windowStats.add(stats);
+                continue;
+            }
+
+            window.add(pane, 1);
+            if (paneCount >= window.paneCount) {
+                window.add(getPane(paneCount - window.paneCount), -1);
+            }
+            long oldestPane = Math.max(0, paneCount - window.paneCount + 1);
+            var stats = window.toStats(oldestPane == paneCount ? pane : getPane(oldestPane), pane);
+            if (pane.getTopSourceHosts() != null) {
+                // Sketches can't be subtracted, so the ones of the window are merged every time
+                SpaceSaving topSourceHosts = pane.getTopSourceHosts();
+                for (long i=oldestPane; i<paneCount; i++) {
+                    topSourceHosts = topSourceHosts.merge(getPane(i).getTopSourceHosts());
+                }
+                ConnectionLogStatsContainer.setTopSourceHosts(stats, topSourceHosts, pane.getTopSources());
+            }
+            windowStats.add(stats);
+        }
+
+        int slot = (int) (paneCount % panes.length);
+        if (panes[slot] != null) {
+            recycle(panes[slot]);
+        }
+        panes[slot] = pane;
+        paneCount++;
+        return windowStats;
+    }
+
+    /**
+     * @return number of panes added so far
+     */
+    public synchronized long getPaneCount() {
+        return paneCount;
+    }
+
+    /**
+     * Runs {@code reader} with the panes added that will still be in some window when the next pane is added, oldest first (eg. to
+     * write them in a {@link WindowStateSnapshot}). No pane leaves the windows (and has its counter map reused) while it runs.
+     */
+    public synchronized <T> T withPanes(Function<List<ConnectionLogStatsContainer>, T> reader) {
+        var windowPanes = new ArrayList<ConnectionLogStatsContainer>(panes.length - 1);
+        for (long i=Math.max(0, paneCount - panes.length + 1); i<paneCount; i++) {
+            windowPanes.add(getPane(i));
+        }
+        return reader.apply(windowPanes);
+    }
+
+    private ConnectionLogStatsContainer getPane(long index) {
+        return panes[(int) (index % panes.length)];
+    }
+
+    private static Set<String> getHosts(HostCounterMap hostPanes) {
+        return hostPanes != null ? hostPanes.getHosts() : null;
+    }
+
+    /**
+     * Running totals of the panes in a window. The hosts connected from/to the configured hosts are counted by the number of panes
+     * they appear in, so they can be removed when the last of those panes leaves the window.
+     */
+    private class WindowTotals {
+        private final Duration duration;
+        private final int paneCount;
+
+        private final HostCounterMap numberOfConnectionsPerHost = new HostCounterMap();
+        private final HostCounterMap connectedFromSourceHostPanes = new HostCounterMap();
+        private final HostCounterMap connectedToTargetHostPanes = new HostCounterMap();
+        private long lateConnections;
+
+        // Hosts connected to/from every subscribed host, counted by the number of panes they appear in
+        private final Map<String, HostCounterMap> connectedToSubscribedHostPanes = new HashMap<>();
+        private final Map<String, HostCounterMap> connectedFromSubscribedHostPanes = new HashMap<>();
+
+        WindowTotals(Duration duration, int paneCount) {
+            this.duration = duration;
+            this.paneCount = paneCount;
+        }
+
+        void add(ConnectionLogStatsContainer pane, int sign) {
+            pane.getNumberOfConnectionsPerHost().forEach((host, connections) -> numberOfConnectionsPerHost.add(host, sign * connections));
+            if (pane.getLateConnections() != null) {
+                lateConnections += sign * pane.getLateConnections();
+            }
+            addSubscribedHosts(pane.getConnectedToSubscribedHost(), connectedToSubscribedHostPanes, sign);
+            addSubscribedHosts(pane.getConnectedFromSubscribedHost(), connectedFromSubscribedHostPanes, sign);
+
+            var paneStats = pane.getConnectionLogStats();
+            paneStats.getConnectedFromSourceHostInWindow().ifPresent(hosts -> hosts.forEach(host -> connectedFromSourceHostPanes.add(host, sign)));
+            paneStats.getConnectedToTargetHostInWindow().ifPresent(hosts -> hosts.forEach(host -> connectedToTargetHostPanes.add(host, sign)));
+        }
+
+        private void addSubscribedHosts(Map<String, Set<String>> paneHosts, Map<String, HostCounterMap> windowHosts, int sign) {
+            paneHosts.forEach((subscribedHost, hosts) -> {
+                var hostPanes = windowHosts.computeIfAbsent(subscribedHost, host -> new HostCounterMap());
+                hosts.forEach(host -> hostPanes.add(host, sign));
+                if (hostPanes.isEmpty()) {
+                    windowHosts.remove(subscribedHost);
+                }
+            });
+        }
+
+        ConnectionLogStats toStats(ConnectionLogStatsContainer oldestPane, ConnectionLogStatsContainer newestPane) {
+            var stats = new ConnectionLogStats();
+            stats.setStartTime(oldestPane.getStartTime());
+            stats.setDuration(duration);
+            stats.setSourceHost(sourceHost);
+            stats.setConnectedFromSourceHostInWindow(sourceHost.map(host -> connectedFromSourceHostPanes.getHosts()));
+            stats.setTargetHost(targetHost);
+            stats.setConnectedToTargetHostInWindow(targetHost.map(host -> connectedToTargetHostPanes.getHosts()));
+            stats.setLateConnectionsInWindow(oldestPane.getLateConnections() != null ? lateConnections : null);
+            if (!newestPane.getSubscribedHosts().isEmpty()) {
+                // Hosts subscribed after the start of the window only get the connections since they were subscribed
+                stats.setSubscribedHostsInWindow(ConnectionLogStatsContainer.toSubscribedHostsStats(newestPane.getSubscribedHosts(),
+                        host -> getHosts(connectedToSubscribedHostPanes.get(host)), host -> getHosts(connectedFromSubscribedHostPanes.get(host))));
+            }
+
+            // A single pass over the hosts of the window: the hosts found so far are discarded when one with more connections is found
+            Set<String> topSourceHosts = new HashSet<>();
+            int[] topConnections = {0};
+            numberOfConnectionsPerHost.forEach((host, connections) -> {
+                if (connections > topConnections[0]) {
+                    topConnections[0] = connections;
+                    topSourceHosts.clear();
+                }
+                if (connections == topConnections[0]) {
+                    topSourceHosts.add(host);
+                }
+            });
+            stats.getSourceHostsWithMostConnectionsInWindow().setList(topSourceHosts);
+            stats.getSourceHostsWithMostConnectionsInWindow().setNumberOfConnections(topConnections[0]);
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package net.rubenmartinez.cbcc.logparsing.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.params.ResultFormat;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the results of a query to the standard output, to a file or to any stream (eg. the response of a query to the server) from a dedicated thread.
+ *
+ * Results are handed to the writer thread in batches, encoded into a large byte buffer and written with one system call per
+ * {@link #BUFFER_SIZE} bytes, instead of one (flushed) {@code println} per result. Results are written in the same order they are
+ * received, and {@link #close()} waits until all of them have been written.
+ *
+ * The {@code write} methods must be called from one thread at a time (as the {@code onNext} signals of a {@code Flux} are).
+ *
+ * Binary format (big endian): a connection is {@code timestamp (long) | sourceHost | targetHost}, and a host is
+ * {@code length (unsigned short) | ASCII bytes}. With {@code --uniqueHosts} every record is just a host.
+ */
+public class ResultWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int BATCH_SIZE = 1024;
+    private static final int QUEUED_BATCHES = 16;
+
+    private static final List<Object> END_OF_RESULTS = new ArrayList<>(0);
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final ResultFormat format;
+
+    private final BlockingQueue<List<Object>> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+    private final Thread writerThread;
+    private volatile Exception writerException;
+
+    private List<Object> batch = new ArrayList<>(BATCH_SIZE);
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE); // Only used by the writer thread
+
+    public static ResultWriter toStandardOutput(ResultFormat format) {
+        System.out.flush(); // Whatever was already printed must go first
+        return new ResultWriter(new FileOutputStream(FileDescriptor.out).getChannel(), false, format);
+    }
+
+    public static ResultWriter toFile(Path file, ResultFormat format) {
+        try {
+            return new ResultWriter(FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), true, format);
+        } catch (IOException e) {
+            throw new LogParserException("Error while opening output file: " + file, e);
+        }
+    }
+
+    /**
+     * The stream is closed together with the writer
+     */
+    public static ResultWriter toStream(OutputStream outputStream, ResultFormat format) {
+        return new ResultWriter(Channels.newChannel(outputStream), true, format);
+    }
+
+    private ResultWriter(WritableByteChannel channel, boolean closeChannel, ResultFormat format) {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.format = format;
+
+        this.writerThread = new Thread(this::writeQueuedBatches, "ResultWriter");
+        this.writerThread.start();
+    }
+
+    public void write(ConnectionLogLine connection) {
+        add(connection);
+    }
+
+    public void writeHost(String host) {
+        add(host);
+    }
+
+    /**
+     * Writes all the pending results and waits for the writer thread to finish
+     *
+     * @throws LogParserException if any result couldn't be written
+     */
+    @Override
+    public void close() {
+        try {
+            if (!batch.isEmpty()) {
+                queue.put(batch);
+            }
+            queue.put(END_OF_RESULTS);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LogParserException("Interrupted while writing results", e);
+        } finally {
+            closeChannel();
+        }
+
+        if (writerException != null) {
+            throw new LogParserException("Error while writing results", writerException);
+        }
+    }
+
+    private void add(Object result) {
+        if (writerException != null) {
+            throw new LogParserException("Error while writing results", writerException);
+        }
+
+        batch.add(result);
+        if (batch.size() == BATCH_SIZE) {
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LogParserException("Interrupted while writing results", e);
+            }
+            batch = new ArrayList<>(BATCH_SIZE);
+        }
+    }
+
+    /**
+     * After an error the remaining batches are still taken (and discarded), so the producer never blocks on a full queue
+     */
+    private void writeQueuedBatches() {
+        try {
+            List<Object> results;
+            while ((results = queue.take()) != END_OF_RESULTS) {
+                if (writerException == null) {
+                    try {
+                        for (Object result: results) {
+                            encode(result);
+                        }
+                    } catch (Exception e) {
+                        writerException = e;
+                    }
+                }
+            }
+
+            if (writerException == null) {
+                flush();
+            }
+        } catch (Exception e) {
+            writerException = e;
+        }
+    }
+
+    private void encode(Object result) throws IOException {
+        if (result instanceof ConnectionLogLine) {
+            encodeConnection((ConnectionLogLine) result);
+        }
+        else {
+            encodeHost((String) result);
+        }
+    }
+
+    private void encodeConnection(ConnectionLogLine connection) throws IOException {
+        String sourceHost = connection.getSourceHost();
+        String targetHost = connection.getTargetHost();
+
+        switch (format) {
+            case PLAIN:
+                ensureRemaining(sourceHost.length() + 25);
+                putAscii(sourceHost);
+                putAscii(" at ");
+                putDecimal(connection.getTimestamp());
+                buffer.put((byte) '\n');
+                break;
+            case NDJSON:
+                ensureRemaining(6 * (sourceHost.length() + targetHost.length()) + 80);
+                putAscii("{\"timestamp\":");
+                putDecimal(connection.getTimestamp());
+                putAscii(",\"sourceHost\":");
+                putJsonString(sourceHost);
+                putAscii(",\"targetHost\":");
+                putJsonString(targetHost);
+                putAscii("}\n");
+                break;
+            case BINARY:
+                ensureRemaining(Long.BYTES + 2 * Short.BYTES + sourceHost.length() + targetHost.length());
+                buffer.putLong(connection.getTimestamp());
+                putBinaryHost(sourceHost);
+                putBinaryHost(targetHost);
+                break;
+        }
+    }
+
+    private void encodeHost(String host) throws IOException {
+        switch (format) {
+            case PLAIN:
+                ensureRemaining(host.length() + 1);
+                putAscii(host);
+                buffer.put((byte) '\n');
+                break;
+            case NDJSON:
+                ensureRemaining(6 * host.length() + 20);
+                putAscii("{\"sourceHost\":");
+                putJsonString(host);
+                putAscii("}\n");
+                break;
+            case BINARY:
+                ensureRemaining(Short.BYTES + host.length());
+                putBinaryHost(host);
+                break;
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocate(bytes);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void putAscii(String s) {
+        for (int i=0; i<s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private void putJsonString(String s) {
+        buffer.put((byte) '"');
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.put((byte) '\\').put((byte) c);
+            }
+            else if (c < 0x20 || c > 0x7e) {
+                putAscii(String.format("\\u%04x", (int) c));
+            }
+            else {
+                buffer.put((byte) c);
+            }
+        }
+        buffer.put((byte) '"');
+    }
+
+    private void putBinaryHost(String host) {
+        buffer.putShort((short) host.length());
+        putAscii(host);
+    }
+
+    /**
+     * Same digits as {@link Long#toString(long)}, without creating a String
+     */
+    private void putDecimal(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                putAscii(Long.toString(value));
+                return;
+            }
+            buffer.put((byte) '-');
+            value = -value;
+        }
+
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    private void closeChannel() {
+        if (closeChannel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (writerException == null) {
+                    writerException = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package net.rubenmartinez.cbcc.logparsing.components.impl;
+
+import net.rubenmartinez.cbcc.domain.HeavyHitter;
+import net.rubenmartinez.cbcc.util.SpaceSaving;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * State of the windows being followed at some point of the log file: the panes still needed by the windows (see
+ * {@link PaneWindowAggregator}), the pane being filled, and the position in the file just after the last line added to it, with the
+ * {@link net.rubenmartinez.cbcc.util.FileFingerprint} of the file up to that position to detect it was rotated in the meantime.
+ *
+ * Restoring it and following the file from that position gives the same windows as if the process had never stopped.
+ *
+ * It is written in a compact binary format: the counts per host, the connected hosts and the sketches of the panes, not their lines.
+ * {@code configuration} identifies the options the panes were collected with, a snapshot taken with other options can't be restored.
+ */
+public class WindowStateSnapshot {
+
+    private static final int MAGIC = 0x43424353;
+    private static final int VERSION = 2;
+
+    private final String configuration;
+    private final long position;
+    private final long logFingerprint;
+    private final List<ConnectionLogStatsContainer> panes;
+
+    /**
+     * @param logFingerprint fingerprint of the log file up to {@code position}
+     * @param panes the panes, oldest first, the last one is the pane being filled
+     */
+    public WindowStateSnapshot(String configuration, long position, long logFingerprint, List<ConnectionLogStatsContainer> panes) {
+        if (panes.isEmpty()) {
+            throw new IllegalArgumentException("A snapshot needs at least the pane being filled");
+        }
+
+        this.configuration = configuration;
+        this.position = position;
+        this.logFingerprint = logFingerprint;
+        this.panes = panes;
+    }
+
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getLogFingerprint() {
+        return logFingerprint;
+    }
+
+    /**
+     * @return the panes already closed, oldest first
+     */
+    public List<ConnectionLogStatsContainer> getClosedPanes() {
+        return panes.subList(0, panes.size() - 1);
+    }
+
+    public ConnectionLogStatsContainer getOpenPane() {
+        return panes.get(panes.size() - 1);
+    }
+
+    public byte[] toBytes() {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(configuration);
+            out.writeLong(position);
+            out.writeLong(logFingerprint);
+            out.writeInt(panes.size());
+            for (ConnectionLogStatsContainer pane: panes) {
+                writePane(out, pane);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error writing to memory", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param paneFactory creates an empty pane starting at the given time, with the same options as the panes written
+     * @throws IOException if the input is not a snapshot (or not a complete one)
+     */
+    public static WindowStateSnapshot readFrom(DataInput in, Function<LocalDateTime, ConnectionLogStatsContainer> paneFactory) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a window state snapshot, or written by another version");
+        }
+
+        String configuration = in.readUTF();
+        long position = in.readLong();
+        long logFingerprint = in.readLong();
+        int paneCount = in.readInt();
+        var panes = new ArrayList<ConnectionLogStatsContainer>(paneCount);
+        for (int i=0; i<paneCount; i++) {
+            panes.add(readPane(in, paneFactory));
+        }
+        return new WindowStateSnapshot(configuration, position, logFingerprint, panes);
+    }
+
+    private static void writePane(DataOutput out, ConnectionLogStatsContainer pane) throws IOException {
+        var stats = pane.getConnectionLogStats();
+        out.writeLong(pane.getStartTime().toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(pane.getStartTime().getNano());
+
+        var numberOfConnectionsPerHost = pane.getNumberOfConnectionsPerHost();
+        out.writeInt(numberOfConnectionsPerHost.size());
+        try {
+            numberOfConnectionsPerHost.forEach((host, connections) -> {
+                try {
+                    out.writeUTF(host);
+                    out.writeInt(connections);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        writeOptionalHosts(out, stats.getConnectedFromSourceHostInWindow());
+        writeOptionalHosts(out, stats.getConnectedToTargetHostInWindow());
+
+        SpaceSaving topSourceHosts = pane.getTopSourceHosts();
+        out.writeBoolean(topSourceHosts != null);
+        if (topSourceHosts != null) {
+            var counters = topSourceHosts.top(topSourceHosts.getCapacity());
+            out.writeInt(topSourceHosts.getCapacity());
+            out.writeLong(topSourceHosts.getTotal());
+            out.writeInt(counters.size());
+            for (HeavyHitter counter: counters) {
+                out.writeUTF(counter.getHost());
+                out.writeLong(counter.getConnections());
+                out.writeLong(counter.getMaxError());
+            }
+        }
+
+        out.writeBoolean(pane.getLateConnections() != null);
+        if (pane.getLateConnections() != null) {
+            out.writeLong(pane.getLateConnections());
+        }
+
+        writeHostsPerHost(out, pane.getConnectedToSubscribedHost());
+        writeHostsPerHost(out, pane.getConnectedFromSubscribedHost());
+    }
+
+    private static ConnectionLogStatsContainer readPane(DataInput in, Function<LocalDateTime, ConnectionLogStatsContainer> paneFactory) throws IOException {
+        var pane = paneFactory.apply(LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC));
+        var stats = pane.getConnectionLogStats();
+
+        int hostCount = in.readInt();
+        for (int i=0; i<hostCount; i++) {
+            pane.getNumberOfConnectionsPerHost().add(in.readUTF(), in.readInt());
+        }
+        pane.updateSourceHostsWithMostConnections();
+
+        readOptionalHosts(in, stats.getConnectedFromSourceHostInWindow());
+        readOptionalHosts(in, stats.getConnectedToTargetHostInWindow());
+
+        if (in.readBoolean()) {
+            int capacity = in.readInt();
+            long total = in.readLong();
+            int counterCount = in.readInt();
+            var counters = new ArrayList<HeavyHitter>(counterCount);
+            for (int i=0; i<counterCount; i++) {
+                counters.add(new HeavyHitter(in.readUTF(), in.readLong(), in.readLong()));
+            }
+            pane.setTopSourceHosts(SpaceSaving.fromCounters(capacity, counters, total));
+        }
+
+        if (in.readBoolean()) {
+            pane.setLateConnections(in.readLong());
+        }
+
+        readHostsPerHost(in, pane.getConnectedToSubscribedHost());
+        readHostsPerHost(in, pane.getConnectedFromSubscribedHost());
+        return pane;
+    }
+
+    private static void writeOptionalHosts(DataOutput out, Optional<Set<String>> hosts) throws IOException {
+        out.writeBoolean(hosts.isPresent());
+        if (hosts.isPresent()) {
+            writeHosts(out, hosts.get());
+        }
+    }
+
+    /**
+     * The hosts are added to the pane's set, if the pane has it (ie. it was created with the same source/target host)
+     */
+    private static void readOptionalHosts(DataInput in, Optional<Set<String>> hosts) throws IOException {
+        if (in.readBoolean()) {
+            var readHosts = readHosts(in);
+            hosts.ifPresent(paneHosts -> paneHosts.addAll(readHosts));
+        }
+    }
+
+    private static void writeHostsPerHost(DataOutput out, Map<String, Set<String>> hostsPerHost) throws IOException {
+        out.writeInt(hostsPerHost.size());
+        for (Map.Entry<String, Set<String>> entry: hostsPerHost.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeHosts(out, entry.getValue());
+        }
+    }
+
+    private static void readHostsPerHost(DataInput in, Map<String, Set<String>> hostsPerHost) throws IOException {
+        int count = in.readInt();
+        for (int i=0; i<count; i++) {
+            hostsPerHost.put(in.readUTF(), readHosts(in));
+        }
+    }
+
+    private static void writeHosts(DataOutput out, Collection<String> hosts) throws IOException {
+        out.writeInt(hosts.size());
+        for (String host: hosts) {
+            out.writeUTF(host);
+        }
+    }
+
+    private static Set<String> readHosts(DataInput in) throws IOException {
+        int count = in.readInt();
+        var hosts = new HashSet<String>(2 * count);
+        for (int i=0; i<count; i++) {
+            hosts.add(in.readUTF());
+        }
+        return hosts;
+    }
+}
@@ -0,0 +1,24 @@
+package net.rubenmartinez.cbcc.params;
+
+import net.rubenmartinez.cbcc.exception.UserInputException;
+
+import java.util.Arrays;
+
+/**
+ * What is computed for each group in aggregate mode:
+ * - COUNT: number of connections
+ * - DISTINCT: number of distinct hosts on the other side of the connections (targets when grouping by source, sources otherwise)
+ */
+public enum AggregationFunction {
+    COUNT, DISTINCT;
+
+    public static AggregationFunction fromString(String s) {
+        for (AggregationFunction function: AggregationFunction.values()) {
+            if (function.name().equalsIgnoreCase((s))) {
+                return function;
+            }
+        }
+
+        throw new UserInputException("Invalid aggregate function: [" + s + "]. Please use one of: " + Arrays.asList(AggregationFunction.values()));
+    }
+}
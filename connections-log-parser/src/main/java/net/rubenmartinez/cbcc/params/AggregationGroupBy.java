@@ -0,0 +1,22 @@
+package net.rubenmartinez.cbcc.params;
+
+import net.rubenmartinez.cbcc.exception.UserInputException;
+
+import java.util.Arrays;
+
+/**
+ * What connections are grouped by in aggregate mode
+ */
+public enum AggregationGroupBy {
+    SOURCE, TARGET, TIME;
+
+    public static AggregationGroupBy fromString(String s) {
+        for (AggregationGroupBy groupBy: AggregationGroupBy.values()) {
+            if (groupBy.name().equalsIgnoreCase((s))) {
+                return groupBy;
+            }
+        }
+
+        throw new UserInputException("Invalid groupBy: [" + s + "]. Please use one of: " + Arrays.asList(AggregationGroupBy.values()));
+    }
+}
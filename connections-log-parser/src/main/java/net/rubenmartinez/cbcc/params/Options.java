@@ -2,12 +2,17 @@ package net.rubenmartinez.cbcc.params;
 
 import lombok.Data;
 import net.rubenmartinez.cbcc.exception.UserInputException;
+import net.rubenmartinez.cbcc.reactive.file.FollowBuffer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -42,26 +47,229 @@ public class Options {
     @Value("${uniqueHosts:false}")
     private boolean uniqueHosts;
 
+    @Value("${uniqueHostsMemoryMb:256}")
+    private int uniqueHostsMemoryMb;
+
+    @Value("${approximateUnique:false}")
+    private boolean approximateUnique;
+
+    @Value("${approximateUniquePrecision:12}")
+    private int approximateUniquePrecision;
+
+    @Value("${output:#{null}}")
+    private Optional<String> output;
+
+    @Value("${outputFormat:plain}")
+    private String outputFormat;
+
     @Value("${statsWindow:PT1H}")
     private String statsWindow;
 
+    @Value("${statsSlide:#{null}}")
+    private Optional<String> statsSlide;
+
+    @Value("${subscriptions:#{null}}")
+    private Optional<String> subscriptions;
+
+    @Value("${since:#{null}}")
+    private Optional<String> since;
+
+    @Value("${snapshot:#{null}}")
+    private Optional<String> snapshot;
+
+    @Value("${snapshotInterval:PT1M}")
+    private String snapshotInterval;
+
+    @Value("${shards:1}")
+    private int shards;
+
+    @Value("${eventTime:false}")
+    private boolean eventTime;
+
+    @Value("${heavyHitters:0}")
+    private int heavyHitters;
+
+    @Value("${topSources:10}")
+    private int topSources;
+
     @Value("${presearchTimestamp:false}")
     private boolean presearchTimestamp;
 
+    @Value("${presearchProbes:1}")
+    private int presearchProbes;
+
     @Value("${splits:0}")
     private int splits;
 
+    @Value("${ordered:false}")
+    private boolean ordered;
+
+    @Value("${reorderBuffer:8192}")
+    private int reorderBuffer;
+
+    @Value("${groupBy:source}")
+    private String groupBy;
+
+    @Value("${aggregate:count}")
+    private String aggregate;
+
+    @Value("${bucket:PT1M}")
+    private String bucket;
+
+    @Value("${top:0}")
+    private int top;
+
+    @Value("${window:#{null}}")
+    private Optional<String> window;
+
+    @Value("${days:MON-SUN}")
+    private String days;
+
+    @Value("${timeZone:UTC}")
+    private String timeZone;
+
+    @Value("${explain:false}")
+    private boolean explain;
+
+    @Value("${hops:2}")
+    private int hops;
+
+    @Value("${timeOrdered:false}")
+    private boolean timeOrdered;
+
+    @Value("${useIndex:true}")
+    private boolean useIndex;
+
+    @Value("${useSegments:true}")
+    private boolean useSegments;
+
+    @Value("${maintainIndex:false}")
+    private boolean maintainIndex;
+
+    @Value("${followBuffer:65536}")
+    private int followBuffer;
+
+    @Value("${followOverflow:block}")
+    private String followOverflow;
+
+    @Value("${metricsPort:0}")
+    private int metricsPort;
+
+    @Value("${port:8765}")
+    private int port;
+
+    @Value("${serverThreads:4}")
+    private int serverThreads;
+
     @Value("${timestampOrderToleranceMillis:"+DEFAULT_TIMESTAMP_ORDER_TOLERANCE_MILLIS+"}")
     private long timestampOrderToleranceMillis;
 
 
-    public Duration getStatsWindowDuration() {
+    /**
+     * Number of parts the log file is split in to be read in parallel: {@code --splits}, or one per available processor if not given
+     */
+    public int getParallelSplits() {
+        return getSplits() > 0 ? getSplits() : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Durations of the stats windows, a comma separated list to get several views at the same time (eg. "PT1M,PT5M,PT1H")
+     */
+    public List<Duration> getStatsWindowDurations() {
+        var durations = new ArrayList<Duration>();
+        for (String window: getStatsWindow().split(",")) {
+            durations.add(parsePositiveDuration(window.trim(), "Please use a ISO-8601 duration format (eg. \"PT1H\" for 1 hour)"));
+        }
+        return durations;
+    }
+
+    /**
+     * How often the stats are output, by default the shortest window (so a single window is a tumbling one). Every window must be a multiple of it.
+     */
+    public Duration getStatsSlideDuration() {
+        var windows = getStatsWindowDurations();
+        Duration slide = getStatsSlide().isPresent() ?
+                parsePositiveDuration(getStatsSlide().get(), "Please use a ISO-8601 duration format for the slide (eg. \"PT1M\" for 1 minute)") :
+                Collections.min(windows);
+
+        for (Duration window: windows) {
+            if (window.toNanos() % slide.toNanos() != 0) {
+                throw new UserInputException(String.format("Every stats window must be a multiple of the slide (%s): %s", slide, window));
+            }
+        }
+        return slide;
+    }
+
+    /**
+     * Timestamp (in milliseconds, as the ones of the log) of the first lines already in the log file counted by follow mode, from an
+     * ISO-8601 duration back from now (eg. "PT3H") or an ISO-8601 date time
+     */
+    public Optional<Long> getSinceTimestamp() {
+        return getSince().map(since -> {
+            if (since.toUpperCase().startsWith("P")) {
+                return System.currentTimeMillis() - parsePositiveDuration(since, "Please use a ISO-8601 duration format for since (eg. \"PT3H\" for the last 3 hours)").toMillis();
+            }
+            try {
+                return ZonedDateTime.parse(since, dateTimeFormatter).toInstant().toEpochMilli();
+            } catch (Exception e) {
+                throw new UserInputException("Please use a ISO-8601 duration (eg. \"PT3H\") or date time (eg. 2011-12-03T10:15:30Z) for since");
+            }
+        });
+    }
+
+    /**
+     * How often the state of the windows is written to the snapshot file
+     */
+    public Duration getSnapshotIntervalDuration() {
+        return parsePositiveDuration(getSnapshotInterval(), "Please use a ISO-8601 duration format for the snapshot interval (eg. \"PT1M\" for 1 minute)");
+    }
+
+    /**
+     * Buffer of the lines read from the followed file and not processed yet
+     */
+    public FollowBuffer getFollowBufferSettings() {
+        if (getFollowBuffer() <= 0) {
+            throw new UserInputException("The follow buffer must have room for at least one line: " + getFollowBuffer());
+        }
+        for (FollowBuffer.OverflowPolicy overflowPolicy: FollowBuffer.OverflowPolicy.values()) {
+            if (overflowPolicy.name().equalsIgnoreCase(getFollowOverflow())) {
+                return new FollowBuffer(getFollowBuffer(), overflowPolicy);
+            }
+        }
+        throw new UserInputException("Invalid followOverflow: [" + getFollowOverflow() + "]. Please use one of: " + Arrays.asList(FollowBuffer.OverflowPolicy.values()));
+    }
+
+    private static Duration parsePositiveDuration(String duration, String errorMessage) {
+        Duration parsed;
         try {
-            return Duration.parse(getStatsWindow());
+            parsed = Duration.parse(duration);
         } catch (Exception e) {
-            throw new UserInputException("Please use a ISO-8601 duration format (eg. \"PT1H\" for 1 hour)");
-
+            throw new UserInputException(errorMessage);
+        }
+        if (parsed.isNegative() || parsed.isZero()) {
+            throw new UserInputException(errorMessage);
         }
+        return parsed;
+    }
+
+    public Duration getBucketDuration() {
+        return parsePositiveDuration(getBucket(), "Please use a ISO-8601 duration format for the bucket (eg. \"PT1M\" for 1 minute)");
+    }
+
+    public AggregationGroupBy getAggregationGroupBy() {
+        return AggregationGroupBy.fromString(getGroupBy());
+    }
+
+    public AggregationFunction getAggregationFunction() {
+        return AggregationFunction.fromString(getAggregate());
+    }
+
+    public Optional<RecurringWindow> getRecurringWindow() {
+        return getWindow().map(window -> RecurringWindow.parse(window, getDays(), getTimeZone()));
+    }
+
+    public ResultFormat getResultFormat() {
+        return ResultFormat.fromString(getOutputFormat());
     }
 
     public Long getInitTimestamp() {
@@ -72,13 +280,16 @@ public class Options {
         return endTimestamp != null ? endTimestamp : getTimestampFromDateTime(endDateTime);
     }
 
+    /**
+     * In milliseconds, as the timestamps of the log
+     */
     private static final Long getTimestampFromDateTime(String dateTime) {
         if (dateTime == null) {
             return null;
         }
 
         try {
-            return ZonedDateTime.parse(dateTime, dateTimeFormatter).toInstant().getEpochSecond();
+            return ZonedDateTime.parse(dateTime, dateTimeFormatter).toInstant().toEpochMilli();
         } catch (Exception e) {
             throw new UserInputException("Please use ISO-8601 format for datetime options, eg. 2011-12-03T10:15:30");
         }
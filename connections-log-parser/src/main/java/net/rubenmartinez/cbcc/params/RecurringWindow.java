@@ -0,0 +1,114 @@
+package net.rubenmartinez.cbcc.params;
+
+import lombok.Value;
+import net.rubenmartinez.cbcc.domain.TimeRange;
+import net.rubenmartinez.cbcc.exception.UserInputException;
+
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A time window repeated on some days of the week, eg. from 09:00 to 10:00 from Monday to Friday.
+ *
+ * The window end is exclusive, and a window ending before (or at) its start ends on the next day, eg. {@code 22:00-02:00}.
+ */
+@Value
+public class RecurringWindow {
+
+    private final LocalTime from;
+    private final LocalTime to;
+    private final Set<DayOfWeek> days;
+    private final ZoneId zone;
+
+    /**
+     * @param window {@code HH:mm-HH:mm}
+     * @param days a range like {@code MON-FRI} or a list like {@code MON,WED,FRI}
+     * @param zone time zone of the window, eg. {@code UTC} or {@code Europe/Madrid}
+     */
+    public static RecurringWindow parse(String window, String days, String zone) {
+        String[] times = window.split("-");
+        if (times.length != 2) {
+            throw new UserInputException("Please use HH:mm-HH:mm for the window, eg. \"09:00-10:00\": " + window);
+        }
+
+        try {
+            return new RecurringWindow(LocalTime.parse(times[0].trim()), LocalTime.parse(times[1].trim()), parseDays(days), ZoneId.of(zone));
+        } catch (DateTimeParseException e) {
+            throw new UserInputException("Please use HH:mm-HH:mm for the window, eg. \"09:00-10:00\": " + window);
+        } catch (DateTimeException e) {
+            throw new UserInputException("Invalid time zone: " + zone);
+        }
+    }
+
+    private static Set<DayOfWeek> parseDays(String days) {
+        var daySet = EnumSet.noneOf(DayOfWeek.class);
+        for (String item: days.split(",")) {
+            String[] range = item.trim().split("-");
+            if (range.length == 1) {
+                daySet.add(parseDay(range[0]));
+            }
+            else if (range.length == 2) {
+                // Ranges can wrap around the end of the week, eg. FRI-MON
+                DayOfWeek day = parseDay(range[0]);
+                DayOfWeek last = parseDay(range[1]);
+                daySet.add(day);
+                while (day != last) {
+                    day = day.plus(1);
+                    daySet.add(day);
+                }
+            }
+            else {
+                throw new UserInputException("Invalid days: [" + days + "]. Please use a range like MON-FRI or a list like MON,WED,FRI");
+            }
+        }
+        return daySet;
+    }
+
+    private static DayOfWeek parseDay(String s) {
+        for (DayOfWeek day: DayOfWeek.values()) {
+            if (day.name().regionMatches(true, 0, s.trim(), 0, 3) && s.trim().length() == 3) {
+                return day;
+            }
+        }
+
+        throw new UserInputException("Invalid day: [" + s + "]. Please use one of: MON, TUE, WED, THU, FRI, SAT, SUN");
+    }
+
+    /**
+     * Every occurrence of the window between {@code initTimestamp} and {@code endTimestamp} (epoch millis), in chronological order
+     * and clipped to that range
+     */
+    public List<TimeRange> occurrences(long initTimestamp, long endTimestamp) {
+        var occurrences = new ArrayList<TimeRange>();
+
+        // Starting the day before, as its window could end on the first day
+        LocalDate lastDate = Instant.ofEpochMilli(endTimestamp).atZone(zone).toLocalDate();
+        for (LocalDate date = Instant.ofEpochMilli(initTimestamp).atZone(zone).toLocalDate().minusDays(1); !date.isAfter(lastDate); date = date.plusDays(1)) {
+            if (!days.contains(date.getDayOfWeek())) {
+                continue;
+            }
+
+            long start = ZonedDateTime.of(date, from, zone).toInstant().toEpochMilli();
+            LocalDate endDate = to.isAfter(from) ? date : date.plusDays(1);
+            long end = ZonedDateTime.of(endDate, to, zone).toInstant().toEpochMilli() - 1;
+
+            long clippedStart = Math.max(start, initTimestamp);
+            long clippedEnd = Math.min(end, endTimestamp);
+            if (clippedStart <= clippedEnd) {
+                occurrences.add(new TimeRange(clippedStart, clippedEnd));
+            }
+        }
+
+        return occurrences;
+    }
+}
@@ -0,0 +1,25 @@
+package net.rubenmartinez.cbcc.params;
+
+import net.rubenmartinez.cbcc.exception.UserInputException;
+
+import java.util.Arrays;
+
+/**
+ * How the results of parse mode are written:
+ * - PLAIN: "<sourceHost> at <timestamp>" lines (or just the host name with --uniqueHosts)
+ * - NDJSON: one JSON object per line
+ * - BINARY: length-prefixed records, see {@link net.rubenmartinez.cbcc.logparsing.components.impl.ResultWriter}
+ */
+public enum ResultFormat {
+    PLAIN, NDJSON, BINARY;
+
+    public static ResultFormat fromString(String s) {
+        for (ResultFormat format: ResultFormat.values()) {
+            if (format.name().equalsIgnoreCase((s))) {
+                return format;
+            }
+        }
+
+        throw new UserInputException("Invalid output format: [" + s + "]. Please use one of: " + Arrays.asList(ResultFormat.values()));
+    }
+}
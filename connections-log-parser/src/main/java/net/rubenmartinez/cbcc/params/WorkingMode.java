@@ -5,7 +5,7 @@ import net.rubenmartinez.cbcc.exception.UserInputException;
 import java.util.Arrays;
 
 public enum WorkingMode {
-    PARSE, FOLLOW;
+    PARSE, FOLLOW, INDEX, COMPACT, AGGREGATE, SERVE, QUERY, GRAPH;
 
     public static WorkingMode fromString(String s) {
         for (WorkingMode mode: WorkingMode.values()) {
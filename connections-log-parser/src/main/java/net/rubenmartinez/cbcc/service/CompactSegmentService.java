@@ -0,0 +1,14 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.domain.CompactionSummary;
+import net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+public interface CompactSegmentService {
+
+    CompactionSummary compact(Path logFile);
+
+    Optional<CompactSegmentFile> openSegments(Path logFile);
+}
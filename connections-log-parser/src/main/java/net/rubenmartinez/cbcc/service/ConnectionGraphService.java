@@ -0,0 +1,17 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionGraph;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+
+public interface ConnectionGraphService {
+
+    /**
+     * Graph of all the connections between {@code initTimestamp} and {@code endTimestamp}, read in a single parallel pass over
+     * the splits of the log file between {@code fromPosition} and {@code toPosition}
+     */
+    Mono<ConnectionGraph> buildGraph(Path logFile, long fromPosition, long toPosition, long initTimestamp, long endTimestamp) throws LogFileIOException, LogParserException;
+}
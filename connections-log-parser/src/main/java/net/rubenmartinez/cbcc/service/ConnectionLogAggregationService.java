@@ -0,0 +1,42 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.domain.AggregationRow;
+import net.rubenmartinez.cbcc.domain.ConnectionFilter;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.params.AggregationFunction;
+import net.rubenmartinez.cbcc.params.AggregationGroupBy;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+public interface ConnectionLogAggregationService {
+
+    /**
+     * Reduces the connections matching the filter between {@code fromPosition} and {@code toPosition} of the log file. Every split of the file
+     * (see {@code --splits}, one per available processor if not given) is collected into its own container in parallel, and the partial
+     * containers are combined at the end.
+     */
+    <A> Mono<A> reduceConnections(Path logFile, long fromPosition, long toPosition, ConnectionFilter filter,
+                                  Supplier<A> containerSupplier, BiConsumer<A, ConnectionLogLine> accumulator, BinaryOperator<A> combiner) throws LogFileIOException, LogParserException;
+
+    /**
+     * As {@link #reduceConnections(Path, long, long, ConnectionFilter, Supplier, BiConsumer, BinaryOperator)}, with the given number of splits
+     * instead of {@code --splits}
+     */
+    <A> Mono<A> reduceConnections(Path logFile, long fromPosition, long toPosition, int splits, ConnectionFilter filter,
+                                  Supplier<A> containerSupplier, BiConsumer<A, ConnectionLogLine> accumulator, BinaryOperator<A> combiner) throws LogFileIOException, LogParserException;
+
+    /**
+     * @param bucket size of the time buckets, only used when grouping by {@link AggregationGroupBy#TIME}
+     * @param top when greater than 0 only the {@code top} groups with the greatest values are returned
+     */
+    Mono<List<AggregationRow>> aggregate(Path logFile, long fromPosition, long toPosition, ConnectionFilter filter,
+                                         AggregationGroupBy groupBy, AggregationFunction function, Duration bucket, int top) throws LogFileIOException, LogParserException;
+}
@@ -9,5 +9,9 @@ import java.nio.file.Path;
 
 public interface ConnectionLogParserService {
 
-    Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, String host, long initTimestamp, long endTimestamp) throws LogFileIOException, LogParserException;
+    /**
+     * @param fromPosition position (at a line boundary) of the first line to read
+     * @param toPosition position (exclusive, at a line boundary) where to stop reading, {@link Long#MAX_VALUE} to read until the end of the file
+     */
+    Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp) throws LogFileIOException, LogParserException;
 }
@@ -5,11 +5,18 @@ import reactor.core.publisher.Flux;
 
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 
 public interface ConnectionLogWatcherService {
 
-    Flux<ConnectionLogStats> collectStats(Path logFile, Optional<String> sourceHost, Optional<String> targetHost, Duration windowDuration);
+    /**
+     * Stats of the lines written to the file from now on (or from the last snapshot, with the snapshot option, or since a timestamp, with the since option),
+     * output every {@code slideDuration} for each of the windows
+     *
+     * @param windowDurations durations of the windows, all of them multiples of {@code slideDuration}
+     */
+    Flux<ConnectionLogStats> collectStats(Path logFile, Optional<String> sourceHost, Optional<String> targetHost, List<Duration> windowDurations, Duration slideDuration);
 
 
 }
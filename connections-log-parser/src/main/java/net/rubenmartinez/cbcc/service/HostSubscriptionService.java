@@ -0,0 +1,17 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.exception.UserInputException;
+
+import java.util.Set;
+
+public interface HostSubscriptionService {
+
+    /**
+     * Hosts subscribed in the subscriptions file ({@code --subscriptions}), reloaded whenever the file changes. Follow mode takes them
+     * at the start of every window, so the changes in the file apply from the next window.
+     *
+     * @return the subscribed hosts, an empty set if there is no subscriptions file
+     * @throws UserInputException if the subscriptions file can't be read the first time. Later errors keep the last hosts read.
+     */
+    Set<String> getSubscribedHosts() throws UserInputException;
+}
@@ -0,0 +1,28 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.LogFileBounds;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public interface LogFileSetService {
+
+    /**
+     * @return true if the given path is a directory or a glob pattern (eg. {@code /var/log/input.log*}) instead of a single log file
+     */
+    boolean isFileSet(Path path);
+
+    /**
+     * @return the timestamps range of every log file of the set, sorted by their minimum timestamp. Files without any valid line are not included
+     */
+    List<LogFileBounds> getFileBounds(Path fileSet) throws LogFileIOException;
+
+    /**
+     * Connections to the host in all the files of the set that can contain lines in the time range, in timestamp order (as roughly sorted as the lines of a single log file)
+     */
+    Flux<ConnectionLogLine> getConnectionsToHost(Path fileSet, String host, long initTimestamp, long endTimestamp) throws LogFileIOException, LogParserException;
+}
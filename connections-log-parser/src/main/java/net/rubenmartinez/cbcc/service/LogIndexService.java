@@ -0,0 +1,17 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.domain.LogIndex;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+public interface LogIndexService {
+
+    Optional<LogIndex> loadIndex(Path logFile);
+
+    LogIndex updateIndex(Path logFile);
+
+    void updateIndexInBackground(Path logFile);
+
+    int getBlockSize();
+}
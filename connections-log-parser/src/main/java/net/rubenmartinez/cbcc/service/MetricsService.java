@@ -0,0 +1,38 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.util.LatencyHistogram;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public interface MetricsService {
+
+    /**
+     * @return the counter with that name, created the first time. Counters only go up, and can be incremented from any thread.
+     */
+    LongAdder counter(String name);
+
+    /**
+     * Registers a value read only when the metrics are read, eg. the size of a map. A gauge with the same name replaces the previous one.
+     */
+    void gauge(String name, LongSupplier value);
+
+    /**
+     * @return the histogram with that name, created the first time
+     */
+    LatencyHistogram histogram(String name);
+
+    /**
+     * @return the current value of every metric, sorted by name. Histograms are expanded in their count, percentiles and maximum.
+     */
+    Map<String, Long> getValues();
+
+    /**
+     * Serves the metrics as plain text ({@code name value} per line) on {@code GET /metrics}, on the loopback interface only
+     *
+     * @throws LogParserException if the port can't be listened on
+     */
+    void startHttpEndpoint(int port) throws LogParserException;
+}
@@ -0,0 +1,21 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+
+/**
+ * Reads the position range in parts in parallel. The method of {@link ConnectionLogParserService} uses {@code --splits} and {@code --ordered}.
+ */
+public interface ParallelConnectionLogParserService extends ConnectionLogParserService {
+
+    /**
+     * @param splits number of parts of the position range read at the same time
+     * @param ordered whether the connections are emitted in the order of the file
+     */
+    Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp,
+                                                 int splits, boolean ordered) throws LogFileIOException, LogParserException;
+}
@@ -0,0 +1,21 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.domain.LogFileRange;
+import net.rubenmartinez.cbcc.domain.QueryPlan;
+
+import java.nio.file.Path;
+
+public interface QueryPlannerService {
+
+    /**
+     * Chooses the cheapest way to find the connections to {@code host} between {@code initTimestamp} and {@code endTimestamp}.
+     * Options given explicitly in the command line ({@code --presearchTimestamp}, {@code --splits}...) are always honored.
+     */
+    QueryPlan plan(Path logFile, String host, long initTimestamp, long endTimestamp);
+
+    /**
+     * The part of the file to read for the time range, as in {@link #plan}: found with the timestamp presearch when the file is big
+     * enough for it to pay off (or {@code --presearchTimestamp=true} is given), the whole file otherwise.
+     */
+    LogFileRange findPositionRange(Path logFile, long initTimestamp, long endTimestamp);
+}
@@ -0,0 +1,12 @@
+package net.rubenmartinez.cbcc.service;
+
+import java.nio.file.Path;
+
+public interface QueryServerService {
+
+    /**
+     * Answers parse queries on the given log file from a port of the loopback interface. It blocks until the process is stopped, or until the
+     * calling thread is interrupted, when it stops listening and answering the queries in progress.
+     */
+    void serve(Path logFile, int port);
+}
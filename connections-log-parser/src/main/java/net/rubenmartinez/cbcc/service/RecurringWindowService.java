@@ -0,0 +1,18 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.params.RecurringWindow;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+
+public interface RecurringWindowService {
+
+    /**
+     * Connections to {@code host} in every occurrence of the window between {@code initTimestamp} and {@code endTimestamp}, in chronological order
+     * of the occurrences. The parts of the file between occurrences are never read.
+     */
+    Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, String host, RecurringWindow window, long initTimestamp, long endTimestamp) throws LogFileIOException, LogParserException;
+}
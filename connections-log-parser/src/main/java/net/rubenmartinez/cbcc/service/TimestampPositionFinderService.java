@@ -1,9 +1,19 @@
 package net.rubenmartinez.cbcc.service;
 
+import net.rubenmartinez.cbcc.domain.LogFileRange;
+
 import java.nio.file.Path;
 
 public interface TimestampPositionFinderService {
 
 
     long findNearTimestamp(long timestamp, Path logFile);
+
+    long findPositionAfterTimestamp(long timestamp, Path logFile);
+
+    /**
+     * Positions of the log file that can contain lines between {@code initTimestamp} and {@code endTimestamp}, taking into account
+     * that lines can be out of order up to {@code --timestampOrderToleranceMillis}
+     */
+    LogFileRange findPositionRange(long initTimestamp, long endTimestamp, Path logFile);
 }
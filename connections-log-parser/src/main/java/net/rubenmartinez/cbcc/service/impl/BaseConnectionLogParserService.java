@@ -1,26 +1,76 @@
 package net.rubenmartinez.cbcc.service.impl;
 
 import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionLogScanner;
 import net.rubenmartinez.cbcc.params.Options;
 import net.rubenmartinez.cbcc.service.ConnectionLogParserService;
+import net.rubenmartinez.cbcc.service.MetricsService;
 import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import javax.inject.Inject;
 import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 public abstract class BaseConnectionLogParserService implements ConnectionLogParserService {
 
     @Inject private Options options;
+    @Inject private MetricsService metricsService;
+
+    /**
+     * @see ConnectionLogScanner#ConnectionLogScanner(net.rubenmartinez.cbcc.logparsing.components.LogLineParser, LongAdder, String, long, long, long)
+     */
+    protected LongAdder getLinesParsedInPlace() {
+        return metricsService.counter(ConnectionLogScanner.LINES_PARSED_IN_PLACE_METRIC);
+    }
 
     protected long getAdjustedEndTimestamp(long endTimestamp) {
         return endTimestamp + options.getTimestampOrderToleranceMillis();
     }
 
-    protected boolean filterConnection(ConnectionLogLine connection, String host, long initTimestamp, long endTimestamp) {
-        return connection.getTimestamp() >= initTimestamp &&
-                connection.getTimestamp() <= endTimestamp &&
-                connection.getTargetHost().equals(host);
+    /**
+     * Counts the queries, the connections found and the time to find all of them (or until the query is cancelled), as {@code parse.<parser>.*} metrics
+     */
+    protected Flux<ConnectionLogLine> withQueryMetrics(String parser, Flux<ConnectionLogLine> connections) {
+        var connectionsFound = metricsService.counter("parse." + parser + ".connections");
+        var queryLatency = metricsService.histogram("parse." + parser + ".queryLatencyMicros");
+
+        return Flux.defer(() -> {
+            metricsService.counter("parse." + parser + ".queries").increment();
+            long startNanos = System.nanoTime();
+            return connections
+                    .doOnNext(connection -> connectionsFound.increment())
+                    .doFinally(signal -> queryLatency.record((System.nanoTime() - startNanos) / 1000)); // Also cancelled queries (eg. a client gone)
+        });
+    }
+
+    /**
+     * The flux created by {@code fluxFactory}, running in a pool of threads of its own.
+     *
+     * The pool is created on subscription, so a flux never subscribed doesn't keep its threads and a flux subscribed again has its own, and it
+     * is disposed on any termination, also on an error or a cancellation (eg. a client of the query server that disconnects), as a long-running
+     * process would otherwise keep the threads of every such flux.
+     */
+    protected static <T> Flux<T> withParallelScheduler(String name, int parallelism, Function<Scheduler, Flux<T>> fluxFactory) {
+        return Flux.defer(() -> {
+            Scheduler scheduler = Schedulers.newParallel(name, parallelism);
+            try {
+                return fluxFactory.apply(scheduler).doFinally(signal -> scheduler.dispose());
+            } catch (RuntimeException e) {
+                scheduler.dispose();
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Like {@link #withParallelScheduler(String, int, Function)}, with a thread per processor
+     */
+    protected static <T> Flux<T> withParallelScheduler(String name, Function<Scheduler, Flux<T>> fluxFactory) {
+        return withParallelScheduler(name, Schedulers.DEFAULT_POOL_SIZE, fluxFactory);
     }
 
-    public abstract Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, String host, long initTimestamp, long endTimestamp);
+    public abstract Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp);
 }
@@ -0,0 +1,196 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import lombok.Value;
+import net.rubenmartinez.cbcc.domain.CompactionSummary;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
+import net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile;
+import net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentWriter;
+import net.rubenmartinez.cbcc.service.CompactSegmentService;
+import net.rubenmartinez.cbcc.util.FileFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+public class CompactSegmentServiceImpl implements CompactSegmentService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactSegmentServiceImpl.class);
+
+    private static final Charset CHARSET = StandardCharsets.US_ASCII; // TODO Configurable
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    @Inject private LogLineParser logLineParser;
+
+    private final Map<Path, OpenedSegments> openedSegmentFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Converts all the complete lines of the given log file into a {@link CompactSegmentFile}.
+     *
+     * The segments file is written to a temporary file first and then moved to its final name, so clients never read a partial file.
+     * The temporary file is deleted if the compaction fails.
+     * Lines that can't be parsed are ignored (the same way they are ignored when parsing the text file).
+     */
+    @Override
+    public CompactionSummary compact(Path logFile) {
+        Path segmentFile = CompactSegmentFile.getSegmentFile(logFile);
+        Path temporaryFile = segmentFile.resolveSibling(segmentFile.getFileName() + TEMPORARY_FILE_SUFFIX);
+
+        try (var logChannel = FileChannel.open(logFile, StandardOpenOption.READ);
+             var writer = new CompactSegmentWriter(temporaryFile)) {
+
+            long compactedLength = compactCompleteLines(logChannel, writer);
+            writer.finish(compactedLength, FileFingerprint.of(logChannel, compactedLength));
+
+            Files.move(temporaryFile, segmentFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.debug("compact: {} lines of {} written to {}", writer.getLinesWritten(), logFile, segmentFile);
+
+            return new CompactionSummary(writer.getLinesWritten(), writer.getSegmentsWritten(), writer.getHostCount(), compactedLength, Files.size(segmentFile));
+        } catch (IOException e) {
+            throw new LogFileIOException("Error while compacting log file: " + logFile, e);
+        } finally {
+            deleteTemporaryFile(temporaryFile); // Only still there if the compaction failed
+        }
+    }
+
+    private static void deleteTemporaryFile(Path temporaryFile) {
+        try {
+            Files.deleteIfExists(temporaryFile);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete temporary file: {} (error: {})", temporaryFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Segments files are opened once (reading their host dictionaries and directories) and kept open, and every client gets its own
+     * reference, which it must close when it is done with it. A segments file is only opened again when it changes (its size or its
+     * modification time), eg. after compacting the log file again.
+     *
+     * The previous instance is released then, so it is closed as soon as the running queries using it close their references.
+     *
+     * @return The segments file of the given log file, or empty if it doesn't exist or doesn't match the log file anymore (shorter than the
+     * compacted part, or with other contents in it, as checked by the {@link FileFingerprint} of the compacted part)
+     */
+    @Override
+    public Optional<CompactSegmentFile> openSegments(Path logFile) {
+        Path segmentFile = CompactSegmentFile.getSegmentFile(logFile);
+        if (!Files.exists(segmentFile)) {
+            return Optional.empty();
+        }
+
+        try {
+            var segmentAttributes = Files.readAttributes(segmentFile, BasicFileAttributes.class);
+            // Retained while the entry is locked, so a concurrent replacement can't close it before
+            var openedSegments = openedSegmentFiles.compute(segmentFile, (path, opened) -> {
+                var current = opened != null && opened.isValid(segmentAttributes) ?
+                        opened :
+                        new OpenedSegments(CompactSegmentFile.open(segmentFile), segmentAttributes.size(), segmentAttributes.lastModifiedTime());
+                if (opened != null && current != opened) {
+                    opened.getCompactSegmentFile().close();
+                }
+                current.getCompactSegmentFile().retain();
+                return current;
+            });
+
+            var compactSegmentFile = openedSegments.getCompactSegmentFile();
+
+            if (isStale(compactSegmentFile, logFile)) {
+                LOGGER.warn("Ignoring stale compact segments file: {}", segmentFile);
+                compactSegmentFile.close();
+                return Optional.empty();
+            }
+
+            return Optional.of(compactSegmentFile);
+        } catch (IOException e) {
+            throw new LogFileIOException("Error while opening compact segments file: " + segmentFile, e);
+        }
+    }
+
+    private static boolean isStale(CompactSegmentFile compactSegmentFile, Path logFile) {
+        try (var logChannel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            return compactSegmentFile.getSourceLength() > logChannel.size() || // The log file was truncated or rotated
+                    FileFingerprint.of(logChannel, compactSegmentFile.getSourceLength()) != compactSegmentFile.getSourceFingerprint(); // Or rotated and already longer
+        } catch (IOException e) {
+            compactSegmentFile.close();
+            throw new LogFileIOException("Error while reading log file: " + logFile, e);
+        }
+    }
+
+    @Value
+    private static class OpenedSegments {
+        private final CompactSegmentFile compactSegmentFile;
+        private final long segmentFileSize;
+        private final FileTime segmentFileLastModified;
+
+        boolean isValid(BasicFileAttributes segmentAttributes) {
+            return segmentAttributes.size() == segmentFileSize && segmentAttributes.lastModifiedTime().equals(segmentFileLastModified);
+        }
+    }
+
+    /**
+     * @return The position just after the last complete line compacted
+     */
+    private long compactCompleteLines(FileChannel logChannel, CompactSegmentWriter writer) throws IOException {
+        byte[] bytes = new byte[READ_BUFFER_SIZE];
+        long bufferPosition = 0; // Position in the log file of bytes[0]
+        int length = 0;
+
+        int bytesRead;
+        while ((bytesRead = logChannel.read(ByteBuffer.wrap(bytes, length, bytes.length - length), bufferPosition + length)) > 0) {
+            length += bytesRead;
+
+            int lineStart = 0;
+            for (int i=0; i<length; i++) {
+                if (bytes[i] != '\n' && bytes[i] != '\r') {
+                    continue;
+                }
+                if (i > lineStart) {
+                    var line = parseLineOrNull(new String(bytes, lineStart, i - lineStart, CHARSET));
+                    if (line != null) {
+                        writer.add(line, bufferPosition + i + 1);
+                    }
+                }
+                lineStart = i + 1;
+            }
+
+            if (lineStart == 0 && length == bytes.length) {
+                throw new LogParserException("Error compacting log file at position " + bufferPosition + ", there might be lines greater than " + READ_BUFFER_SIZE + " bytes");
+            }
+
+            System.arraycopy(bytes, lineStart, bytes, 0, length - lineStart);
+            bufferPosition += lineStart;
+            length -= lineStart;
+        }
+
+        return bufferPosition;
+    }
+
+    private ConnectionLogLine parseLineOrNull(String line) {
+        try {
+            return logLineParser.parseLine(line);
+        } catch (Exception e) {
+            LOGGER.warn("Ignoring line: {} (error: {})", line, e.getMessage());
+            return null;
+        }
+    }
+}
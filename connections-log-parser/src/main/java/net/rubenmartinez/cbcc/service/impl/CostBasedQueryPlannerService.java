@@ -0,0 +1,199 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import net.rubenmartinez.cbcc.domain.LogFileRange;
+import net.rubenmartinez.cbcc.domain.QueryPlan;
+import net.rubenmartinez.cbcc.domain.QueryPlan.Strategy;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile;
+import net.rubenmartinez.cbcc.params.Options;
+import net.rubenmartinez.cbcc.service.CompactSegmentService;
+import net.rubenmartinez.cbcc.service.LogIndexService;
+import net.rubenmartinez.cbcc.service.QueryPlannerService;
+import net.rubenmartinez.cbcc.service.TimestampPositionFinderService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the bytes each strategy would read and chooses the cheapest one:
+ * - The timestamp presearch costs a few dozens of small reads, so it is always used unless the file is small.
+ * - The sidecar index and the compact segments give the exact bytes they would read for the query (blocks whose Bloom filter
+ *   could contain the host, segments in the time range), plus the text written after them. A plain sequential read is not considered
+ *   when there is an index, as the sequential parser always uses it.
+ * - Parallel splits divide the wall time of a sequential read by the number of splits, but they only pay off in big ranges.
+ *   When they are chosen here the connections are still written in file order (as with {@code --ordered}), with {@code --splits} only
+ *   if {@code --ordered} is given too, as in the parallel parser.
+ */
+@Service
+public class CostBasedQueryPlannerService implements QueryPlannerService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CostBasedQueryPlannerService.class);
+
+    private static final long PRESEARCH_MINIMUM_FILE_SIZE = 4L * 1024 * 1024;
+    private static final long PARALLEL_MINIMUM_BYTES = 64L * 1024 * 1024;
+    private static final long PARALLEL_BYTES_PER_SPLIT = 64L * 1024 * 1024;
+    private static final int PARALLEL_MAXIMUM_SPLITS = 4; // More splits than this rarely help, as the disk becomes the bottleneck
+
+    @Inject private TimestampPositionFinderService positionFinderService;
+    @Inject private LogIndexService logIndexService;
+    @Inject private CompactSegmentService compactSegmentService;
+    @Inject private Options options;
+    @Inject private Environment environment;
+
+    @Override
+    public QueryPlan plan(Path logFile, String host, long initTimestamp, long endTimestamp) {
+        long fileSize = getFileSize(logFile);
+        int cores = Runtime.getRuntime().availableProcessors();
+        var details = new ArrayList<String>();
+        details.add(String.format("File size: %s bytes, time range: %s ms, cores: %s", fileSize, endTimestamp - initTimestamp, cores));
+
+        var positionRange = findPositionRange(logFile, fileSize, initTimestamp, endTimestamp, details);
+        long rangeBytes = Math.min(positionRange.getToPosition(), fileSize) - positionRange.getFromPosition();
+
+        var costs = new EnumMap<Strategy, Long>(Strategy.class);
+        var bytes = new EnumMap<Strategy, Long>(Strategy.class);
+        int splits = 0;
+
+        if (isExplicit("splits") && options.getSplits() > 0) {
+            splits = options.getSplits();
+            addCandidate(Strategy.PARALLEL, rangeBytes, rangeBytes / splits, costs, bytes);
+            details.add(String.format("PARALLEL: %s bytes in %s splits (--splits given)", rangeBytes, splits));
+        }
+        else {
+            estimateSegments(logFile, positionRange, fileSize, initTimestamp, endTimestamp, costs, bytes, details);
+            estimateIndex(logFile, positionRange, fileSize, host, initTimestamp, endTimestamp, costs, bytes, details);
+
+            if (costs.containsKey(Strategy.INDEX)) {
+                details.add("SEQUENTIAL: not considered (the sequential read skips the blocks excluded by the sidecar index)");
+            }
+            else {
+                addCandidate(Strategy.SEQUENTIAL, rangeBytes, rangeBytes, costs, bytes);
+                details.add(String.format("SEQUENTIAL: %s bytes", rangeBytes));
+            }
+
+            if (!isExplicit("splits") && cores > 1 && rangeBytes >= PARALLEL_MINIMUM_BYTES) {
+                splits = (int) Math.max(2, Math.min(Math.min(cores, PARALLEL_MAXIMUM_SPLITS), rangeBytes / PARALLEL_BYTES_PER_SPLIT));
+                addCandidate(Strategy.PARALLEL, rangeBytes, rangeBytes / splits, costs, bytes);
+                details.add(String.format("PARALLEL: %s bytes in %s splits, about %s bytes per split", rangeBytes, splits, rangeBytes / splits));
+            }
+            else {
+                details.add(String.format("PARALLEL: not considered (%s)", isExplicit("splits") ? "--splits=0 given" :
+                        cores > 1 ? "less than " + PARALLEL_MINIMUM_BYTES + " bytes to read" : "a single core"));
+            }
+        }
+
+        // Ties go to the first one in the enum order, the ones with less overhead
+        Strategy strategy = costs.entrySet().stream()
+                .min(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .orElse(Strategy.SEQUENTIAL);
+
+        boolean ordered = isExplicit("ordered") ? options.isOrdered() : !isExplicit("splits");
+
+        LOGGER.debug("plan: {} for {}", strategy, details);
+        return new QueryPlan(strategy, positionRange, strategy == Strategy.PARALLEL ? splits : 0, ordered, bytes.get(strategy), List.copyOf(details));
+    }
+
+    @Override
+    public LogFileRange findPositionRange(Path logFile, long initTimestamp, long endTimestamp) {
+        return findPositionRange(logFile, getFileSize(logFile), initTimestamp, endTimestamp, new ArrayList<>());
+    }
+
+    private LogFileRange findPositionRange(Path logFile, long fileSize, long initTimestamp, long endTimestamp, List<String> details) {
+        boolean presearch = isExplicit("presearchTimestamp") ? options.isPresearchTimestamp() : fileSize >= PRESEARCH_MINIMUM_FILE_SIZE;
+        if (!presearch) {
+            details.add(isExplicit("presearchTimestamp") ?
+                    "Position range: whole file (--presearchTimestamp=false given)" :
+                    "Position range: whole file (smaller than " + PRESEARCH_MINIMUM_FILE_SIZE + " bytes, not worth a presearch)");
+            return new LogFileRange(0, Long.MAX_VALUE);
+        }
+
+        var positionRange = positionFinderService.findPositionRange(initTimestamp, endTimestamp, logFile);
+        details.add(String.format("Position range: [%s, %s) by timestamp presearch", positionRange.getFromPosition(),
+                positionRange.getToPosition() == Long.MAX_VALUE ? "end of file" : positionRange.getToPosition()));
+        return positionRange;
+    }
+
+    private void estimateSegments(Path logFile, LogFileRange positionRange, long fileSize, long initTimestamp, long endTimestamp,
+                                  Map<Strategy, Long> costs, Map<Strategy, Long> bytes, List<String> details) {
+        if (!options.isUseSegments()) {
+            details.add("SEGMENTS: not considered (--useSegments=false)");
+            return;
+        }
+
+        var segmentFile = compactSegmentService.openSegments(logFile);
+        if (segmentFile.isEmpty()) {
+            details.add("SEGMENTS: no compact segments (see mode compact)");
+            return;
+        }
+
+        long segmentBytes;
+        long tailBytes;
+        try (var compactSegmentFile = segmentFile.get()) {
+            segmentBytes = compactSegmentFile.getSegments().stream()
+                    .filter(segment -> segment.getMaxTimestamp() >= initTimestamp && segment.getMinTimestamp() <= endTimestamp)
+                    .mapToLong(CompactSegmentFile.Segment::getLength)
+                    .sum();
+            tailBytes = textTailBytes(positionRange, fileSize, compactSegmentFile.getSourceLength());
+        }
+
+        addCandidate(Strategy.SEGMENTS, segmentBytes + tailBytes, segmentBytes + tailBytes, costs, bytes);
+        details.add(String.format("SEGMENTS: %s bytes of segments in the time range, %s bytes of text after them", segmentBytes, tailBytes));
+    }
+
+    private void estimateIndex(Path logFile, LogFileRange positionRange, long fileSize, String host, long initTimestamp, long endTimestamp,
+                               Map<Strategy, Long> costs, Map<Strategy, Long> bytes, List<String> details) {
+        if (!options.isUseIndex()) {
+            details.add("INDEX: not considered (--useIndex=false)");
+            return;
+        }
+
+        var logIndex = logIndexService.loadIndex(logFile);
+        if (logIndex.isEmpty()) {
+            details.add("INDEX: no sidecar index (see mode index)");
+            return;
+        }
+
+        long adjustedEndTimestamp = endTimestamp + options.getTimestampOrderToleranceMillis();
+        var candidateRanges = logIndex.get().findCandidateRanges(positionRange.getFromPosition(), positionRange.getToPosition(), host, initTimestamp, adjustedEndTimestamp);
+        long candidateBytes = candidateRanges.stream().mapToLong(range -> range.getToPosition() - range.getFromPosition()).sum();
+        long tailBytes = textTailBytes(positionRange, fileSize, logIndex.get().getIndexedLength());
+
+        addCandidate(Strategy.INDEX, candidateBytes + tailBytes, candidateBytes + tailBytes, costs, bytes);
+        details.add(String.format("INDEX: %s bytes in %s candidate ranges, %s bytes of text not indexed yet", candidateBytes, candidateRanges.size(), tailBytes));
+    }
+
+    /**
+     * Bytes of the position range written after the part covered by the index or the segments
+     */
+    private static long textTailBytes(LogFileRange positionRange, long fileSize, long coveredLength) {
+        return Math.max(0, Math.min(positionRange.getToPosition(), fileSize) - Math.max(positionRange.getFromPosition(), coveredLength));
+    }
+
+    private static void addCandidate(Strategy strategy, long estimatedBytes, long cost, Map<Strategy, Long> costs, Map<Strategy, Long> bytes) {
+        costs.put(strategy, cost);
+        bytes.put(strategy, estimatedBytes);
+    }
+
+    private boolean isExplicit(String option) {
+        return environment.containsProperty(option);
+    }
+
+    private static long getFileSize(Path logFile) {
+        try {
+            return Files.size(logFile);
+        } catch (IOException e) {
+            throw new LogFileIOException("Error while reading the size of log file: " + logFile, e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import net.rubenmartinez.cbcc.exception.UserInputException;
+import net.rubenmartinez.cbcc.params.Options;
+import net.rubenmartinez.cbcc.service.HostSubscriptionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Subscriptions file with a host per line. Blank lines and lines starting with {@code #} are ignored.
+ *
+ * Only the modification time of the file is checked on every call, the file is read again only when it changes. The returned set is
+ * never modified afterwards, so it can be used by any thread while a new one is loaded.
+ */
+@Service
+public class FileHostSubscriptionService implements HostSubscriptionService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileHostSubscriptionService.class);
+
+    @Inject private Options options;
+
+    private Set<String> subscribedHosts;
+    private FileTime lastModifiedTime;
+
+    @Override
+    public synchronized Set<String> getSubscribedHosts() {
+        if (options.getSubscriptions().isEmpty()) {
+            return Set.of();
+        }
+
+        Path subscriptionsFile = Path.of(options.getSubscriptions().get());
+        try {
+            FileTime modifiedTime = Files.getLastModifiedTime(subscriptionsFile);
+            if (subscribedHosts == null || !modifiedTime.equals(lastModifiedTime)) {
+                subscribedHosts = readSubscribedHosts(subscriptionsFile);
+                lastModifiedTime = modifiedTime;
+                LOGGER.debug("getSubscribedHosts: {} hosts loaded from {}", subscribedHosts.size(), subscriptionsFile);
+            }
+        } catch (IOException e) {
+            if (subscribedHosts == null) {
+                throw new UserInputException("Couldn't read the subscriptions file: " + subscriptionsFile, e);
+            }
+            LOGGER.warn("Couldn't reload the subscriptions file {}, keeping the {} hosts read before (error: {})", subscriptionsFile, subscribedHosts.size(), e.getMessage());
+        }
+        return subscribedHosts;
+    }
+
+    private static Set<String> readSubscribedHosts(Path subscriptionsFile) throws IOException {
+        var hosts = new HashSet<String>();
+        for (String line: Files.readAllLines(subscriptionsFile, StandardCharsets.UTF_8)) {
+            String host = line.trim();
+            if (!host.isEmpty() && !host.startsWith("#")) {
+                hosts.add(host);
+            }
+        }
+        return Set.copyOf(hosts);
+    }
+}
@@ -0,0 +1,65 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile;
+import net.rubenmartinez.cbcc.service.CompactSegmentService;
+import net.rubenmartinez.cbcc.service.ConnectionLogParserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import javax.inject.Inject;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Reads the connections from the compact segments of the log file (see {@link CompactSegmentFile}) and then, from the text log file,
+ * the lines written after the log was compacted. When the log file has not been compacted it just falls back to the text parser.
+ */
+@Service("segments")
+public class FluxCompactSegmentParserService extends BaseConnectionLogParserService implements ConnectionLogParserService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FluxCompactSegmentParserService.class);
+
+    @Inject
+    private CompactSegmentService compactSegmentService;
+
+    @Inject
+    private FluxConnectionLogParserService textParser;
+
+    public Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp) throws LogFileIOException {
+        LOGGER.debug("getConnectionsToHost({}, {}, {}, {}, {}, {})", logFile, fromPosition, toPosition, host, initTimestamp, endTimestamp);
+
+        // The segments file is opened on subscription, so its reference is always released when the flux terminates or is cancelled
+        return Flux.defer(() -> {
+            var segmentFile = compactSegmentService.openSegments(logFile);
+            if (segmentFile.isEmpty()) {
+                LOGGER.debug("getConnectionsToHost: no compact segments for {}, parsing text", logFile);
+                return textParser.getConnectionsToHost(logFile, fromPosition, toPosition, host, initTimestamp, endTimestamp);
+            }
+
+            return Flux.using(segmentFile::get, compactSegmentFile ->
+                    withQueryMetrics("segments", segmentConnections(compactSegmentFile, host, initTimestamp, endTimestamp)
+                            .concatWith(Flux.defer(() -> textParser.getConnectionsToHostWithoutMetrics(logFile, Math.max(fromPosition, compactSegmentFile.getSourceLength()), toPosition, host, initTimestamp, endTimestamp)))),
+                    CompactSegmentFile::close);
+        });
+    }
+
+    private static Flux<ConnectionLogLine> segmentConnections(CompactSegmentFile compactSegmentFile, String host, long initTimestamp, long endTimestamp) {
+        int hostId = compactSegmentFile.getHostId(host);
+        if (hostId < 0) {
+            LOGGER.debug("segmentConnections: host {} not in compact segments dictionary", host);
+            return Flux.empty();
+        }
+
+        return Flux.fromIterable(compactSegmentFile.getSegments())
+                .filter(segment -> segment.getMaxTimestamp() >= initTimestamp && segment.getMinTimestamp() <= endTimestamp)
+                .concatMapIterable(segment -> {
+                    var connections = new ArrayList<ConnectionLogLine>();
+                    compactSegmentFile.forEachConnectionToHost(segment, hostId, initTimestamp, endTimestamp, connections::add);
+                    return connections;
+                });
+    }
+}
@@ -0,0 +1,38 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionFilter;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionGraph;
+import net.rubenmartinez.cbcc.params.Options;
+import net.rubenmartinez.cbcc.service.ConnectionGraphService;
+import net.rubenmartinez.cbcc.service.ConnectionLogAggregationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.inject.Inject;
+import java.nio.file.Path;
+import java.util.Optional;
+
+@Service
+public class FluxConnectionGraphService implements ConnectionGraphService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FluxConnectionGraphService.class);
+
+    @Inject private Options options;
+    @Inject private ConnectionLogAggregationService aggregationService;
+
+    @Override
+    public Mono<ConnectionGraph> buildGraph(Path logFile, long fromPosition, long toPosition, long initTimestamp, long endTimestamp) throws LogFileIOException {
+        LOGGER.debug("buildGraph({}, {}, {}, {}, {})", logFile, fromPosition, toPosition, initTimestamp, endTimestamp);
+
+        var filter = new ConnectionFilter(initTimestamp, endTimestamp, Optional.empty(), Optional.empty());
+
+        // Every split collects its edges with its own host ids, they are remapped to a single dictionary when merging
+        return aggregationService.reduceConnections(logFile, fromPosition, toPosition, options.getParallelSplits(), filter,
+                    ConnectionGraph.Builder::new, ConnectionGraph.Builder::accept, ConnectionGraph.Builder::merge)
+                .defaultIfEmpty(new ConnectionGraph.Builder())
+                .map(ConnectionGraph.Builder::build);
+    }
+}
@@ -0,0 +1,72 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import net.rubenmartinez.cbcc.domain.AggregationRow;
+import net.rubenmartinez.cbcc.domain.ConnectionFilter;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
+import net.rubenmartinez.cbcc.logparsing.components.impl.GroupAggregator;
+import net.rubenmartinez.cbcc.params.AggregationFunction;
+import net.rubenmartinez.cbcc.params.AggregationGroupBy;
+import net.rubenmartinez.cbcc.params.Options;
+import net.rubenmartinez.cbcc.reactive.file.FileFlux;
+import net.rubenmartinez.cbcc.service.ConnectionLogAggregationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.inject.Inject;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+@Service
+public class FluxConnectionLogAggregationService implements ConnectionLogAggregationService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FluxConnectionLogAggregationService.class);
+
+    @Inject private Options options;
+    @Inject private LogLineParser lineParser;
+
+    @Override
+    public <A> Mono<A> reduceConnections(Path logFile, long fromPosition, long toPosition, ConnectionFilter filter,
+                                         Supplier<A> containerSupplier, BiConsumer<A, ConnectionLogLine> accumulator, BinaryOperator<A> combiner) throws LogFileIOException {
+        return reduceConnections(logFile, fromPosition, toPosition, options.getParallelSplits(), filter, containerSupplier, accumulator, combiner);
+    }
+
+    @Override
+    public <A> Mono<A> reduceConnections(Path logFile, long fromPosition, long toPosition, int splits, ConnectionFilter filter,
+                                         Supplier<A> containerSupplier, BiConsumer<A, ConnectionLogLine> accumulator, BinaryOperator<A> combiner) throws LogFileIOException {
+        LOGGER.debug("reduceConnections({}, {}, {}, {}, {})", logFile, fromPosition, toPosition, splits, filter);
+
+        long adjustedEndTimestamp = filter.getEndTimestamp() + options.getTimestampOrderToleranceMillis();
+
+        // The splits are created on subscription too, so a mono never subscribed doesn't open the file, and a mono subscribed again reads it again
+        return BaseConnectionLogParserService.withParallelScheduler("FluxConnectionLogAggregationService", scheduler -> {
+            Flux<String>[] allPartsFluxArray = FileFlux.splitFileLines(logFile, Math.max(1, splits), fromPosition, toPosition);
+
+            return Flux.fromArray(allPartsFluxArray)
+                .flatMap(filePartFlux -> filePartFlux
+                        .subscribeOn(scheduler)
+                        .map(lineParser::parseLine)
+                        .onErrorContinue((exception, line) -> LOGGER.warn("Ignoring line: {} (error: {})", line, exception.getMessage()))
+                        .takeWhile(connection -> connection.getTimestamp() <= adjustedEndTimestamp)
+                        .filter(filter::matches)
+                        .collect(containerSupplier, accumulator));
+        })
+        .reduce(combiner);
+    }
+
+    @Override
+    public Mono<List<AggregationRow>> aggregate(Path logFile, long fromPosition, long toPosition, ConnectionFilter filter,
+                                                AggregationGroupBy groupBy, AggregationFunction function, Duration bucket, int top) throws LogFileIOException {
+        return reduceConnections(logFile, fromPosition, toPosition, filter,
+                    () -> new GroupAggregator(groupBy, function, bucket.toMillis()), GroupAggregator::accept, GroupAggregator::merge)
+                .map(groupAggregator -> groupAggregator.getRows(top));
+    }
+}
@@ -3,46 +3,82 @@ package net.rubenmartinez.cbcc.service.impl;
 import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
 import net.rubenmartinez.cbcc.exception.LogFileIOException;
 import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionLogScanner;
 import net.rubenmartinez.cbcc.params.Options;
 import net.rubenmartinez.cbcc.reactive.file.FileFlux;
-import net.rubenmartinez.cbcc.service.ConnectionLogParserService;
+import net.rubenmartinez.cbcc.service.ParallelConnectionLogParserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 import javax.inject.Inject;
 import java.nio.file.Path;
 
 @Service("parallel")
-public class FluxConnectionLogParallelParserService extends BaseConnectionLogParserService implements ConnectionLogParserService {
+public class FluxConnectionLogParallelParserService extends BaseConnectionLogParserService implements ParallelConnectionLogParserService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FluxConnectionLogParallelParserService.class);
 
+    /**
+     * Smaller chunks than splits in ordered mode, so a slow chunk holds back less buffered connections of the following ones
+     */
+    private static final int ORDERED_CHUNKS_PER_SPLIT = 4;
+
     @Inject private Options options;
     @Inject private LogLineParser lineParser;
 
-    public Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, String host, long initTimestamp, long endTimestamp) throws LogFileIOException {
-        LOGGER.debug("getConnectionsToHost({}, {}, {}, {}, {})", logFile, fromPosition, host, initTimestamp, endTimestamp);
+    public Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp) throws LogFileIOException {
+        return getConnectionsToHost(logFile, fromPosition, toPosition, host, initTimestamp, endTimestamp, options.getSplits(), options.isOrdered());
+    }
+
+    @Override
+    public Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp,
+                                                        int splits, boolean ordered) throws LogFileIOException {
+        LOGGER.debug("getConnectionsToHost({}, {}, {}, {}, {}, {}, splits={}, ordered={})", logFile, fromPosition, toPosition, host, initTimestamp, endTimestamp, splits, ordered);
 
         long adjustedEndTimestamp = getAdjustedEndTimestamp(endTimestamp);
         LOGGER.debug("getConnectionsToHost: adjustedEndTimestamp= {}", adjustedEndTimestamp);
 
-        Flux<String>[] allPartsFluxArray = FileFlux.splitFileLines(logFile, options.getSplits(), fromPosition);
+        return withQueryMetrics("parallel", withParallelScheduler("FluxConnectionLogParallelParserService", scheduler ->
+                getConnectionsToHost(logFile, fromPosition, toPosition, host, initTimestamp, endTimestamp, adjustedEndTimestamp, splits, ordered, scheduler)));
+    }
+
+    private Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp, long adjustedEndTimestamp,
+                                                         int splits, boolean ordered, Scheduler scheduler) {
+        if (ordered) {
+            return getOrderedConnectionsToHost(logFile, fromPosition, toPosition, host, initTimestamp, endTimestamp, adjustedEndTimestamp, splits, scheduler);
+        }
 
-        // Just playing with some schedulers configuration, but I haven't found a good one yet
-        Scheduler scheduler = Schedulers.newParallel("FluxConnectionLogParallelParserService");
+        long[] splitPositions = FileFlux.splitPositions(logFile, splits, fromPosition, toPosition);
+
+        return Flux.range(0, splitPositions.length - 1)
+            .flatMap(split -> filePartConnections(logFile, splitPositions[split], splitPositions[split + 1], host, initTimestamp, endTimestamp, adjustedEndTimestamp).subscribeOn(scheduler));
+    }
+
+    /**
+     * The file is split in many more chunks than threads, and chunks are processed {@code splits} at a time. The connections of each chunk
+     * are buffered (up to {@code --reorderBuffer} connections) while previous chunks are still being processed, and emitted in file order
+     * (the order of the chunks in the array acts as their sequence number).
+     *
+     * As lines are read on demand, a chunk whose buffer is full just stops reading until the previous chunks are done, so memory stays bounded
+     * to {@code splits * reorderBuffer} connections no matter the size of the file.
+     */
+    private Flux<ConnectionLogLine> getOrderedConnectionsToHost(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp, long adjustedEndTimestamp, int splits, Scheduler scheduler) {
+        long[] chunkPositions = FileFlux.splitPositions(logFile, splits * ORDERED_CHUNKS_PER_SPLIT, fromPosition, toPosition);
+        LOGGER.debug("getOrderedConnectionsToHost: {} chunks, reorder buffer: {}", chunkPositions.length - 1, options.getReorderBuffer());
+
+        return Flux.range(0, chunkPositions.length - 1)
+            .flatMapSequential(chunk -> filePartConnections(logFile, chunkPositions[chunk], chunkPositions[chunk + 1], host, initTimestamp, endTimestamp, adjustedEndTimestamp).subscribeOn(scheduler),
+                    splits, options.getReorderBuffer());
+    }
 
-        return Flux.fromArray(allPartsFluxArray)
-            .flatMap(filePartFlux -> filePartFlux
-                    .subscribeOn(scheduler)
-                    .map(lineParser::parseLine)
-                    .onErrorContinue((exception, line) -> LOGGER.warn("Ignoring line: {} (error: {})", line, exception.getMessage()))
-                    .takeWhile(connection -> connection.getTimestamp() <= adjustedEndTimestamp)
-                    .filter(connection -> filterConnection(connection, host, initTimestamp, endTimestamp)))
-            .doOnComplete(() -> scheduler.dispose());
+    /**
+     * Every part of the file has its own scanner, as reaching the end of the time range in one part says nothing about the following ones
+     */
+    private Flux<ConnectionLogLine> filePartConnections(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp, long adjustedEndTimestamp) {
+        return new ConnectionLogScanner(lineParser, getLinesParsedInPlace(), host, initTimestamp, endTimestamp, adjustedEndTimestamp).connections(logFile, fromPosition, toPosition);
     }
 
 }
@@ -1,10 +1,13 @@
 package net.rubenmartinez.cbcc.service.impl;
 
 import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.LogIndex;
 import net.rubenmartinez.cbcc.exception.LogFileIOException;
 import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
-import net.rubenmartinez.cbcc.reactive.file.FileFlux;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionLogScanner;
+import net.rubenmartinez.cbcc.params.Options;
 import net.rubenmartinez.cbcc.service.ConnectionLogParserService;
+import net.rubenmartinez.cbcc.service.LogIndexService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -21,17 +24,48 @@ public class FluxConnectionLogParserService extends BaseConnectionLogParserServi
     @Inject
     private LogLineParser lineParser;
 
-    public Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, String host, long initTimestamp, long endTimestamp) throws LogFileIOException {
-        LOGGER.debug("getConnectionsToHost({}, {}, {}, {}, {})", logFile, fromPosition, host, initTimestamp, endTimestamp);
+    @Inject
+    private LogIndexService logIndexService;
+
+    @Inject
+    private Options options;
+
+    public Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp) throws LogFileIOException {
+        LOGGER.debug("getConnectionsToHost({}, {}, {}, {}, {}, {})", logFile, fromPosition, toPosition, host, initTimestamp, endTimestamp);
+
+        return withQueryMetrics("sequential", getConnectionsToHostWithoutMetrics(logFile, fromPosition, toPosition, host, initTimestamp, endTimestamp));
+    }
 
+    /**
+     * For the parsers that read part of the file as text (eg. the tail not compacted yet), so their queries are not counted as sequential ones too
+     */
+    Flux<ConnectionLogLine> getConnectionsToHostWithoutMetrics(Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long endTimestamp) {
         long adjustedEndTimestamp = getAdjustedEndTimestamp(endTimestamp);
         LOGGER.debug("getConnectionsToHost: adjustedEndTimestamp= {}", adjustedEndTimestamp);
 
-        return FileFlux.lines(logFile, fromPosition)
-                .map(lineParser::parseLine)
-                .onErrorContinue((exception, line) -> LOGGER.warn("Ignoring line: {} (error: {})", line, exception.getMessage()))
-                .takeWhile(connection -> connection.getTimestamp() <= adjustedEndTimestamp)
-                .filter(connection -> filterConnection(connection, host, initTimestamp, endTimestamp));
+        // A scanner per subscription, as it stops reading for good once the end of the time range is reached (eg. on a retry or a repeat)
+        return Flux.defer(() -> {
+            var scanner = new ConnectionLogScanner(lineParser, getLinesParsedInPlace(), host, initTimestamp, endTimestamp, adjustedEndTimestamp);
+
+            return options.isUseIndex() ?
+                    logIndexService.loadIndex(logFile).map(logIndex -> indexedConnections(scanner, logIndex, logFile, fromPosition, toPosition, host, initTimestamp, adjustedEndTimestamp))
+                                                      .orElseGet(() -> scanner.connections(logFile, fromPosition, toPosition))
+                    : scanner.connections(logFile, fromPosition, toPosition);
+        });
+    }
+
+    /**
+     * Connections in the indexed blocks that could contain the host in the time range, followed by the ones in the unindexed tail of the file.
+     * As all the ranges share the same scanner, once a range reaches the end of the time range the following ones aren't read.
+     */
+    private static Flux<ConnectionLogLine> indexedConnections(ConnectionLogScanner scanner, LogIndex logIndex, Path logFile, long fromPosition, long toPosition, String host, long initTimestamp, long adjustedEndTimestamp) {
+        var candidateRanges = logIndex.findCandidateRanges(fromPosition, toPosition, host, initTimestamp, adjustedEndTimestamp);
+        long tailPosition = Math.max(fromPosition, logIndex.getIndexedLength());
+        LOGGER.debug("indexedConnections: {} candidate ranges in index, unindexed tail from position {}", candidateRanges.size(), tailPosition);
+
+        return Flux.fromIterable(candidateRanges)
+                .concatMap(range -> scanner.connections(logFile, range.getFromPosition(), range.getToPosition()))
+                .concatWith(Flux.defer(() -> tailPosition < toPosition ? scanner.connections(logFile, tailPosition, toPosition) : Flux.<ConnectionLogLine>empty()));
     }
 
 }
@@ -2,21 +2,51 @@ package net.rubenmartinez.cbcc.service.impl;
 
 import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
 import net.rubenmartinez.cbcc.domain.ConnectionLogStats;
+import net.rubenmartinez.cbcc.exception.UserInputException;
 import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
 import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionLogStatsContainer;
+import net.rubenmartinez.cbcc.logparsing.components.impl.EventTimePaneAssigner;
+import net.rubenmartinez.cbcc.logparsing.components.impl.PaneWindowAggregator;
+import net.rubenmartinez.cbcc.logparsing.components.impl.WindowStateSnapshot;
+import net.rubenmartinez.cbcc.params.Options;
 import net.rubenmartinez.cbcc.reactive.file.FileFlux;
+import net.rubenmartinez.cbcc.reactive.file.FileLine;
 import net.rubenmartinez.cbcc.service.ConnectionLogWatcherService;
+import net.rubenmartinez.cbcc.service.HostSubscriptionService;
+import net.rubenmartinez.cbcc.service.LogIndexService;
+import net.rubenmartinez.cbcc.service.MetricsService;
+import net.rubenmartinez.cbcc.service.TimestampPositionFinderService;
+import net.rubenmartinez.cbcc.util.FileFingerprint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import javax.inject.Inject;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 @Service
 public class FluxConnectionLogWatcherService implements ConnectionLogWatcherService {
@@ -26,20 +56,467 @@ public class FluxConnectionLogWatcherService implements ConnectionLogWatcherServ
     @Inject
     private LogLineParser lineParser;
 
+    @Inject
+    private LogIndexService logIndexService;
+
+    @Inject
+    private HostSubscriptionService subscriptionService;
+
+    @Inject
+    private TimestampPositionFinderService positionFinderService;
+
+    @Inject
+    private MetricsService metricsService;
+
+    @Inject
+    private Options options;
+
+    private final AtomicLong lastPaneTrackedHosts = new AtomicLong();
+
     @Override
-    public Flux<ConnectionLogStats> collectStats(Path logFile, Optional<String> sourceHost, Optional<String> targetHost, Duration windowDuration) {
-        LOGGER.debug("collectStats(logFile={}, sourceHost={}, targetHost={}, windowDuration{})", logFile, sourceHost, targetHost, windowDuration);
+    public Flux<ConnectionLogStats> collectStats(Path logFile, Optional<String> sourceHost, Optional<String> targetHost, List<Duration> windowDurations, Duration slideDuration) {
+        LOGGER.debug("collectStats(logFile={}, sourceHost={}, targetHost={}, windowDurations={}, slideDuration={})", logFile, sourceHost, targetHost, windowDurations, slideDuration);
+
+        metricsService.gauge("follow.lastPaneTrackedHosts", lastPaneTrackedHosts::get);
+
+        if (options.getShards() > 1 && (options.isEventTime() || options.getSince().isPresent())) {
+            throw new UserInputException("Shards are only supported for windows by reading time");
+        }
+
+        if (options.getSnapshot().isPresent()) {
+            if (options.isEventTime() || options.getShards() > 1) {
+                throw new UserInputException("Snapshots are only supported for windows by reading time, without shards");
+            }
+            return collectStatsWithSnapshots(logFile, Path.of(options.getSnapshot().get()), sourceHost, targetHost, windowDurations, slideDuration);
+        }
+
+        if (options.getSince().isPresent()) {
+            if (!options.isEventTime()) {
+                throw new UserInputException("Lines since a timestamp can only be counted with windows by the timestamps of the lines (--eventTime)");
+            }
+            return collectStatsSince(logFile, options.getSinceTimestamp().get(), sourceHost, targetHost, windowDurations, slideDuration);
+        }
 
-        return FileFlux.follow(logFile, true)
+        Flux<String> lines = FileFlux.follow(logFile, true, options.getFollowBufferSettings());
+        if (options.isMaintainIndex()) {
+            lines = withIndexMaintenance(logFile, lines, String::length);
+        }
+
+        Flux<ConnectionLogLine> connections = lines
                 .map(lineParser::parseLine)
-                .onErrorContinue((exception, line) -> LOGGER.warn("Ignoring line: {} (error: {})", line, exception.getMessage()))
-                .window(windowDuration)
-                .flatMapSequential(windowFlux -> collectStatsForWindow(windowFlux, sourceHost, targetHost, windowDuration))
-                .map(ConnectionLogStatsContainer::getConnectionLogStats);
+                .onErrorContinue((exception, line) -> LOGGER.warn("Ignoring line: {} (error: {})", line, exception.getMessage()));
+
+        // Lines are collected in panes of one slide, and every window is combined from its last panes
+        return Flux.defer(() -> {
+            var aggregator = new PaneWindowAggregator(slideDuration, windowDurations, sourceHost, targetHost);
+            if (options.isEventTime()) {
+                return collectEventTimeWindows(connections, sourceHost, targetHost, aggregator);
+            }
+            if (options.getShards() > 1) {
+                return BaseConnectionLogParserService.withParallelScheduler("FluxConnectionLogWatcherService", options.getShards(), scheduler -> connections
+                        .window(slideDuration)
+                        .flatMapSequential(windowFlux -> collectStatsForWindowInShards(windowFlux, sourceHost, targetHost, aggregator, scheduler))
+                        .concatMapIterable(pane -> addPane(aggregator, pane)));
+            }
+            return connections
+                    .window(slideDuration)
+                    .flatMapSequential(windowFlux -> collectStatsForWindow(windowFlux, sourceHost, targetHost, aggregator))
+                    .concatMapIterable(pane -> addPane(aggregator, pane));
+        });
+    }
+
+    /**
+     * Adds a closed pane by reading time (which starts at the local time it was opened) to the windows
+     */
+    private List<ConnectionLogStats> addPane(PaneWindowAggregator aggregator, ConnectionLogStatsContainer pane) {
+        return addPane(aggregator, pane, LocalDateTime.now());
     }
 
-    private Mono<ConnectionLogStatsContainer> collectStatsForWindow(Flux<ConnectionLogLine> logLinesFlux, Optional<String> sourceHost, Optional<String> targetHost, Duration windowDuration) {
-        var newStatsContainer = new ConnectionLogStatsContainer(LocalDateTime.now(), windowDuration, sourceHost, targetHost);
+    /**
+     * Adds the panes by event time just closed by the assigner to the windows. Their latency is measured from the watermark, not from the
+     * wall clock, so it is the same whether the lines are followed as they are written or a backlog of them is read.
+     */
+    private List<ConnectionLogStats> addEventTimePanes(PaneWindowAggregator aggregator, EventTimePaneAssigner assigner, List<ConnectionLogStatsContainer> panes) {
+        if (panes.isEmpty()) {
+            return List.of();
+        }
+
+        var watermark = assigner.getWatermark() == Long.MIN_VALUE ?
+                LocalDateTime.MIN :
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(assigner.getWatermark()), ZoneOffset.UTC);
+        var windowStats = new ArrayList<ConnectionLogStats>();
+        for (ConnectionLogStatsContainer pane: panes) {
+            windowStats.addAll(addPane(aggregator, pane, watermark));
+        }
+        return windowStats;
+    }
+
+    /**
+     * Adds a closed pane to the windows, recording its size and how long after their end the windows are output
+     *
+     * @param closedAt when the pane was closed, by the same clock as its start time
+     */
+    private List<ConnectionLogStats> addPane(PaneWindowAggregator aggregator, ConnectionLogStatsContainer pane, LocalDateTime closedAt) {
+        lastPaneTrackedHosts.set(pane.getTrackedHosts());
+        var windowStats = aggregator.add(pane);
+
+        var windowCloseLatency = metricsService.histogram("follow.windowCloseLatencyMicros");
+        for (ConnectionLogStats stats: windowStats) {
+            var windowEnd = stats.getStartTime().plus(stats.getDuration());
+            if (!windowEnd.isAfter(closedAt)) { // Windows closed by the end of the lines, before the watermark reaches them, have no latency
+                windowCloseLatency.record(Duration.between(windowEnd, closedAt).toNanos() / 1000);
+            }
+        }
+        metricsService.counter("follow.windows").add(windowStats.size());
+        return windowStats;
+    }
+
+    /**
+     * Like the windows by reading time above, but the state of the windows is written to a snapshot file every snapshot interval, with
+     * the position in the log file of the last line added, so after a restart the windows are restored and the file is followed from
+     * that position, without losing or repeating any line.
+     *
+     * The snapshot is written by the thread filling the current pane, between two lines, so the pane and the position always match.
+     */
+    private Flux<ConnectionLogStats> collectStatsWithSnapshots(Path logFile, Path snapshotFile, Optional<String> sourceHost, Optional<String> targetHost,
+                                                               List<Duration> windowDurations, Duration slideDuration) {
+        // Panes collected with other options can't be combined with the new ones
+        String configuration = String.format("slide=%s windows=%s sourceHost=%s targetHost=%s heavyHitters=%s",
+                slideDuration, windowDurations, sourceHost.orElse(""), targetHost.orElse(""), options.getHeavyHitters());
+        long snapshotIntervalMillis = options.getSnapshotIntervalDuration().toMillis();
+
+        return Flux.defer(() -> {
+            var aggregator = new PaneWindowAggregator(slideDuration, windowDurations, sourceHost, targetHost);
+            var snapshot = readSnapshot(snapshotFile, logFile, configuration, Collections.max(windowDurations), sourceHost, targetHost, aggregator);
+
+            var restoredPane = new AtomicReference<ConnectionLogStatsContainer>();
+            var missedPanes = new ArrayList<ConnectionLogStatsContainer>();
+            var nextPaneStart = new AtomicReference<LocalDateTime>();
+            long fromPosition = logFile.toFile().length();
+            Flux<Long> paneBoundaries = Flux.interval(slideDuration, slideDuration);
+            if (snapshot.isPresent()) {
+                snapshot.get().getClosedPanes().forEach(aggregator::add); // Their windows were output before the restart
+                restoredPane.set(snapshot.get().getOpenPane());
+                fromPosition = snapshot.get().getPosition();
+
+                // The restored pane is closed when it would have been if there is still time. Otherwise it is closed now, followed by an
+                // empty pane per slide the process was stopped, so the windows keep covering their duration and the next pane starts
+                // and closes as if there hadn't been a restart
+                var restoredPaneStart = snapshot.get().getOpenPane().getConnectionLogStats().getStartTime();
+                Duration elapsed = Duration.between(restoredPaneStart, LocalDateTime.now());
+                if (elapsed.isNegative()) { // The clock was moved back
+                    elapsed = Duration.ZERO;
+                }
+                long elapsedSlides = elapsed.toMillis() / slideDuration.toMillis();
+                Duration untilNextBoundary = slideDuration.minusMillis(elapsed.toMillis() % slideDuration.toMillis());
+                if (elapsedSlides == 0) {
+                    paneBoundaries = Flux.interval(untilNextBoundary, slideDuration);
+                }
+                else {
+                    for (long i=1; i<elapsedSlides; i++) {
+                        missedPanes.add(newStatsContainer(restoredPaneStart.plus(slideDuration.multipliedBy(i)), sourceHost, targetHost, aggregator));
+                    }
+                    nextPaneStart.set(restoredPaneStart.plus(slideDuration.multipliedBy(elapsedSlides)));
+                    paneBoundaries = Mono.delay(Duration.ZERO).concatWith(Flux.interval(untilNextBoundary, slideDuration));
+                }
+                LOGGER.debug("collectStatsWithSnapshots: {} elapsed since the restored pane started, {} empty panes added", elapsed, missedPanes.size());
+            }
+
+            Flux<FileLine> lines = FileFlux.followFromPosition(logFile, fromPosition, options.getFollowBufferSettings());
+            if (options.isMaintainIndex()) {
+                lines = withIndexMaintenance(logFile, lines, line -> line.getLine().length());
+            }
+
+            var snapshotWriter = new SnapshotWriter(snapshotFile, logFile, configuration, snapshotIntervalMillis, aggregator);
+            var nextPaneIndex = new AtomicLong(aggregator.getPaneCount());
+            return lines
+                    .window(paneBoundaries)
+                    .flatMapSequential(windowFlux -> {
+                        var pane = restoredPane.getAndSet(null);
+                        if (pane != null) {
+                            long paneIndex = nextPaneIndex.getAndAdd(1 + missedPanes.size());
+                            return collectStatsForWindowWithSnapshots(windowFlux, pane, paneIndex, snapshotWriter).concatWith(Flux.fromIterable(missedPanes));
+                        }
+                        var paneStart = nextPaneStart.getAndSet(null);
+                        pane = newStatsContainer(paneStart != null ? paneStart : LocalDateTime.now(), sourceHost, targetHost, aggregator);
+                        return collectStatsForWindowWithSnapshots(windowFlux, pane, nextPaneIndex.getAndIncrement(), snapshotWriter);
+                    })
+                    .concatMapIterable(pane -> addPane(aggregator, pane));
+        });
+    }
+
+    private Mono<ConnectionLogStatsContainer> collectStatsForWindowWithSnapshots(Flux<FileLine> linesFlux, ConnectionLogStatsContainer pane, long paneIndex, SnapshotWriter snapshotWriter) {
+        return linesFlux.collect(() -> pane, (thePane, line) -> {
+            try {
+                thePane.accept(lineParser.parseLine(line.getLine()));
+            } catch (RuntimeException e) {
+                LOGGER.warn("Ignoring line: {} (error: {})", line, e.getMessage());
+            }
+            snapshotWriter.writeIfDue(thePane, paneIndex, line.getEndPosition());
+        });
+    }
+
+    /**
+     * @return the snapshot to restore, if there is one taken with the same options, recent enough to have panes still in some window, and
+     *         of the same log file (not rotated since, also when the new one is already longer than the position of the snapshot)
+     */
+    private Optional<WindowStateSnapshot> readSnapshot(Path snapshotFile, Path logFile, String configuration, Duration longestWindow, Optional<String> sourceHost, Optional<String> targetHost,
+                                                       PaneWindowAggregator aggregator) {
+        if (!Files.exists(snapshotFile)) {
+            LOGGER.info("No snapshot found at [{}], following the log file from its end", snapshotFile);
+            return Optional.empty();
+        }
+
+        WindowStateSnapshot snapshot;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            snapshot = WindowStateSnapshot.readFrom(in, startTime -> newStatsContainer(startTime, sourceHost, targetHost, aggregator));
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring snapshot [{}], it couldn't be read: {}", snapshotFile, e.getMessage());
+            return Optional.empty();
+        }
+
+        if (!snapshot.getConfiguration().equals(configuration)) {
+            LOGGER.warn("Ignoring snapshot [{}], it was taken with other options: {}", snapshotFile, snapshot.getConfiguration());
+            return Optional.empty();
+        }
+        if (snapshot.getOpenPane().getConnectionLogStats().getStartTime().plus(longestWindow).isBefore(LocalDateTime.now())) {
+            LOGGER.info("Ignoring snapshot [{}], its panes are older than the longest window", snapshotFile);
+            return Optional.empty();
+        }
+        try (FileChannel logChannel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            if (FileFingerprint.of(logChannel, snapshot.getPosition()) != snapshot.getLogFingerprint()) {
+                LOGGER.warn("Ignoring snapshot [{}], the log file has been rotated since it was taken, following it from its end", snapshotFile);
+                return Optional.empty();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring snapshot [{}], the log file couldn't be read to check it: {}", snapshotFile, e.getMessage());
+            return Optional.empty();
+        }
+
+        LOGGER.info("Windows restored from snapshot [{}], following the log file from position {}", snapshotFile, snapshot.getPosition());
+        return Optional.of(snapshot);
+    }
+
+    /**
+     * Writes the snapshots of the windows, at most once per interval. Only used by the thread filling the current pane.
+     */
+    private static class SnapshotWriter {
+        private final Path snapshotFile;
+        private final Path logFile;
+        private final String configuration;
+        private final long intervalMillis;
+        private final PaneWindowAggregator aggregator;
+        private long nextSnapshotMillis;
+
+        SnapshotWriter(Path snapshotFile, Path logFile, String configuration, long intervalMillis, PaneWindowAggregator aggregator) {
+            this.snapshotFile = snapshotFile;
+            this.logFile = logFile;
+            this.configuration = configuration;
+            this.intervalMillis = intervalMillis;
+            this.aggregator = aggregator;
+            this.nextSnapshotMillis = System.currentTimeMillis() + intervalMillis;
+        }
+
+        /**
+         * @param position position in the log file just after the last line added to {@code pane}
+         */
+        void writeIfDue(ConnectionLogStatsContainer pane, long paneIndex, long position) {
+            if (System.currentTimeMillis() < nextSnapshotMillis) {
+                return;
+            }
+
+            long logFingerprint;
+            try (FileChannel logChannel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                logFingerprint = FileFingerprint.of(logChannel, position);
+            } catch (IOException e) {
+                LOGGER.warn("Error reading log file [{}] for the snapshot, will try again in the next interval: {}", logFile, e.getMessage());
+                nextSnapshotMillis = System.currentTimeMillis() + intervalMillis;
+                return;
+            }
+
+            // Just after a pane is closed, it may not have been added to the aggregator yet: the snapshot must wait for it, otherwise
+            // the lines of that pane would be neither in the snapshot nor after its position
+            byte[] snapshot = aggregator.withPanes(panes -> {
+                if (aggregator.getPaneCount() != paneIndex) {
+                    return null;
+                }
+                var snapshotPanes = new ArrayList<>(panes);
+                snapshotPanes.add(pane);
+                return new WindowStateSnapshot(configuration, position, logFingerprint, snapshotPanes).toBytes();
+            });
+            if (snapshot == null) {
+                return;
+            }
+
+            try {
+                // Written aside and then moved, so a crash while writing doesn't leave a broken snapshot
+                Path temporaryFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+                Files.write(temporaryFile, snapshot);
+                Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.warn("Error writing snapshot [{}], will try again in the next interval: {}", snapshotFile, e.getMessage());
+            }
+            nextSnapshotMillis = System.currentTimeMillis() + intervalMillis;
+        }
+    }
+
+    /**
+     * The connections of the window are partitioned by source host among the shards, each one counted in its own container by its own
+     * thread. As a source host is always in the same shard, the containers are disjoint and merging them at the end of the window gives
+     * the same stats as a single container.
+     */
+    private Mono<ConnectionLogStatsContainer> collectStatsForWindowInShards(Flux<ConnectionLogLine> logLinesFlux, Optional<String> sourceHost, Optional<String> targetHost,
+                                                                             PaneWindowAggregator aggregator, Scheduler scheduler) {
+        int shards = options.getShards();
+        var startTime = LocalDateTime.now();
+        Supplier<ConnectionLogStatsContainer> newStatsContainer = () -> newStatsContainer(startTime, sourceHost, targetHost, aggregator);
+
+        return logLinesFlux
+                .groupBy(logLine -> Math.floorMod(logLine.getSourceHost().hashCode(), shards))
+                .flatMap(shardFlux -> shardFlux
+                        .publishOn(scheduler)
+                        .collect(newStatsContainer, ConnectionLogStatsContainer::accept), shards)
+                .reduce((statsContainer, shardStatsContainer) -> {
+                    statsContainer.mergeShard(shardStatsContainer);
+                    aggregator.recycle(shardStatsContainer);
+                    return statsContainer;
+                })
+                .switchIfEmpty(Mono.fromSupplier(newStatsContainer));
+    }
+
+    /**
+     * Windows of panes by the timestamps of the lines, closed when the watermark (maximum timestamp minus the order tolerance) passes their end
+     */
+    private Flux<ConnectionLogStats> collectEventTimeWindows(Flux<ConnectionLogLine> connections, Optional<String> sourceHost, Optional<String> targetHost, PaneWindowAggregator aggregator) {
+        var assigner = new EventTimePaneAssigner(aggregator.getPaneDuration().toMillis(), options.getTimestampOrderToleranceMillis(),
+                paneStart -> newStatsContainer(LocalDateTime.ofInstant(Instant.ofEpochMilli(paneStart), ZoneOffset.UTC), sourceHost, targetHost, aggregator));
+
+        // The panes are added to the windows as soon as they are closed, while the watermark still is the one that closed them
+        return connections
+                .concatMapIterable(connection -> addEventTimePanes(aggregator, assigner, assigner.accept(connection)))
+                .concatWith(Flux.defer(() -> Flux.fromIterable(addEventTimePanes(aggregator, assigner, assigner.flush()))));
+    }
+
+    /**
+     * Like the windows by event time above, but starting with the lines already in the file since the given timestamp. The lines written
+     * up to now (up to the end of the last complete line) are read at full speed from the position found for the timestamp, in splits
+     * counted in parallel, and then the file is followed from the end of the last of those lines, so no line is missed nor counted twice.
+     *
+     * The panes of the lines already written are merged and handed to the assigner before the first line followed, as if their lines had
+     * been read one by one, so they are kept in memory until the whole backlog is read.
+     */
+    private Flux<ConnectionLogStats> collectStatsSince(Path logFile, long sinceTimestamp, Optional<String> sourceHost, Optional<String> targetHost,
+                                                       List<Duration> windowDurations, Duration slideDuration) {
+        return Flux.defer(() -> {
+            var aggregator = new PaneWindowAggregator(slideDuration, windowDurations, sourceHost, targetHost);
+            long paneMillis = aggregator.getPaneDuration().toMillis();
+            long firstPaneStart = Math.floorDiv(sinceTimestamp, paneMillis) * paneMillis; // So the first pane is complete
+            LongFunction<ConnectionLogStatsContainer> paneFactory = paneStart ->
+                    newStatsContainer(LocalDateTime.ofInstant(Instant.ofEpochMilli(paneStart), ZoneOffset.UTC), sourceHost, targetHost, aggregator);
+            var assigner = new EventTimePaneAssigner(paneMillis, options.getTimestampOrderToleranceMillis(), paneFactory);
+
+            long fromPosition = positionFinderService.findNearTimestamp(firstPaneStart - options.getTimestampOrderToleranceMillis(), logFile);
+            long handOverPosition = Math.max(fromPosition, FileFlux.findEndOfLastCompleteLine(logFile));
+            LOGGER.info("Counting the lines since [{}] between positions [{}] and [{}], and following the file from there", sinceTimestamp, fromPosition, handOverPosition);
+
+            Flux<FileLine> followedLines = FileFlux.followFromPosition(logFile, handOverPosition, options.getFollowBufferSettings());
+            if (options.isMaintainIndex()) {
+                followedLines = withIndexMaintenance(logFile, followedLines, line -> line.getLine().length());
+            }
+
+            return collectBacklogPanes(logFile, fromPosition, handOverPosition, firstPaneStart, paneMillis, paneFactory, aggregator)
+                    .flatMapIterable(backlog -> addEventTimePanes(aggregator, assigner, assigner.acceptPanes(backlog.panes, backlog.maxTimestamp)))
+                    .concatWith(toConnectionsSince(followedLines.map(FileLine::getLine), firstPaneStart)
+                            .concatMapIterable(connection -> addEventTimePanes(aggregator, assigner, assigner.accept(connection))))
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(addEventTimePanes(aggregator, assigner, assigner.flush()))));
+        });
+    }
+
+    /**
+     * Every split of the lines between both positions is collected in its own panes by its own thread, and the panes of all the splits are
+     * merged at the end, as the shards of a window
+     */
+    private Mono<BacklogPanes> collectBacklogPanes(Path logFile, long fromPosition, long toPosition, long firstPaneStart, long paneMillis,
+                                                   LongFunction<ConnectionLogStatsContainer> paneFactory, PaneWindowAggregator aggregator) {
+        int splits = options.getParallelSplits();
+
+        return BaseConnectionLogParserService.withParallelScheduler("FluxConnectionLogWatcherService-backlog", splits, scheduler ->
+                Flux.fromArray(FileFlux.splitFileLines(logFile, splits, fromPosition, toPosition))
+                        .flatMap(splitLines -> toConnectionsSince(splitLines, firstPaneStart)
+                                .collect(() -> new BacklogPanes(paneMillis, paneFactory), BacklogPanes::accept)
+                                .subscribeOn(scheduler), splits))
+                .reduce((backlog, splitBacklog) -> backlog.merge(splitBacklog, aggregator));
+    }
+
+    private Flux<ConnectionLogLine> toConnectionsSince(Flux<String> lines, long sinceTimestamp) {
+        return lines
+                .filter(line -> !line.isEmpty()) // The position found for a timestamp can be at a line termination
+                .map(lineParser::parseLine)
+                .filter(connection -> connection.getTimestamp() >= sinceTimestamp)
+                .onErrorContinue((exception, line) -> LOGGER.warn("Ignoring line: {} (error: {})", line, exception.getMessage()));
+    }
+
+    /**
+     * Panes by their start timestamp of a part of the lines already written. All of them are read before any pane is closed, so no line is late.
+     */
+    private static class BacklogPanes {
+        private final long paneMillis;
+        private final LongFunction<ConnectionLogStatsContainer> paneFactory;
+        private final TreeMap<Long, ConnectionLogStatsContainer> panes = new TreeMap<>();
+        private long maxTimestamp = Long.MIN_VALUE;
+
+        BacklogPanes(long paneMillis, LongFunction<ConnectionLogStatsContainer> paneFactory) {
+            this.paneMillis = paneMillis;
+            this.paneFactory = paneFactory;
+        }
+
+        void accept(ConnectionLogLine connection) {
+            long paneStart = Math.floorDiv(connection.getTimestamp(), paneMillis) * paneMillis;
+            panes.computeIfAbsent(paneStart, paneFactory::apply).accept(connection);
+            maxTimestamp = Math.max(maxTimestamp, connection.getTimestamp());
+        }
+
+        BacklogPanes merge(BacklogPanes other, PaneWindowAggregator aggregator) {
+            other.panes.forEach((paneStart, pane) -> panes.merge(paneStart, pane, (thisPane, otherPane) -> {
+                thisPane.merge(otherPane);
+                aggregator.recycle(otherPane);
+                return thisPane;
+            }));
+            maxTimestamp = Math.max(maxTimestamp, other.maxTimestamp);
+            return this;
+        }
+    }
+
+    /**
+     * Keeps the sidecar index of the followed file up to date: it is brought up to date when following starts, and then
+     * extended (in background) every time enough new bytes have been appended to the file to fill a new block.
+     *
+     * Note the byte count is just an estimation (it assumes one byte line terminations) used to decide when to update,
+     * the index itself is always built reading the file.
+     */
+    private <T> Flux<T> withIndexMaintenance(Path logFile, Flux<T> lines, ToIntFunction<T> lineLength) {
+        var unindexedBytes = new AtomicLong();
+
+        return lines
+                .doOnSubscribe(subscription -> logIndexService.updateIndexInBackground(logFile))
+                .doOnNext(line -> {
+                    if (unindexedBytes.addAndGet(lineLength.applyAsInt(line) + 1) >= logIndexService.getBlockSize()) {
+                        unindexedBytes.set(0);
+                        logIndexService.updateIndexInBackground(logFile);
+                    }
+                });
+    }
+
+    private Mono<ConnectionLogStatsContainer> collectStatsForWindow(Flux<ConnectionLogLine> logLinesFlux, Optional<String> sourceHost, Optional<String> targetHost, PaneWindowAggregator aggregator) {
+        var newStatsContainer = newStatsContainer(LocalDateTime.now(), sourceHost, targetHost, aggregator);
         return logLinesFlux.collect(() -> newStatsContainer, (theStatsContainer, logLine) -> theStatsContainer.accept(logLine));
     }
+
+    /**
+     * Container for a new pane. The subscriptions file is checked here, so its changes apply from the next pane.
+     */
+    private ConnectionLogStatsContainer newStatsContainer(LocalDateTime startTime, Optional<String> sourceHost, Optional<String> targetHost, PaneWindowAggregator aggregator) {
+        return new ConnectionLogStatsContainer(startTime, aggregator.getPaneDuration(), sourceHost, targetHost,
+                options.getHeavyHitters(), options.getTopSources(), aggregator.takeCounterMap(), subscriptionService.getSubscribedHosts());
+    }
 }
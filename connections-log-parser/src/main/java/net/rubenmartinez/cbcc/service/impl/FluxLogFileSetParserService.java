@@ -0,0 +1,345 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import lombok.Value;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.LogFileBounds;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
+import net.rubenmartinez.cbcc.params.Options;
+import net.rubenmartinez.cbcc.service.ConnectionLogParserService;
+import net.rubenmartinez.cbcc.service.LogFileSetService;
+import net.rubenmartinez.cbcc.service.QueryPlannerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Queries over a set of rotated log files (eg. {@code input.log}, {@code input.log.1}, {@code input.log.2.gz}...), given as a directory or a glob pattern.
+ *
+ * The timestamps range of every file is found cheaply: for text files reading just their first and last lines (and adding the order tolerance),
+ * and for gzipped files, that can't be read from the end, decompressing them once. Ranges are cached in a file in the same directory
+ * ({@link #BOUNDS_CACHE_FILE}) and only computed again for the files whose size or modification time has changed.
+ *
+ * Files out of the requested time range are skipped, and the rest are parsed in parallel, each one with the same logic as a single log file
+ * (presearch, sidecar index...), but emitted in timestamp order.
+ */
+@Service
+public class FluxLogFileSetParserService implements LogFileSetService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FluxLogFileSetParserService.class);
+
+    private static final Charset CHARSET = StandardCharsets.US_ASCII; // TODO Configurable
+
+    static final String BOUNDS_CACHE_FILE = ".logparser-timestamps";
+
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final List<String> SIDECAR_SUFFIXES = List.of(".idx", ".seg", ".tmp");
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private static final int PROBE_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    @Named("sequential")
+    @Inject private ConnectionLogParserService textParser;
+
+    @Inject private QueryPlannerService queryPlannerService;
+    @Inject private LogLineParser lineParser;
+    @Inject private Options options;
+
+    @Override
+    public boolean isFileSet(Path path) {
+        return Files.isDirectory(path) || path.getFileName().toString().chars().anyMatch(c -> GLOB_CHARACTERS.indexOf(c) >= 0);
+    }
+
+    @Override
+    public List<LogFileBounds> getFileBounds(Path fileSet) {
+        Path directory = getDirectory(fileSet);
+        var files = listFiles(fileSet, directory);
+
+        var cachedBounds = readBoundsCache(directory);
+        var bounds = new HashMap<String, FileBounds>();
+        boolean changed = cachedBounds.size() != files.size();
+
+        for (Path file: files) {
+            String name = file.getFileName().toString();
+            try {
+                var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                var fileBounds = cachedBounds.get(name);
+                if (fileBounds == null || !fileBounds.isValid(attributes)) {
+                    fileBounds = computeBounds(file, attributes);
+                    changed = true;
+                }
+                bounds.put(name, fileBounds);
+            } catch (IOException e) {
+                throw new LogFileIOException("Error while reading the timestamps of log file: " + file, e);
+            }
+        }
+
+        if (changed) {
+            writeBoundsCache(directory, bounds);
+        }
+
+        return files.stream()
+                .filter(file -> bounds.get(file.getFileName().toString()).hasLines())
+                .map(file -> bounds.get(file.getFileName().toString()).toLogFileBounds(file, options.getTimestampOrderToleranceMillis()))
+                .sorted(Comparator.comparingLong(LogFileBounds::getMinTimestamp))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Flux<ConnectionLogLine> getConnectionsToHost(Path fileSet, String host, long initTimestamp, long endTimestamp) {
+        LOGGER.debug("getConnectionsToHost({}, {}, {}, {})", fileSet, host, initTimestamp, endTimestamp);
+
+        var files = getFileBounds(fileSet).stream()
+                .filter(fileBounds -> fileBounds.overlaps(initTimestamp, endTimestamp))
+                .map(LogFileBounds::getFile)
+                .collect(Collectors.toList());
+        LOGGER.debug("getConnectionsToHost: {} files in the time range: {}", files.size(), files);
+
+        // Files are parsed concurrently but emitted one after another, in the order of their first timestamps
+        return BaseConnectionLogParserService.withParallelScheduler("FluxLogFileSetParserService", scheduler -> Flux.fromIterable(files)
+                .flatMapSequential(file -> fileConnections(file, host, initTimestamp, endTimestamp).subscribeOn(scheduler),
+                        Runtime.getRuntime().availableProcessors(), options.getReorderBuffer()));
+    }
+
+    private Flux<ConnectionLogLine> fileConnections(Path file, String host, long initTimestamp, long endTimestamp) {
+        if (isGzipped(file)) {
+            long adjustedEndTimestamp = endTimestamp + options.getTimestampOrderToleranceMillis();
+            return gzippedLines(file)
+                    .map(lineParser::parseLine)
+                    .onErrorContinue((exception, line) -> LOGGER.warn("Ignoring line: {} (error: {})", line, exception.getMessage()))
+                    .takeWhile(connection -> connection.getTimestamp() <= adjustedEndTimestamp)
+                    .filter(connection -> connection.getTimestamp() >= initTimestamp && connection.getTimestamp() <= endTimestamp && connection.getTargetHost().equals(host));
+        }
+
+        return Flux.defer(() -> {
+            var positionRange = queryPlannerService.findPositionRange(file, initTimestamp, endTimestamp);
+            return textParser.getConnectionsToHost(file, positionRange.getFromPosition(), positionRange.getToPosition(), host, initTimestamp, endTimestamp);
+        });
+    }
+
+    private static Flux<String> gzippedLines(Path file) {
+        return Flux.using(() -> openGzipped(file),
+                reader -> Flux.fromStream(reader.lines()),
+                FluxLogFileSetParserService::uncheckedExceptionClose);
+    }
+
+    private static BufferedReader openGzipped(Path file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file), READ_BUFFER_SIZE), CHARSET), READ_BUFFER_SIZE);
+    }
+
+    private static Path getDirectory(Path fileSet) {
+        return Files.isDirectory(fileSet) ? fileSet : fileSet.toAbsolutePath().getParent();
+    }
+
+    private static List<Path> listFiles(Path fileSet, Path directory) {
+        PathMatcher matcher = Files.isDirectory(fileSet) ?
+                path -> true :
+                FileSystems.getDefault().getPathMatcher("glob:" + fileSet.getFileName());
+
+        try (var paths = Files.list(directory)) {
+            return paths
+                    .filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(path.getFileName()))
+                    .filter(path -> !isSidecarFile(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new LogFileIOException("Error while listing log files in: " + directory, e);
+        }
+    }
+
+    private static boolean isSidecarFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.equals(BOUNDS_CACHE_FILE) || SIDECAR_SUFFIXES.stream().anyMatch(name::endsWith);
+    }
+
+    private static boolean isGzipped(Path path) {
+        return path.getFileName().toString().endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * Text files: timestamps of the first and last lines. If any of them can't be found near the beginning or the end of the file,
+     * the whole file is read (as gzipped files always are) and the exact minimum and maximum are used.
+     */
+    private FileBounds computeBounds(Path file, BasicFileAttributes attributes) throws IOException {
+        LOGGER.debug("computeBounds: reading timestamps of file {}", file);
+
+        if (!isGzipped(file)) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long length = channel.size();
+                var firstLine = new ConnectionLogLine[1];
+                var lastLine = new ConnectionLogLine[1];
+                forEachLine(readChunk(channel, 0, length), true, line -> {
+                    if (firstLine[0] == null) {
+                        firstLine[0] = line;
+                    }
+                });
+                long tailPosition = Math.max(0, length - PROBE_SIZE);
+                forEachLine(readChunk(channel, tailPosition, length), tailPosition == 0, line -> lastLine[0] = line);
+
+                if (firstLine[0] != null && lastLine[0] != null) {
+                    return new FileBounds(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                            Math.min(firstLine[0].getTimestamp(), lastLine[0].getTimestamp()), Math.max(firstLine[0].getTimestamp(), lastLine[0].getTimestamp()), false);
+                }
+            }
+        }
+
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        try (var reader = isGzipped(file) ? openGzipped(file) : Files.newBufferedReader(file, CHARSET)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                var connection = parseLineOrNull(line);
+                if (connection != null) {
+                    minTimestamp = Math.min(minTimestamp, connection.getTimestamp());
+                    maxTimestamp = Math.max(maxTimestamp, connection.getTimestamp());
+                }
+            }
+        }
+        return new FileBounds(attributes.size(), attributes.lastModifiedTime().toMillis(), minTimestamp, maxTimestamp, true);
+    }
+
+    private static byte[] readChunk(FileChannel channel, long position, long length) throws IOException {
+        var buffer = ByteBuffer.allocate((int) Math.min(PROBE_SIZE, length - position));
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            // Keep reading until the buffer is full
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Valid lines of the chunk. The first line is skipped unless {@code atLineStart}, as it could be the end of a line
+     */
+    private void forEachLine(byte[] bytes, boolean atLineStart, Consumer<ConnectionLogLine> consumer) {
+        int lineStart = 0;
+        if (!atLineStart) {
+            while (lineStart < bytes.length && bytes[lineStart] != '\n' && bytes[lineStart] != '\r') {
+                lineStart++;
+            }
+        }
+
+        for (int i=lineStart; i<=bytes.length; i++) {
+            if (i == bytes.length || bytes[i] == '\n' || bytes[i] == '\r') {
+                if (i > lineStart) {
+                    // A line cut at the end of the chunk is still valid if it can be parsed: the timestamp is the first item
+                    var connection = parseLineOrNull(new String(bytes, lineStart, i - lineStart, CHARSET));
+                    if (connection != null) {
+                        consumer.accept(connection);
+                    }
+                }
+                lineStart = i + 1;
+            }
+        }
+    }
+
+    private ConnectionLogLine parseLineOrNull(String line) {
+        try {
+            return lineParser.parseLine(line);
+        } catch (Exception e) {
+            LOGGER.debug("Line ignored: {} (error: {})", line, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Cache format: a line per file with {@code name size lastModifiedMillis minTimestamp maxTimestamp exact}, tab separated
+     */
+    private static Map<String, FileBounds> readBoundsCache(Path directory) {
+        var cachedBounds = new HashMap<String, FileBounds>();
+        Path cacheFile = directory.resolve(BOUNDS_CACHE_FILE);
+        if (!Files.exists(cacheFile)) {
+            return cachedBounds;
+        }
+
+        try {
+            for (String line: Files.readAllLines(cacheFile, StandardCharsets.UTF_8)) {
+                String[] items = line.split("\t");
+                if (items.length == 6) {
+                    cachedBounds.put(items[0], new FileBounds(Long.parseLong(items[1]), Long.parseLong(items[2]), Long.parseLong(items[3]), Long.parseLong(items[4]), Boolean.parseBoolean(items[5])));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Ignoring invalid timestamps cache file: {}", cacheFile);
+            cachedBounds.clear();
+        }
+        return cachedBounds;
+    }
+
+    /**
+     * The cache is just an optimization, so it is not an error if it can't be written (eg. a read-only directory)
+     */
+    private static void writeBoundsCache(Path directory, Map<String, FileBounds> bounds) {
+        var lines = new ArrayList<String>();
+        bounds.forEach((name, fileBounds) -> lines.add(String.join("\t", name, Long.toString(fileBounds.getSize()), Long.toString(fileBounds.getLastModified()),
+                Long.toString(fileBounds.getMinTimestamp()), Long.toString(fileBounds.getMaxTimestamp()), Boolean.toString(fileBounds.isExact()))));
+
+        Path cacheFile = directory.resolve(BOUNDS_CACHE_FILE);
+        try {
+            Path temporaryFile = Files.createTempFile(directory, BOUNDS_CACHE_FILE, ".tmp");
+            Files.write(temporaryFile, lines, StandardCharsets.UTF_8);
+            Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.debug("Couldn't write timestamps cache file {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    private static void uncheckedExceptionClose(BufferedReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            LOGGER.debug("Ignored exception while closing " + reader, e);
+        }
+    }
+
+    /**
+     * Timestamps of a file, together with the attributes of the file when they were read
+     */
+    @Value
+    private static class FileBounds {
+        private final long size;
+        private final long lastModified;
+        private final long minTimestamp;
+        private final long maxTimestamp;
+        private final boolean exact; // Otherwise minTimestamp and maxTimestamp are the ones of the first and last lines
+
+        boolean isValid(BasicFileAttributes attributes) {
+            return attributes.size() == size && attributes.lastModifiedTime().toMillis() == lastModified;
+        }
+
+        boolean hasLines() {
+            return minTimestamp <= maxTimestamp;
+        }
+
+        LogFileBounds toLogFileBounds(Path file, long timestampOrderToleranceMillis) {
+            long tolerance = exact ? 0 : timestampOrderToleranceMillis;
+            return new LogFileBounds(file, minTimestamp - tolerance, maxTimestamp + tolerance);
+        }
+    }
+}
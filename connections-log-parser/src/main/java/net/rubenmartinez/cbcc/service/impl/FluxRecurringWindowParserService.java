@@ -0,0 +1,54 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.TimeRange;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.params.Options;
+import net.rubenmartinez.cbcc.params.RecurringWindow;
+import net.rubenmartinez.cbcc.service.ConnectionLogParserService;
+import net.rubenmartinez.cbcc.service.RecurringWindowService;
+import net.rubenmartinez.cbcc.service.TimestampPositionFinderService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.nio.file.Path;
+
+/**
+ * Skip-scan over the occurrences of a recurring window: the position range of every occurrence is found with the timestamp presearch
+ * (which uses the sidecar index when there is one), and each range is parsed on its own, so the file between occurrences is skipped.
+ *
+ * Occurrences are parsed concurrently, but their connections are emitted one occurrence after another, in chronological order.
+ */
+@Service
+public class FluxRecurringWindowParserService implements RecurringWindowService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FluxRecurringWindowParserService.class);
+
+    @Named("sequential")
+    @Inject private ConnectionLogParserService textParser;
+
+    @Inject private TimestampPositionFinderService positionFinderService;
+    @Inject private Options options;
+
+    @Override
+    public Flux<ConnectionLogLine> getConnectionsToHost(Path logFile, String host, RecurringWindow window, long initTimestamp, long endTimestamp) throws LogFileIOException {
+        var occurrences = window.occurrences(initTimestamp, endTimestamp);
+        LOGGER.debug("getConnectionsToHost({}, {}, {}): {} occurrences", logFile, host, window, occurrences.size());
+
+        return BaseConnectionLogParserService.withParallelScheduler("FluxRecurringWindowParserService", scheduler -> Flux.fromIterable(occurrences)
+                .flatMapSequential(occurrence -> occurrenceConnections(logFile, host, occurrence).subscribeOn(scheduler),
+                        Runtime.getRuntime().availableProcessors(), options.getReorderBuffer()));
+    }
+
+    private Flux<ConnectionLogLine> occurrenceConnections(Path logFile, String host, TimeRange occurrence) {
+        return Flux.defer(() -> {
+            var positionRange = positionFinderService.findPositionRange(occurrence.getInitTimestamp(), occurrence.getEndTimestamp(), logFile);
+            LOGGER.debug("occurrenceConnections: {} in positions {}", occurrence, positionRange);
+            return textParser.getConnectionsToHost(logFile, positionRange.getFromPosition(), positionRange.getToPosition(), host, occurrence.getInitTimestamp(), occurrence.getEndTimestamp());
+        });
+    }
+}
@@ -0,0 +1,260 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.QueryPlan;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.exception.UserInputException;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ResultWriter;
+import net.rubenmartinez.cbcc.params.Options;
+import net.rubenmartinez.cbcc.params.ResultFormat;
+import net.rubenmartinez.cbcc.service.ConnectionLogParserService;
+import net.rubenmartinez.cbcc.service.ParallelConnectionLogParserService;
+import net.rubenmartinez.cbcc.service.QueryPlannerService;
+import net.rubenmartinez.cbcc.service.QueryServerService;
+import net.rubenmartinez.cbcc.util.SpillingHostSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running server for parse queries, so the JVM startup, the Spring context and the reading of the sidecar index and the compact
+ * segments dictionary (both kept in memory by their services) are paid only once instead of once per query.
+ *
+ * It listens only on the loopback interface: {@code GET /parse?logFile=...&initTimestamp=...&endTimestamp=...&targetHost=...}, with optional
+ * {@code uniqueHosts=true} and {@code outputFormat=<plain|ndjson|binary>} parameters. The response is streamed in the requested format.
+ *
+ * Queries are answered concurrently, up to {@code --serverThreads} at a time. Each one is planned as in parse mode, honoring the rest of options
+ * (splits, presearch, index...) the server was started with.
+ */
+@Service
+public class HttpQueryServerService implements QueryServerService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpQueryServerService.class);
+
+    public static final String PARSE_PATH = "/parse";
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final int HTTP_INTERNAL_ERROR = 500;
+
+    @Named("sequential")
+    @Inject private ConnectionLogParserService connectionLogFileParser;
+
+    @Named("parallel")
+    @Inject private ParallelConnectionLogParserService connectionLogParallelFileParser;
+
+    @Named("segments")
+    @Inject private ConnectionLogParserService connectionLogSegmentsParser;
+
+    @Inject private QueryPlannerService queryPlannerService;
+
+    @Inject private Options options;
+
+    @Override
+    public void serve(Path logFile, int port) {
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new LogParserException("Couldn't listen on port " + port, e);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, options.getServerThreads()));
+        server.setExecutor(executor);
+        server.createContext(PARSE_PATH, exchange -> handleParse(exchange, logFile));
+        server.start();
+        LOGGER.debug("serve: listening on port {} for file {}", port, logFile);
+
+        var stopped = new CountDownLatch(1);
+        var shutdownHook = new Thread(() -> {
+            stop(server, executor);
+            stopped.countDown();
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                stop(server, executor); // Before restoring the interrupt, as the server waits for its dispatcher thread to stop
+            } catch (IllegalStateException alreadyShuttingDown) {
+                // The hook stops the server
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void stop(HttpServer server, ExecutorService executor) {
+        server.stop(0);
+        executor.shutdownNow();
+        LOGGER.debug("serve: stopped listening on port {}", server.getAddress().getPort());
+    }
+
+    private void handleParse(HttpExchange exchange, Path logFile) {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Allow", "GET");
+                sendError(exchange, HTTP_METHOD_NOT_ALLOWED, "Only GET " + PARSE_PATH + " is supported");
+                return;
+            }
+
+            var parameters = getQueryParameters(exchange);
+            LOGGER.debug("handleParse: {}", parameters);
+            answerParseQuery(exchange, logFile, parameters);
+
+        } catch (UserInputException e) {
+            sendError(exchange, HTTP_BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            LOGGER.warn("Error while answering query {}: {}", exchange.getRequestURI(), e.getMessage());
+            sendError(exchange, HTTP_INTERNAL_ERROR, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void answerParseQuery(HttpExchange exchange, Path logFile, Map<String, String> parameters) throws IOException {
+        checkSameLogFile(logFile, parameters.get("logFile"));
+
+        long initTimestamp = getRequiredLong(parameters, "initTimestamp");
+        long endTimestamp = getRequiredLong(parameters, "endTimestamp");
+        String targetHost = parameters.get("targetHost");
+        if (targetHost == null) {
+            throw new UserInputException("initTimestamp, endTimestamp and targetHost are all required in this mode");
+        }
+        var format = ResultFormat.fromString(parameters.getOrDefault("outputFormat", "plain"));
+
+        var plan = queryPlannerService.plan(logFile, targetHost, initTimestamp, endTimestamp);
+        LOGGER.debug("answerParseQuery: plan {}", plan.getStrategy());
+
+        Flux<ConnectionLogLine> connectionsFlux = getConnections(plan, logFile, targetHost, initTimestamp, endTimestamp);
+
+        if (Boolean.parseBoolean(parameters.get("uniqueHosts"))) {
+            // Collected before sending the headers, so errors can still be reported with the status code (and the runs of the set are
+            // deleted anyway, as it is created before the connections are read)
+            try (var uniqueHosts = newUniqueHostsSet()) {
+                connectionsFlux
+                    .doOnNext(connection -> uniqueHosts.add(connection.getSourceHost()))
+                    .blockLast();
+                sendOkHeaders(exchange, format);
+                try (var resultWriter = ResultWriter.toStream(exchange.getResponseBody(), format)) {
+                    uniqueHosts.forEachSorted(resultWriter::writeHost);
+                }
+            }
+        }
+        else {
+            sendOkHeaders(exchange, format);
+            try (var resultWriter = ResultWriter.toStream(exchange.getResponseBody(), format)) {
+                connectionsFlux
+                    .doOnNext(resultWriter::write)
+                    .blockLast();
+            }
+        }
+    }
+
+    /**
+     * Same choice as in parse mode, by the query planner
+     */
+    private Flux<ConnectionLogLine> getConnections(QueryPlan plan, Path logFile, String targetHost, long initTimestamp, long endTimestamp) {
+        long fromPosition = plan.getPositionRange().getFromPosition();
+        long toPosition = plan.getPositionRange().getToPosition();
+
+        switch (plan.getStrategy()) {
+            case SEGMENTS:
+                return connectionLogSegmentsParser.getConnectionsToHost(logFile, fromPosition, toPosition, targetHost, initTimestamp, endTimestamp);
+            case PARALLEL:
+                return connectionLogParallelFileParser.getConnectionsToHost(logFile, fromPosition, toPosition, targetHost, initTimestamp, endTimestamp, plan.getSplits(), plan.isOrdered());
+            default:
+                return connectionLogFileParser.getConnectionsToHost(logFile, fromPosition, toPosition, targetHost, initTimestamp, endTimestamp);
+        }
+    }
+
+    private SpillingHostSet newUniqueHostsSet() {
+        return new SpillingHostSet(options.getUniqueHostsMemoryMb() * 1024L * 1024L);
+    }
+
+    private static void checkSameLogFile(Path logFile, String requestedLogFile) throws IOException {
+        if (requestedLogFile != null && !Files.isSameFile(logFile, Path.of(requestedLogFile))) {
+            throw new UserInputException(String.format("This server answers queries on file [%s], not on [%s]", logFile, requestedLogFile));
+        }
+    }
+
+    private static long getRequiredLong(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null) {
+            throw new UserInputException("initTimestamp, endTimestamp and targetHost are all required in this mode");
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new UserInputException(name + " must be a unix timestamp: " + value);
+        }
+    }
+
+    private static Map<String, String> getQueryParameters(HttpExchange exchange) {
+        var parameters = new HashMap<String, String>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+
+        for (String parameter: query.split("&")) {
+            int equalsIndex = parameter.indexOf('=');
+            if (equalsIndex > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equalsIndex), StandardCharsets.UTF_8),
+                               URLDecoder.decode(parameter.substring(equalsIndex + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static void sendOkHeaders(HttpExchange exchange, ResultFormat format) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", getContentType(format));
+        exchange.sendResponseHeaders(HTTP_OK, 0); // Length 0 means chunked: results are streamed as they are found
+    }
+
+    private static String getContentType(ResultFormat format) {
+        switch (format) {
+            case NDJSON: return "application/x-ndjson";
+            case BINARY: return "application/octet-stream";
+            default: return "text/plain; charset=US-ASCII";
+        }
+    }
+
+    /**
+     * Errors after the response headers have been sent can't be reported anymore, the response is just closed
+     */
+    private static void sendError(HttpExchange exchange, int statusCode, String message) {
+        if (exchange.getResponseCode() != -1) {
+            return;
+        }
+
+        try {
+            byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(statusCode, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException e) {
+            LOGGER.debug("Couldn't send error response", e);
+        }
+    }
+}
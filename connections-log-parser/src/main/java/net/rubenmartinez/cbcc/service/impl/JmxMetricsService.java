@@ -0,0 +1,253 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.reactive.file.FileFlux;
+import net.rubenmartinez.cbcc.service.MetricsService;
+import net.rubenmartinez.cbcc.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics kept in memory and exposed as the attributes of a JMX MBean ({@value #OBJECT_NAME}) and, on demand, as plain text on
+ * {@code GET /metrics} of a port of the loopback interface.
+ *
+ * Counters are {@link LongAdder}s and histograms are {@link LatencyHistogram}s, so recording from the threads processing lines costs
+ * very little and doesn't contend. Gauges and percentiles are only computed when the metrics are read.
+ */
+@Service
+public class JmxMetricsService implements MetricsService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxMetricsService.class);
+
+    public static final String METRICS_PATH = "/metrics";
+    public static final String OBJECT_NAME = "net.rubenmartinez.cbcc:type=Metrics";
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+
+    private static final long RATE_SAMPLING_SECONDS = 1;
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService rateSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "metrics-rates");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public JmxMetricsService() {
+        var fileMetrics = FileFlux.getMetrics();
+        gauge("file.linesRead", fileMetrics::getLinesRead);
+        gauge("file.linesPerSecond", newRateGauge(fileMetrics::getLinesRead));
+        gauge("file.bytesRead", fileMetrics::getBytesRead);
+        gauge("file.tailLagBytes", fileMetrics::getTailLagBytes);
+        gauge("file.bufferedLines", fileMetrics::getBufferedLines);
+        gauge("file.bufferLagMillis", fileMetrics::getBufferLagMillis);
+        gauge("file.linesDropped", fileMetrics::getLinesDropped);
+
+        registerMBean();
+    }
+
+    private RateGauge newRateGauge(LongSupplier counter) {
+        var rateGauge = new RateGauge(counter);
+        rateSampler.scheduleAtFixedRate(rateGauge::sample, RATE_SAMPLING_SECONDS, RATE_SAMPLING_SECONDS, TimeUnit.SECONDS);
+        return rateGauge;
+    }
+
+    @Override
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, counterName -> new LongAdder());
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    @Override
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, histogramName -> new LatencyHistogram());
+    }
+
+    @Override
+    public Map<String, Long> getValues() {
+        var values = new TreeMap<String, Long>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean", histogram.getMean());
+            values.put(name + ".p50", histogram.getValueAtPercentile(50));
+            values.put(name + ".p90", histogram.getValueAtPercentile(90));
+            values.put(name + ".p99", histogram.getValueAtPercentile(99));
+            values.put(name + ".p999", histogram.getValueAtPercentile(99.9));
+            values.put(name + ".max", histogram.getMax());
+        });
+        return values;
+    }
+
+    @Override
+    public void startHttpEndpoint(int port) {
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new LogParserException("Couldn't listen on port " + port, e);
+        }
+
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext(METRICS_PATH, this::handleMetrics);
+        server.start();
+        LOGGER.info("Metrics available at http://{}:{}{}", server.getAddress().getHostString(), port, METRICS_PATH);
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                byte[] body = ("Only GET " + METRICS_PATH + " is supported").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Allow", "GET");
+                exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(HTTP_METHOD_NOT_ALLOWED, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+
+            var text = new StringBuilder();
+            getValues().forEach((name, value) -> text.append(name).append(' ').append(value).append('\n'));
+            byte[] body = text.toString().getBytes(StandardCharsets.US_ASCII);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=US-ASCII");
+            exchange.sendResponseHeaders(HTTP_OK, body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Registered once per JVM: a new instance (eg. in tests with several Spring contexts) replaces the previous one
+     */
+    private void registerMBean() {
+        try {
+            var mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            var objectName = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(new MetricsMBean(), objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Metrics won't be available through JMX: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Every metric is a read-only {@code long} attribute, the attributes are the metrics registered when the MBean info is read
+     */
+    private class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = getValues().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            var values = getValues();
+            var attributeList = new AttributeList();
+            for (String attribute: attributes) {
+                if (values.containsKey(attribute)) {
+                    attributeList.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return attributeList;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList(); // None of them is set, metrics are read only
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            var attributes = getValues().keySet().stream()
+                    .map(name -> new MBeanAttributeInfo(name, "long", name, true, false, false))
+                    .toArray(MBeanAttributeInfo[]::new);
+            return new MBeanInfo(JmxMetricsService.class.getName(), "Connections log parser metrics", attributes, null, null, null);
+        }
+    }
+
+    /**
+     * Per second increase of a counter during the last sampling period. It is sampled on a timer, not when it is read, so every reader
+     * (JMX or HTTP) sees the same rate, however often each of them reads it.
+     */
+    private static class RateGauge implements LongSupplier {
+        private final LongSupplier counter;
+        private long lastValue;  // Only accessed by the sampling thread
+        private long lastNanos;
+        private volatile long rate;
+
+        RateGauge(LongSupplier counter) {
+            this.counter = counter;
+            this.lastValue = counter.getAsLong();
+            this.lastNanos = System.nanoTime();
+        }
+
+        void sample() {
+            long value = counter.getAsLong();
+            long nanos = System.nanoTime();
+            rate = nanos > lastNanos ? (value - lastValue) * 1_000_000_000L / (nanos - lastNanos) : 0;
+            lastValue = value;
+            lastNanos = nanos;
+        }
+
+        @Override
+        public long getAsLong() {
+            return rate;
+        }
+    }
+}
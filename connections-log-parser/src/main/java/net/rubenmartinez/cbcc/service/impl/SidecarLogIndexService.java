@@ -0,0 +1,354 @@
+package net.rubenmartinez.cbcc.service.impl;
+
+import lombok.Value;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.LogIndex;
+import net.rubenmartinez.cbcc.domain.LogIndexEntry;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
+import net.rubenmartinez.cbcc.service.LogIndexService;
+import net.rubenmartinez.cbcc.util.FileFingerprint;
+import net.rubenmartinez.cbcc.util.HostBloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains a sidecar index file ({@code <log file>.idx}) next to the log file.
+ *
+ * The log is divided in blocks of about {@link #BLOCK_SIZE} bytes (always ending at a line boundary) and for each block the index stores
+ * its positions, the minimum and maximum timestamps, and a Bloom filter of its target hosts.
+ *
+ * Index file format (big endian):
+ * <pre>
+ *   header:  magic (int) | version (int) | blockSize (int) | bloomFilterBits (int) | committedEntries (long) | logFingerprint (long)
+ *   entries: fromPosition (long) | toPosition (long) | minTimestamp (long) | maxTimestamp (long) | bloom filter (long[])
+ * </pre>
+ *
+ * Only complete blocks are indexed, so the index can be extended while the log file is being written. New entries are written
+ * after the last committed one and only then the {@code committedEntries} counter is updated, so readers never see half-written entries.
+ *
+ * The {@link FileFingerprint} of the indexed part of the log file is checked on every load, so the index of a rotated log file is discarded
+ * even if the new log file is already longer than the indexed part.
+ */
+@Service
+public class SidecarLogIndexService implements LogIndexService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SidecarLogIndexService.class);
+
+    private static final Charset CHARSET = StandardCharsets.US_ASCII; // TODO Configurable
+
+    private static final String INDEX_FILE_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x434c4958; // "CLIX"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int COMMITTED_ENTRIES_POSITION = 16;
+    private static final int ENTRY_SIZE = 4 * Long.BYTES + HostBloomFilter.SIZE_BYTES;
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MAXIMUM_LINE_LENGTH = 8192;
+
+    @Inject private LogLineParser logLineParser;
+
+    private final Scheduler indexUpdateScheduler = Schedulers.newSingle("SidecarLogIndexService", true);
+    private final Set<Path> pendingUpdates = ConcurrentHashMap.newKeySet(); // Log files with an update scheduled and not started yet
+
+    private final Map<Path, LoadedIndex> loadedIndexes = new ConcurrentHashMap<>();
+
+    @Override
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    /**
+     * Loaded indexes are kept in memory, and only read again when the index file changes (its size or its modification time),
+     * so clients can call this method for every query
+     */
+    @Override
+    public Optional<LogIndex> loadIndex(Path logFile) {
+        Path indexFile = getIndexFile(logFile);
+        if (!Files.exists(indexFile)) {
+            return Optional.empty();
+        }
+
+        try (var logChannel = FileChannel.open(logFile, StandardOpenOption.READ);
+             var indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+
+            var indexAttributes = Files.readAttributes(indexFile, BasicFileAttributes.class);
+            var cachedIndex = loadedIndexes.get(indexFile);
+            if (cachedIndex != null && cachedIndex.isValid(indexAttributes, logChannel)) {
+                return Optional.of(cachedIndex.getLogIndex());
+            }
+
+            var entries = readEntries(indexChannel, logChannel);
+            if (entries == null) {
+                LOGGER.warn("Ignoring stale or invalid index file: {}", indexFile);
+                loadedIndexes.remove(indexFile);
+                return Optional.empty();
+            }
+
+            LOGGER.debug("loadIndex: {} entries read from {}", entries.size(), indexFile);
+            var logIndex = new LogIndex(entries);
+            loadedIndexes.put(indexFile, new LoadedIndex(logIndex, indexAttributes.size(), indexAttributes.lastModifiedTime(), FileFingerprint.of(logChannel, logIndex.getIndexedLength())));
+            return Optional.of(logIndex);
+        } catch (IOException e) {
+            throw new LogFileIOException("Error while reading index file: " + indexFile, e);
+        }
+    }
+
+    /**
+     * Creates the index if it doesn't exist, or extends it with the blocks filled since the last update.
+     */
+    @Override
+    public synchronized LogIndex updateIndex(Path logFile) {
+        Path indexFile = getIndexFile(logFile);
+
+        try (var logChannel = FileChannel.open(logFile, StandardOpenOption.READ);
+             var indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+
+            var entries = readEntries(indexChannel, logChannel);
+            if (entries == null) {
+                LOGGER.debug("updateIndex: (re)creating index file {}", indexFile);
+                writeHeader(indexChannel, logChannel);
+                entries = new ArrayList<>();
+            }
+
+            long indexedLength = entries.isEmpty() ? 0 : entries.get(entries.size()-1).getToPosition();
+            var newEntries = indexNewBlocks(logChannel, indexedLength);
+            if (!newEntries.isEmpty()) {
+                appendEntries(indexChannel, entries.size(), newEntries, FileFingerprint.of(logChannel, newEntries.get(newEntries.size()-1).getToPosition()));
+                entries.addAll(newEntries);
+            }
+
+            LOGGER.debug("updateIndex: {} new entries, {} in total, for file {}", newEntries.size(), entries.size(), logFile);
+            return new LogIndex(entries);
+        } catch (IOException e) {
+            throw new LogFileIOException("Error while updating index file: " + indexFile, e);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #updateIndex(Path)}. Requests received while an update of the same file is pending are coalesced
+     * in that update.
+     */
+    @Override
+    public void updateIndexInBackground(Path logFile) {
+        if (pendingUpdates.add(logFile)) {
+            indexUpdateScheduler.schedule(() -> {
+                pendingUpdates.remove(logFile);
+                try {
+                    updateIndex(logFile);
+                } catch (Exception e) {
+                    LOGGER.warn("Error while updating index of file {}: {}", logFile, e.getMessage());
+                }
+            });
+        }
+    }
+
+    @Value
+    private static class LoadedIndex {
+        private final LogIndex logIndex;
+        private final long indexFileSize;
+        private final FileTime indexFileLastModified;
+        private final long logFingerprint;
+
+        boolean isValid(BasicFileAttributes indexAttributes, FileChannel logChannel) throws IOException {
+            return indexAttributes.size() == indexFileSize &&
+                    indexAttributes.lastModifiedTime().equals(indexFileLastModified) &&
+                    logIndex.getIndexedLength() <= logChannel.size() && // Otherwise the log file was truncated or rotated
+                    FileFingerprint.of(logChannel, logIndex.getIndexedLength()) == logFingerprint; // Or rotated and already longer
+        }
+    }
+
+    private static Path getIndexFile(Path logFile) {
+        return logFile.resolveSibling(logFile.getFileName() + INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * @return The committed entries, or null if the index file is empty, was created with different parameters or doesn't match the log file anymore
+     */
+    private static List<LogIndexEntry> readEntries(FileChannel indexChannel, FileChannel logChannel) throws IOException {
+        if (indexChannel.size() < HEADER_SIZE) {
+            return null;
+        }
+
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        indexChannel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != BLOCK_SIZE || header.getInt() != HostBloomFilter.BITS) {
+            return null;
+        }
+        long committedEntries = header.getLong();
+        long logFingerprint = header.getLong();
+
+        var entries = new ArrayList<LogIndexEntry>((int) committedEntries);
+        var entryBuffer = ByteBuffer.allocate(ENTRY_SIZE);
+        for (long i=0; i<committedEntries; i++) {
+            entryBuffer.clear();
+            indexChannel.read(entryBuffer, HEADER_SIZE + i * ENTRY_SIZE);
+            entryBuffer.flip();
+
+            long fromPosition = entryBuffer.getLong();
+            long toPosition = entryBuffer.getLong();
+            long minTimestamp = entryBuffer.getLong();
+            long maxTimestamp = entryBuffer.getLong();
+            long[] filter = HostBloomFilter.newFilter();
+            entryBuffer.asLongBuffer().get(filter);
+
+            entries.add(new LogIndexEntry(fromPosition, toPosition, minTimestamp, maxTimestamp, filter));
+        }
+
+        long indexedLength = entries.isEmpty() ? 0 : entries.get(entries.size()-1).getToPosition();
+        if (indexedLength > logChannel.size()) { // The log file was truncated or rotated
+            return null;
+        }
+        if (FileFingerprint.of(logChannel, indexedLength) != logFingerprint) { // Rotated, and the new one is already longer than the indexed part
+            return null;
+        }
+
+        return entries;
+    }
+
+    private static void writeHeader(FileChannel indexChannel, FileChannel logChannel) throws IOException {
+        indexChannel.truncate(0);
+
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(BLOCK_SIZE).putInt(HostBloomFilter.BITS).putLong(0).putLong(FileFingerprint.of(logChannel, 0));
+        header.flip();
+        indexChannel.write(header, 0);
+    }
+
+    /**
+     * @param logFingerprint fingerprint of the log file up to the end of the new entries, written with the commit
+     */
+    private static void appendEntries(FileChannel indexChannel, long committedEntries, List<LogIndexEntry> newEntries, long logFingerprint) throws IOException {
+        var buffer = ByteBuffer.allocate(ENTRY_SIZE * newEntries.size());
+        for (LogIndexEntry entry: newEntries) {
+            buffer.putLong(entry.getFromPosition())
+                  .putLong(entry.getToPosition())
+                  .putLong(entry.getMinTimestamp())
+                  .putLong(entry.getMaxTimestamp());
+            for (long bits: entry.getTargetHostsFilter()) {
+                buffer.putLong(bits);
+            }
+        }
+        buffer.flip();
+
+        long position = HEADER_SIZE + committedEntries * ENTRY_SIZE;
+        while (buffer.hasRemaining()) {
+            position += indexChannel.write(buffer, position);
+        }
+        indexChannel.force(false);
+
+        // Commit: entries are only visible to readers from now on. The fingerprint goes along, in the same write
+        var committedEntriesBuffer = ByteBuffer.allocate(2 * Long.BYTES).putLong(committedEntries + newEntries.size()).putLong(logFingerprint);
+        committedEntriesBuffer.flip();
+        indexChannel.write(committedEntriesBuffer, COMMITTED_ENTRIES_POSITION);
+        indexChannel.force(false);
+    }
+
+    /**
+     * Indexes all the complete blocks starting at {@code fromPosition}. The data after the last complete block is left unindexed.
+     */
+    private List<LogIndexEntry> indexNewBlocks(FileChannel logChannel, long fromPosition) throws IOException {
+        var newEntries = new ArrayList<LogIndexEntry>();
+        var buffer = ByteBuffer.allocate(BLOCK_SIZE + MAXIMUM_LINE_LENGTH);
+
+        long blockPosition = fromPosition;
+        LogIndexEntry entry;
+        do {
+            buffer.clear();
+            int bytesRead = 0;
+            int n;
+            while (buffer.hasRemaining() && (n = logChannel.read(buffer, blockPosition + bytesRead)) > 0) {
+                bytesRead += n;
+            }
+
+            entry = indexBlock(buffer.array(), bytesRead, blockPosition);
+            if (entry != null) {
+                newEntries.add(entry);
+                blockPosition = entry.getToPosition();
+            }
+        } while (entry != null);
+
+        return newEntries;
+    }
+
+    /**
+     * @return The entry for the block starting at {@code blockPosition}, or null if the bytes available don't fill a complete block yet
+     */
+    private LogIndexEntry indexBlock(byte[] bytes, int length, long blockPosition) {
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        long[] filter = HostBloomFilter.newFilter();
+
+        int lineStart = 0;
+        for (int i=0; i<length; i++) {
+            byte b = bytes[i];
+            if (b != '\n' && b != '\r') {
+                continue;
+            }
+
+            if (b == '\r') {
+                if (i+1 == length) { // We can't know yet if a '\n' follows
+                    return null;
+                }
+                if (bytes[i+1] == '\n') {
+                    i++;
+                }
+            }
+
+            int lineLength = (b == '\r' && bytes[i] == '\n') ? i - 1 - lineStart : i - lineStart;
+            if (lineLength > 0) {
+                ConnectionLogLine line = parseLineOrNull(new String(bytes, lineStart, lineLength, CHARSET));
+                if (line != null) {
+                    minTimestamp = Math.min(minTimestamp, line.getTimestamp());
+                    maxTimestamp = Math.max(maxTimestamp, line.getTimestamp());
+                    HostBloomFilter.add(filter, line.getTargetHost());
+                }
+            }
+            lineStart = i + 1;
+
+            if (lineStart >= BLOCK_SIZE) {
+                return new LogIndexEntry(blockPosition, blockPosition + lineStart, minTimestamp, maxTimestamp, filter);
+            }
+        }
+
+        if (length == bytes.length) {
+            throw new LogParserException("Error indexing block at position " + blockPosition + ", there might be lines greater than " + MAXIMUM_LINE_LENGTH + " bytes");
+        }
+
+        return null;
+    }
+
+    private ConnectionLogLine parseLineOrNull(String line) {
+        try {
+            return logLineParser.parseLine(line);
+        } catch (Exception e) {
+            LOGGER.debug("Line not indexed: {} (error: {})", line, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,23 +1,33 @@
 package net.rubenmartinez.cbcc.service.impl;
 
+import lombok.Getter;
+import lombok.Value;
 import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.LogFileRange;
 import net.rubenmartinez.cbcc.exception.LogParserException;
 import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
+import net.rubenmartinez.cbcc.params.Options;
+import net.rubenmartinez.cbcc.service.LogIndexService;
 import net.rubenmartinez.cbcc.service.TimestampPositionFinderService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import javax.inject.Inject;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.TreeSet;
 import java.util.function.Predicate;
 
 @Service
@@ -34,6 +44,10 @@ public class TimestampPositionFinderServiceImpl implements TimestampPositionFind
 
     @Inject LogLineParser logLineParser;
 
+    @Inject LogIndexService logIndexService;
+
+    @Inject Options options;
+
     /**
      * Tries to find a line (actually the byte position that starts at a line) closer to a given timestamp in a log file than the beginning of the file
      *
@@ -46,6 +60,9 @@ public class TimestampPositionFinderServiceImpl implements TimestampPositionFind
      * - Position returned won't be at the middle of a line
      * - Position returned will point to a timestamp that will be equals or less the given timestamp (and it should be quite close to the given timestamp)
      *
+     * If the log file has a sidecar index (and {@code --useIndex} is enabled) the index resolves the position directly, and only
+     * the unindexed tail of the file, if needed, is binary searched.
+     *
      * @return A lower bound position hint for the given timestamp
      */
     @Override
@@ -55,91 +72,271 @@ public class TimestampPositionFinderServiceImpl implements TimestampPositionFind
 
             long fileLength = fileChannel.size();
 
-            long lowerBoundPosition = 0;
-            long upperBoundPosition = fileLength;
-            long currentPosition;
-
-            int loops = 0;
+            long initialLowerBoundPosition = 0;
+            if (options.isUseIndex()) {
+                var logIndex = logIndexService.loadIndex(logFile);
+                if (logIndex.isPresent()) {
+                    var indexedPosition = logIndex.get().findFromPosition(timestamp);
+                    if (indexedPosition.isPresent()) {
+                        LOGGER.debug("Timestamp [{}] found in index at block starting at: {}", timestamp, indexedPosition.getAsLong());
+                        return indexedPosition.getAsLong();
+                    }
+                    initialLowerBoundPosition = logIndex.get().getIndexedLength(); // All indexed lines are older
+                }
+            }
 
-            while (((upperBoundPosition - lowerBoundPosition) > MINIMUM_FRAGMENT_SIZE) ) {
+            long[] bounds = searchTimestampBounds(fileChannel, logFile, timestamp, initialLowerBoundPosition, fileLength);
+            return bounds[0];
 
-                // Just a binary search
-                currentPosition = (upperBoundPosition - lowerBoundPosition) / 2 + lowerBoundPosition;
-                fileChannel.position(currentPosition);
+        } catch (IOException e) {
+            throw new LogParserException(String.format("Error while finding nearest timestamp to [%s] in file: %s", timestamp, logFile), e);
+        }
+    }
 
-                var line = getNextLineNonEmpty(fileChannel);
-                LOGGER.trace("[{}, {}]. Line at position [{}]: {}", lowerBoundPosition, upperBoundPosition, currentPosition, line);
-                if (line == null) {
-                    break;
-                }
+    /**
+     * The counterpart of {@link #findNearTimestamp(long, Path)}: tries to find the position of a line with a timestamp equals or greater
+     * than the given one, such that the lines before that position are the only ones that could have lower timestamps.
+     *
+     * As lines are only roughly sorted, clients must add the order tolerance to the timestamp they are looking for, so lines after the
+     * returned position can be safely ignored.
+     *
+     * @return An upper bound position hint (at a line boundary) for the given timestamp, or {@link Long#MAX_VALUE} if there is no line
+     *         with a greater timestamp, meaning that the file must be read until the end
+     */
+    @Override
+    public long findPositionAfterTimestamp(long timestamp, Path logFile) {
 
-                ConnectionLogLine connectionLog = logLineParser.parseLine(line);
-                LOGGER.trace("Timestamp comparision: {}", connectionLog.getTimestamp()- timestamp);
+        try (var fileChannel = FileChannel.open(logFile, StandardOpenOption.READ)) {
 
-                if (connectionLog.getTimestamp() >= timestamp) {
-                    upperBoundPosition = currentPosition;
-                }
-                else {
-                    lowerBoundPosition = currentPosition;
-                }
+            long fileLength = fileChannel.size();
 
-                if (loops++ > MAXIMUM_LOOPS_BEFORE_ERROR) { // Hey, this is an experimental feature after all
-                    throw new LogParserException(String.format("Aborting experimental feature. Possibly infinite loop while finding nearest timestamp to [%s] in file: %s", timestamp, logFile));
+            long initialLowerBoundPosition = 0;
+            if (options.isUseIndex()) {
+                var logIndex = logIndexService.loadIndex(logFile);
+                if (logIndex.isPresent()) {
+                    var indexedPosition = logIndex.get().findPositionAfter(timestamp);
+                    if (indexedPosition.isPresent()) {
+                        LOGGER.debug("Timestamp [{}] upper bound found in index at block starting at: {}", timestamp, indexedPosition.getAsLong());
+                        return indexedPosition.getAsLong();
+                    }
+                    initialLowerBoundPosition = logIndex.get().getIndexedLength();
                 }
             }
 
-            return nextLineBoundaryPosition(fileChannel, lowerBoundPosition);
+            long[] bounds = searchTimestampBounds(fileChannel, logFile, timestamp, initialLowerBoundPosition, fileLength);
+            return bounds[1] >= fileLength ? Long.MAX_VALUE : bounds[1];
 
         } catch (IOException e) {
-            throw new LogParserException(String.format("Error while finding nearest timestamp to [%s] in file: %s", timestamp, logFile), e);
+            throw new LogParserException(String.format("Error while finding position after timestamp [%s] in file: %s", timestamp, logFile), e);
         }
     }
 
-    private static String getNextLineNonEmpty(FileChannel fileChannel) throws IOException {
-        var bufferedReader = new BufferedReader(Channels.newReader(fileChannel, CHARSET));
-        bufferedReader.readLine(); // Ignoring a (likely) non-complete line;
-
-        String nextLine;
-        do {
-            nextLine = bufferedReader.readLine();
-        } while (nextLine != null && nextLine.isEmpty());
-
-        return nextLine;
+    /**
+     * Lines after the end position cannot be in the time range, so the +1 to look for the first line strictly out of the tolerance
+     */
+    @Override
+    public LogFileRange findPositionRange(long initTimestamp, long endTimestamp, Path logFile) {
+        long fromPosition = findNearTimestamp(initTimestamp - options.getTimestampOrderToleranceMillis(), logFile);
+        long toPosition = findPositionAfterTimestamp(endTimestamp + options.getTimestampOrderToleranceMillis() + 1, logFile);
+        return new LogFileRange(fromPosition, toPosition);
     }
 
-    private static long nextLineBoundaryPosition(FileChannel fileChannel, long position) throws IOException {
-        if (position == 0) {
-            return 0;
+    /**
+     * Interpolation search: as timestamps grow roughly linearly with the position in the file, the next probe is placed where the timestamp
+     * is expected to be according to the lines already probed. When the data is skewed and a round doesn't at least halve the interval,
+     * the next round falls back to bisection, so it never takes more than twice the rounds of a binary search.
+     *
+     * With {@code --presearchProbes=k} (k>1) each round issues k concurrent probes (the interpolated one plus evenly spaced ones) using
+     * positioned reads, so the interval shrinks much faster per round trip on devices that serve concurrent reads well (SSDs).
+     *
+     * @return {lowerBoundPosition, upperBoundPosition}, both at line boundaries: The line at {@code lowerBoundPosition} has a lower timestamp than the given one
+     *         (unless it is the initial lower bound), and the line at {@code upperBoundPosition} has an equal or greater timestamp (unless it is the file length)
+     */
+    private long[] searchTimestampBounds(FileChannel fileChannel, Path logFile, long timestamp, long initialLowerBoundPosition, long fileLength) {
+        var bounds = new SearchBounds(timestamp, initialLowerBoundPosition, fileLength);
+        if (bounds.getLength() <= MINIMUM_FRAGMENT_SIZE) {
+            return bounds.toArray();
         }
 
-        fileChannel.position(position);
+        int probes = Math.max(1, options.getPresearchProbes());
+
+        // The first line and a line near the end of the file are the initial points for the interpolation
+        bounds.update(probeLines(fileChannel, List.of(-initialLowerBoundPosition - 1, fileLength - MINIMUM_FRAGMENT_SIZE), fileLength));
+
+        boolean interpolate = true;
+        int loops = 0;
 
-        var byteBuffer = ByteBuffer.allocate(BUFFER_FIND_NEWLINE_SIZE);
-        fileChannel.read(byteBuffer);
-        byteBuffer.flip();
+        while (bounds.getLength() > MINIMUM_FRAGMENT_SIZE) {
+            long length = bounds.getLength();
 
-        // Find next new line
-        consumeCharactersWhile(byteBuffer, b -> b!='\n' && b!='\r');
-        // Consume new line to get next line's position
-        consumeCharactersWhile(byteBuffer, b -> b=='\n' || b=='\r');
+            var probePositions = new TreeSet<Long>();
+            var interpolatedPosition = interpolate ? bounds.interpolatePosition() : OptionalLong.empty();
+            interpolatedPosition.ifPresent(probePositions::add);
 
-        return position + byteBuffer.position() - 1;
+            int evenlySpacedProbes = interpolatedPosition.isPresent() ? probes - 1 : probes;
+            for (int i=1; i<=evenlySpacedProbes; i++) {
+                probePositions.add(bounds.getLowerBoundPosition() + length * i / (evenlySpacedProbes + 1));
+            }
+
+            bounds.update(probeLines(fileChannel, probePositions, fileLength));
+            LOGGER.trace("[{}, {}]. Probed positions {} (interpolated: {})", bounds.getLowerBoundPosition(), bounds.getUpperBoundPosition(), probePositions, interpolatedPosition);
+
+            if (bounds.getLength() == length && !interpolatedPosition.isPresent()) { // Probes couldn't find any line boundary inside the interval
+                break;
+            }
+            interpolate = interpolatedPosition.isEmpty() || bounds.getLength() <= length / 2;
 
+            if (loops++ > MAXIMUM_LOOPS_BEFORE_ERROR) { // Hey, this is an experimental feature after all
+                throw new LogParserException(String.format("Aborting experimental feature. Possibly infinite loop while finding nearest timestamp to [%s] in file: %s", timestamp, logFile));
+            }
+        }
+
+        LOGGER.debug("Timestamp [{}] bounds [{}, {}] found after {} rounds of {} probes", timestamp, bounds.getLowerBoundPosition(), bounds.getUpperBoundPosition(), loops, probes);
+        return bounds.toArray();
     }
 
-    private static void consumeCharactersWhile(ByteBuffer byteBuffer, Predicate<Byte> predicate) {
-        byte b;
-        do {
-            if (!byteBuffer.hasRemaining()) {
+    /**
+     * Probes are independent positioned reads (they don't use nor modify the position of the channel), so several of them can be run concurrently
+     *
+     * @param probePositions a negative position {@code -p-1} means reading the line starting exactly at {@code p}
+     */
+    private List<ProbedLine> probeLines(FileChannel fileChannel, Collection<Long> probePositions, long fileLength) {
+        if (probePositions.size() == 1) {
+            var probedLine = probeLine(fileChannel, probePositions.iterator().next(), fileLength);
+            return probedLine == null ? List.of() : List.of(probedLine);
+        }
+
+        return Flux.fromIterable(probePositions)
+                .flatMap(probePosition -> Mono.fromCallable(() -> probeLine(fileChannel, probePosition, fileLength)).subscribeOn(Schedulers.elastic()))
+                .collectList()
+                .block();
+    }
+
+    /**
+     * @return the first complete line after the probe position (or starting at it, see {@link #probeLines(FileChannel, Collection, long)}), null if there is none
+     */
+    private ProbedLine probeLine(FileChannel fileChannel, long probePosition, long fileLength) {
+        boolean atLineStart = probePosition < 0;
+        long position = atLineStart ? -probePosition - 1 : probePosition;
+
+        try {
+            var byteBuffer = ByteBuffer.allocate(BUFFER_FIND_NEWLINE_SIZE * 2);
+            while (byteBuffer.hasRemaining() && position + byteBuffer.position() < fileLength) {
+                if (fileChannel.read(byteBuffer, position + byteBuffer.position()) < 0) {
+                    break;
+                }
+            }
+            byteBuffer.flip();
+
+            if (!atLineStart) {
+                // Ignoring a (likely) non-complete line
+                skipBytesWhile(byteBuffer, b -> b!='\n' && b!='\r');
+            }
+            // Consume new lines (and so empty lines) to get the next line's position
+            skipBytesWhile(byteBuffer, b -> b=='\n' || b=='\r');
+
+            int lineStart = byteBuffer.position();
+            if (lineStart == byteBuffer.limit()) {
+                if (position + byteBuffer.limit() < fileLength) {
+                    throw new LogParserException("Error finding timestamp, reached end of buffer, this might indicate a bug or that there are lines greater than " + BUFFER_FIND_NEWLINE_SIZE + " bytes");
+                }
+                return null;
+            }
+
+            skipBytesWhile(byteBuffer, b -> b!='\n' && b!='\r');
+            if (!byteBuffer.hasRemaining() && position + byteBuffer.limit() < fileLength) {
                 throw new LogParserException("Error finding timestamp, reached end of buffer, this might indicate a bug or that there are lines greater than " + BUFFER_FIND_NEWLINE_SIZE + " bytes");
             }
 
-            b = byteBuffer.get();
-            if (b == -1) {
-                throw new LogParserException("Error finding timestamp, reached end of file");
+            var line = new String(byteBuffer.array(), lineStart, byteBuffer.position() - lineStart, CHARSET);
+            LOGGER.trace("Line at position [{}]: {}", position + lineStart, line);
+
+            ConnectionLogLine connectionLog = logLineParser.parseLine(line);
+            return new ProbedLine(position + lineStart, connectionLog.getTimestamp());
+
+        } catch (IOException e) {
+            throw new LogParserException(String.format("Error while reading line at position [%s]", position), e);
+        }
+    }
+
+    /**
+     * Leaves the buffer at the first byte not matching the predicate, or at its limit
+     */
+    private static void skipBytesWhile(ByteBuffer byteBuffer, Predicate<Byte> predicate) {
+        while (byteBuffer.hasRemaining()) {
+            if (!predicate.test(byteBuffer.get(byteBuffer.position()))) {
+                return;
             }
-        } while (predicate.test(b));
+            byteBuffer.position(byteBuffer.position() + 1);
+        }
+    }
+
+    @Value
+    private static class ProbedLine {
+        private long position;
+        private long timestamp;
     }
 
+    /**
+     * Search interval, together with the lines probed at its bounds (when known) for the interpolation
+     */
+    @Getter
+    private static class SearchBounds {
+        private final long timestamp;
+        private long lowerBoundPosition;
+        private long upperBoundPosition;
+        private ProbedLine lowerBoundLine;
+        private ProbedLine upperBoundLine;
+
+        SearchBounds(long timestamp, long lowerBoundPosition, long upperBoundPosition) {
+            this.timestamp = timestamp;
+            this.lowerBoundPosition = lowerBoundPosition;
+            this.upperBoundPosition = upperBoundPosition;
+        }
 
+        long getLength() {
+            return upperBoundPosition - lowerBoundPosition;
+        }
+
+        /**
+         * The upper bound is updated first so, if probed lines happen not to be sorted, the lower bound stays below it
+         */
+        void update(List<ProbedLine> probedLines) {
+            for (ProbedLine probedLine: probedLines) {
+                if (probedLine.getTimestamp() >= timestamp && probedLine.getPosition() >= lowerBoundPosition && probedLine.getPosition() < upperBoundPosition) {
+                    upperBoundPosition = probedLine.getPosition();
+                    upperBoundLine = probedLine;
+                }
+            }
+            for (ProbedLine probedLine: probedLines) {
+                if (probedLine.getTimestamp() < timestamp && probedLine.getPosition() < upperBoundPosition) {
+                    if (probedLine.getPosition() > lowerBoundPosition) {
+                        lowerBoundPosition = probedLine.getPosition();
+                    }
+                    if (probedLine.getPosition() >= lowerBoundPosition) {
+                        lowerBoundLine = probedLine;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return where the timestamp is expected to be assuming timestamps grow linearly between the probed lines at both bounds
+         */
+        OptionalLong interpolatePosition() {
+            if (lowerBoundLine == null || upperBoundLine == null || upperBoundLine.getTimestamp() <= lowerBoundLine.getTimestamp()) {
+                return OptionalLong.empty();
+            }
+
+            double fraction = (double) (timestamp - lowerBoundLine.getTimestamp()) / (upperBoundLine.getTimestamp() - lowerBoundLine.getTimestamp());
+            long position = lowerBoundLine.getPosition() + (long) (fraction * (upperBoundLine.getPosition() - lowerBoundLine.getPosition()));
+
+            // The probe reads the line after the position, so it must be strictly inside the interval to give any information
+            return OptionalLong.of(Math.max(lowerBoundPosition, Math.min(position, upperBoundPosition - BUFFER_FIND_NEWLINE_SIZE)));
+        }
+
+        long[] toArray() {
+            return new long[] { lowerBoundPosition, upperBoundPosition };
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package net.rubenmartinez.cbcc.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Hash of the first bytes of a log file, stored in the files built from it (the sidecar index, the compact segments) to detect that the
+ * log file was replaced, eg. rotated, also when the new one is already longer than the part of the old one they cover.
+ */
+public final class FileFingerprint {
+
+    public static final int MAXIMUM_LENGTH = 4096;
+
+    private FileFingerprint() {
+    }
+
+    /**
+     * @param coveredLength bytes of the log file covered by the file storing the fingerprint, only the first {@link #MAXIMUM_LENGTH} of them are hashed
+     * @return the fingerprint, or 0 if the log file is shorter than {@code coveredLength}
+     */
+    public static long of(FileChannel logChannel, long coveredLength) throws IOException {
+        var buffer = ByteBuffer.allocate((int) Math.min(MAXIMUM_LENGTH, coveredLength));
+        while (buffer.hasRemaining()) {
+            if (logChannel.read(buffer, buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        return Hashing.hash64(buffer.array(), 0, buffer.limit());
+    }
+}
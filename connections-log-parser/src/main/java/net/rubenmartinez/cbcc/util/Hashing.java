@@ -0,0 +1,52 @@
+package net.rubenmartinez.cbcc.util;
+
+/**
+ * Small non-cryptographic hashing helpers for host names.
+ *
+ * Host names in the log are US-ASCII, so hashing a {@link String} or the raw bytes of the same host name
+ * gives exactly the same value. That allows byte-level code to look up structures that were filled with Strings.
+ */
+public final class Hashing {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashing() {
+    }
+
+    /**
+     * 64 bits FNV-1a hash of the given ASCII string, with a final avalanche step so every bit of the result can be used
+     */
+    public static long hash64(String s) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i=0; i<s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return fmix64(hash);
+    }
+
+    /**
+     * Same as {@link #hash64(String)} but for the ASCII bytes {@code [offset, offset+length)} of a buffer
+     */
+    public static long hash64(byte[] bytes, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i=offset; i<offset+length; i++) {
+            hash ^= (bytes[i] & 0xff);
+            hash *= FNV_PRIME;
+        }
+        return fmix64(hash);
+    }
+
+    /**
+     * MurmurHash3 64 bits finalizer
+     */
+    public static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,195 @@
+package net.rubenmartinez.cbcc.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Map from host name to an {@code int} count, to count connections per host without boxing.
+ *
+ * It uses open addressing with linear probing over parallel arrays: the hosts, their hashes (so most of the probes of other hosts
+ * don't need {@code equals}) and their counts. Incrementing the count of a host already in the map is a single probe in most cases.
+ *
+ * Hosts whose count gets to 0 are removed (with backward shift deletion, so there are no tombstones). {@link #clear()} keeps the
+ * arrays, so a map can be reused for the next window without allocating it again.
+ *
+ * Not thread safe.
+ */
+public class HostCounterMap {
+
+    private static final int MINIMUM_CAPACITY = 16;
+
+    private String[] hosts;
+    private int[] hashes;
+    private int[] counts;
+    private int mask;
+    private int size;
+
+    public HostCounterMap() {
+        this(MINIMUM_CAPACITY);
+    }
+
+    public HostCounterMap(int expectedHosts) {
+        // Lowest power of two with room for the hosts at half load
+        allocate(Integer.highestOneBit(Math.max(MINIMUM_CAPACITY, 2 * expectedHosts) * 2 - 1));
+    }
+
+    /**
+     * @return the count of the host after incrementing it
+     */
+    public int increment(String host) {
+        return add(host, 1);
+    }
+
+    /**
+     * @return the count of the host after adding {@code delta} to it. The host is removed if it gets to 0.
+     */
+    public int add(String host, int delta) {
+        int hash = hash(host);
+        int i = hash & mask;
+        while (hosts[i] != null) {
+            if (hashes[i] == hash && hosts[i].equals(host)) {
+                int count = counts[i] + delta;
+                if (count == 0) {
+                    removeAt(i);
+                }
+                else {
+                    counts[i] = count;
+                }
+                return count;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (delta != 0) {
+            hosts[i] = host;
+            hashes[i] = hash;
+            counts[i] = delta;
+            if (++size > hosts.length / 2) { // Linear probing needs a low load factor
+                resize();
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * @return the count of the host, 0 if it is not in the map
+     */
+    public int get(String host) {
+        int hash = hash(host);
+        for (int i = hash & mask; hosts[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == hash && hosts[i].equals(host)) {
+                return counts[i];
+            }
+        }
+        return 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the highest count in the map, 0 if it is empty
+     */
+    public int getMaximumCount() {
+        int maximum = 0;
+        for (int i=0; i<hosts.length; i++) {
+            if (hosts[i] != null && counts[i] > maximum) {
+                maximum = counts[i];
+            }
+        }
+        return maximum;
+    }
+
+    public void forEach(ObjIntConsumer<String> action) {
+        for (int i=0; i<hosts.length; i++) {
+            if (hosts[i] != null) {
+                action.accept(hosts[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * @return a new set with the hosts in the map
+     */
+    public Set<String> getHosts() {
+        var hostSet = new HashSet<String>(2 * size);
+        forEach((host, count) -> hostSet.add(host));
+        return hostSet;
+    }
+
+    /**
+     * Removes all the hosts, keeping the allocated arrays
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(hosts, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * Moves back the following hosts of the same probe sequence, so none of them is after an empty slot
+     */
+    private void removeAt(int removed) {
+        hosts[removed] = null;
+        size--;
+
+        int i = removed;
+        int j = removed;
+        while (true) {
+            j = (j + 1) & mask;
+            if (hosts[j] == null) {
+                return;
+            }
+            int ideal = hashes[j] & mask;
+            // The host at j can be moved to i only if its ideal slot is not cyclically in (i, j]
+            boolean idealInBetween = i <= j ? (i < ideal && ideal <= j) : (i < ideal || ideal <= j);
+            if (!idealInBetween) {
+                hosts[i] = hosts[j];
+                hashes[i] = hashes[j];
+                counts[i] = counts[j];
+                hosts[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private void resize() {
+        String[] oldHosts = hosts;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        allocate(2 * oldHosts.length);
+
+        for (int j=0; j<oldHosts.length; j++) {
+            if (oldHosts[j] != null) {
+                int i = oldHashes[j] & mask;
+                while (hosts[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                hosts[i] = oldHosts[j];
+                hashes[i] = oldHashes[j];
+                counts[i] = oldCounts[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        hosts = new String[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(String host) {
+        // String caches its hash code, the multiplication spreads its low bits, which are the ones used by the mask
+        int hash = host.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,99 @@
+package net.rubenmartinez.cbcc.util;
+
+/**
+ * HyperLogLog sketch to estimate the number of distinct host names using a fixed amount of memory.
+ *
+ * With precision {@code p} the sketch uses {@code 2^p} one-byte registers (4KB for the default precision of 12) no matter the
+ * number of hosts added, and the estimation has a relative standard error of {@code 1.04 / sqrt(2^p)} (1.6% for p=12).
+ *
+ * Sketches with the same precision can be merged, so every split of a file can be counted in its own sketch.
+ *
+ * @see <a href="http://algo.inria.fr/flajolet/Publications/FlFuGaMe07.pdf">HyperLogLog: the analysis of a near-optimal cardinality estimation algorithm</a>
+ */
+public class HyperLogLog {
+
+    public static final int MINIMUM_PRECISION = 4;
+    public static final int MAXIMUM_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MINIMUM_PRECISION || precision > MAXIMUM_PRECISION) {
+            throw new IllegalArgumentException(String.format("precision must be between %s and %s", MINIMUM_PRECISION, MAXIMUM_PRECISION));
+        }
+
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public void add(String host) {
+        long hash = Hashing.hash64(host);
+
+        int register = (int) (hash >>> (Long.SIZE - precision));
+        // Position of the first 1 bit in the remaining bits. The bit set at the right ensures that the maximum value fits in the register
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+
+    /**
+     * @return this sketch, after adding to it the hosts of the other one
+     */
+    public HyperLogLog merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException(String.format("Cannot merge sketches with different precisions: %s and %s", precision, other.precision));
+        }
+
+        for (int i=0; i<registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    public long estimate() {
+        int m = registers.length;
+
+        double sum = 0;
+        int zeroRegisters = 0;
+        for (byte register: registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeroRegisters++;
+            }
+        }
+
+        double estimate = getAlpha(m) * m * m / sum;
+
+        if (estimate <= 2.5 * m && zeroRegisters > 0) { // Small range correction: linear counting is much more accurate here
+            estimate = m * Math.log((double) m / zeroRegisters);
+        }
+        // No large range correction is needed as hashes have 64 bits
+
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return relative standard error of the estimations (eg. 0.01625 for precision 12)
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    private static double getAlpha(int m) {
+        switch (m) {
+            case 16: return 0.673;
+            case 32: return 0.697;
+            case 64: return 0.709;
+            default: return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package net.rubenmartinez.cbcc.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies (or any non-negative values) with a fixed relative precision, in the way of HdrHistogram: values are counted
+ * in buckets that double their width for every power of two, each power of two split in 64 sub-buckets. So any value is counted in a
+ * bucket at most 1/64 (~1.6%) wider than the value, from nanoseconds to days, in a fixed array of a few thousand counters.
+ *
+ * Recording is a few shifts and an atomic increment, safe from any number of threads. Percentiles are computed when they are read.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Values below this are counted exactly
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value a non-negative value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(getIndex(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the values recorded, 0 if there are none
+     */
+    public long getMean() {
+        long values = count.sum();
+        return values == 0 ? 0 : sum.sum() / values;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value counted in the same bucket as the value at that percentile, 0 if there are no values
+     */
+    public long getValueAtPercentile(double percentile) {
+        long values = count.sum();
+        if (values == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(values * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), getMax());
+            }
+        }
+        return getMax(); // Values recorded while reading
+    }
+
+    static int getIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1); // So value >>> shift is in [64, 128)
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((value >>> shift) - HALF_SUB_BUCKETS);
+    }
+
+    static long getHighestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        long lowestValue = subBucket << shift;
+        return lowestValue + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,68 @@
+package net.rubenmartinez.cbcc.util;
+
+/**
+ * In-place quicksort of the positions of one or more primitive arrays, which are compared and swapped by the caller, so structures of
+ * parallel arrays (or of offsets into an arena) can be sorted without boxing their elements nor copying them to a sortable array.
+ *
+ * Small ranges are finished with insertion sort, and the recursion is on the smaller part only, so the stack depth is logarithmic.
+ */
+public final class PrimitiveSort {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    @FunctionalInterface
+    public interface IndexComparator {
+        /**
+         * Same contract as {@link java.util.Comparator#compare}, for the elements at positions {@code i} and {@code j}
+         */
+        int compare(int i, int j);
+    }
+
+    @FunctionalInterface
+    public interface IndexSwapper {
+        void swap(int i, int j);
+    }
+
+    private PrimitiveSort() {
+    }
+
+    /**
+     * Sorts the positions {@code [low, high]}, both inclusive (none if {@code high < low}). Not stable.
+     */
+    public static void sort(int low, int high, IndexComparator comparator, IndexSwapper swapper) {
+        while (high - low > INSERTION_SORT_THRESHOLD) {
+            // The pivot is moved to low, so it stays there while the rest of the range is partitioned
+            swapper.swap(low, low + (high - low) / 2);
+            int i = low;
+            int j = high + 1;
+            while (true) {
+                do {
+                    i++;
+                } while (i < high && comparator.compare(i, low) < 0);
+                do {
+                    j--;
+                } while (comparator.compare(low, j) < 0); // Stops at low at the latest
+                if (i >= j) {
+                    break;
+                }
+                swapper.swap(i, j);
+            }
+            swapper.swap(low, j);
+
+            if (j - low < high - j) {
+                sort(low, j - 1, comparator, swapper);
+                low = j + 1;
+            }
+            else {
+                sort(j + 1, high, comparator, swapper);
+                high = j - 1;
+            }
+        }
+
+        for (int i=low+1; i<=high; i++) {
+            for (int j=i; j>low && comparator.compare(j - 1, j) > 0; j--) {
+                swapper.swap(j - 1, j);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package net.rubenmartinez.cbcc.util;
+
+import net.rubenmartinez.cbcc.domain.HeavyHitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving sketch to find the hosts with most connections using a fixed amount of memory.
+ *
+ * It monitors at most {@code capacity} hosts. A host not monitored replaces the one with the lowest count, and inherits that count as
+ * its possible error. So the count of a monitored host is never below its real count, and never more than {@code error} above it, and
+ * {@code error} is never above {@code total / capacity}. Every host with more than {@code total / capacity} connections is monitored.
+ *
+ * Counters are kept in a min-heap by count (and in a map by host), so every connection costs one map lookup and a sift of the heap.
+ *
+ * Sketches can be merged, so partial windows (panes) can be combined.
+ *
+ * @see <a href="https://www.cs.ucsb.edu/sites/default/files/documents/2005-23.pdf">Efficient Computation of Frequent and Top-k Elements in Data Streams</a>
+ */
+public class SpaceSaving {
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+
+        this.capacity = capacity;
+        this.counters = new HashMap<>(2 * capacity);
+        this.heap = new Counter[capacity];
+    }
+
+    /**
+     * @param counters the counters of a sketch, as returned by {@code top(capacity)} of that sketch
+     * @param total the total of that sketch
+     * @return a sketch with those counters, eg. to restore a sketch written with its counters
+     */
+    public static SpaceSaving fromCounters(int capacity, List<HeavyHitter> counters, long total) {
+        if (counters.size() > capacity) {
+            throw new IllegalArgumentException(String.format("%s counters don't fit in a sketch of capacity %s", counters.size(), capacity));
+        }
+
+        var sketch = new SpaceSaving(capacity);
+        for (HeavyHitter counter: counters) {
+            sketch.add(counter.getHost(), counter.getConnections(), counter.getMaxError());
+        }
+        sketch.total = total;
+        return sketch;
+    }
+
+    public void add(String host) {
+        add(host, 1, 0);
+    }
+
+    private void add(String host, long count, long error) {
+        total += count;
+
+        Counter counter = counters.get(host);
+        if (counter != null) {
+            counter.count += count;
+            counter.error += error;
+            siftDown(counter.heapIndex);
+        }
+        else if (size < capacity) {
+            counter = new Counter(host, count, error);
+            counter.heapIndex = size;
+            heap[size++] = counter;
+            counters.put(host, counter);
+            siftUp(counter.heapIndex);
+        }
+        else {
+            // Replaces the host with the lowest count, whose count could have been of the new host
+            counter = heap[0];
+            counters.remove(counter.host);
+            counter.host = host;
+            counter.error = counter.count + error;
+            counter.count += count;
+            counters.put(host, counter);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return a new sketch with the connections of this and the other one, with the capacity of this one
+     */
+    public SpaceSaving merge(SpaceSaving other) {
+        // A host not monitored by a full sketch may have had up to its minimum count there
+        return merge(other, getMaximumError(), other.getMaximumError());
+    }
+
+    /**
+     * Like {@link #merge(SpaceSaving)}, for sketches without any host in common (eg. of shards partitioned by host): a host monitored by
+     * one of them had no connections in the other one, so nothing is added to its count nor to its error
+     */
+    public SpaceSaving mergeDisjoint(SpaceSaving other) {
+        return merge(other, 0, 0);
+    }
+
+    /**
+     * @param minimum count added to the hosts of the other sketch not monitored by this one
+     * @param otherMinimum count added to the hosts of this sketch not monitored by the other one
+     */
+    private SpaceSaving merge(SpaceSaving other, long minimum, long otherMinimum) {
+        var merged = new ArrayList<Counter>(size + other.size);
+        for (int i=0; i<size; i++) {
+            Counter counter = heap[i];
+            Counter otherCounter = other.counters.get(counter.host);
+            merged.add(otherCounter != null ?
+                    new Counter(counter.host, counter.count + otherCounter.count, counter.error + otherCounter.error) :
+                    new Counter(counter.host, counter.count + otherMinimum, counter.error + otherMinimum));
+        }
+        for (int i=0; i<other.size; i++) {
+            Counter otherCounter = other.heap[i];
+            if (!counters.containsKey(otherCounter.host)) {
+                merged.add(new Counter(otherCounter.host, otherCounter.count + minimum, otherCounter.error + minimum));
+            }
+        }
+        merged.sort(Comparator.comparingLong((Counter counter) -> counter.count).reversed());
+
+        var result = new SpaceSaving(capacity);
+        for (int i=0; i<Math.min(capacity, merged.size()); i++) {
+            Counter counter = merged.get(i);
+            result.add(counter.host, counter.count, counter.error);
+        }
+        result.total = total + other.total;
+        return result;
+    }
+
+    /**
+     * @return the {@code k} hosts with the highest counts, highest first
+     */
+    public List<HeavyHitter> top(int k) {
+        Counter[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted, Comparator.comparingLong((Counter counter) -> counter.count).reversed().thenComparing(counter -> counter.host));
+
+        var top = new ArrayList<HeavyHitter>(Math.min(k, size));
+        for (int i=0; i<Math.min(k, size); i++) {
+            top.add(new HeavyHitter(sorted[i].host, sorted[i].count, sorted[i].error));
+        }
+        return top;
+    }
+
+    /**
+     * @return the maximum overestimation of any count, and the maximum count of any host not monitored
+     */
+    public long getMaximumError() {
+        return size < capacity ? 0 : heap[0].count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            setHeap(index, heap[parent]);
+            index = parent;
+        }
+        setHeap(index, counter);
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            setHeap(index, heap[child]);
+            index = child;
+        }
+        setHeap(index, counter);
+    }
+
+    private void setHeap(int index, Counter counter) {
+        heap[index] = counter;
+        counter.heapIndex = index;
+    }
+
+    private static class Counter {
+        private String host;
+        private long count;
+        private long error;
+        private int heapIndex;
+
+        Counter(String host, long count, long error) {
+            this.host = host;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
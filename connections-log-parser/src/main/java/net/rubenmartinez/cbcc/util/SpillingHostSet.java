@@ -0,0 +1,365 @@
+package net.rubenmartinez.cbcc.util;
+
+import net.rubenmartinez.cbcc.exception.LogParserException;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Exact set of distinct host names that uses a bounded amount of memory.
+ *
+ * Host names are stored UTF-8 encoded in a byte arena (each one prefixed by its length in 2 bytes) and indexed by an open-addressing
+ * table of {@code int} offsets, so there is no object per host. They are hashed and compared by those same bytes when they are added,
+ * looked up and rehashed, so a host is found again whatever its characters. When adding a new host would need more than the memory budget,
+ * the hosts in memory are sorted and written to a temporary file (a "run"), and the set starts again empty.
+ *
+ * {@link #forEachSorted(Consumer)} then merges all the runs (k-way merge), so every host is returned exactly once and in order (of the
+ * UTF-8 bytes, which is the order of the code points).
+ * Runs are deleted on {@link #close()}.
+ */
+public class SpillingHostSet implements AutoCloseable {
+
+    public static final long MINIMUM_MEMORY_BUDGET = 64 * 1024;
+
+    private static final int LENGTH_BYTES = 2;
+    private static final int MAXIMUM_HOST_LENGTH = 0xffff;
+
+    private static final int INITIAL_TABLE_SIZE = 1024;
+    private static final int INITIAL_ARENA_SIZE = 16 * 1024;
+    private static final int EMPTY = 0; // Table slots store offset+1, so 0 means empty
+
+    // Largest array sizes the JVM allocates, past them the set is spilled whatever the memory budget
+    private static final int MAXIMUM_ARENA_SIZE = Integer.MAX_VALUE - 8;
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 30;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final long memoryBudget;
+
+    private byte[] arena;
+    private int arenaLength;
+    private int[] table;
+    private int size;
+
+    private byte[] encoded = new byte[256]; // Host being added
+
+    private final List<Path> runs = new ArrayList<>();
+
+    /**
+     * @param memoryBudget bytes used at most by the arena and the table (not counting the JVM overhead of the two arrays)
+     */
+    public SpillingHostSet(long memoryBudget) {
+        if (memoryBudget < MINIMUM_MEMORY_BUDGET) {
+            throw new IllegalArgumentException("memoryBudget must be at least " + MINIMUM_MEMORY_BUDGET + " bytes");
+        }
+
+        this.memoryBudget = memoryBudget;
+        this.arena = new byte[INITIAL_ARENA_SIZE];
+        this.table = new int[INITIAL_TABLE_SIZE];
+    }
+
+    public void add(String host) {
+        int length = encode(host);
+        if (length > MAXIMUM_HOST_LENGTH) {
+            throw new IllegalArgumentException("Host names longer than " + MAXIMUM_HOST_LENGTH + " bytes are not supported");
+        }
+
+        long hash = Hashing.hash64(encoded, 0, length);
+        int slot = findSlot(length, hash);
+        if (table[slot] != EMPTY) {
+            return;
+        }
+
+        if (!ensureRoomFor(length)) {
+            spill();
+            ensureRoomFor(length);
+        }
+        slot = findSlot(length, hash); // The table could have been resized or emptied
+
+        int offset = arenaLength;
+        arena[offset] = (byte) (length >>> 8);
+        arena[offset + 1] = (byte) length;
+        System.arraycopy(encoded, 0, arena, offset + LENGTH_BYTES, length);
+        arenaLength += LENGTH_BYTES + length;
+
+        table[slot] = offset + 1;
+        size++;
+    }
+
+    /**
+     * @return the number of spilled runs so far, the hosts in different runs are not necessarily distinct
+     */
+    public int getRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Every distinct host added to the set, in ascending order
+     */
+    public void forEachSorted(Consumer<String> consumer) {
+        if (runs.isEmpty()) {
+            int[] offsets = sortedOffsets();
+            for (int offset: offsets) {
+                consumer.accept(decode(offset));
+            }
+            return;
+        }
+
+        if (size > 0) {
+            spill();
+        }
+        mergeRuns(consumer);
+    }
+
+    @Override
+    public void close() {
+        for (Path run: runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                run.toFile().deleteOnExit();
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * Encodes the host as UTF-8 into {@link #encoded}, without creating any object if it is ASCII (as almost every host name is)
+     *
+     * @return the number of bytes of the host
+     */
+    private int encode(String host) {
+        int length = host.length();
+        if (encoded.length < length) {
+            encoded = new byte[Math.max(length, 2 * encoded.length)];
+        }
+        for (int i=0; i<length; i++) {
+            char c = host.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = host.getBytes(StandardCharsets.UTF_8);
+                if (encoded.length < bytes.length) {
+                    encoded = new byte[bytes.length];
+                }
+                System.arraycopy(bytes, 0, encoded, 0, bytes.length);
+                return bytes.length;
+            }
+            encoded[i] = (byte) c;
+        }
+        return length;
+    }
+
+    /**
+     * Slot of the {@link #encoded} host, or the empty slot where it would be added
+     */
+    private int findSlot(int length, long hash) {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while (table[slot] != EMPTY && !equalsAt(table[slot] - 1, length)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean equalsAt(int offset, int length) {
+        return lengthAt(offset) == length && Arrays.equals(arena, offset + LENGTH_BYTES, offset + LENGTH_BYTES + length, encoded, 0, length);
+    }
+
+    private int lengthAt(int offset) {
+        return ((arena[offset] & 0xff) << 8) | (arena[offset + 1] & 0xff);
+    }
+
+    /**
+     * Grows the arena and/or the table if needed to add a host of the given length
+     *
+     * @return false if growing them would exceed the memory budget or the largest array size, so the set must be spilled first
+     */
+    private boolean ensureRoomFor(int length) {
+        long neededArena = (long) arenaLength + LENGTH_BYTES + length;
+        boolean growArena = neededArena > arena.length;
+        boolean growTable = (size + 1L) * 2 > table.length; // Load factor 0.5
+
+        if (!growArena && !growTable) {
+            return true;
+        }
+        if (neededArena > MAXIMUM_ARENA_SIZE || (growTable && table.length == MAXIMUM_TABLE_SIZE)) {
+            return false;
+        }
+
+        long newArenaSize = growArena ? Math.min(Math.max(2L * arena.length, neededArena), MAXIMUM_ARENA_SIZE) : arena.length;
+        long newTableSize = growTable ? 2L * table.length : table.length;
+        if (size > 0 && newArenaSize + newTableSize * Integer.BYTES > memoryBudget) {
+            return false;
+        }
+
+        if (growArena) {
+            arena = Arrays.copyOf(arena, (int) newArenaSize);
+        }
+        if (growTable) {
+            rehash((int) newTableSize);
+        }
+        return true;
+    }
+
+    private void rehash(int newTableSize) {
+        var newTable = new int[newTableSize];
+        int mask = newTableSize - 1;
+        for (int entry: table) {
+            if (entry != EMPTY) {
+                int offset = entry - 1;
+                int slot = (int) Hashing.hash64(arena, offset + LENGTH_BYTES, lengthAt(offset)) & mask;
+                while (newTable[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = entry;
+            }
+        }
+        table = newTable;
+    }
+
+    /**
+     * Writes the hosts in memory, sorted, to a new run (one host per line) and empties the set. The arrays are kept for reuse.
+     */
+    private void spill() {
+        try {
+            Path run = Files.createTempFile("uniqueHosts", ".run");
+            runs.add(run);
+
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(run), WRITE_BUFFER_SIZE)) {
+                for (int offset: sortedOffsets()) {
+                    out.write(arena, offset + LENGTH_BYTES, lengthAt(offset));
+                    out.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            throw new LogParserException("Error while spilling unique hosts to a temporary file", e);
+        }
+
+        Arrays.fill(table, EMPTY);
+        arenaLength = 0;
+        size = 0;
+    }
+
+    private void mergeRuns(Consumer<String> consumer) {
+        var readers = new PriorityQueue<RunReader>(runs.size(), Comparator.comparing(RunReader::getCurrent, SpillingHostSet::compareCodePoints));
+        try {
+            for (Path run: runs) {
+                var reader = new RunReader(Files.newBufferedReader(run, StandardCharsets.UTF_8));
+                if (reader.advance()) {
+                    readers.add(reader);
+                }
+                else {
+                    reader.close();
+                }
+            }
+
+            String last = null;
+            while (!readers.isEmpty()) {
+                var reader = readers.poll();
+                if (!reader.getCurrent().equals(last)) {
+                    last = reader.getCurrent();
+                    consumer.accept(last);
+                }
+                if (reader.advance()) {
+                    readers.add(reader);
+                }
+                else {
+                    reader.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new LogParserException("Error while merging unique hosts temporary files", e);
+        } finally {
+            readers.forEach(RunReader::close);
+        }
+    }
+
+    private String decode(int offset) {
+        return new String(arena, offset + LENGTH_BYTES, lengthAt(offset), StandardCharsets.UTF_8);
+    }
+
+    private int[] sortedOffsets() {
+        int[] offsets = new int[size];
+        int i = 0;
+        for (int entry: table) {
+            if (entry != EMPTY) {
+                offsets[i++] = entry - 1;
+            }
+        }
+        // By host name (unsigned byte order, the same as the order of the code points for UTF-8)
+        PrimitiveSort.sort(0, size - 1, (a, b) -> compare(offsets[a], offsets[b]), (a, b) -> {
+            int offset = offsets[a];
+            offsets[a] = offsets[b];
+            offsets[b] = offset;
+        });
+        return offsets;
+    }
+
+    private int compare(int offset1, int offset2) {
+        int length1 = lengthAt(offset1);
+        int length2 = lengthAt(offset2);
+        int length = Math.min(length1, length2);
+        for (int i=0; i<length; i++) {
+            int b1 = arena[offset1 + LENGTH_BYTES + i] & 0xff;
+            int b2 = arena[offset2 + LENGTH_BYTES + i] & 0xff;
+            if (b1 != b2) {
+                return b1 - b2;
+            }
+        }
+        return length1 - length2;
+    }
+
+    /**
+     * Order of the hosts in the runs: String#compareTo compares UTF-16 chars, which differs for supplementary characters
+     */
+    private static int compareCodePoints(String host1, String host2) {
+        int i1 = 0;
+        int i2 = 0;
+        while (i1 < host1.length() && i2 < host2.length()) {
+            int c1 = host1.codePointAt(i1);
+            int c2 = host2.codePointAt(i2);
+            if (c1 != c2) {
+                return Integer.compare(c1, c2);
+            }
+            i1 += Character.charCount(c1);
+            i2 += Character.charCount(c2);
+        }
+        return Integer.compare(host1.length() - i1, host2.length() - i2);
+    }
+
+    private static class RunReader {
+        private final BufferedReader reader;
+        private String current;
+
+        RunReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        String getCurrent() {
+            return current;
+        }
+
+        boolean advance() throws IOException {
+            current = reader.readLine();
+            return current != null;
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // Nothing to do, the run is deleted anyway
+            }
+        }
+    }
+}
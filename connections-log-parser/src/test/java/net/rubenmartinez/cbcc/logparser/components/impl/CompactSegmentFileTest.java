@@ -0,0 +1,100 @@
+package net.rubenmartinez.cbcc.logparser.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.exception.LogFileIOException;
+import net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile;
+import net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompactSegmentFileTest {
+
+    private File tempFile;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = File.createTempFile("CompactSegmentFileTest", "seg");
+    }
+
+    @AfterEach
+    void deleteTempFile() {
+        tempFile.delete();
+    }
+
+    @Test
+    void testWriteAndReadConnections() throws IOException {
+        var random = new Random();
+        var lines = new ArrayList<ConnectionLogLine>();
+        long timestamp = 1565647204351L;
+        int numberOfLines = CompactSegmentFile.SEGMENT_LINES * 2 + 100;
+        for (int i=0; i<numberOfLines; i++) {
+            timestamp += random.nextInt(1000);
+            long outOfOrderTimestamp = timestamp - random.nextInt(300);
+            lines.add(new ConnectionLogLine(outOfOrderTimestamp, "source" + random.nextInt(50), "target" + random.nextInt(50)));
+        }
+
+        try (var writer = new CompactSegmentWriter(tempFile.toPath())) {
+            for (ConnectionLogLine line: lines) {
+                writer.add(line, 0);
+            }
+            writer.finish(12345, 67890);
+        }
+
+        try (var compactSegmentFile = CompactSegmentFile.open(tempFile.toPath())) {
+            assertThat(compactSegmentFile.getSourceLength(), equalTo(12345L));
+            assertThat(compactSegmentFile.getSourceFingerprint(), equalTo(67890L));
+            assertThat(compactSegmentFile.getSegments().size(), equalTo(3));
+            assertThat(compactSegmentFile.getHostId("unknown"), equalTo(-1));
+
+            long initTimestamp = lines.get(1000).getTimestamp();
+            long endTimestamp = lines.get(numberOfLines - 1000).getTimestamp();
+            var expected = new ArrayList<ConnectionLogLine>();
+            for (ConnectionLogLine line: lines) {
+                if (line.getTargetHost().equals("target7") && line.getTimestamp() >= initTimestamp && line.getTimestamp() <= endTimestamp) {
+                    expected.add(line);
+                }
+            }
+
+            int hostId = compactSegmentFile.getHostId("target7");
+            List<ConnectionLogLine> actual = new ArrayList<>();
+            for (CompactSegmentFile.Segment segment: compactSegmentFile.getSegments()) {
+                compactSegmentFile.forEachConnectionToHost(segment, hostId, initTimestamp, endTimestamp, actual::add);
+            }
+
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    void testClosedWhenLastReferenceReleased() throws IOException {
+        try (var writer = new CompactSegmentWriter(tempFile.toPath())) {
+            writer.add(new ConnectionLogLine(1565647204351L, "source", "target"), 0);
+            writer.finish(0, 0);
+        }
+
+        var compactSegmentFile = CompactSegmentFile.open(tempFile.toPath());
+        var segment = compactSegmentFile.getSegments().get(0);
+        int hostId = compactSegmentFile.getHostId("target");
+
+        compactSegmentFile.retain();
+        compactSegmentFile.close();
+        var connections = new ArrayList<ConnectionLogLine>();
+        compactSegmentFile.forEachConnectionToHost(segment, hostId, 0, Long.MAX_VALUE, connections::add);
+        assertThat(connections.size(), equalTo(1));
+
+        compactSegmentFile.close();
+        assertThrows(LogFileIOException.class, () -> compactSegmentFile.forEachConnectionToHost(segment, hostId, 0, Long.MAX_VALUE, connections::add));
+    }
+}
@@ -0,0 +1,69 @@
+package net.rubenmartinez.cbcc.logparser.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.ReachableHost;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionGraph;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+class ConnectionGraphTest {
+
+    // a -> b -> x happens in time order, c -> d -> x doesn't (d connected to x before c connected to d)
+    private static final List<ConnectionLogLine> CONNECTIONS = List.of(
+            new ConnectionLogLine(1_000, "a", "b"),
+            new ConnectionLogLine(2_000, "d", "x"),
+            new ConnectionLogLine(3_000, "b", "x"),
+            new ConnectionLogLine(4_000, "c", "d"),
+            new ConnectionLogLine(5_000, "e", "a"),
+            new ConnectionLogLine(500, "e", "a"),
+            new ConnectionLogLine(6_000, "x", "f"));
+
+    private static ConnectionGraph buildInTwoSplits() {
+        var firstSplit = new ConnectionGraph.Builder();
+        var secondSplit = new ConnectionGraph.Builder();
+        CONNECTIONS.subList(0, 3).forEach(firstSplit);
+        CONNECTIONS.subList(3, CONNECTIONS.size()).forEach(secondSplit);
+        return firstSplit.merge(secondSplit).build();
+    }
+
+    @Test
+    void testMergedGraph() {
+        var graph = buildInTwoSplits();
+
+        assertThat(graph.getHostCount(), equalTo(7));
+        assertThat(graph.getConnectionCount(), equalTo(CONNECTIONS.size()));
+    }
+
+    @Test
+    void testHostsReachingWithinHops() {
+        var graph = buildInTwoSplits();
+
+        assertThat(graph.findHostsReaching("x", 1, false), contains(new ReachableHost("b", 1), new ReachableHost("d", 1)));
+        assertThat(graph.findHostsReaching("x", 3, false), contains(
+                new ReachableHost("b", 1), new ReachableHost("d", 1),
+                new ReachableHost("a", 2), new ReachableHost("c", 2),
+                new ReachableHost("e", 3)));
+    }
+
+    @Test
+    void testHostsReachingInTimeOrder() {
+        var graph = buildInTwoSplits();
+
+        // Only the connection e -> a at 500 can be followed by a -> b at 1000
+        assertThat(graph.findHostsReaching("x", 3, true), contains(
+                new ReachableHost("b", 1), new ReachableHost("d", 1),
+                new ReachableHost("a", 2),
+                new ReachableHost("e", 3)));
+    }
+
+    @Test
+    void testUnknownHost() {
+        assertThat(buildInTwoSplits().findHostsReaching("unknown", 2, false), empty());
+    }
+}
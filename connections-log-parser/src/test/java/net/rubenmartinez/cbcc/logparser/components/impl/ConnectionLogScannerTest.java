@@ -0,0 +1,90 @@
+package net.rubenmartinez.cbcc.logparser.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.logparsing.components.impl.BasicLogLineParser;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionLogScanner;
+import net.rubenmartinez.cbcc.reactive.file.FileFlux;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConnectionLogScannerTest {
+
+    private static final String LOG = String.join("",
+            "1000 a x\n",
+            "1001 b y\r\n",
+            "not a connection line\n",
+            "\n",
+            "1002 c x \r",
+            "+1003 d x\n",
+            "1004 e x\n",
+            "2000 f x\n",
+            "1005 g x\n", // Out of order, but within the tolerance
+            "9000 h x\n",
+            "1006 i x");  // After the end of the time range plus the tolerance, so it is never read
+
+    private File tempFile;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = File.createTempFile("ConnectionLogScannerTest", "log");
+        Files.write(tempFile.toPath(), LOG.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @AfterEach
+    void deleteTempFile() {
+        tempFile.delete();
+    }
+
+    private ConnectionLogScanner newScanner(String host) {
+        return new ConnectionLogScanner(new BasicLogLineParser(), new LongAdder(), host, 1000, 1999, 5000);
+    }
+
+    @Test
+    void testSameConnectionsAsParsingEveryLine() {
+        var connections = newScanner("x").connections(tempFile.toPath(), 0, Long.MAX_VALUE).collectList().block();
+
+        assertThat(connections, contains(
+                new ConnectionLogLine(1000, "a", "x"),
+                new ConnectionLogLine(1002, "c", "x"),
+                new ConnectionLogLine(1003, "d", "x"), // Not parsed in place, but by the line parser
+                new ConnectionLogLine(1004, "e", "x"),
+                new ConnectionLogLine(1005, "g", "x")));
+    }
+
+    @Test
+    void testRangesAfterTheEndAreNotRead() {
+        var scanner = newScanner("x");
+        int endOfTimeRange = LOG.indexOf("1006");
+
+        var beforeEnd = scanner.connections(tempFile.toPath(), LOG.indexOf("1004"), endOfTimeRange).collectList().block();
+        var afterEnd = scanner.connections(tempFile.toPath(), endOfTimeRange, Long.MAX_VALUE).collectList().block();
+
+        assertThat(beforeEnd, contains(new ConnectionLogLine(1004, "e", "x"), new ConnectionLogLine(1005, "g", "x")));
+        assertThat(afterEnd, empty());
+    }
+
+    @Test
+    void testLinesCounted() {
+        var linesParsedInPlace = new LongAdder();
+        long linesReadBefore = FileFlux.getMetrics().getLinesRead();
+        long bytesReadBefore = FileFlux.getMetrics().getBytesRead();
+
+        new ConnectionLogScanner(new BasicLogLineParser(), linesParsedInPlace, "x", 1000, 1999, 5000).connections(tempFile.toPath(), 0, Long.MAX_VALUE).blockLast();
+
+        assertEquals(10, FileFlux.getMetrics().getLinesRead() - linesReadBefore); // Up to the one after the end of the time range
+        assertEquals(LOG.length(), FileFlux.getMetrics().getBytesRead() - bytesReadBefore);
+        assertEquals(7, linesParsedInPlace.sum());
+    }
+}
@@ -0,0 +1,146 @@
+package net.rubenmartinez.cbcc.logparser.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionLogStatsContainer;
+import net.rubenmartinez.cbcc.logparsing.components.impl.EventTimePaneAssigner;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventTimePaneAssignerTest {
+
+    private static final long PANE_MILLIS = 1000;
+    private static final long TOLERANCE_MILLIS = 500;
+
+    private static EventTimePaneAssigner newAssigner() {
+        return new EventTimePaneAssigner(PANE_MILLIS, TOLERANCE_MILLIS, paneStart -> new ConnectionLogStatsContainer(
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(paneStart), ZoneOffset.UTC), Duration.ofMillis(PANE_MILLIS), Optional.empty(), Optional.of("target")));
+    }
+
+    private static List<ConnectionLogStatsContainer> accept(EventTimePaneAssigner assigner, long timestamp, String sourceHost) {
+        return assigner.accept(new ConnectionLogLine(timestamp, sourceHost, "target"));
+    }
+
+    @Test
+    void testPanesClosedByWatermarkWithOutOfOrderLines() {
+        var assigner = newAssigner();
+
+        assertTrue(accept(assigner, 10_100, "a").isEmpty());
+        assertTrue(accept(assigner, 11_200, "b").isEmpty());
+        assertTrue(accept(assigner, 10_900, "c").isEmpty()); // Out of order, but within the tolerance
+
+        // Watermark 11_100: the pane [10_000, 11_000) is closed
+        var closed = accept(assigner, 11_600, "d");
+
+        assertEquals(1, closed.size());
+        var stats = closed.get(0).getConnectionLogStats();
+        assertEquals(LocalDateTime.ofInstant(Instant.ofEpochMilli(10_000), ZoneOffset.UTC), stats.getStartTime());
+        assertThat(stats.getConnectedToTargetHostInWindow().get(), containsInAnyOrder("a", "c"));
+        assertEquals(Long.valueOf(0), stats.getLateConnectionsInWindow());
+    }
+
+    @Test
+    void testLateLinesAndEmptyPanes() {
+        var assigner = newAssigner();
+
+        accept(assigner, 10_100, "a");
+        accept(assigner, 11_600, "b"); // Closes [10_000, 11_000)
+        assertTrue(accept(assigner, 10_999, "late").isEmpty());
+
+        // Watermark 13_600: [11_000, 12_000) and the empty [12_000, 13_000) are closed
+        var closed = accept(assigner, 14_100, "c");
+
+        assertEquals(2, closed.size());
+        assertThat(closed.get(0).getConnectionLogStats().getConnectedToTargetHostInWindow().get(), containsInAnyOrder("b"));
+        assertEquals(Long.valueOf(1), closed.get(0).getConnectionLogStats().getLateConnectionsInWindow());
+        assertTrue(closed.get(1).getConnectionLogStats().getConnectedToTargetHostInWindow().get().isEmpty());
+        assertEquals(Long.valueOf(0), closed.get(1).getConnectionLogStats().getLateConnectionsInWindow());
+
+        // The rest of panes, [13_000, 14_000) empty and [14_000, 15_000)
+        var flushed = new ArrayList<>(assigner.flush());
+        assertEquals(2, flushed.size());
+        assertThat(flushed.get(1).getConnectionLogStats().getConnectedToTargetHostInWindow().get(), containsInAnyOrder("c"));
+    }
+
+    @Test
+    void testTimestampFarAheadIgnored() {
+        var assigner = new EventTimePaneAssigner(PANE_MILLIS, TOLERANCE_MILLIS, 10, paneStart -> new ConnectionLogStatsContainer(
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(paneStart), ZoneOffset.UTC), Duration.ofMillis(PANE_MILLIS), Optional.empty(), Optional.of("target")));
+
+        accept(assigner, 10_100, "a");
+        assertTrue(accept(assigner, 1_000_000_000_000L, "outlier").isEmpty()); // Would close ~10^9 panes
+        assertEquals(9_600, assigner.getWatermark());
+
+        // The lines after it are not late: watermark 12_100 closes [10_000, 11_000) and [11_000, 12_000)
+        accept(assigner, 11_200, "b");
+        var closed = accept(assigner, 12_600, "c");
+
+        assertEquals(2, closed.size());
+        assertThat(closed.get(0).getConnectionLogStats().getConnectedToTargetHostInWindow().get(), containsInAnyOrder("a"));
+        assertEquals(Long.valueOf(1), closed.get(0).getConnectionLogStats().getLateConnectionsInWindow());
+        assertThat(closed.get(1).getConnectionLogStats().getConnectedToTargetHostInWindow().get(), containsInAnyOrder("b"));
+        assertEquals(Long.valueOf(0), closed.get(1).getConnectionLogStats().getLateConnectionsInWindow());
+    }
+
+    @Test
+    void testJumpAcceptedWhenTimestampsKeepFarAhead() {
+        var assigner = new EventTimePaneAssigner(PANE_MILLIS, TOLERANCE_MILLIS, 10, paneStart -> new ConnectionLogStatsContainer(
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(paneStart), ZoneOffset.UTC), Duration.ofMillis(PANE_MILLIS), Optional.empty(), Optional.of("target")));
+
+        accept(assigner, 10_100, "a");
+        for (int i=1; i<EventTimePaneAssigner.OUTLIERS_TO_JUMP; i++) {
+            assertTrue(accept(assigner, 100_100, "ahead").isEmpty());
+        }
+
+        // Watermark 99_600: the panes from [10_000, 11_000) to [98_000, 99_000) are closed, the first one with the lines ignored
+        var closed = accept(assigner, 100_100, "ahead");
+
+        assertEquals(89, closed.size());
+        assertEquals(Long.valueOf(EventTimePaneAssigner.OUTLIERS_TO_JUMP - 1), closed.get(0).getConnectionLogStats().getLateConnectionsInWindow());
+        assertThat(assigner.flush().get(1).getConnectionLogStats().getConnectedToTargetHostInWindow().get(), containsInAnyOrder("ahead"));
+    }
+
+    @Test
+    void testPanesCollectedElsewhere() {
+        var panes = new TreeMap<Long, ConnectionLogStatsContainer>();
+        panes.put(10_000L, newPane(10_000, "a"));
+        panes.put(12_000L, newPane(12_000, "b"));
+
+        // Watermark 12_200: [10_000, 11_000) and the empty [11_000, 12_000) are closed, [12_000, 13_000) is still open
+        var assigner = newAssigner();
+        var closed = assigner.acceptPanes(panes, 12_700);
+
+        assertEquals(2, closed.size());
+        assertThat(closed.get(0).getConnectionLogStats().getConnectedToTargetHostInWindow().get(), containsInAnyOrder("a"));
+        assertTrue(closed.get(1).getConnectionLogStats().getConnectedToTargetHostInWindow().get().isEmpty());
+
+        assertTrue(accept(assigner, 11_900, "late").isEmpty());
+        assertTrue(accept(assigner, 12_300, "c").isEmpty());
+        var flushed = assigner.flush();
+        assertEquals(1, flushed.size());
+        assertThat(flushed.get(0).getConnectionLogStats().getConnectedToTargetHostInWindow().get(), containsInAnyOrder("b", "c"));
+        assertEquals(Long.valueOf(1), flushed.get(0).getConnectionLogStats().getLateConnectionsInWindow());
+
+        assertThrows(IllegalStateException.class, () -> assigner.acceptPanes(panes, 12_700));
+    }
+
+    private static ConnectionLogStatsContainer newPane(long paneStart, String sourceHost) {
+        var pane = new ConnectionLogStatsContainer(LocalDateTime.ofInstant(Instant.ofEpochMilli(paneStart), ZoneOffset.UTC), Duration.ofMillis(PANE_MILLIS),
+                Optional.empty(), Optional.of("target"));
+        pane.accept(new ConnectionLogLine(paneStart + 100, sourceHost, "target"));
+        return pane;
+    }
+}
@@ -0,0 +1,51 @@
+package net.rubenmartinez.cbcc.logparser.components.impl;
+
+import net.rubenmartinez.cbcc.domain.AggregationRow;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.logparsing.components.impl.GroupAggregator;
+import net.rubenmartinez.cbcc.params.AggregationFunction;
+import net.rubenmartinez.cbcc.params.AggregationGroupBy;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+class GroupAggregatorTest {
+
+    private static final List<ConnectionLogLine> CONNECTIONS = List.of(
+            new ConnectionLogLine(1_000, "a", "x"),
+            new ConnectionLogLine(59_999, "b", "x"),
+            new ConnectionLogLine(60_000, "a", "y"),
+            new ConnectionLogLine(61_000, "a", "x"),
+            new ConnectionLogLine(125_000, "c", "x"));
+
+    @Test
+    void testCountBySourceMergingPartialAggregates() {
+        var firstHalf = new GroupAggregator(AggregationGroupBy.SOURCE, AggregationFunction.COUNT, 0);
+        var secondHalf = new GroupAggregator(AggregationGroupBy.SOURCE, AggregationFunction.COUNT, 0);
+        CONNECTIONS.subList(0, 2).forEach(firstHalf);
+        CONNECTIONS.subList(2, CONNECTIONS.size()).forEach(secondHalf);
+
+        var rows = firstHalf.merge(secondHalf).getRows(0);
+
+        assertThat(rows, contains(new AggregationRow("a", 3), new AggregationRow("b", 1), new AggregationRow("c", 1)));
+    }
+
+    @Test
+    void testTopTargetsByDistinctSources() {
+        var aggregator = new GroupAggregator(AggregationGroupBy.TARGET, AggregationFunction.DISTINCT, 0);
+        CONNECTIONS.forEach(aggregator);
+
+        assertThat(aggregator.getRows(1), contains(new AggregationRow("x", 3)));
+    }
+
+    @Test
+    void testCountByTimeBucketIsSortedChronologically() {
+        var aggregator = new GroupAggregator(AggregationGroupBy.TIME, AggregationFunction.COUNT, 60_000);
+        CONNECTIONS.forEach(aggregator);
+
+        assertThat(aggregator.getRows(0), contains(new AggregationRow("0", 2), new AggregationRow("60000", 2), new AggregationRow("120000", 1)));
+    }
+}
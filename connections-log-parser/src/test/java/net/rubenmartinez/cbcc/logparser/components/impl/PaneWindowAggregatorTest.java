@@ -0,0 +1,79 @@
+package net.rubenmartinez.cbcc.logparser.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionLogStatsContainer;
+import net.rubenmartinez.cbcc.logparsing.components.impl.PaneWindowAggregator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PaneWindowAggregatorTest {
+
+    private static final Duration PANE = Duration.ofMinutes(1);
+    private static final Optional<String> SOURCE_HOST = Optional.of("configuredSourceHost");
+    private static final Optional<String> TARGET_HOST = Optional.of("configuredTargetHost");
+
+    private static ConnectionLogStatsContainer pane(String... sourceAndTargetHosts) {
+        var pane = new ConnectionLogStatsContainer(LocalDateTime.now(), PANE, SOURCE_HOST, TARGET_HOST);
+        for (int i=0; i<sourceAndTargetHosts.length; i+=2) {
+            pane.accept(new ConnectionLogLine(System.currentTimeMillis(), sourceAndTargetHosts[i], sourceAndTargetHosts[i + 1]));
+        }
+        return pane;
+    }
+
+    @Test
+    void testSlidingWindow() {
+        var aggregator = new PaneWindowAggregator(PANE, List.of(Duration.ofMinutes(2)), SOURCE_HOST, TARGET_HOST);
+
+        aggregator.add(pane("source1", "configuredTargetHost", "source1", "target1"));
+        var stats = aggregator.add(pane("source2", "configuredTargetHost", "source2", "target1", "source2", "target2")).get(0);
+
+        assertEquals(Duration.ofMinutes(2), stats.getDuration());
+        assertThat(stats.getConnectedToTargetHostInWindow().get(), containsInAnyOrder("source1", "source2"));
+        assertThat(stats.getSourceHostsWithMostConnectionsInWindow().getList(), containsInAnyOrder("source2"));
+        assertEquals(3, stats.getSourceHostsWithMostConnectionsInWindow().getNumberOfConnections());
+
+        // The first pane leaves the window
+        stats = aggregator.add(pane("source3", "target1", "configuredSourceHost", "target3")).get(0);
+
+        assertThat(stats.getConnectedToTargetHostInWindow().get(), containsInAnyOrder("source2"));
+        assertThat(stats.getConnectedFromSourceHostInWindow().get(), containsInAnyOrder("target3"));
+        assertThat(stats.getSourceHostsWithMostConnectionsInWindow().getList(), containsInAnyOrder("source2"));
+        assertEquals(3, stats.getSourceHostsWithMostConnectionsInWindow().getNumberOfConnections());
+
+        stats = aggregator.add(pane()).get(0);
+
+        assertThat(stats.getConnectedToTargetHostInWindow().get(), containsInAnyOrder());
+        assertThat(stats.getSourceHostsWithMostConnectionsInWindow().getList(), containsInAnyOrder("source3", "configuredSourceHost"));
+        assertEquals(1, stats.getSourceHostsWithMostConnectionsInWindow().getNumberOfConnections());
+    }
+
+    @Test
+    void testMultipleResolutions() {
+        var aggregator = new PaneWindowAggregator(PANE, List.of(Duration.ofMinutes(1), Duration.ofMinutes(3)), SOURCE_HOST, TARGET_HOST);
+
+        aggregator.add(pane("source1", "configuredTargetHost"));
+        aggregator.add(pane("source1", "configuredTargetHost"));
+        var stats = aggregator.add(pane("source2", "configuredTargetHost"));
+
+        assertEquals(Duration.ofMinutes(1), stats.get(0).getDuration());
+        assertThat(stats.get(0).getSourceHostsWithMostConnectionsInWindow().getList(), containsInAnyOrder("source2"));
+        assertEquals(Duration.ofMinutes(3), stats.get(1).getDuration());
+        assertThat(stats.get(1).getSourceHostsWithMostConnectionsInWindow().getList(), containsInAnyOrder("source1"));
+        assertEquals(2, stats.get(1).getSourceHostsWithMostConnectionsInWindow().getNumberOfConnections());
+        assertThat(stats.get(1).getConnectedToTargetHostInWindow().get(), containsInAnyOrder("source1", "source2"));
+    }
+
+    @Test
+    void testWindowNotMultipleOfPane() {
+        assertThrows(IllegalArgumentException.class, () -> new PaneWindowAggregator(PANE, List.of(Duration.ofSeconds(90)), SOURCE_HOST, TARGET_HOST));
+    }
+}
@@ -0,0 +1,74 @@
+package net.rubenmartinez.cbcc.logparser.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ResultWriter;
+import net.rubenmartinez.cbcc.params.ResultFormat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+class ResultWriterTest {
+
+    private File tempFile;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = File.createTempFile("ResultWriterTest", "txt");
+    }
+
+    @AfterEach
+    void deleteTempFile() {
+        tempFile.delete();
+    }
+
+    @Test
+    void testPlainResultsAreWrittenInOrderAfterClose() throws IOException {
+        try (var resultWriter = ResultWriter.toFile(tempFile.toPath(), ResultFormat.PLAIN)) {
+            for (int i=0; i<100_000; i++) {
+                resultWriter.write(new ConnectionLogLine(1_000_000 + i, "source" + i, "target"));
+            }
+        }
+
+        var lines = Files.readAllLines(tempFile.toPath());
+        assertThat(lines, hasSize(100_000));
+        assertThat(lines.get(0), equalTo("source0 at 1000000"));
+        assertThat(lines.get(99_999), equalTo("source99999 at 1099999"));
+    }
+
+    @Test
+    void testNdjsonEscapesHosts() throws IOException {
+        try (var resultWriter = ResultWriter.toFile(tempFile.toPath(), ResultFormat.NDJSON)) {
+            resultWriter.write(new ConnectionLogLine(1366815793, "quark", "ga\"rak"));
+            resultWriter.writeHost("brunt");
+        }
+
+        assertThat(Files.readAllLines(tempFile.toPath()), contains(
+                "{\"timestamp\":1366815793,\"sourceHost\":\"quark\",\"targetHost\":\"ga\\\"rak\"}",
+                "{\"sourceHost\":\"brunt\"}"));
+    }
+
+    @Test
+    void testBinaryRecords() throws IOException {
+        try (var resultWriter = ResultWriter.toFile(tempFile.toPath(), ResultFormat.BINARY)) {
+            resultWriter.write(new ConnectionLogLine(1366815793, "quark", "garak"));
+        }
+
+        try (var in = new DataInputStream(Files.newInputStream(tempFile.toPath(), StandardOpenOption.READ))) {
+            assertThat(in.readLong(), equalTo(1366815793L));
+            assertThat(new String(in.readNBytes(in.readUnsignedShort())), equalTo("quark"));
+            assertThat(new String(in.readNBytes(in.readUnsignedShort())), equalTo("garak"));
+            assertThat(in.read(), equalTo(-1));
+        }
+    }
+}
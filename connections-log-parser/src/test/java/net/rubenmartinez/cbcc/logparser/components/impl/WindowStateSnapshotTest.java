@@ -0,0 +1,84 @@
+package net.rubenmartinez.cbcc.logparser.components.impl;
+
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.ConnectionLogStats;
+import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionLogStatsContainer;
+import net.rubenmartinez.cbcc.logparsing.components.impl.WindowStateSnapshot;
+import net.rubenmartinez.cbcc.util.HostCounterMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WindowStateSnapshotTest {
+
+    private static final Duration PANE_DURATION = Duration.ofMinutes(1);
+
+    private static ConnectionLogStatsContainer newPane(LocalDateTime startTime, int heavyHitters) {
+        return new ConnectionLogStatsContainer(startTime, PANE_DURATION, Optional.of("source1"), Optional.of("target1"),
+                heavyHitters, 3, new HostCounterMap(), Set.of("subscribed1"));
+    }
+
+    private static ConnectionLogStatsContainer newPane(LocalDateTime startTime, int heavyHitters, String... sourceAndTargetHosts) {
+        var pane = newPane(startTime, heavyHitters);
+        for (int i=0; i<sourceAndTargetHosts.length; i+=2) {
+            pane.accept(new ConnectionLogLine(0, sourceAndTargetHosts[i], sourceAndTargetHosts[i+1]));
+        }
+        return pane;
+    }
+
+    private static WindowStateSnapshot writeAndRead(WindowStateSnapshot snapshot, int heavyHitters) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(snapshot.toBytes()));
+        return WindowStateSnapshot.readFrom(in, startTime -> newPane(startTime, heavyHitters));
+    }
+
+    @Test
+    void testPanesRestored() throws IOException {
+        var startTime = LocalDateTime.of(2019, 1, 1, 10, 0, 0, 123);
+        var closedPane = newPane(startTime, 0, "source1", "target2", "source2", "target1", "source2", "subscribed1");
+        var openPane = newPane(startTime.plus(PANE_DURATION), 0, "source3", "target1", "subscribed1", "target3");
+
+        var restored = writeAndRead(new WindowStateSnapshot("options", 1234, 5678, List.of(closedPane, openPane)), 0);
+
+        assertEquals("options", restored.getConfiguration());
+        assertEquals(1234, restored.getPosition());
+        assertEquals(5678, restored.getLogFingerprint());
+        assertEquals(1, restored.getClosedPanes().size());
+        assertSameStats(closedPane.getConnectionLogStats(), restored.getClosedPanes().get(0).getConnectionLogStats());
+        assertSameStats(openPane.getConnectionLogStats(), restored.getOpenPane().getConnectionLogStats());
+    }
+
+    @Test
+    void testHeavyHittersRestored() throws IOException {
+        var openPane = newPane(LocalDateTime.now(), 2, "source1", "target1", "source2", "target1", "source2", "target2", "source3", "target1");
+
+        var restored = writeAndRead(new WindowStateSnapshot("options", 0, 0, List.of(openPane)), 2);
+
+        assertEquals(openPane.getConnectionLogStats().getTopSourceHostsInWindow(), restored.getOpenPane().getConnectionLogStats().getTopSourceHostsInWindow());
+        assertSameStats(openPane.getConnectionLogStats(), restored.getOpenPane().getConnectionLogStats());
+    }
+
+    @Test
+    void testNotASnapshot() {
+        var in = new DataInputStream(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+        assertThrows(IOException.class, () -> WindowStateSnapshot.readFrom(in, startTime -> newPane(startTime, 0)));
+    }
+
+    private static void assertSameStats(ConnectionLogStats expected, ConnectionLogStats actual) {
+        assertEquals(expected.getStartTime(), actual.getStartTime());
+        assertEquals(expected.getConnectedFromSourceHostInWindow(), actual.getConnectedFromSourceHostInWindow());
+        assertEquals(expected.getConnectedToTargetHostInWindow(), actual.getConnectedToTargetHostInWindow());
+        assertEquals(expected.getSourceHostsWithMostConnectionsInWindow().getList(), actual.getSourceHostsWithMostConnectionsInWindow().getList());
+        assertEquals(expected.getSourceHostsWithMostConnectionsInWindow().getNumberOfConnections(), actual.getSourceHostsWithMostConnectionsInWindow().getNumberOfConnections());
+        assertEquals(expected.getSubscribedHostsInWindow(), actual.getSubscribedHostsInWindow());
+    }
+}
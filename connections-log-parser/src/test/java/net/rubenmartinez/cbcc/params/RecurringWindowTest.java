@@ -0,0 +1,67 @@
+package net.rubenmartinez.cbcc.params;
+
+import net.rubenmartinez.cbcc.domain.TimeRange;
+import net.rubenmartinez.cbcc.exception.UserInputException;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecurringWindowTest {
+
+    private static long millis(String dateTime) {
+        return ZonedDateTime.parse(dateTime).toInstant().toEpochMilli();
+    }
+
+    @Test
+    void testWeekdaysWindow() {
+        var window = RecurringWindow.parse("09:00-10:00", "MON-FRI", "UTC");
+
+        // From Friday 2019-08-02 09:30 to Tuesday 2019-08-06 12:00
+        var occurrences = window.occurrences(millis("2019-08-02T09:30:00Z"), millis("2019-08-06T12:00:00Z"));
+
+        assertThat(occurrences, contains(
+                new TimeRange(millis("2019-08-02T09:30:00Z"), millis("2019-08-02T10:00:00Z") - 1),
+                new TimeRange(millis("2019-08-05T09:00:00Z"), millis("2019-08-05T10:00:00Z") - 1),
+                new TimeRange(millis("2019-08-06T09:00:00Z"), millis("2019-08-06T10:00:00Z") - 1)));
+    }
+
+    @Test
+    void testWindowAcrossMidnightInTimeZone() {
+        var window = RecurringWindow.parse("23:00-01:00", "SAT,SUN", "Europe/Madrid");
+
+        var occurrences = window.occurrences(millis("2019-08-04T00:00:00+02:00"), millis("2019-08-11T00:30:00+02:00"));
+
+        assertThat(occurrences, contains(
+                new TimeRange(millis("2019-08-04T00:00:00+02:00"), millis("2019-08-04T01:00:00+02:00") - 1), // Saturday's window, ending on Sunday
+                new TimeRange(millis("2019-08-04T23:00:00+02:00"), millis("2019-08-05T01:00:00+02:00") - 1),
+                new TimeRange(millis("2019-08-10T23:00:00+02:00"), millis("2019-08-11T00:30:00+02:00"))));
+    }
+
+    @Test
+    void testWindowFromDateTimeOptions() {
+        var options = new Options();
+        options.setInitDateTime("2019-08-02T09:30:00Z");
+        options.setEndDateTime("2019-08-06T12:00:00Z");
+        options.setWindow(Optional.of("09:00-10:00"));
+        options.setDays("MON-FRI");
+        options.setTimeZone("UTC");
+
+        var occurrences = options.getRecurringWindow().get().occurrences(options.getInitTimestamp(), options.getEndTimestamp());
+
+        assertThat(occurrences, contains(
+                new TimeRange(millis("2019-08-02T09:30:00Z"), millis("2019-08-02T10:00:00Z") - 1),
+                new TimeRange(millis("2019-08-05T09:00:00Z"), millis("2019-08-05T10:00:00Z") - 1),
+                new TimeRange(millis("2019-08-06T09:00:00Z"), millis("2019-08-06T10:00:00Z") - 1)));
+    }
+
+    @Test
+    void testInvalidWindow() {
+        assertThrows(UserInputException.class, () -> RecurringWindow.parse("9h-10h", "MON-FRI", "UTC"));
+        assertThrows(UserInputException.class, () -> RecurringWindow.parse("09:00-10:00", "MONDAY", "UTC"));
+    }
+}
@@ -0,0 +1,52 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.Main;
+import net.rubenmartinez.cbcc.exception.LogParserException;
+import net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringJUnitConfig(Main.class)
+class CompactSegmentServiceTest {
+
+    @Inject
+    CompactSegmentService compactSegmentService;
+
+    private File tempFile;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = File.createTempFile("CompactSegmentServiceTest", "txt");
+    }
+
+    @AfterEach
+    void deleteTempFile() throws IOException {
+        tempFile.delete();
+        Files.deleteIfExists(CompactSegmentFile.getSegmentFile(tempFile.toPath()));
+    }
+
+    @Test
+    void testTemporaryFileDeletedWhenCompactionFails() throws IOException {
+        // A line longer than the read buffer can't be compacted
+        Files.writeString(tempFile.toPath(), "1565647204351 source target\n" + "x".repeat(2 * 1024 * 1024) + "\n", StandardOpenOption.WRITE);
+
+        assertThrows(LogParserException.class, () -> compactSegmentService.compact(tempFile.toPath()));
+
+        Path segmentFile = CompactSegmentFile.getSegmentFile(tempFile.toPath());
+        assertThat(Files.exists(segmentFile), equalTo(false));
+        assertThat(Files.exists(segmentFile.resolveSibling(segmentFile.getFileName() + ".tmp")), equalTo(false));
+    }
+}
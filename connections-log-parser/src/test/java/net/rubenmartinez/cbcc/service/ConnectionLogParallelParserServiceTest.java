@@ -0,0 +1,101 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.Main;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.params.Options;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+@SpringJUnitConfig(Main.class)
+class ConnectionLogParallelParserServiceTest {
+
+    @Inject
+    @Named("parallel")
+    ConnectionLogParserService parallelParser;
+
+    @Inject
+    @Named("sequential")
+    ConnectionLogParserService sequentialParser;
+
+    @Inject
+    Options options;
+
+    private File tempFile;
+
+    private int originalSplits;
+    private boolean originalOrdered;
+    private int originalReorderBuffer;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = File.createTempFile("ConnectionLogParallelParserServiceTest", "txt");
+
+        originalSplits = options.getSplits();
+        originalOrdered = options.isOrdered();
+        originalReorderBuffer = options.getReorderBuffer();
+    }
+
+    @AfterEach
+    void deleteTempFile() {
+        tempFile.delete();
+
+        options.setSplits(originalSplits);
+        options.setOrdered(originalOrdered);
+        options.setReorderBuffer(originalReorderBuffer);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 8})
+    void testOrderedOutputMatchesSequentialOutput(int splits) throws IOException {
+        var random = new Random();
+        StringBuilder content = new StringBuilder();
+        for (int i=0; i<100_000; i++) {
+            content.append(1_000_000 + i).append(" source").append(random.nextInt(1000)).append(" target").append(random.nextInt(10)).append("\n");
+        }
+        Files.writeString(tempFile.toPath(), content.toString(), StandardOpenOption.WRITE);
+
+        List<ConnectionLogLine> expected = sequentialParser.getConnectionsToHost(tempFile.toPath(), 0, Long.MAX_VALUE, "target7", 1_010_000, 1_090_000).collectList().block();
+
+        options.setSplits(splits);
+        options.setOrdered(true);
+        options.setReorderBuffer(16); // Much less than the connections of each chunk, so chunks must wait for the previous ones
+        List<ConnectionLogLine> ordered = parallelParser.getConnectionsToHost(tempFile.toPath(), 0, Long.MAX_VALUE, "target7", 1_010_000, 1_090_000).collectList().block();
+
+        assertThat(expected.size(), greaterThan(0));
+        assertThat(ordered, equalTo(expected));
+    }
+
+    @Test
+    void testSequentialConnectionsSubscribedAgain() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i=0; i<10_000; i++) {
+            content.append(1_000_000 + i).append(" source").append(i % 100).append(" target\n");
+        }
+        Files.writeString(tempFile.toPath(), content.toString(), StandardOpenOption.WRITE);
+
+        // The time range ends before the end of the file, so the first subscription stops reading when it is reached
+        var connections = sequentialParser.getConnectionsToHost(tempFile.toPath(), 0, Long.MAX_VALUE, "target", 1_001_000, 1_002_000);
+        List<ConnectionLogLine> first = connections.collectList().block();
+        List<ConnectionLogLine> second = connections.collectList().block();
+
+        assertThat(first.size(), greaterThan(0));
+        assertThat(second, equalTo(first));
+    }
+}
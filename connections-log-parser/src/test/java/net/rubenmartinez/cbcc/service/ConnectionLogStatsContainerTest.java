@@ -2,18 +2,25 @@ package net.rubenmartinez.cbcc.service;
 
 import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
 import net.rubenmartinez.cbcc.logparsing.components.impl.ConnectionLogStatsContainer;
+import net.rubenmartinez.cbcc.util.HostCounterMap;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 class ConnectionLogStatsContainerTest {
@@ -84,6 +91,56 @@ class ConnectionLogStatsContainerTest {
         assertThat(sourceHostsWithMostConnections.getList(), containsInAnyOrder("source1", "source2", "source3", "source4", "source5", "source6", "source7"));
     }
 
+    @ParameterizedTest
+    @ValueSource(ints = {0, 200}) // Without heavy hitters, and with a sketch with room for all the source hosts
+    void testMergedShardsEqualSingleContainer(int heavyHittersCapacity) {
+        var startTime = LocalDateTime.now();
+        var duration = Duration.of(1, ChronoUnit.HOURS);
+        var sourceHost = Optional.of("source1");
+        var targetHost = Optional.of("configuredTargetHost");
+        Supplier<ConnectionLogStatsContainer> newContainer = () -> new ConnectionLogStatsContainer(startTime, duration, sourceHost, targetHost,
+                heavyHittersCapacity, 10, new HostCounterMap(), Set.of());
+
+        var single = newContainer.get();
+        var firstShard = newContainer.get();
+        var secondShard = newContainer.get();
+
+        var random = new Random(1);
+        for (int i=0; i<10_000; i++) {
+            var logLine = new ConnectionLogLine(i, "source" + random.nextInt(100), random.nextInt(10) == 0 ? "configuredTargetHost" : "target" + random.nextInt(100));
+            single.accept(logLine);
+            (Math.floorMod(logLine.getSourceHost().hashCode(), 2) == 0 ? firstShard : secondShard).accept(logLine);
+        }
+
+        var expected = single.getConnectionLogStats();
+        var merged = firstShard.mergeShard(secondShard).getConnectionLogStats();
+
+        assertEquals(expected.getConnectedFromSourceHostInWindow(), merged.getConnectedFromSourceHostInWindow());
+        assertEquals(expected.getConnectedToTargetHostInWindow(), merged.getConnectedToTargetHostInWindow());
+        assertEquals(expected.getSourceHostsWithMostConnectionsInWindow().getList(), merged.getSourceHostsWithMostConnectionsInWindow().getList());
+        assertEquals(expected.getSourceHostsWithMostConnectionsInWindow().getNumberOfConnections(), merged.getSourceHostsWithMostConnectionsInWindow().getNumberOfConnections());
+        assertEquals(expected.getTopSourceHostsInWindow(), merged.getTopSourceHostsInWindow());
+    }
+
+    @Test
+    void testSubscribedHosts() {
+        var statsContainer = new ConnectionLogStatsContainer(LocalDateTime.now(), Duration.of(1, ChronoUnit.HOURS), Optional.empty(), Optional.empty(),
+                0, 0, new HostCounterMap(), Set.of("subscribed1", "subscribed2", "subscribed3"));
+
+        statsContainer.accept(new ConnectionLogLine(System.currentTimeMillis(), "source1", "subscribed1"));
+        statsContainer.accept(new ConnectionLogLine(System.currentTimeMillis(), "subscribed1", "target1"));
+        statsContainer.accept(new ConnectionLogLine(System.currentTimeMillis(), "subscribed2", "subscribed1"));
+        statsContainer.accept(new ConnectionLogLine(System.currentTimeMillis(), "source2", "target2"));
+
+        var subscribedHosts = statsContainer.getConnectionLogStats().getSubscribedHostsInWindow();
+
+        assertThat(subscribedHosts.keySet(), contains("subscribed1", "subscribed2", "subscribed3"));
+        assertThat(subscribedHosts.get("subscribed1").getConnectedToHost(), containsInAnyOrder("source1", "subscribed2"));
+        assertThat(subscribedHosts.get("subscribed1").getConnectedFromHost(), containsInAnyOrder("target1"));
+        assertThat(subscribedHosts.get("subscribed2").getConnectedFromHost(), containsInAnyOrder("subscribed1"));
+        assertTrue(subscribedHosts.get("subscribed3").getConnectedToHost().isEmpty());
+    }
+
     @Test
     void testOptionals() {
         var startTime = LocalDateTime.now();
@@ -0,0 +1,104 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.Main;
+import net.rubenmartinez.cbcc.domain.ConnectionLogLine;
+import net.rubenmartinez.cbcc.domain.LogFileBounds;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+@SpringJUnitConfig(Main.class)
+class LogFileSetServiceTest {
+
+    private static final int LINES_PER_FILE = 10_000;
+
+    @Inject
+    LogFileSetService logFileSetService;
+
+    private Path directory;
+
+    @BeforeEach
+    void createRotatedFiles() throws IOException {
+        directory = Files.createTempDirectory("LogFileSetServiceTest");
+
+        // Oldest lines in the gzipped file, newest ones in the file without number, as logrotate does
+        writeLines(Files.newOutputStream(directory.resolve("input.log")), 3_000_000);
+        writeLines(Files.newOutputStream(directory.resolve("input.log.1")), 2_000_000);
+        writeLines(new GZIPOutputStream(Files.newOutputStream(directory.resolve("input.log.2.gz"))), 1_000_000);
+    }
+
+    @AfterEach
+    void deleteRotatedFiles() throws IOException {
+        try (var paths = Files.list(directory)) {
+            for (Path path: paths.collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static void writeLines(OutputStream out, long fromTimestamp) throws IOException {
+        var content = new StringBuilder();
+        for (long i=fromTimestamp; i<fromTimestamp+LINES_PER_FILE; i++) {
+            content.append(i * 10).append(" source").append(i % 100).append(" target").append(i % 7).append("\n");
+        }
+        try (out) {
+            out.write(content.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    void testFileBoundsAreSortedByTimestamp() {
+        var fileBounds = logFileSetService.getFileBounds(directory);
+
+        assertThat(fileBounds.stream().map(bounds -> bounds.getFile().getFileName().toString()).collect(Collectors.toList()),
+                contains("input.log.2.gz", "input.log.1", "input.log"));
+        assertThat(fileBounds.get(0).getMinTimestamp(), equalTo(10_000_000L)); // Gzipped files are fully read, so their bounds are exact
+        assertThat(Files.exists(directory.resolve(".logparser-timestamps")), equalTo(true));
+        assertThat(logFileSetService.getFileBounds(directory), equalTo(fileBounds)); // Now from the cache
+    }
+
+    @Test
+    void testConnectionsAcrossFilesInTimestampOrder() {
+        long initTimestamp = (1_000_000 + LINES_PER_FILE / 2) * 10L;
+        long endTimestamp = (2_000_000 + LINES_PER_FILE / 2) * 10L;
+
+        List<ConnectionLogLine> connections = logFileSetService.getConnectionsToHost(directory.resolve("input.log*"), "target3", initTimestamp, endTimestamp).collectList().block();
+
+        var expected = new ArrayList<Long>();
+        for (long i=1_000_000; i<3_000_000; i++) {
+            if (i % 7 == 3 && i * 10 >= initTimestamp && i * 10 <= endTimestamp && (i < 1_000_000 + LINES_PER_FILE || i >= 2_000_000)) {
+                expected.add(i * 10);
+            }
+        }
+
+        assertThat(expected.size(), greaterThan(0));
+        assertThat(connections.stream().map(ConnectionLogLine::getTimestamp).collect(Collectors.toList()), equalTo(expected));
+        assertThat(connections.stream().map(ConnectionLogLine::getTimestamp).sorted(Comparator.naturalOrder()).collect(Collectors.toList()), equalTo(expected));
+    }
+
+    @Test
+    void testSingleFileIsNotAFileSet() {
+        assertThat(logFileSetService.isFileSet(directory.resolve("input.log")), equalTo(false));
+        assertThat(logFileSetService.isFileSet(directory.resolve("input.log.*")), equalTo(true));
+        assertThat(logFileSetService.isFileSet(directory), equalTo(true));
+    }
+}
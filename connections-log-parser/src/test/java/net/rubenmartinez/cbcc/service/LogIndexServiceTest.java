@@ -0,0 +1,156 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.Main;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+@SpringJUnitConfig(Main.class)
+class LogIndexServiceTest {
+
+    @Inject
+    LogIndexService logIndexService;
+
+    private File tempFile;
+    private Path indexFile;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = File.createTempFile("LogIndexServiceTest", "txt");
+        indexFile = Path.of(tempFile.getPath() + ".idx");
+    }
+
+    @AfterEach
+    void deleteTempFile() throws IOException {
+        tempFile.delete();
+        Files.deleteIfExists(indexFile);
+    }
+
+    private void appendLines(long fromTimestamp, int lines, String lineTermination) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (long i=fromTimestamp; i<fromTimestamp+lines; i++) {
+            content.append(i).append(" source").append(i % 100).append(" target").append(i % 100).append(lineTermination);
+        }
+        Files.writeString(tempFile.toPath(), content.toString(), StandardOpenOption.APPEND);
+    }
+
+    private static Stream<String> provideLineTerminations() {
+        return Stream.of("\n", "\r", "\r\n");
+    }
+
+    @Test
+    void testSmallFileHasNoCompleteBlocks() throws IOException {
+        appendLines(0, 10, "\n");
+
+        var logIndex = logIndexService.updateIndex(tempFile.toPath());
+
+        assertThat(logIndex.getEntries(), empty());
+        assertThat(logIndex.getIndexedLength(), equalTo(0L));
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideLineTerminations")
+    void testBlocksCoverFileAtLineBoundaries(String lineTermination) throws IOException {
+        appendLines(0, 20_000, lineTermination);
+
+        var logIndex = logIndexService.updateIndex(tempFile.toPath());
+        var entries = logIndex.getEntries();
+
+        assertThat(entries.size(), greaterThan(1));
+        assertThat(entries.get(0).getFromPosition(), equalTo(0L));
+        for (int i=1; i<entries.size(); i++) {
+            assertThat(entries.get(i).getFromPosition(), equalTo(entries.get(i-1).getToPosition()));
+            assertThat(entries.get(i).getMinTimestamp(), equalTo(entries.get(i-1).getMaxTimestamp() + 1));
+        }
+        assertThat(logIndex.getIndexedLength(), lessThanOrEqualTo(tempFile.length()));
+    }
+
+    @Test
+    void testIndexIsExtendedWhenFileGrows() throws IOException {
+        appendLines(0, 20_000, "\n");
+        var firstIndex = logIndexService.updateIndex(tempFile.toPath());
+
+        appendLines(20_000, 20_000, "\n");
+        var secondIndex = logIndexService.updateIndex(tempFile.toPath());
+
+        assertThat(secondIndex.getEntries().size(), greaterThan(firstIndex.getEntries().size()));
+        assertThat(secondIndex.getEntries().get(firstIndex.getEntries().size()).getFromPosition(), equalTo(firstIndex.getIndexedLength()));
+
+        var loadedIndex = logIndexService.loadIndex(tempFile.toPath()).get();
+        assertThat(loadedIndex.getIndexedLength(), equalTo(secondIndex.getIndexedLength()));
+    }
+
+    @Test
+    void testBackgroundUpdatesOfDifferentFiles() throws Exception {
+        appendLines(0, 20_000, "\n");
+        var otherFile = File.createTempFile("LogIndexServiceTest", "txt");
+        var otherIndexFile = Path.of(otherFile.getPath() + ".idx");
+        try {
+            Files.copy(tempFile.toPath(), otherFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            // The second request arrives while the first one is still pending, and must not be coalesced with it
+            logIndexService.updateIndexInBackground(tempFile.toPath());
+            logIndexService.updateIndexInBackground(otherFile.toPath());
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!(Files.exists(indexFile) && Files.exists(otherIndexFile)) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(Files.exists(indexFile), equalTo(true));
+            assertThat(Files.exists(otherIndexFile), equalTo(true));
+        } finally {
+            otherFile.delete();
+            Files.deleteIfExists(otherIndexFile);
+        }
+    }
+
+    @Test
+    void testIndexOfReplacedFileIsDiscarded() throws IOException {
+        appendLines(0, 20_000, "\n");
+        logIndexService.updateIndex(tempFile.toPath());
+        assertThat(logIndexService.loadIndex(tempFile.toPath()).isPresent(), equalTo(true));
+
+        // As after a rotation: another file with the same name, already longer than the indexed part of the previous one
+        Files.writeString(tempFile.toPath(), "", StandardOpenOption.TRUNCATE_EXISTING);
+        appendLines(500_000, 40_000, "\n");
+
+        assertThat(logIndexService.loadIndex(tempFile.toPath()).isPresent(), equalTo(false));
+        var logIndex = logIndexService.updateIndex(tempFile.toPath());
+        assertThat(logIndex.getEntries().get(0).getMinTimestamp(), equalTo(500_000L));
+    }
+
+    @Test
+    void testCandidateRanges() throws IOException {
+        appendLines(0, 40_000, "\n");
+        var logIndex = logIndexService.updateIndex(tempFile.toPath());
+
+        var allRanges = logIndex.findCandidateRanges(0, Long.MAX_VALUE, "target1", 0, Long.MAX_VALUE);
+        assertThat(allRanges.size(), equalTo(1));
+        assertThat(allRanges.get(0).getToPosition(), equalTo(logIndex.getIndexedLength()));
+
+        var noRanges = logIndex.findCandidateRanges(0, Long.MAX_VALUE, "target1", 100_000, 200_000);
+        assertThat(noRanges, empty());
+
+        var timeRanges = logIndex.findCandidateRanges(0, Long.MAX_VALUE, "target1", 10_000, 10_001);
+        assertThat(timeRanges.size(), equalTo(1));
+        assertThat(timeRanges.get(0).getToPosition() - timeRanges.get(0).getFromPosition(), lessThanOrEqualTo((long) 2 * logIndexService.getBlockSize()));
+    }
+}
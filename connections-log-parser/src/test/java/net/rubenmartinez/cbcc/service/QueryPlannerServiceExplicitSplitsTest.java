@@ -0,0 +1,49 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.Main;
+import net.rubenmartinez.cbcc.domain.QueryPlan.Strategy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+@SpringJUnitConfig(Main.class)
+@TestPropertySource(properties = "splits=3")
+class QueryPlannerServiceExplicitSplitsTest {
+
+    @Inject
+    QueryPlannerService queryPlannerService;
+
+    private File tempFile;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = File.createTempFile("QueryPlannerServiceExplicitSplitsTest", "txt");
+        Files.writeString(tempFile.toPath(), "1000 source target\n1001 source target\n", StandardOpenOption.WRITE);
+    }
+
+    @AfterEach
+    void deleteTempFile() {
+        tempFile.delete();
+    }
+
+    @Test
+    void testGivenSplitsAreHonoredWithoutOrder() {
+        var plan = queryPlannerService.plan(tempFile.toPath(), "target", 1000, 2000);
+
+        // Even for a file far too small to be worth splitting, and without reordering unless --ordered is given too
+        assertThat(plan.getStrategy(), equalTo(Strategy.PARALLEL));
+        assertThat(plan.getSplits(), equalTo(3));
+        assertThat(plan.isOrdered(), equalTo(false));
+    }
+}
@@ -0,0 +1,102 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.Main;
+import net.rubenmartinez.cbcc.domain.LogFileRange;
+import net.rubenmartinez.cbcc.domain.QueryPlan.Strategy;
+import net.rubenmartinez.cbcc.logparsing.components.impl.CompactSegmentFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.startsWith;
+
+@SpringJUnitConfig(Main.class)
+class QueryPlannerServiceTest {
+
+    private static final int LINES = 100_000; // Less than the size the timestamp presearch is worth for
+
+    @Inject
+    QueryPlannerService queryPlannerService;
+
+    @Inject
+    LogIndexService logIndexService;
+
+    @Inject
+    CompactSegmentService compactSegmentService;
+
+    private File tempFile;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = File.createTempFile("QueryPlannerServiceTest", "txt");
+
+        StringBuilder content = new StringBuilder();
+        for (int i=0; i<LINES; i++) {
+            // "rare" is only in the first lines, so the index can exclude the rest of the blocks for it
+            content.append(1_000_000 + i).append(" source").append(i % 100).append(i < 100 ? " rare" : " target" + i % 10).append("\n");
+        }
+        Files.writeString(tempFile.toPath(), content.toString(), StandardOpenOption.WRITE);
+    }
+
+    @AfterEach
+    void deleteTempFile() throws IOException {
+        tempFile.delete();
+        Files.deleteIfExists(Path.of(tempFile.getPath() + ".idx"));
+        Files.deleteIfExists(CompactSegmentFile.getSegmentFile(tempFile.toPath()));
+    }
+
+    @Test
+    void testSequentialWithoutIndexNorSegments() {
+        var plan = queryPlannerService.plan(tempFile.toPath(), "target1", 1_000_000, 2_000_000);
+
+        assertThat(plan.getStrategy(), equalTo(Strategy.SEQUENTIAL));
+        assertThat(plan.getPositionRange(), equalTo(new LogFileRange(0, Long.MAX_VALUE)));
+        assertThat(plan.getSplits(), equalTo(0));
+        assertThat(plan.getEstimatedBytes(), equalTo(tempFile.length()));
+    }
+
+    @Test
+    void testIndexWhenItExcludesBlocks() {
+        logIndexService.updateIndex(tempFile.toPath());
+
+        var plan = queryPlannerService.plan(tempFile.toPath(), "rare", 1_000_000, 2_000_000);
+
+        assertThat(plan.getStrategy(), equalTo(Strategy.INDEX));
+        assertThat(plan.getEstimatedBytes(), lessThan(tempFile.length() / 2));
+    }
+
+    @Test
+    void testNoSequentialCandidateWithIndex() {
+        logIndexService.updateIndex(tempFile.toPath());
+
+        // The host is in every block, so the index can't exclude any of them, but the sequential parser would use it anyway
+        var plan = queryPlannerService.plan(tempFile.toPath(), "target1", 1_000_000, 2_000_000);
+
+        assertThat(plan.getStrategy(), equalTo(Strategy.INDEX));
+        assertThat(plan.getEstimatedBytes(), equalTo(tempFile.length()));
+        assertThat(plan.getDetails(), hasItem(startsWith("SEQUENTIAL: not considered")));
+    }
+
+    @Test
+    void testSegmentsWhenSmallerThanIndexedBlocks() {
+        logIndexService.updateIndex(tempFile.toPath());
+        compactSegmentService.compact(tempFile.toPath());
+
+        var plan = queryPlannerService.plan(tempFile.toPath(), "target1", 1_000_000, 2_000_000);
+
+        assertThat(plan.getStrategy(), equalTo(Strategy.SEGMENTS));
+        assertThat(plan.getEstimatedBytes(), lessThan(tempFile.length()));
+    }
+}
@@ -0,0 +1,154 @@
+package net.rubenmartinez.cbcc.service;
+
+import net.rubenmartinez.cbcc.Main;
+import net.rubenmartinez.cbcc.params.Options;
+import net.rubenmartinez.cbcc.service.impl.HttpQueryServerService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringJUnitConfig(Main.class)
+@TestPropertySource(properties = {"splits=4", "ordered=false"}) // Explicit, so the planner honors them, and the order can be changed per test
+class QueryServerServiceTest {
+
+    private static final String PARALLEL_THREADS_PREFIX = "FluxConnectionLogParallelParserService";
+
+    @Inject
+    QueryServerService queryServerService;
+
+    @Inject
+    Options options;
+
+    private File tempFile;
+
+    private boolean originalOrdered;
+
+    private Thread server;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = File.createTempFile("QueryServerServiceTest", "txt");
+
+        originalOrdered = options.isOrdered();
+    }
+
+    @AfterEach
+    void stopServerAndDeleteTempFile() throws InterruptedException {
+        if (server != null) {
+            server.interrupt();
+            server.join(10_000);
+        }
+        tempFile.delete();
+
+        options.setOrdered(originalOrdered);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"false", "true"})
+    void testParallelThreadsStoppedWhenClientDisconnects(boolean ordered) throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i=0; i<500_000; i++) {
+            content.append(1_000_000 + i).append(" source").append(i % 1000).append(" target\n");
+        }
+        Files.writeString(tempFile.toPath(), content.toString(), StandardOpenOption.WRITE);
+        options.setOrdered(ordered);
+        int port = startServer();
+
+        var url = new URL(String.format("http://localhost:%d%s?logFile=%s&initTimestamp=1000000&endTimestamp=1500000&targetHost=target",
+                port, HttpQueryServerService.PARSE_PATH, tempFile.toPath()));
+        HttpURLConnection connection = connectWhenListening(url);
+        try (InputStream response = connection.getInputStream()) {
+            assertThat(response.readNBytes(1000).length, equalTo(1000)); // Mid-stream: far from the whole result
+        }
+        connection.disconnect();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (countParallelThreads() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertThat(countParallelThreads(), equalTo(0L));
+    }
+
+    @Test
+    void testOnlyGetAllowed() throws Exception {
+        Files.writeString(tempFile.toPath(), "1000000 source target\n", StandardOpenOption.WRITE);
+        int port = startServer();
+
+        var url = new URL(String.format("http://localhost:%d%s?logFile=%s&initTimestamp=1000000&endTimestamp=1500000&targetHost=target",
+                port, HttpQueryServerService.PARSE_PATH, tempFile.toPath()));
+        HttpURLConnection connection = connectWhenListening(url);
+        connection.disconnect();
+
+        connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("DELETE");
+        assertThat(connection.getResponseCode(), equalTo(405));
+        assertThat(connection.getHeaderField("Allow"), equalTo("GET"));
+        connection.disconnect();
+    }
+
+    @Test
+    void testServerStoppedWhenInterrupted() throws Exception {
+        Files.writeString(tempFile.toPath(), "1000000 source target\n", StandardOpenOption.WRITE);
+        int port = startServer();
+
+        var url = new URL(String.format("http://localhost:%d%s?logFile=%s&initTimestamp=1000000&endTimestamp=1500000&targetHost=target",
+                port, HttpQueryServerService.PARSE_PATH, tempFile.toPath()));
+        connectWhenListening(url).disconnect();
+
+        server.interrupt();
+        server.join(10_000);
+        assertThat(server.isAlive(), equalTo(false));
+        assertThrows(ConnectException.class, () -> ((HttpURLConnection) url.openConnection()).connect());
+    }
+
+    private int startServer() throws IOException {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new Thread(() -> queryServerService.serve(tempFile.toPath(), port), "QueryServerServiceTest");
+        server.setDaemon(true);
+        server.start();
+        return port;
+    }
+
+    private static HttpURLConnection connectWhenListening(URL url) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            var connection = (HttpURLConnection) url.openConnection();
+            try {
+                connection.connect();
+                return connection;
+            } catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static long countParallelThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.isAlive() && thread.getName().startsWith(PARALLEL_THREADS_PREFIX))
+                .count();
+    }
+}
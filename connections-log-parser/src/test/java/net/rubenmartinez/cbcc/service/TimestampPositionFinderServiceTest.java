@@ -2,11 +2,13 @@ package net.rubenmartinez.cbcc.service;
 
 import net.rubenmartinez.cbcc.Main;
 import net.rubenmartinez.cbcc.logparsing.components.LogLineParser;
+import net.rubenmartinez.cbcc.params.Options;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
@@ -43,6 +45,9 @@ class TimestampPositionFinderServiceTest {
     @Inject
     LogLineParser lineParser;
 
+    @Inject
+    Options options;
+
     private File tempFile;
     private FileChannel tempFileChannel;
 
@@ -174,6 +179,74 @@ class TimestampPositionFinderServiceTest {
         assertThat(connectionLogLine.getTimestamp(), lessThan((long)repeatedTimestamp));
     }
 
+    @ParameterizedTest
+    @MethodSource("provideLineTerminations")
+    public void testPositionAfterTimestamp(String lineTermination) throws IOException {
+
+        int NUM_LINES = 300_000;
+
+        StringBuilder content = new StringBuilder(NUM_LINES * 20);
+        for (int i=0; i<NUM_LINES; i++) {
+            content.append(i).append(" source target").append(lineTermination);
+        }
+        setTestFileContentTo(content.toString());
+
+        long lastPosition = 0;
+        for(long i=1000; i<NUM_LINES; i+=new Random().nextInt(10000)) {
+            long position = timestampPositionFinder.findPositionAfterTimestamp(i, tempFile.toPath());
+            assertThat(position, greaterThanOrEqualTo(lastPosition));
+            assertThat(position, greaterThanOrEqualTo(timestampPositionFinder.findNearTimestamp(i, tempFile.toPath())));
+            lastPosition = position;
+
+            if (position == Long.MAX_VALUE) { // Timestamp in the last fragment of the file, so it must be read until the end
+                continue;
+            }
+
+            tempFileChannel.position(position);
+            String lineAtPosition = new BufferedReader(Channels.newReader(tempFileChannel, CHARSET)).readLine();
+            LOGGER.info("Searching position after ts [{}] returned line at position [{}]: {}", i, position, lineAtPosition);
+
+            var connectionLogLine = lineParser.parseLine(lineAtPosition);
+            assertThat(connectionLogLine.getTimestamp(), greaterThanOrEqualTo(i));
+        }
+
+        assertThat(timestampPositionFinder.findPositionAfterTimestamp(NUM_LINES, tempFile.toPath()), equalTo(Long.MAX_VALUE));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 4, 16})
+    public void testConcurrentProbesOnSkewedFile(int probes) throws IOException {
+
+        // Timestamps grow much faster in the second half of the file, so the interpolation is wrong most of the time
+        StringBuilder content = new StringBuilder();
+        for (int i=0; i<200_000; i++) {
+            content.append(i).append(" source target\n");
+        }
+        for (int i=0; i<200_000; i++) {
+            content.append(200_000 + i * 1000L).append(" source target\n");
+        }
+        setTestFileContentTo(content.toString());
+
+        int originalProbes = options.getPresearchProbes();
+        options.setPresearchProbes(probes);
+        try {
+            for (long timestamp: new long[] { 1_000, 150_000, 199_999, 200_000, 5_000_000, 100_000_000 }) {
+                long lowerBoundPosition = timestampPositionFinder.findNearTimestamp(timestamp, tempFile.toPath());
+                long upperBoundPosition = timestampPositionFinder.findPositionAfterTimestamp(timestamp, tempFile.toPath());
+                assertThat(upperBoundPosition, greaterThanOrEqualTo(lowerBoundPosition));
+
+                assertThat(getTimestampOfLineAt(lowerBoundPosition), lessThanOrEqualTo(timestamp));
+                assertThat(getTimestampOfLineAt(upperBoundPosition), greaterThanOrEqualTo(timestamp));
+            }
+        } finally {
+            options.setPresearchProbes(originalProbes);
+        }
+    }
+
+    private long getTimestampOfLineAt(long position) throws IOException {
+        tempFileChannel.position(position);
+        return lineParser.parseLine(new BufferedReader(Channels.newReader(tempFileChannel, CHARSET)).readLine()).getTimestamp();
+    }
 
     private static String getNextLineNonEmpty(FileChannel fileChannel) throws IOException {
         var bufferedReader = new BufferedReader(Channels.newReader(fileChannel, CHARSET));
@@ -0,0 +1,65 @@
+package net.rubenmartinez.cbcc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HostCounterMapTest {
+
+    @Test
+    void testIncrement() {
+        var counters = new HostCounterMap();
+
+        assertEquals(1, counters.increment("host1"));
+        assertEquals(2, counters.increment("host1"));
+        assertEquals(1, counters.increment("host2"));
+
+        assertEquals(2, counters.get("host1"));
+        assertEquals(0, counters.get("host3"));
+        assertEquals(2, counters.size());
+        assertEquals(2, counters.getMaximumCount());
+        assertThat(counters.getHosts(), containsInAnyOrder("host1", "host2"));
+    }
+
+    @Test
+    void testSameAsHashMapWithGrowthAndRemovals() {
+        var random = new Random(1);
+        var counters = new HostCounterMap();
+        var expected = new HashMap<String, Integer>();
+
+        for (int i=0; i<200_000; i++) {
+            String host = "host" + random.nextInt(5_000);
+            // Counts go up and down, so many hosts get to 0 and are removed (and added again)
+            int delta = random.nextBoolean() ? 1 : -1;
+            assertEquals(expected.merge(host, delta, (current, added) -> current + added == 0 ? null : current + added) == null ? 0 : expected.get(host),
+                         counters.add(host, delta));
+        }
+
+        assertEquals(expected.size(), counters.size());
+        var actual = new HashMap<String, Integer>();
+        counters.forEach(actual::put);
+        assertThat(actual, equalTo(expected));
+    }
+
+    @Test
+    void testClearKeepsWorking() {
+        var counters = new HostCounterMap();
+        for (int i=0; i<1_000; i++) {
+            counters.increment("host" + i);
+        }
+
+        counters.clear();
+
+        assertTrue(counters.isEmpty());
+        assertEquals(0, counters.get("host1"));
+        assertEquals(1, counters.increment("host1"));
+        assertEquals(1, counters.size());
+    }
+}
@@ -0,0 +1,44 @@
+package net.rubenmartinez.cbcc.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HyperLogLogTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 1_000, 100_000, 1_000_000})
+    void testEstimateIsWithinErrorBound(int distinctHosts) {
+        var sketch = new HyperLogLog(12);
+        for (int i=0; i<distinctHosts; i++) {
+            sketch.add("host" + i);
+            sketch.add("host" + i); // Repeated hosts must not change the estimation
+        }
+
+        // 4 standard errors, so the test is not flaky
+        assertThat((double) sketch.estimate(), closeTo(distinctHosts, 4 * sketch.getStandardError() * distinctHosts + 1));
+    }
+
+    @Test
+    void testMergedSketchesEqualSingleSketch() {
+        var single = new HyperLogLog(10);
+        var firstHalf = new HyperLogLog(10);
+        var secondHalf = new HyperLogLog(10);
+        for (int i=0; i<50_000; i++) {
+            single.add("host" + i);
+            (i % 2 == 0 ? firstHalf : secondHalf).add("host" + i);
+        }
+
+        assertThat(firstHalf.merge(secondHalf).estimate(), equalTo(single.estimate()));
+    }
+
+    @Test
+    void testDifferentPrecisionsCannotBeMerged() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(10).merge(new HyperLogLog(12)));
+    }
+}
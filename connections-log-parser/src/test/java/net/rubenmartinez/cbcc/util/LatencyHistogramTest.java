@@ -0,0 +1,72 @@
+package net.rubenmartinez.cbcc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testSmallValuesExact() {
+        var histogram = new LatencyHistogram();
+        for (int i=1; i<=100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getMean());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    void testPercentilesWithinRelativeError() {
+        var random = new Random(1);
+        var histogram = new LatencyHistogram();
+        long[] values = new long[100_000];
+        for (int i=0; i<values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 30); // From 1 to ~10^13
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile: new double[] {50, 90, 99, 99.9}) {
+            long real = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long estimated = histogram.getValueAtPercentile(percentile);
+            assertThat(estimated, greaterThanOrEqualTo(real));
+            assertThat(estimated, lessThanOrEqualTo(real + real / 64));
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+    }
+
+    @Test
+    void testBucketsCoverEveryValue() {
+        for (long value: new long[] {0, 127, 128, 129, 1000, 1L << 40, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.getIndex(value);
+            assertThat(LatencyHistogram.getHighestValue(index), greaterThanOrEqualTo(value));
+            if (index > 0) {
+                assertThat(LatencyHistogram.getHighestValue(index - 1), lessThanOrEqualTo(value - 1));
+            }
+        }
+    }
+
+    @Test
+    void testEmpty() {
+        var histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+
+        var empty = new LatencyHistogram();
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getMean());
+        assertEquals(0, empty.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,62 @@
+package net.rubenmartinez.cbcc.util;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class PrimitiveSortTest {
+
+    private static void assertSortedAsArraysSort(long[] values, int low, int high) {
+        long[] expected = values.clone();
+        Arrays.sort(expected, low, high + 1);
+
+        PrimitiveSort.sort(low, high, (i, j) -> Long.compare(values[i], values[j]), (i, j) -> {
+            long value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        });
+
+        assertArrayEquals(expected, values);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 16, 17, 1_000, 100_000})
+    void testRandom(int length) {
+        var random = new Random(length);
+        long[] values = random.longs(length).toArray();
+        assertSortedAsArraysSort(values, 0, length - 1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {17, 1_000, 100_000})
+    void testManyDuplicates(int length) {
+        var random = new Random(length);
+        long[] values = random.longs(length, 0, 3).toArray();
+        assertSortedAsArraysSort(values, 0, length - 1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {17, 1_000, 100_000})
+    void testAlmostSortedAndReversed(int length) {
+        var random = new Random(length);
+        long[] almostSorted = new long[length];
+        long[] reversed = new long[length];
+        for (int i=0; i<length; i++) {
+            almostSorted[i] = i + random.nextInt(10); // As the timestamps of a log file
+            reversed[i] = length - i;
+        }
+        assertSortedAsArraysSort(almostSorted, 0, length - 1);
+        assertSortedAsArraysSort(reversed, 0, length - 1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {100, 1_000})
+    void testOnlyTheRange(int length) {
+        long[] values = new Random(length).longs(length).toArray();
+        assertSortedAsArraysSort(values, length / 4, length / 2);
+    }
+}
@@ -0,0 +1,84 @@
+package net.rubenmartinez.cbcc.util;
+
+import net.rubenmartinez.cbcc.domain.HeavyHitter;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SpaceSavingTest {
+
+    @Test
+    void testExactWhileUnderCapacity() {
+        var sketch = new SpaceSaving(10);
+        for (int i=0; i<5; i++) {
+            for (int j=0; j<=i; j++) {
+                sketch.add("host" + i);
+            }
+        }
+
+        assertThat(sketch.top(3), contains(new HeavyHitter("host4", 5, 0), new HeavyHitter("host3", 4, 0), new HeavyHitter("host2", 3, 0)));
+        assertEquals(0, sketch.getMaximumError());
+        assertEquals(15, sketch.getTotal());
+    }
+
+    @Test
+    void testHeavyHittersFoundWithinErrorBound() {
+        var random = new Random(1);
+        var realCounts = new HashMap<String, Integer>();
+        var sketch = new SpaceSaving(100);
+
+        for (int i=0; i<200_000; i++) {
+            // A few hosts with most of the connections, and many hosts with a few
+            String host = random.nextInt(4) == 0 ? "heavy" + random.nextInt(5) : "host" + random.nextInt(50_000);
+            realCounts.merge(host, 1, Integer::sum);
+            sketch.add(host);
+        }
+
+        assertHeavyHittersWithinErrorBound(sketch, realCounts);
+    }
+
+    @Test
+    void testMergedSketchesWithinErrorBound() {
+        var random = new Random(2);
+        var realCounts = new HashMap<String, Integer>();
+        var first = new SpaceSaving(100);
+        var second = new SpaceSaving(100);
+
+        for (int i=0; i<200_000; i++) {
+            String host = random.nextInt(4) == 0 ? "heavy" + random.nextInt(5) : "host" + random.nextInt(50_000);
+            realCounts.merge(host, 1, Integer::sum);
+            (i % 2 == 0 ? first : second).add(host);
+        }
+
+        assertHeavyHittersWithinErrorBound(first.merge(second), realCounts);
+    }
+
+    @Test
+    void testInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new SpaceSaving(0));
+    }
+
+    private static void assertHeavyHittersWithinErrorBound(SpaceSaving sketch, Map<String, Integer> realCounts) {
+        assertEquals(200_000, sketch.getTotal());
+        assertThat(sketch.getMaximumError(), lessThanOrEqualTo(sketch.getTotal() / sketch.getCapacity()));
+
+        var top = sketch.top(5);
+        for (int i=0; i<5; i++) {
+            var heavyHitter = top.get(i);
+            assertThat(heavyHitter.getHost(), startsWith("heavy"));
+            long realCount = realCounts.get(heavyHitter.getHost());
+            assertThat(heavyHitter.getConnections(), greaterThanOrEqualTo(realCount));
+            assertThat(heavyHitter.getConnections() - heavyHitter.getMaxError(), lessThanOrEqualTo(realCount));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.rubenmartinez.cbcc.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+class SpillingHostSetTest {
+
+    @Test
+    void testHostsInMemoryAreSortedAndDistinct() {
+        try (var set = new SpillingHostSet(SpillingHostSet.MINIMUM_MEMORY_BUDGET)) {
+            set.add("quark");
+            set.add("garak");
+            set.add("quark");
+            set.add("brunt");
+
+            var hosts = new ArrayList<String>();
+            set.forEachSorted(hosts::add);
+
+            assertThat(set.getRuns(), equalTo(0));
+            assertThat(hosts, contains("brunt", "garak", "quark"));
+        }
+    }
+
+    @Test
+    void testSpilledRunsAreMergedWithoutDuplicates() {
+        var random = new Random();
+        var expected = new TreeSet<String>();
+
+        try (var set = new SpillingHostSet(SpillingHostSet.MINIMUM_MEMORY_BUDGET)) {
+            for (int i=0; i<300_000; i++) {
+                String host = "host" + random.nextInt(50_000);
+                expected.add(host);
+                set.add(host);
+            }
+
+            List<String> hosts = new ArrayList<>();
+            set.forEachSorted(hosts::add);
+
+            assertThat(set.getRuns(), greaterThan(1));
+            assertThat(hosts, equalTo(new ArrayList<>(expected)));
+        }
+    }
+
+    @Test
+    void testNonAsciiHostsAreDistinctAfterRehashing() {
+        var expected = new TreeSet<String>();
+
+        try (var set = new SpillingHostSet(SpillingHostSet.MINIMUM_MEMORY_BUDGET)) {
+            // More hosts than the initial table holds, so they are rehashed
+            for (int i=0; i<2000; i++) {
+                String host = "h\u00f3st" + i;
+                expected.add(host);
+                set.add(host);
+                set.add(host);
+            }
+            for (String host: expected) {
+                set.add(host);
+            }
+
+            List<String> hosts = new ArrayList<>();
+            set.forEachSorted(hosts::add);
+
+            assertThat(hosts, equalTo(new ArrayList<>(expected)));
+        }
+    }
+}
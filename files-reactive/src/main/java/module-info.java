@@ -3,9 +3,12 @@ module net.rubenmartinez.cbcc.reactive {
     exports net.rubenmartinez.cbcc.reactive.file.exception;
 
     requires reactor.core;
+    requires reactive.streams;
     requires slf4j.api;
     requires org.apache.commons.io;
 
     // Required for JUnit-testing
+    opens net.rubenmartinez.cbcc.reactive.file;
     opens net.rubenmartinez.cbcc.reactive.file.lines;
+    opens net.rubenmartinez.cbcc.reactive.file.tailer;
 }
\ No newline at end of file
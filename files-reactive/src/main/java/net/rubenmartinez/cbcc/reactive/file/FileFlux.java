@@ -3,18 +3,22 @@ package net.rubenmartinez.cbcc.reactive.file;
 import net.rubenmartinez.cbcc.reactive.file.exception.FileFluxException;
 import net.rubenmartinez.cbcc.reactive.file.lines.FileLinesHelper;
 import net.rubenmartinez.cbcc.reactive.file.lines.PositionLimitedBufferedLineReader;
+import net.rubenmartinez.cbcc.reactive.file.tailer.BoundedTailerSink;
 import net.rubenmartinez.cbcc.reactive.file.tailer.FluxEmittingTailerListener;
+import net.rubenmartinez.cbcc.reactive.file.tailer.PositionTrackingTailer;
 import org.apache.commons.io.input.Tailer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
@@ -45,6 +49,10 @@ public final class FileFlux {
 
     private static final Charset CHARSET = StandardCharsets.US_ASCII; // TODO Configurable
     private static final long POLLING_DELAY_MILLIS = 1000; // TODO Configurable
+    private static final int BUFFER_FIND_LINE_END_SIZE = 8192;
+    private static final int FOLLOW_PREFETCH = 256; // Lines handed over at a time from the buffer of a followed file to its consumer
+
+    private static final FileFluxMetrics METRICS = new FileFluxMetrics();
 
     /**
      * Just an utility class with private constructor like {@link java.nio.file.Files}, moreover this is an internal package (non-exposed in module)
@@ -52,6 +60,13 @@ public final class FileFlux {
     private FileFlux() {
     }
 
+    /**
+     * @return the counters of the lines read by every method of this class
+     */
+    public static FileFluxMetrics getMetrics() {
+        return METRICS;
+    }
+
     /**
      *
      * @param path
@@ -82,7 +97,7 @@ public final class FileFlux {
      *
      * @param path
      * @param fromPosition
-     * @param toPosition
+     * @param toPosition {@link Long#MAX_VALUE} to read until the end of the file, even the lines appended after the flux is created
      * @return
      */
     public static Flux<String> lines(Path path, long fromPosition, long toPosition) {
@@ -97,7 +112,7 @@ public final class FileFlux {
                 fileChannel.position(fromPosition);
             }
 
-            if (toPosition >= fileChannel.size()) {
+            if (toPosition == Long.MAX_VALUE) { // Otherwise lines appended while reading (eg. to a followed file) would be read too
                 bufferedReader = new BufferedReader(Channels.newReader(fileChannel, CHARSET));
                 LOGGER.debug("bufferedReader [{}] from: [{}] at Thread: {}", bufferedReader, fromPosition, toPosition, Thread.currentThread());
             }
@@ -111,24 +126,26 @@ public final class FileFlux {
         }
 
 
-        return Flux.create(fluxSink -> emitFileLinesToFluxSink(bufferedReader, fluxSink)); // Note that Flux won't call method emitFileLinesToFluxSink *until* some consumer subscribes to it
+        // Lines are only read on demand, so slow consumers (or consumers buffering a bounded number of lines) don't make the whole
+        // file to be read into memory. Note that Flux won't read any line *until* some consumer subscribes and requests it
+        return Flux.generate(() -> bufferedReader, FileFlux::emitNextFileLine, FileFlux::uncheckedExceptionClose);
     }
 
-    private static void emitFileLinesToFluxSink(BufferedReader bufferedReader, FluxSink<String> fluxSink) {
-        fluxSink.onDispose(() -> uncheckedExceptionClose(bufferedReader));
-
+    private static BufferedReader emitNextFileLine(BufferedReader bufferedReader, SynchronousSink<String> sink) {
         try {
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                fluxSink.next(line);
+            String line = bufferedReader.readLine();
+            if (line != null) {
+                METRICS.lineRead(line.length() + 1);
+                sink.next(line);
+            }
+            else {
+                sink.complete();
             }
         } catch (IOException e) {
-            fluxSink.error(e);
-        } finally {
-            uncheckedExceptionClose(bufferedReader);
+            sink.error(e);
         }
 
-        fluxSink.complete();
+        return bufferedReader;
     }
 
     /**
@@ -152,8 +169,19 @@ public final class FileFlux {
      * @return array of {@link Flux}, each Flux represent a 'stream' of lines for each split of the file
      */
     public static Flux<String>[] splitFileLines(Path path, int splits, long fromPosition) {
-        var positionRanges = FileLinesHelper.getSplitPositionsAtLineBoundaries(path, splits, fromPosition);
-        var splitFileLinesFluxArray = new Flux[splits];
+        return splitFileLines(path, splits, fromPosition, Long.MAX_VALUE);
+    }
+
+    /**
+     * Lines splitting only the part of the file between {@code fromPosition} and {@code toPosition} for parallel processing
+     *
+     * @param fromPosition position of the first line to read, at a line boundary
+     * @param toPosition position (exclusive, at a line boundary) where the last split must stop reading, {@link Long#MAX_VALUE} to read until the end of the file
+     * @return array of {@link Flux}, each Flux represent a 'stream' of lines for each split of the file
+     */
+    public static Flux<String>[] splitFileLines(Path path, int splits, long fromPosition, long toPosition) {
+        var positionRanges = FileLinesHelper.getSplitPositionsAtLineBoundaries(path, splits, fromPosition, toPosition);
+        var splitFileLinesFluxArray = new Flux[positionRanges.length]; // There could be less ranges than requested splits
 
         for (int i=0; i<positionRanges.length; i++) {
             splitFileLinesFluxArray[i] = lines(path, positionRanges[i].getFromPosition(), positionRanges[i].getToPosition());
@@ -162,24 +190,127 @@ public final class FileFlux {
         return splitFileLinesFluxArray;
     }
 
+    /**
+     * Positions (at line boundaries) where {@link #splitFileLines(Path, int, long, long)} would split the part of the file between
+     * {@code fromPosition} and {@code toPosition}, for consumers that read the splits by themselves
+     *
+     * @return {@code n+1} positions for {@code n} splits: split {@code i} goes from position {@code i} (inclusive) to position {@code i+1} (exclusive)
+     */
+    public static long[] splitPositions(Path path, int splits, long fromPosition, long toPosition) {
+        var positionRanges = FileLinesHelper.getSplitPositionsAtLineBoundaries(path, splits, fromPosition, toPosition);
+        var positions = new long[positionRanges.length + 1];
+
+        for (int i=0; i<positionRanges.length; i++) {
+            positions[i] = positionRanges[i].getFromPosition();
+        }
+        positions[positionRanges.length] = positionRanges[positionRanges.length - 1].getToPosition();
+
+        return positions;
+    }
+
+    /**
+     * Same as {@link #follow(Path, boolean, FollowBuffer)} with the {@link FollowBuffer#DEFAULT} buffer
+     */
+    public static Flux<String> follow(Path path, boolean fromEnd) {
+        return follow(path, fromEnd, FollowBuffer.DEFAULT);
+    }
+
     /**
      * Using Apache Commons {@link Tailer} to do the work of polling the file at intervals to check if it has been updated
      * Tailer allows just to write a Listener ({@link org.apache.commons.io.input.TailerListener} implemented by {@link FluxEmittingTailerListener}
      *
-     * That listener basically emits a new element (log line) in the Flux when it receives new lines from Tailer.
+     * That listener basically emits a new element (log line) in the Flux when it receives new lines from Tailer. Lines wait in a buffer
+     * of a fixed size until they are requested, and they are consumed in a thread of their own, so the Tailer thread (also its own) only reads the file.
+     *
+     * @see BoundedTailerSink
      */
-    public static Flux<String> follow(Path path, boolean fromEnd) {
+    public static Flux<String> follow(Path path, boolean fromEnd, FollowBuffer followBuffer) {
         File file = path.toFile();
 
         createFileIfDoesntExist(file);
 
-        return Flux.push(emitter -> {
-            var tailerListener = new FluxEmittingTailerListener(emitter);
+        return withOwnThreads(path, Flux.create(emitter -> {
+            long startPosition = fromEnd ? file.length() : 0;
+            METRICS.startFollowing(file, startPosition);
+            var tailerListener = new FluxEmittingTailerListener(new BoundedTailerSink<>(emitter, followBuffer, METRICS), METRICS, startPosition);
             Tailer tailer = new Tailer(file, tailerListener, POLLING_DELAY_MILLIS, fromEnd); // TODO Configurable
             tailer.run();
+        }));
+    }
+
+    /**
+     * Follows the file from the given position, which must be at the start of a line (eg. the end position of a line emitted before).
+     *
+     * Every line is emitted with the position where it ends, so a consumer can stop and later follow the file again from the
+     * last line it processed, without skipping or repeating any line. If the file is shorter than {@code fromPosition} (eg. it has been
+     * rotated since) it is read from the start, as it is when it is rotated while it is followed (truncated, or renamed away and created
+     * again).
+     *
+     * @see PositionTrackingTailer
+     */
+    public static Flux<FileLine> followFromPosition(Path path, long fromPosition) {
+        return followFromPosition(path, fromPosition, FollowBuffer.DEFAULT);
+    }
+
+    /**
+     * Like {@link #followFromPosition(Path, long)}, with the lines waiting in a buffer of a fixed size as in {@link #follow(Path, boolean, FollowBuffer)}.
+     * Note that the positions of the lines emitted are still exact with a policy that drops lines, but the lines dropped are lost.
+     */
+    public static Flux<FileLine> followFromPosition(Path path, long fromPosition, FollowBuffer followBuffer) {
+        createFileIfDoesntExist(path.toFile());
+
+        return withOwnThreads(path, Flux.create(emitter ->
+                new PositionTrackingTailer(path, fromPosition, CHARSET, POLLING_DELAY_MILLIS, new BoundedTailerSink<>(emitter, followBuffer, METRICS), METRICS).run()));
+    }
+
+    /**
+     * Lines are only requested from the buffer a few at a time, by a thread that processes them while the tailer keeps reading.
+     *
+     * The tailer runs in a thread of its own as well, as it never returns while the file is followed: otherwise it would block the thread
+     * subscribing, which could be a worker of a scheduler that has to be disposed (eg. when following after reading the lines already written).
+     */
+    private static <T> Flux<T> withOwnThreads(Path path, Flux<T> followedLines) {
+        return Flux.defer(() -> {
+            var tailerScheduler = Schedulers.newSingle("tail-" + path.getFileName(), true);
+            var consumerScheduler = Schedulers.newSingle("follow-" + path.getFileName(), true);
+            return followedLines
+                    .subscribeOn(tailerScheduler)
+                    .publishOn(consumerScheduler, FOLLOW_PREFETCH)
+                    .doFinally(signal -> {
+                        consumerScheduler.dispose();
+                        tailerScheduler.dispose();
+                    });
         });
     }
 
+    /**
+     * @return the position right after the last {@code \n} of the file, so the lines before it are complete even if a line is being written
+     *         (eg. where {@link #followFromPosition(Path, long)} can take over from a reading of the lines written up to now), 0 if there is none
+     */
+    public static long findEndOfLastCompleteLine(Path path) {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(BUFFER_FIND_LINE_END_SIZE);
+            long end = fileChannel.size();
+            while (end > 0) {
+                long start = Math.max(0, end - BUFFER_FIND_LINE_END_SIZE);
+                buffer.clear().limit((int) (end - start));
+                int read;
+                do {
+                    read = fileChannel.read(buffer, start + buffer.position());
+                } while (read > 0 && buffer.hasRemaining());
+                for (int i=buffer.position()-1; i>=0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return 0;
+        } catch (IOException e) {
+            throw new FileFluxException("Error finding the end of the last line of file: " + path, e);
+        }
+    }
+
     private static void createFileIfDoesntExist(File file) {
         try {
             if (!file.exists()) {
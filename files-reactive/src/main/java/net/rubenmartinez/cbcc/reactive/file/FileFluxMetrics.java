@@ -0,0 +1,100 @@
+package net.rubenmartinez.cbcc.reactive.file;
+
+import net.rubenmartinez.cbcc.reactive.file.tailer.BoundedTailerSink;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the lines read by {@link FileFlux}, and the position reached in the file being followed, so its lag behind the end of the
+ * file can be known, as well as the lines waiting in its buffer. They are cheap enough to be updated for every line.
+ *
+ * The update methods are called by the readers of this module, and by the ones reading the same files without it, so the lines read
+ * are all counted here. Bytes are only exact for
+ * {@link FileFlux#followFromPosition}, the rest of readers don't know the length of the line terminations and count one byte.
+ */
+public final class FileFluxMetrics {
+
+    private final LongAdder linesRead = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder linesDropped = new LongAdder();
+
+    // Only one file is followed at a time by this application, these are the ones of the last one
+    private volatile File followedFile;
+    private volatile long followedPosition; // Only updated by the thread following the file
+    private volatile BoundedTailerSink<?> followBuffer;
+
+    FileFluxMetrics() {
+    }
+
+    public void lineRead(int bytes) {
+        linesRead.increment();
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * For readers counting lines in batches
+     */
+    public void linesRead(long lines, long bytes) {
+        linesRead.add(lines);
+        bytesRead.add(bytes);
+    }
+
+    public void startFollowing(File file, long position) {
+        followedFile = file;
+        followedPosition = position;
+    }
+
+    public void lineFollowed(int bytes, long endPosition) {
+        lineRead(bytes);
+        followedPosition = endPosition;
+    }
+
+    public void startBuffering(BoundedTailerSink<?> buffer) {
+        followBuffer = buffer;
+    }
+
+    public void lineDropped() {
+        linesDropped.increment();
+    }
+
+    public long getLinesRead() {
+        return linesRead.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return the lines of the followed file dropped because its buffer was full (or sampled)
+     */
+    public long getLinesDropped() {
+        return linesDropped.sum();
+    }
+
+    /**
+     * @return the lines of the followed file read but not processed yet
+     */
+    public long getBufferedLines() {
+        var buffer = followBuffer;
+        return buffer != null ? buffer.size() : 0;
+    }
+
+    /**
+     * @return how long the oldest line in the buffer of the followed file has been waiting to be processed
+     */
+    public long getBufferLagMillis() {
+        var buffer = followBuffer;
+        return buffer != null ? TimeUnit.NANOSECONDS.toMillis(buffer.getOldestLineAgeNanos()) : 0;
+    }
+
+    /**
+     * @return the bytes written to the followed file that have not been read yet, 0 if no file is being followed
+     */
+    public long getTailLagBytes() {
+        var file = followedFile;
+        return file != null ? Math.max(0, file.length() - followedPosition) : 0;
+    }
+}
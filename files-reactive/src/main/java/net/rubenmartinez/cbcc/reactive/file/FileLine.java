@@ -0,0 +1,32 @@
+package net.rubenmartinez.cbcc.reactive.file;
+
+/**
+ * A line of a file, with the position in the file just after it (after its line termination), which is where the next line starts.
+ *
+ * Lines are read until that position, so following a file again from it continues with the next line, without skipping or
+ * repeating any.
+ */
+public class FileLine {
+    // No lombok in this module, see FilePositionRange
+
+    private final String line;
+    private final long endPosition;
+
+    public FileLine(String line, long endPosition) {
+        this.line = line;
+        this.endPosition = endPosition;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+}
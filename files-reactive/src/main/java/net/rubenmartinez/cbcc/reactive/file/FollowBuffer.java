@@ -0,0 +1,56 @@
+package net.rubenmartinez.cbcc.reactive.file;
+
+/**
+ * Size of the buffer of lines read from a followed file and not processed yet, and what to do when a burst of lines fills it.
+ *
+ * @see FileFlux#follow(java.nio.file.Path, boolean, FollowBuffer)
+ */
+public final class FollowBuffer {
+
+    public static final FollowBuffer DEFAULT = new FollowBuffer(65536, OverflowPolicy.BLOCK);
+
+    public enum OverflowPolicy {
+        /**
+         * The file is not read until there is room for more lines, so no line is lost but the lag behind the file grows
+         */
+        BLOCK,
+        /**
+         * Lines read while the buffer is full are dropped
+         */
+        DROP,
+        /**
+         * Once the buffer is half full only one of every {@value FollowBuffer#SAMPLING_RATE} lines is kept, the rest are dropped
+         * (and all of them when it is full), so the lines processed are still spread over the whole burst
+         */
+        SAMPLE
+    }
+
+    public static final int SAMPLING_RATE = 10;
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * @param capacity maximum number of lines in the buffer
+     */
+    public FollowBuffer(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the buffer must be greater than 0: " + capacity);
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    @Override
+    public String toString() {
+        return "FollowBuffer(capacity=" + capacity + ", overflowPolicy=" + overflowPolicy + ")";
+    }
+}
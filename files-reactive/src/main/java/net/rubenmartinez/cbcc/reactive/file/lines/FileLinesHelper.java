@@ -38,6 +38,9 @@ public class FileLinesHelper {
      * As the positions returned must strictly match line boundaries, that means that the length of the returned array must necessarily match the {@code splits} argument.
      * eg. when splits=4, but the file only has a line then the returned array will contain only one element, with a position range from zero to the total length of the file
      *
+     * Only the part of the file between {@code startPosition} and {@code endPosition} is split, both positions are expected to be at line boundaries.
+     * If that part is empty, a single empty range is returned.
+     *
      * @param path
      * @param splits
      * @return
@@ -52,16 +55,18 @@ public class FileLinesHelper {
 
             var filePositionRangeList = new ArrayList<FilePositionRange>(splits); // Initial size estimation, but final size could be shrunk (see internal javadoc above)
 
-            if (endPosition == Long.MAX_VALUE) {
-                endPosition = randomAccessFile.length();
+            endPosition = Math.min(endPosition, randomAccessFile.length());
+
+            LOGGER.trace("getSplitPositionsAtLineBoundaries: startPosition={}, endPosition={}", startPosition, endPosition);
+            if (startPosition >= endPosition) {
+                return new FilePositionRange[] { new FilePositionRange(startPosition, startPosition) };
             }
 
-            LOGGER.trace("getSplitPositionsAtLineBoundaries: endPosition={}", endPosition);
-            long initialSplitPosition = endPosition / splits;
+            long initialSplitPosition = (endPosition - startPosition) / splits;
             LOGGER.trace("getSplitPositionsAtLineBoundaries: initialSplitPosition={}", initialSplitPosition);
 
             long fromPosition = startPosition;
-            long toPosition = initialSplitPosition;
+            long toPosition = startPosition + initialSplitPosition;
             for (int i=0; i<splits; i++) {
                 long adjustedToPosition = positionToBeginningOfNextLine(randomAccessFile, toPosition);
 
@@ -0,0 +1,201 @@
+package net.rubenmartinez.cbcc.reactive.file.tailer;
+
+import net.rubenmartinez.cbcc.reactive.file.FileFluxMetrics;
+import net.rubenmartinez.cbcc.reactive.file.FollowBuffer;
+import reactor.core.Disposable;
+import reactor.core.publisher.FluxSink;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Internal module class. Ring buffer of a fixed number of lines between a tailer and the {@link FluxSink} of the lines, so a burst of
+ * lines faster than their processing doesn't fill the memory: lines are only emitted as they are requested, and the rest wait in the
+ * buffer. When it is full the tailer is blocked, or the lines are dropped or sampled, as configured in the {@link FollowBuffer}.
+ *
+ * Lines are added by the tailer thread and emitted by it or by the thread requesting more lines, whichever finds them first, but never by
+ * both at the same time. The completion or error of the tailer is emitted after the lines still in the buffer.
+ */
+public class BoundedTailerSink<T> {
+
+    private static final long CANCELLATION_CHECK_MILLIS = 100;
+
+    private final FluxSink<T> emitter;
+    private final FollowBuffer.OverflowPolicy overflowPolicy;
+    private final FileFluxMetrics metrics;
+
+    // Guarded by lock
+    private final Object[] lines;
+    private final long[] addedNanos;
+    private int head;
+    private int size;
+    private long linesOverHalf; // Lines added since the buffer was half full, to sample them
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private volatile boolean done;
+    private volatile Throwable error;
+    private boolean terminated; // Only accessed while draining
+
+    /**
+     * @param emitter sink of a {@link reactor.core.publisher.Flux#create}, as the sink of a {@link reactor.core.publisher.Flux#push} only
+     *                notifies the first request, so the lines waiting in the buffer would never be emitted
+     */
+    public BoundedTailerSink(FluxSink<T> emitter,FollowBuffer followBuffer, FileFluxMetrics metrics) {
+        this.emitter = emitter;
+        this.overflowPolicy = followBuffer.getOverflowPolicy();
+        this.metrics = metrics;
+        this.lines = new Object[followBuffer.getCapacity()];
+        this.addedNanos = new long[followBuffer.getCapacity()];
+
+        metrics.startBuffering(this);
+        emitter.onRequest(requested -> drain());
+    }
+
+    /**
+     * Adds the line to the buffer, and emits as many lines as requested. If the buffer is full, it waits for room with
+     * {@link FollowBuffer.OverflowPolicy#BLOCK}, otherwise the line is dropped.
+     */
+    public void next(T line) {
+        if (!add(line)) {
+            metrics.lineDropped();
+        }
+        drain();
+    }
+
+    public void complete() {
+        done = true;
+        drain();
+    }
+
+    public void error(Throwable e) {
+        error = e;
+        done = true;
+        drain();
+    }
+
+    public boolean isCancelled() {
+        return emitter.isCancelled();
+    }
+
+    /**
+     * @see FluxSink#onDispose(Disposable)
+     */
+    public void onDispose(Disposable disposable) {
+        emitter.onDispose(disposable);
+    }
+
+    /**
+     * @return lines waiting in the buffer
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return time the oldest line in the buffer has been waiting, 0 if it is empty
+     */
+    public long getOldestLineAgeNanos() {
+        lock.lock();
+        try {
+            return size > 0 ? System.nanoTime() - addedNanos[head] : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean add(T line) {
+        lock.lock();
+        try {
+            if (overflowPolicy == FollowBuffer.OverflowPolicy.BLOCK) {
+                while (size == lines.length) {
+                    if (emitter.isCancelled()) {
+                        return false;
+                    }
+                    notFull.await(CANCELLATION_CHECK_MILLIS, TimeUnit.MILLISECONDS); // No signal comes from a cancellation
+                }
+            }
+            else if (size == lines.length) {
+                return false;
+            }
+            else if (overflowPolicy == FollowBuffer.OverflowPolicy.SAMPLE && size >= lines.length / 2) {
+                if (linesOverHalf++ % FollowBuffer.SAMPLING_RATE != 0) {
+                    return false;
+                }
+            }
+            else {
+                linesOverHalf = 0;
+            }
+
+            int tail = (head + size) % lines.length;
+            lines[tail] = line;
+            addedNanos[tail] = System.nanoTime();
+            size++;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // The tailer is being stopped
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T poll() {
+        lock.lock();
+        try {
+            if (size == 0) {
+                return null;
+            }
+            T line = (T) lines[head];
+            lines[head] = null;
+            head = (head + 1) % lines.length;
+            size--;
+            notFull.signal();
+            return line;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Emits lines while there are requested ones. If another thread is already doing it, it will do it once more when it finishes instead.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            while (!emitter.isCancelled() && emitter.requestedFromDownstream() > 0) {
+                T line = poll();
+                if (line == null) {
+                    break;
+                }
+                emitter.next(line);
+            }
+
+            if (done && !terminated && size() == 0) {
+                terminated = true;
+                if (error != null) {
+                    emitter.error(error);
+                }
+                else {
+                    emitter.complete();
+                }
+            }
+
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
@@ -1,10 +1,10 @@
 package net.rubenmartinez.cbcc.reactive.file.tailer;
 
+import net.rubenmartinez.cbcc.reactive.file.FileFluxMetrics;
 import org.apache.commons.io.input.Tailer;
 import org.apache.commons.io.input.TailerListenerAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import reactor.core.publisher.FluxSink;
 
 /**
  * Internal module class. It is an apache commons {@link org.apache.commons.io.input.TailerListener},
@@ -16,17 +16,21 @@ public class FluxEmittingTailerListener extends TailerListenerAdapter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FluxEmittingTailerListener.class);
 
-    FluxSink<String> emitter;
+    BoundedTailerSink<String> emitter;
     Tailer tailer;
 
-    public FluxEmittingTailerListener(FluxSink<String> emitter) {
+    private final FileFluxMetrics metrics;
+    private long position; // Estimated, Tailer doesn't tell the length of the line terminations
+
+    public FluxEmittingTailerListener(BoundedTailerSink<String> emitter, FileFluxMetrics metrics, long startPosition) {
         this.emitter = emitter;
+        this.metrics = metrics;
+        this.position = startPosition;
         ensureClosingOnTermination();
     }
 
     private void ensureClosingOnTermination() {
-        this.emitter.onDispose(this::close);
-        this.emitter.onCancel(this::close);
+        this.emitter.onDispose(this::close); // Called on cancellation too
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
@@ -60,10 +64,13 @@ public class FluxEmittingTailerListener extends TailerListenerAdapter {
     @Override
     public void fileRotated() {
         LOGGER.warn("File rotated while tailing: {}", tailer.getFile());
+        position = 0;
     }
 
     @Override
     public void handle(String line) {
+        position += line.length() + 1;
+        metrics.lineFollowed(line.length() + 1, position);
         emitter.next(line);
     }
 
@@ -0,0 +1,137 @@
+package net.rubenmartinez.cbcc.reactive.file.tailer;
+
+import net.rubenmartinez.cbcc.reactive.file.FileFluxMetrics;
+import net.rubenmartinez.cbcc.reactive.file.FileLine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Internal module class. Polls a file for new lines like Apache Commons {@link org.apache.commons.io.input.Tailer}, but starting at any
+ * position and emitting every line with the position where it ends, so a consumer can remember where it stopped and follow the file
+ * again from there.
+ *
+ * Only complete lines (ended by {@code \n}, optionally preceded by {@code \r}) are emitted: a line still being written is kept until its
+ * end arrives. As with {@code Tailer}, a file shorter than the position already read, or a new file created in place of the
+one being read, is considered rotated, and read again from the start.
+ */
+public class PositionTrackingTailer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PositionTrackingTailer.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Path path;
+    private final Charset charset;
+    private final long pollingDelayMillis;
+    private final BoundedTailerSink<FileLine> emitter;
+    private final FileFluxMetrics metrics;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private byte[] pendingLine = new byte[256]; // Bytes of the line not complete yet
+    private int pendingLineLength;
+    private long position; // End of the last line emitted
+    private long readPosition; // End of the bytes read, including the pending line
+
+    public PositionTrackingTailer(Path path, long fromPosition, Charset charset, long pollingDelayMillis, BoundedTailerSink<FileLine> emitter, FileFluxMetrics metrics) {
+        this.path = path;
+        this.charset = charset;
+        this.pollingDelayMillis = pollingDelayMillis;
+        this.emitter = emitter;
+        this.metrics = metrics;
+        this.position = fromPosition;
+        this.readPosition = fromPosition;
+    }
+
+    /**
+     * Emits the lines of the file until the emitter is cancelled
+     */
+    public void run() {
+        metrics.startFollowing(path.toFile(), position);
+        try {
+            FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+                while (!emitter.isCancelled()) {
+                    buffer.clear();
+                    int read = fileChannel.read(buffer, readPosition);
+                    if (read > 0) {
+                        readPosition += read;
+                        emitLines(buffer.array(), read);
+                    }
+                    else if (isRotated(fileKey)) {
+                        LOGGER.warn("File rotated while tailing, reading it again from the start: {}", path);
+                        fileChannel.close();
+                        fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+                        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+                        position = 0;
+                        readPosition = 0;
+                        pendingLineLength = 0;
+                        metrics.startFollowing(path.toFile(), 0);
+                    }
+                    else {
+                        Thread.sleep(pollingDelayMillis);
+                    }
+                }
+            } finally {
+                fileChannel.close();
+            }
+        } catch (IOException e) {
+            emitter.error(new TailerListenerException("Exception while tailing file: " + path, e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Checked once everything in the open file has been read: the path is read again, as the open file is still the old one after it has
+     * been renamed away and a new one created in its place
+     *
+     * @param fileKey of the open file, null if the file system doesn't have them (then only a shorter file is detected)
+     */
+    private boolean isRotated(Object fileKey) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false; // Renamed away but not created again yet
+        }
+        return attributes.size() < position || (fileKey != null && !fileKey.equals(attributes.fileKey()));
+    }
+
+    private void emitLines(byte[] bytes, int length) {
+        int lineStart = 0;
+        for (int i=0; i<length; i++) {
+            if (bytes[i] == '\n') {
+                appendToPendingLine(bytes, lineStart, i - lineStart);
+                position += pendingLineLength + 1;
+                metrics.lineFollowed(pendingLineLength + 1, position);
+
+                int lineLength = pendingLineLength > 0 && pendingLine[pendingLineLength - 1] == '\r' ? pendingLineLength - 1 : pendingLineLength;
+                pendingLineLength = 0;
+                emitter.next(new FileLine(new String(pendingLine, 0, lineLength, charset), position));
+                lineStart = i + 1;
+            }
+        }
+        appendToPendingLine(bytes, lineStart, length - lineStart);
+    }
+
+    private void appendToPendingLine(byte[] bytes, int from, int length) {
+        if (pendingLineLength + length > pendingLine.length) {
+            pendingLine = Arrays.copyOf(pendingLine, Math.max(2 * pendingLine.length, pendingLineLength + length));
+        }
+        System.arraycopy(bytes, from, pendingLine, pendingLineLength, length);
+        pendingLineLength += length;
+    }
+}
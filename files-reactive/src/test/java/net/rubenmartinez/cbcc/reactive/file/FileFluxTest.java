@@ -0,0 +1,111 @@
+package net.rubenmartinez.cbcc.reactive.file;
+
+import net.rubenmartinez.test.util.TestLoggingExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+@ExtendWith(TestLoggingExtension.class)
+public class FileFluxTest {
+
+    private Path tempFile;
+
+    @BeforeEach
+    void createTempFile() throws IOException {
+        tempFile = Files.createTempFile("FileFluxTest", "txt");
+    }
+
+    @AfterEach
+    void deleteTempFile() throws IOException {
+        Files.deleteIfExists(tempFile);
+    }
+
+    private static String lines(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "line" + i + "\n").collect(Collectors.joining());
+    }
+
+    private void append(String text) {
+        try {
+            Files.writeString(tempFile, text, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    void testFollowAfterLinesWrittenWithoutGapNorDuplicate() throws IOException {
+        Files.writeString(tempFile, lines(0, 1000) + "line10", StandardOpenOption.WRITE); // The last line is still being written
+        long handOverPosition = FileFlux.findEndOfLastCompleteLine(tempFile);
+        assertEquals(lines(0, 1000).length(), handOverPosition);
+
+        var allLines = FileFlux.lines(tempFile, 0, handOverPosition)
+                .concatWith(FileFlux.followFromPosition(tempFile, handOverPosition)
+                        .map(FileLine::getLine)
+                        .doOnSubscribe(subscription -> append("00\n" + lines(1001, 1100))))
+                .take(1100);
+
+        StepVerifier.create(allLines)
+                .expectNextSequence(IntStream.range(0, 1100).mapToObj(i -> "line" + i).collect(Collectors.toList()))
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void testFollowDoesntBlockTheSubscriber() throws IOException {
+        Files.writeString(tempFile, lines(0, 10), StandardOpenOption.WRITE);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            var followed = Flux.just("before").concatWith(FileFlux.followFromPosition(tempFile, 0).map(FileLine::getLine)).subscribe();
+            followed.dispose();
+        });
+    }
+
+    @Test
+    void testFollowFromPositionAfterFileRenamedAndCreatedAgain() throws IOException {
+        Files.writeString(tempFile, lines(0, 10), StandardOpenOption.WRITE);
+        Path rotatedFile = tempFile.resolveSibling(tempFile.getFileName() + ".1");
+
+        var followed = FileFlux.followFromPosition(tempFile, 0)
+                .map(FileLine::getLine)
+                .doOnNext(line -> {
+                    if (line.equals("line9")) {
+                        rotate(rotatedFile, lines(100, 110));
+                    }
+                })
+                .take(20);
+
+        try {
+            StepVerifier.create(followed)
+                    .expectNextSequence(IntStream.range(0, 10).mapToObj(i -> "line" + i).collect(Collectors.toList()))
+                    .expectNextSequence(IntStream.range(100, 110).mapToObj(i -> "line" + i).collect(Collectors.toList()))
+                    .expectComplete()
+                    .verify(Duration.ofSeconds(10));
+        } finally {
+            Files.deleteIfExists(rotatedFile);
+        }
+    }
+
+    private void rotate(Path rotatedFile, String newContent) {
+        try {
+            Files.move(tempFile, rotatedFile);
+            Files.writeString(tempFile, newContent, StandardOpenOption.CREATE_NEW);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -204,6 +204,51 @@ public class FileLinesHelperTest {
         LOGGER.info("File length: [{}], requested Splits: [{}], final splits: [{}] (final splits must be less or equal than requested)", content.length(), splits, filePositionRanges.length);
     }
 
+    @ParameterizedTest
+    @MethodSource("provideLineTerminationsAndSplits")
+    void testManyLinesSplitBetweenPositions(String lineTermination, int splits) throws IOException {
+        String line = "0123456789";
+
+        StringBuilder fileContentBuilder = new StringBuilder();
+        for (int i=0; i<10000; i++) {
+            fileContentBuilder.append(line).append(lineTermination);
+        }
+
+        String content = fileContentBuilder.toString();
+
+        setTestFileContentTo(content);
+
+        long lineLength = line.length() + lineTermination.length();
+        long startPosition = 4000 * lineLength;
+        long endPosition = 6000 * lineLength;
+
+        FilePositionRange[] filePositionRanges = FileLinesHelper.getSplitPositionsAtLineBoundaries(tempFile.toPath(), splits, startPosition, endPosition);
+        assertThat(filePositionRanges.length,  greaterThanOrEqualTo(1));
+        assertThat(filePositionRanges.length,  lessThanOrEqualTo(splits));
+        assertThat(filePositionRanges[0].getFromPosition(), equalTo(startPosition));
+        assertThat(filePositionRanges[filePositionRanges.length-1].getToPosition(), equalTo(endPosition));
+
+        long maximumSplitLength = (endPosition - startPosition) / splits + lineLength;
+        for (int i=0; i<filePositionRanges.length-1; i++) {
+            assertThat(filePositionRanges[i].getToPosition(), equalTo(filePositionRanges[i+1].getFromPosition()));
+            assertThat(filePositionRanges[i].getToPosition() - filePositionRanges[i].getFromPosition(), lessThanOrEqualTo(maximumSplitLength));
+            assertThat(filePositionRanges[i].getToPosition() % lineLength, equalTo(0L));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("provideLineTerminations")
+    void testEmptyRangeBetweenPositions(String lineTermination) throws IOException {
+        String content = "First line" + lineTermination + "Second line" + lineTermination;
+
+        setTestFileContentTo(content);
+
+        FilePositionRange[] filePositionRanges = FileLinesHelper.getSplitPositionsAtLineBoundaries(tempFile.toPath(), 4, content.length(), Long.MAX_VALUE);
+        assertThat(filePositionRanges.length,  equalTo(1));
+        assertThat(filePositionRanges[0].getFromPosition(), equalTo((long) content.length()));
+        assertThat(filePositionRanges[0].getToPosition(), equalTo((long) content.length()));
+    }
+
     private static void assertThatPositionRangesCoverEntireFile(FilePositionRange[] positionRanges, long fileLength) {
         assertThat(positionRanges[0].getFromPosition(), equalTo(0L));
 
@@ -0,0 +1,111 @@
+package net.rubenmartinez.cbcc.reactive.file.tailer;
+
+import net.rubenmartinez.cbcc.reactive.file.FileFlux;
+import net.rubenmartinez.cbcc.reactive.file.FollowBuffer;
+import net.rubenmartinez.test.util.TestLoggingExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(TestLoggingExtension.class)
+public class BoundedTailerSinkTest {
+
+    private static Flux<Integer> linesFrom1To(int lines, FollowBuffer followBuffer) {
+        return Flux.create(emitter -> {
+            var sink = new BoundedTailerSink<Integer>(emitter, followBuffer, FileFlux.getMetrics());
+            for (int i=1; i<=lines; i++) {
+                sink.next(i);
+            }
+            sink.complete();
+        });
+    }
+
+    /**
+     * Pushed lines are requested only once all of them have been pushed, so they have to wait in the buffer (StepVerifier would request them
+     * as soon as it is subscribed, before the first line is pushed)
+     */
+    private static List<Integer> requestAfterPushed(Flux<Integer> lines, int request) {
+        var received = new ArrayList<Integer>();
+        var completed = new boolean[1];
+        var subscriber = new BaseSubscriber<Integer>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                // Nothing requested yet
+            }
+
+            @Override
+            protected void hookOnNext(Integer line) {
+                received.add(line);
+            }
+
+            @Override
+            protected void hookOnComplete() {
+                completed[0] = true;
+            }
+        };
+
+        lines.subscribe(subscriber);
+        subscriber.request(request);
+
+        assertTrue(completed[0]);
+        return received;
+    }
+
+    @Test
+    void testDropWhenFull() {
+        long droppedBefore = FileFlux.getMetrics().getLinesDropped();
+
+        assertEquals(List.of(1, 2, 3), requestAfterPushed(linesFrom1To(10, new FollowBuffer(3, FollowBuffer.OverflowPolicy.DROP)), 10));
+
+        assertEquals(7, FileFlux.getMetrics().getLinesDropped() - droppedBefore);
+    }
+
+    @Test
+    void testSampleOverHalf() {
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 16, 26),
+                requestAfterPushed(linesFrom1To(30, new FollowBuffer(10, FollowBuffer.OverflowPolicy.SAMPLE)), 30));
+    }
+
+    @Test
+    void testBlockUntilRequested() {
+        long droppedBefore = FileFlux.getMetrics().getLinesDropped();
+        var lines = linesFrom1To(1000, new FollowBuffer(2, FollowBuffer.OverflowPolicy.BLOCK)).subscribeOn(Schedulers.single());
+
+        StepVerifier.create(lines, 0)
+                .thenRequest(1)
+                .expectNext(1)
+                .thenRequest(999)
+                .expectNextCount(999)
+                .verifyComplete();
+
+        assertEquals(0, FileFlux.getMetrics().getLinesDropped() - droppedBefore);
+    }
+
+    @Test
+    void testErrorAfterBufferedLines() {
+        var lines = Flux.<Integer>create(emitter -> {
+            var sink = new BoundedTailerSink<Integer>(emitter, new FollowBuffer(10, FollowBuffer.OverflowPolicy.BLOCK), FileFlux.getMetrics());
+            sink.next(1);
+            sink.next(2);
+            sink.error(new IOException("Test"));
+        });
+
+        StepVerifier.create(lines, 0)
+                .thenRequest(1)
+                .expectNext(1)
+                .thenRequest(1)
+                .expectNext(2)
+                .verifyError(IOException.class);
+    }
+}